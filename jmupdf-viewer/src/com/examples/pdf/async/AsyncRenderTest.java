@@ -0,0 +1,80 @@
+package com.examples.pdf.async;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.page.PageRenderListener;
+import com.jmupdf.page.PageRenderQueue;
+import com.jmupdf.page.PageRenderTask;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Simulate fast scrolling through a document. Every scroll step 
+ * requests the visible page into the same view slot so only the 
+ * page the user stops at is rendered completely.
+ * 
+ */
+public class AsyncRenderTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		PageRenderQueue queue = new PageRenderQueue(2);
+		
+		try {
+			
+			/* Open document and keep pages loaded while scrolling */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+			doc.getPageCache().setMaxBytes(32 << 20);
+
+			PageRenderListener listener = new PageRenderListener() {
+				public void renderDone(PageRenderTask task) {
+					log("page " + task.getPage().getPageNumber() + (task.isCancelled() ? " cancelled" : " rendered"));
+					task.getPage().dispose();
+				}
+			};
+
+			/* Scroll through all pages, one request per step into the same slot */
+			PageRenderTask task = null;
+			for (int i = 1; i <= doc.getPageCount(); i++) {
+				Page page = doc.getPage(i);
+				PageRendererOptions options = page.newRenderingOptions();
+				options.setZoom(2f);
+				task = queue.submit(page, options, 0, "slot", listener);
+				Thread.sleep(20);
+			}
+
+			/* Wait for the page we stopped at */
+			BufferedImage image = task.get();
+			log("last page " + image.getWidth() + "x" + image.getHeight() + ", superseded=" + queue.getSuperseded());
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		} finally {
+			queue.shutdown();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
@@ -0,0 +1,87 @@
+package com.examples.pdf.banded;
+
+import java.nio.ByteBuffer;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.TifCompression;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.page.BandRenderer;
+import com.jmupdf.page.PageBandSink;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Save a very large page to PNG and TIF band by band and
+ * compute the average gray level of a page without holding it in memory
+ * 
+ */
+public class BandedTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		Page page = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+			page = doc.getPage(1);
+
+			/* Render at 16x zoom, about 1152 dpi */
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setZoom(16f);
+			options.setImageFormat(ImageFormat.FORMAT_PNG);
+
+			BandRenderer renderer = new BandRenderer(page, options);
+			renderer.setBandHeight(256);
+			log("png " + renderer.getWidth() + "x" + renderer.getHeight() + " saved : " + renderer.save("f:\\tmp\\images\\banded.png"));
+
+			/* One TIF strip per band */
+			options.setImageFormat(ImageFormat.FORMAT_TIF);
+			options.setImageType(ImageType.IMAGE_TYPE_BINARY);
+			options.setCompression(TifCompression.TIF_COMPRESSION_CCITT_T_6);
+			renderer = new BandRenderer(page, options);
+			log("tif saved : " + renderer.save("f:\\tmp\\images\\banded.tif"));
+
+			/* Stream gray bands to a sink */
+			options.setImageType(ImageType.IMAGE_TYPE_GRAY);
+			renderer = new BandRenderer(page, options);
+			final long[] total = new long[1];
+			boolean ok = renderer.render(new PageBandSink() {
+				public void writeBand(ByteBuffer pixels, int y, int height) {
+					while (pixels.hasRemaining()) {
+						total[0] += pixels.get() & 0xff;
+					}
+				}
+			});
+			if (ok) {
+				log("average gray : " + total[0] / ((long)renderer.getWidth() * renderer.getHeight()));
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
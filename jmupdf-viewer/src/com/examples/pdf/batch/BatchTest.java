@@ -0,0 +1,72 @@
+package com.examples.pdf.batch;
+
+import java.io.File;
+
+import com.jmupdf.batch.BatchFileSink;
+import com.jmupdf.batch.BatchRenderer;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Convert every page of a document to PNG files using a 
+ * batch renderer and compare timings for different thread counts
+ * 
+ */
+public class BatchTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+			
+			/* Setup options template */
+			Page page = doc.getPage(1);
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setImageFormat(ImageFormat.FORMAT_PNG);
+			options.setImageType(ImageType.IMAGE_TYPE_RGB);
+			options.setZoom(2f);
+			page.dispose();
+
+			/* Render all pages with 1 to n threads */
+			int cpus = Runtime.getRuntime().availableProcessors();
+			for (int threads = 1; threads <= cpus; threads *= 2) {
+				BatchRenderer batch = new BatchRenderer(doc, threads);
+				BatchFileSink sink = new BatchFileSink(new File("f:\\tmp\\images"), "batch_");
+				long start = System.currentTimeMillis();
+				int pages = batch.render(1, doc.getPageCount(), options, sink);
+				log("threads=" + threads + " pages=" + pages + " time=" + (System.currentTimeMillis() - start) + "ms");
+				batch.shutdown();
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
@@ -0,0 +1,85 @@
+package com.examples.pdf.batch;
+
+import java.io.IOException;
+
+import com.jmupdf.batch.BatchRenderer;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.TifCompression;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.page.TiffWriter;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Convert every page of a document to one multi-page CCITT G4 TIF file, </br>
+ * once in the current thread and once rendered in parallel by a batch renderer
+ *
+ */
+public class TiffWriterTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+
+			/* Setup options template */
+			Page page = doc.getPage(1);
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setImageFormat(ImageFormat.FORMAT_TIF);
+			options.setImageType(ImageType.IMAGE_TYPE_BINARY);
+			options.setCompression(TifCompression.TIF_COMPRESSION_CCITT_T_6);
+			options.setZoom(200f / 72f);
+			page.dispose();
+
+			/* Add pages one at a time */
+			long start = System.currentTimeMillis();
+			TiffWriter tif = new TiffWriter("f:\\tmp\\fax-1.tif", options);
+			for (int i = 1; i <= doc.getPageCount(); i++) {
+				page = doc.getPage(i);
+				tif.addPage(page);
+				page.dispose();
+			}
+			tif.close();
+			log("serial pages=" + tif.getPageCount() + " time=" + (System.currentTimeMillis() - start) + "ms");
+
+			/* Render pages in parallel, they are still written in page order */
+			BatchRenderer batch = new BatchRenderer(doc, 0);
+			start = System.currentTimeMillis();
+			tif = new TiffWriter("f:\\tmp\\fax-2.tif", options);
+			tif.addPages(1, doc.getPageCount(), batch);
+			tif.close();
+			log("parallel pages=" + tif.getPageCount() + " time=" + (System.currentTimeMillis() - start) + "ms");
+			batch.shutdown();
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.examples.pdf.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.TifCompression;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Export a page as a 300 dpi CCITT G4 TIF image with each black and white </br>
+ * conversion. The gray scale image shows the time taken by rendering alone.
+ *
+ */
+public class BinaryTiffBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		String file = args.length > 0 ? args[0] : "f:\\tmp\\test1.pdf";
+		PdfDocument doc = null;
+		Page page = null;
+
+		ImageType[] types = {
+			ImageType.IMAGE_TYPE_GRAY, ImageType.IMAGE_TYPE_BINARY,
+			ImageType.IMAGE_TYPE_BINARY_ORDERED, ImageType.IMAGE_TYPE_BINARY_DITHER
+		};
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument(file, "");
+			page = doc.getPage(1);
+
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setImageFormat(ImageFormat.FORMAT_TIF);
+			options.setZoom(300f / 72f);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+			for (ImageType type : types) {
+				options.setImageType(type);
+				options.setCompression(type == ImageType.IMAGE_TYPE_GRAY ?
+						TifCompression.TIF_COMPRESSION_NONE : TifCompression.TIF_COMPRESSION_CCITT_T_6);
+				page.saveAsImage(out, options);
+				long t = System.nanoTime();
+				for (int i = 0; i < ROUNDS; i++) {
+					out.reset();
+					page.saveAsImage(out, options);
+				}
+				log(type + " : " + out.size() + " bytes, " +
+					((System.nanoTime() - t) / ROUNDS / 1000000f) + " ms per image");
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
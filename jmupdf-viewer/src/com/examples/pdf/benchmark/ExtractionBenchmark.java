@@ -0,0 +1,106 @@
+package com.examples.pdf.benchmark;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Measure the cost of the native link, text and outline extraction calls. </br>
+ * The calls are made directly so the results cached by pages and documents </br>
+ * do not hide the fixed cost paid by every call.
+ *
+ */
+public class ExtractionBenchmark extends JmuPdf {
+	private static final int WARMUP = 2000;
+	private static final int ITERATIONS = 20000;
+
+	/* Text layouts cover the whole page, fewer calls are timed */
+	private static final int LAYOUT_DIVISOR = 20;
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+
+			new ExtractionBenchmark().run(doc);
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+	/**
+	 * Time each call on the first page of a document
+	 * @param doc
+	 * @throws PageException
+	 */
+	private void run(PdfDocument doc) throws PageException {
+		Page page = doc.getPage(1);
+
+		/* Load page contents */
+		page.getTextLayout();
+
+		long handle = page.getHandle();
+
+		for (int pass = 0; pass < 2; pass++) {
+			boolean report = pass == 1;
+			int n = report ? ITERATIONS : WARMUP;
+			long t;
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				getPageLinks(handle);
+			}
+			report(report, "getPageLinks  ", t, n);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n / LAYOUT_DIVISOR; i++) {
+				getTextLayout(handle);
+			}
+			report(report, "getTextLayout ", t, n / LAYOUT_DIVISOR);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				getOutlineData(doc.getHandle());
+			}
+			report(report, "getOutlineData", t, n);
+		}
+
+		page.dispose();
+	}
+
+	/**
+	 * Print average time per call
+	 * @param report
+	 * @param name
+	 * @param start
+	 * @param n
+	 */
+	private static void report(boolean report, String name, long start, int n) {
+		if (report) {
+			log(name + " : " + ((System.nanoTime() - start) / n) + " ns per call");
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.examples.pdf.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Render a page as a 300 dpi BufferedImage of each image type and draw it </br>
+ * on an RGB image. Prints the time taken by rendering and by Java2D.
+ *
+ */
+public class ImageTypeBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		String file = args.length > 0 ? args[0] : "f:\\tmp\\test1.pdf";
+		PdfDocument doc = null;
+		Page page = null;
+
+		ImageType[] types = {
+			ImageType.IMAGE_TYPE_RGB, ImageType.IMAGE_TYPE_3BYTE_BGR,
+			ImageType.IMAGE_TYPE_ARGB_PRE, ImageType.IMAGE_TYPE_4BYTE_ABGR_PRE,
+			ImageType.IMAGE_TYPE_GRAY
+		};
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument(file, "");
+			page = doc.getPage(1);
+
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setZoom(300f / 72f);
+
+			for (ImageType type : types) {
+				options.setImageType(type);
+				BufferedImage image = page.getImage(options);
+				BufferedImage target = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+				long render = 0;
+				long draw = 0;
+				for (int i = 0; i < ROUNDS; i++) {
+					long t = System.nanoTime();
+					image = page.getImage(options);
+					render += System.nanoTime() - t;
+					t = System.nanoTime();
+					Graphics2D g = target.createGraphics();
+					g.drawImage(image, 0, 0, null);
+					g.dispose();
+					draw += System.nanoTime() - t;
+				}
+				log(type + " : render " + (render / ROUNDS / 1000000f) + " ms, draw " +
+					(draw / ROUNDS / 1000000f) + " ms per image");
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.examples.pdf.benchmark;
+
+import com.jmupdf.enums.OpenMode;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Compare reading a document through file reads with reading it memory mapped. </br>
+ * Each round opens the document, loads its outline and the text of every page.
+ *
+ */
+public class OpenModeBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		String file = args.length > 0 ? args[0] : "f:\\tmp\\test1.pdf";
+
+		try {
+
+			/* Warm up the page cache and the JIT */
+			run(file, OpenMode.OPEN_READ);
+			run(file, OpenMode.OPEN_MAPPED);
+
+			for (OpenMode mode : OpenMode.values()) {
+				long t = System.nanoTime();
+				for (int i = 0; i < ROUNDS; i++) {
+					run(file, mode);
+				}
+				log(mode + " : " + ((System.nanoTime() - t) / ROUNDS / 1000000f) + " ms per round");
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Open a document and read all of it
+	 * @param file
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 * @throws PageException
+	 */
+	private static void run(String file, OpenMode mode) throws DocException, DocSecurityException, PageException {
+		PdfDocument doc = new PdfDocument(file, null, 0, mode);
+		try {
+			doc.getOutline();
+			for (int i = 1; i <= doc.getPageCount(); i++) {
+				Page page = doc.getPage(i);
+				page.getTextLayout();
+				page.dispose();
+			}
+		} finally {
+			doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.examples.pdf.benchmark;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Export a page as a 300 dpi PNG image with different compression levels. </br>
+ * Prints the size of the image and the time taken by each level.
+ *
+ */
+public class PngExportBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		String file = args.length > 0 ? args[0] : "f:\\tmp\\test1.pdf";
+		PdfDocument doc = null;
+		Page page = null;
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument(file, "");
+			page = doc.getPage(1);
+
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setImageFormat(ImageFormat.FORMAT_PNG);
+			options.setZoom(300f / 72f);
+
+			/* 1 is the fast level, 7 and above also pick a filter per row */
+			for (int quality : new int[] {1, 6, 9}) {
+				options.setQuality(quality);
+				byte[] png = page.saveAsImage(options);
+				long t = System.nanoTime();
+				for (int i = 0; i < ROUNDS; i++) {
+					png = page.saveAsImage(options);
+				}
+				log("quality " + quality + " : " + (png == null ? 0 : png.length) + " bytes, " +
+					((System.nanoTime() - t) / ROUNDS / 1000000f) + " ms per image");
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
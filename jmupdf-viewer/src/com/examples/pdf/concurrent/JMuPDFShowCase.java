@@ -4,14 +4,12 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import com.jmupdf.JmuPdf;
+import com.jmupdf.document.PageCache;
 import com.jmupdf.enums.ImageType;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
@@ -40,8 +38,6 @@ public class JMuPDFShowCase
 
         private int used = 0;
 
-        private int instanciatedPages = 0;
-
         public synchronized void incrementExpect()
         {
             expected++;
@@ -52,17 +48,10 @@ public class JMuPDFShowCase
             used++;
             if (used == expected)
             {
-                System.out.println("FREE Document : " + pdfDocument + ", instanciatedPages=" + instanciatedPages
+                PageCache cache = pdfDocument.getPageCache();
+                System.out.println("FREE Document : " + pdfDocument + ", instanciatedPages=" + cache.getMisses()
+                        + ", hits=" + cache.getHits() + ", evictions=" + cache.getEvictions()
                         + ", used=" + used + ", expected=" + expected);
-                for (List<Page> pageList : pageMap.values())
-                {
-                    for (Page page : pageList)
-                    {
-                        page.dispose();
-                    }
-                    pageList.clear();
-                }
-                pageMap.clear();
                 pdfDocument.dispose();
                 pdfDocument = null;
             }
@@ -73,39 +62,14 @@ public class JMuPDFShowCase
         public void setPdfDocument(PdfDocument pdfDocument)
         {
             this.pdfDocument = pdfDocument;
+            // Keep up to 64mb of display lists loaded
+            pdfDocument.getPageCache().setMaxBytes(64 << 20);
         }
 
-        private Map<Integer, List<Page>> pageMap = new HashMap<Integer, List<Page>>();
-
-        public synchronized Page getPage(int pageNumber) throws PageException
-        {
-            List<Page> pageList = pageMap.get(pageNumber);
-            if (pageList == null)
-            {
-                pageList = new ArrayList<Page>();
-                pageMap.put(pageNumber, pageList);
-            }
-            if (pageList.isEmpty())
-            {
-                instanciatedPages++;
-                return pdfDocument.getPage(pageNumber); // XXX ---
-            }
-
-            Page page = pageList.get(0);
-            pageList.remove(0);
-            return page;
-        }
-
-        public synchronized void releasePage(Page page)
+        public Page getPage(int pageNumber) throws PageException
         {
-            int pageNumber = page.getPageNumber();
-            List<Page> pageList = pageMap.get(pageNumber);
-            if (pageList == null)
-            {
-                pageList = new ArrayList<Page>();
-                pageMap.put(pageNumber, pageList);
-            }
-            pageList.add(page);
+            // Cached pages are shared by all threads, options are passed by value
+            return pdfDocument.getPage(pageNumber);
         }
     }
 
@@ -172,7 +136,7 @@ public class JMuPDFShowCase
                             long st2 = System.currentTimeMillis();
                             System.out.println("getPage " + fPageNumber + " : " + (st2 - st));
 
-                            PageRendererOptions options = page.getRenderingOptions();
+                            PageRendererOptions options = page.newRenderingOptions();
                             options.setRotate(rotate);
                             options.setZoom(zoom);
                             options.setImageType(color);
@@ -192,7 +156,7 @@ public class JMuPDFShowCase
 
                             new File(imagePath).delete();
 
-                            documentTrace.releasePage(page);
+                            page.dispose();
 
                             documentTrace.incrementUsed();
 
@@ -0,0 +1,74 @@
+package com.examples.pdf.convert;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Write a page to streams in every image format </br>
+ * The images are never held in memory, the same works for a servlet response stream.
+ *
+ */
+public class RenderTestE {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		Page page = null;
+
+		ImageFormat[] formats = {
+			ImageFormat.FORMAT_PNG, ImageFormat.FORMAT_JPG, ImageFormat.FORMAT_TIF,
+			ImageFormat.FORMAT_BMP, ImageFormat.FORMAT_PNM, ImageFormat.FORMAT_PAM
+		};
+
+		try {
+
+			/* Open document */
+			doc = new PdfDocument("f:/tmp/test1.pdf");
+
+			/* Get page */
+			page = doc.getPage(1);
+
+			/* Set rendering options */
+			PageRendererOptions options = page.getRenderingOptions();
+			options.setZoom(2f);
+			options.setImageType(ImageType.IMAGE_TYPE_RGB);
+
+			for (ImageFormat format : formats) {
+				options.setImageFormat(format);
+				options.setQuality(format == ImageFormat.FORMAT_JPG ? 75 : 6);
+
+				OutputStream out = new BufferedOutputStream(new FileOutputStream("f:/tmp/test-stream-1." + format.name().substring(7).toLowerCase()));
+				try {
+					page.saveAsImage(out, options);
+				} finally {
+					out.close();
+				}
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+}
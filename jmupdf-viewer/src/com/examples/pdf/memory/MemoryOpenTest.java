@@ -0,0 +1,62 @@
+package com.examples.pdf.memory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Open a document from a memory mapped file channel without a temporary file
+ * 
+ */
+public class MemoryOpenTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		FileInputStream in = null;
+
+		try {
+
+			/* Open document, the file is mapped and read in place */
+			in = new FileInputStream("f:\\tmp\\test1.pdf");
+			FileChannel ch = in.getChannel();
+			doc = new PdfDocument(ch, "");
+
+			/* The channel is no longer needed once the document is open */
+			in.close();
+			in = null;
+
+			log("pages : " + doc.getPageCount());
+			log("bytes : " + doc.getDocumentBuffer().remaining());
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.examples.pdf.progressive;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.page.ProgressiveRenderListener;
+import com.jmupdf.page.ProgressiveRenderer;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Render a large page band by band while printing progress
+ * 
+ */
+public class ProgressiveTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		Page page = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+			page = doc.getPage(1);
+
+			/* Render at 8x zoom, about 576 dpi */
+			PageRendererOptions options = page.newRenderingOptions();
+			options.setZoom(8f);
+
+			ProgressiveRenderer renderer = new ProgressiveRenderer(page, options);
+			renderer.setBandHeight(256);
+			renderer.setProgressInterval(250);
+
+			boolean ok = renderer.render(new ProgressiveRenderListener() {
+				public void renderProgress(ProgressiveRenderer r, int progress, int max) {
+					log("progress " + (int)(r.getProgress() * 100) + "%");
+				}
+				public void bandRendered(ProgressiveRenderer r, int y, int height) {
+					log("rows " + y + " to " + (y + height) + " ready");
+				}
+			});
+
+			if (ok) {
+				ImageIO.write(renderer.getImage(), "PNG", new File("f:\\tmp\\images\\progressive.png"));
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
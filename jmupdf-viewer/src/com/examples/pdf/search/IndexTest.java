@@ -0,0 +1,66 @@
+package com.examples.pdf.search;
+
+import java.io.File;
+import java.util.List;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.pdf.PdfDocument;
+import com.jmupdf.search.DocumentIndex;
+import com.jmupdf.search.DocumentIndexBuilder;
+import com.jmupdf.search.SearchHit;
+
+/**
+ * Build, or reopen, the word index of a document and search it
+ * 
+ */
+public class IndexTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+
+			/* The first run interprets every page, later runs only map the index file */
+			long t = System.currentTimeMillis();
+			DocumentIndex index = DocumentIndexBuilder.build(doc, new File("f:\\tmp\\test1.idx"), 0);
+			if (index == null) {
+				return;
+			}
+			log("index ready in " + (System.currentTimeMillis() - t) + " ms, " + index.getTermCount() + " words");
+
+			t = System.nanoTime();
+			List<SearchHit> hits = index.search("terms and conditions", 0);
+			log(hits.size() + " hits in " + (System.nanoTime() - t) / 1000 + " us");
+
+			for (SearchHit hit : hits) {
+				log("page " + hit.getPageNumber() + " at " + hit.getRects()[0].getX0() + "," + hit.getRects()[0].getY0());
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
@@ -0,0 +1,69 @@
+package com.examples.pdf.search;
+
+import java.util.List;
+
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.page.PageRect;
+import com.jmupdf.pdf.PdfDocument;
+import com.jmupdf.search.DocumentSearcher;
+import com.jmupdf.search.SearchHit;
+import com.jmupdf.search.SearchListener;
+
+/**
+ * Search a document in parallel and print the matches found
+ * 
+ */
+public class SearchTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		DocumentSearcher searcher = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+			searcher = new DocumentSearcher(doc, 0);
+
+			/* Stop after the first 10 matches */
+			List<SearchHit> hits = searcher.search("terms and conditions", DocumentSearcher.IGNORE_CASE, 10);
+			for (SearchHit hit : hits) {
+				PageRect r = hit.getRects()[0];
+				log(hit.getPageNumber() + " : " + hit.getText() + " at " + r.getX0() + "," + r.getY0());
+			}
+
+			/* Stream matches of a regular expression as pages complete */
+			searcher.search("\\$[0-9,]+\\.[0-9]{2}", DocumentSearcher.REGEX, 1, doc.getPageCount(), 0, new SearchListener() {
+				public boolean hitFound(SearchHit hit) {
+					log("amount on page " + hit.getPageNumber() + " : " + hit.getText());
+					return true;
+				}
+			});
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (searcher != null)
+				searcher.shutdown();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
@@ -0,0 +1,75 @@
+package com.examples.pdf.store;
+
+import com.jmupdf.document.ResourceStore;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Render the pages of several documents with different anti alias levels </br>
+ * and print the glyph cache statistics of each document and of the shared store.
+ *
+ */
+public class GlyphCacheTest {
+
+	public static void main(String[] args) {
+		String[] files = {"f:\\tmp\\test1.pdf", "f:\\tmp\\test2.pdf", "f:\\tmp\\test3.pdf"};
+		PdfDocument[] docs = new PdfDocument[files.length];
+		int[] levels = {8, 4, 0};
+
+		/* Documents opened from now on share one store and one glyph cache */
+		ResourceStore.setSharedBudget(32 << 20);
+		ResourceStore.setGlyphCacheBudget(4 << 20);
+
+		try {
+
+			for (int i = 0; i < files.length; i++) {
+				docs[i] = new PdfDocument(files[i], "");
+			}
+
+			/* Changing the anti alias level keeps glyphs of other levels cached */
+			for (int l = 0; l < levels.length; l++) {
+				for (int i = 0; i < docs.length; i++) {
+					for (int p = 1; p <= Math.min(5, docs[i].getPageCount()); p++) {
+						Page page = docs[i].getPage(p);
+						PageRendererOptions options = page.newRenderingOptions();
+						options.setAntiAlias(levels[l]);
+						page.getImage(options);
+						page.dispose();
+					}
+				}
+			}
+
+			for (int i = 0; i < docs.length; i++) {
+				log(files[i] + " : " + docs[i].getGlyphCacheStats());
+			}
+			log("shared : " + ResourceStore.getSharedGlyphStats() +
+				" hit rate=" + ResourceStore.getSharedGlyphStats().getHitRate());
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			for (int i = 0; i < docs.length; i++) {
+				if (docs[i] != null)
+					docs[i].dispose();
+			}
+			ResourceStore.setSharedBudget(0);
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.examples.pdf.store;
+
+import com.jmupdf.document.ResourceStore;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Open, render and close documents from several threads at once in one </br>
+ * small shared resource store, so documents keep evicting items while </br>
+ * others are being closed.
+ *
+ */
+public class SharedStoreStress {
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 40;
+	private static final int PAGES = 3;
+
+	public static void main(String[] args) {
+		final String file = args.length > 0 ? args[0] : "f:\\tmp\\test1.pdf";
+		Thread[] threads = new Thread[THREADS];
+
+		/* Documents opened from now on share a budget of 300kb */
+		ResourceStore.setSharedBudget(300000);
+
+		try {
+
+			for (int i = 0; i < threads.length; i++) {
+				final int first = i;
+				threads[i] = new Thread() {
+					public void run() {
+						for (int r = 0; r < ROUNDS; r++) {
+							render(file, first + r);
+						}
+					}
+				};
+				threads[i].start();
+			}
+
+			for (int i = 0; i < threads.length; i++) {
+				threads[i].join();
+			}
+
+			log("shared : " + ResourceStore.getSharedStats());
+
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			ResourceStore.setSharedBudget(0);
+		}
+	}
+
+	/**
+	 * Open a document, render a few pages from the first one and close it
+	 * @param file
+	 * @param first
+	 */
+	private static void render(String file, int first) {
+		PdfDocument doc = null;
+		Page page = null;
+
+		try {
+
+			doc = new PdfDocument(file, "");
+			for (int p = 0; p < PAGES; p++) {
+				page = doc.getPage(((first + p) % doc.getPageCount()) + 1);
+				page.getImage(page.getRenderingOptions());
+				page.dispose();
+				page = null;
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (page != null)
+				page.dispose();
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.examples.pdf.store;
+
+import com.jmupdf.document.ResourceStore;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Open several documents in one shared resource store and print the store </br>
+ * usage of each document and of the shared store.
+ * 
+ */
+public class SharedStoreTest {
+
+	public static void main(String[] args) {
+		String[] files = {"f:\\tmp\\test1.pdf", "f:\\tmp\\test2.pdf", "f:\\tmp\\test3.pdf"};
+		PdfDocument[] docs = new PdfDocument[files.length];
+
+		/* Documents opened from now on share a budget of 32mb */
+		ResourceStore.setSharedBudget(32 << 20);
+
+		try {
+
+			for (int i = 0; i < files.length; i++) {
+				docs[i] = new PdfDocument(files[i], "");
+			}
+
+			/* Render a few pages of every document */
+			for (int i = 0; i < docs.length; i++) {
+				for (int p = 1; p <= Math.min(5, docs[i].getPageCount()); p++) {
+					Page page = docs[i].getPage(p);
+					page.getImage(page.getRenderingOptions());
+					page.dispose();
+				}
+			}
+
+			for (int i = 0; i < docs.length; i++) {
+				log(files[i] + " : " + docs[i].getStoreStats());
+			}
+			log("shared : " + ResourceStore.getSharedStats());
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			for (int i = 0; i < docs.length; i++) {
+				if (docs[i] != null)
+					docs[i].dispose();
+			}
+			ResourceStore.setSharedBudget(0);
+		}
+	}
+
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.examples.pdf.text;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.jmupdf.enums.TextFormat;
+import com.jmupdf.exceptions.DocException;
+import com.jmupdf.exceptions.DocSecurityException;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.pdf.PdfDocument;
+
+/**
+ * Export the text of a whole document as plain text and as JSON lines
+ * 
+ */
+public class TextExportTest {
+
+	public static void main(String[] args) {
+		PdfDocument doc = null;
+		
+		try {
+			
+			/* Open document */
+			doc = new PdfDocument("f:\\tmp\\test1.pdf", "");
+
+			OutputStream out = new BufferedOutputStream(new FileOutputStream("f:\\tmp\\test1.txt"));
+			try {
+				log("pages exported : " + doc.exportText(1, doc.getPageCount(), TextFormat.TEXT_PLAIN, out));
+			} finally {
+				out.close();
+			}
+
+			out = new BufferedOutputStream(new FileOutputStream("f:\\tmp\\test1.jsonl"));
+			try {
+				log("pages exported : " + doc.exportText(1, doc.getPageCount(), TextFormat.TEXT_JSON_LINES, out));
+			} finally {
+				out.close();
+			}
+
+		} catch (DocException e) {
+			e.printStackTrace();
+		} catch (DocSecurityException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (PageException e) {
+			e.printStackTrace();
+		} finally {
+			if (doc != null)
+				doc.dispose();
+		}
+	}
+	
+    /**
+     * Print test messages
+     * @param text
+     */
+    protected static void log(String text) {
+    	System.out.println(text);
+    }
+    
+}
@@ -12,6 +12,7 @@ import com.jmupdf.exceptions.PageException;
 import com.jmupdf.interfaces.Page;
 import com.jmupdf.pdf.PdfDocument;
 import com.jmupdf.tiles.TileCache;
+import com.jmupdf.tiles.TileImageCache;
 import com.jmupdf.tiles.TiledImage;
 
 /**
@@ -42,8 +43,11 @@ public class TilingTest {
 			int tilew = 512;
 			int tileh = 512;
 
+			// Keep up to 32mb of rendered tiles
+			TileImageCache images = new TileImageCache(32 << 20);
+
 			// Create tile cache object
-			cache = new TileCache(page, color, rotate, zoom, tilew, tileh);
+			cache = new TileCache(page, color, rotate, zoom, tilew, tileh, images);
 
 			// Loop through tiles and save
 			for (TiledImage t : cache.getTiles()) {	
@@ -51,7 +55,16 @@ public class TilingTest {
 				ImageIO.write(t.getImage(), "PNG", new File("f:\\tmp\\images\\test1_" + t.getTileY() + "_" + t.getTileX() + ".png"));
 				t.dispose();
 			}
-			
+			cache.dispose();
+
+			// Same view again, tiles are served from the image cache
+			cache = new TileCache(page, color, rotate, zoom, tilew, tileh, images);
+			for (TiledImage t : cache.getTiles()) {
+				t.render();
+				t.dispose();
+			}
+
+			log("tiles hits=" + images.getHits() + " misses=" + images.getMisses() + " bytes=" + images.getBytes());
 			log("done!");
 
 		} catch (DocException e) {
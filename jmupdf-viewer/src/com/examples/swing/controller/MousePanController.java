@@ -42,6 +42,7 @@ import com.examples.swing.view.PageView;
 import com.jmupdf.enums.LinkType;
 import com.jmupdf.interfaces.Page;
 import com.jmupdf.interfaces.PagePixels;
+import com.jmupdf.interfaces.PageRendererOptions;
 import com.jmupdf.page.PageLinks;
 import com.jmupdf.page.PageRect;
 import com.jmupdf.page.PageText;
@@ -282,13 +283,13 @@ public class MousePanController implements MouseListener, MouseMotionListener, A
 
 		if (copyAsImage) {
 			// Render region
-			PagePixels r = pageView.getRenderer().getPagePixels().clone();
-			r.drawPage(pageView.getRenderer().getPagePixels().getOptions(), x0, y0, x1, y1);
+			PageRendererOptions options = pageView.getRenderer().getPagePixels().getOptions();
+			PagePixels r = pageView.getPage().getPagePixels(options);
+			r.drawPage(options, x0, y0, x1, y1);
 
 			// Copy to clip board
 			ImageSelection is = new ImageSelection(r.getImage());			
 			cb.setContents(is, null);
-			r.getPage().dispose();
 			r.dispose();
 		} else {
 			/* zero rotate and 1f zoom */
@@ -8,9 +8,8 @@ package com.jmupdf;
 
 import java.nio.ByteBuffer;
 
-import com.jmupdf.document.DocumentOutline;
 import com.jmupdf.page.PageLinks;
-import com.jmupdf.page.PageText;
+import com.jmupdf.page.PageTextLayout;
 
 /**
  *
@@ -26,30 +25,52 @@ public abstract class JmuPdf {
 	static { loadDll(); }
 
 	/* PDF, XPS, CBZ common document functions (document level) */
-	protected native long open(int type, byte[] pdf, byte[] password, int maxStore);
+	protected native long open(int type, byte[] pdf, byte[] password, int maxStore, int mode);
+	protected native long openBuffer(int type, ByteBuffer buffer, int offset, int length, byte[] password, int maxStore);
 	protected native void close(long handle);
 	protected native int getVersion(long handle);
 	protected native int getPageCount(long handle);
-	protected native DocumentOutline getOutline(long handle);
+	protected native byte[] getOutlineData(long handle);
 	
 	/* PDF Specific Functions (document level) */
 	protected native String pdfInfo(long handle, String key);
 	protected native int[] pdfEncryptInfo(long handle);
 
 	/* PDF, XPS, CBZ common page functions (page level) */
-	protected native long newPage(long handle, int page, float[] info);
+	protected native long newPage(long handle, int page, float[] info, boolean lazy);
+	protected native int loadPageList(long handle);
+	protected native long getPageListSize(long handle);
 	protected native long freePage(long handle);
-	protected native PageText[] getPageText(long handle, float threshold, float x0, float y0, float x1, float y1);
+	protected native PageTextLayout getTextLayout(long handle);
+	protected native int exportText(long handle, int pageNumber, int format, ByteBuffer buffer);
 	protected native PageLinks[] getPageLinks(long handle);
 	
 	/* PDF, XPS, CBZ common rendering functions (page level) */
-	protected native ByteBuffer getByteBuffer(long handle, int[] bbox);
-	protected native void freeByteBuffer(long handle, ByteBuffer buffer);
-	protected native int saveAsFile(long handle, byte[] file);
-	protected native byte[] saveAsByte(long handle);
+	protected native int getPixelBounds(long handle, int[] options, int[] bbox);
+	protected native int drawToBuffer(long handle, int[] options, ByteBuffer buffer, int offset, int stride, int[] bbox, ByteBuffer cookie);
+	protected native int drawToArray(long handle, int[] options, Object array, int offset, int stride, int[] bbox, ByteBuffer cookie);
+	protected native int drawProgressive(long handle, int[] options, Object array, int offset, int stride, int[] bbox, ByteBuffer cookie, int bandHeight, Object callback);
+	protected native int drawBands(long handle, int[] options, int[] bbox, ByteBuffer cookie, int bandHeight, Object callback);
+	protected native int saveAsFile(long handle, int[] options, byte[] file);
+	protected native int saveBanded(long handle, int[] options, byte[] file, ByteBuffer cookie, int bandHeight);
+	protected native byte[] saveAsByte(long handle, int[] options);
+	protected native int saveAsStream(long handle, int[] options, Object writer, ByteBuffer buffer);
+	protected native int tifPackPage(long handle, int[] options, ByteBuffer buffer, int[] size);
 	
-	/* Get pointer to page rendering options data structure */
-	protected native ByteBuffer getPageOptionsStruct(long handle);
+	/* Native pixel buffer pool (process wide) */
+	protected static native void setBufferPoolLimits(long maxBytes, int maxBuffers);
+	protected static native void getBufferPoolStats(long[] stats);
+
+	/* Resource store (document level or process wide) */
+	protected static native int setSharedStore(long maxBytes);
+	protected static native int getStoreStats(long handle, long[] stats);
+	protected static native void setGlyphCacheSize(long maxBytes);
+	protected static native int getGlyphCacheStats(long handle, long[] stats);
+
+	/* Multi-page TIF files */
+	protected static native long tifOpen(byte[] file, boolean append);
+	protected static native int tifAddPage(long handle, int[] options, ByteBuffer buffer, int w, int h);
+	protected static native int tifClose(long handle);
 
 	/**
 	 * Get library version
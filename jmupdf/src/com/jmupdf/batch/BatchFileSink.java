@@ -0,0 +1,114 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * BatchFileSink class </br></br>
+ * 
+ * Saves each page to its own image file in a given directory. </br>
+ * Files are named prefix + page number + extension, ie: page_1.png </br></br>
+ * 
+ * Files are written by the worker threads as soon as a page is rendered. </br>
+ * The list of files is collected in page order.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class BatchFileSink implements BatchSink<File> {
+	private File directory;
+	private String prefix;
+	private List<File> files = new ArrayList<File>();
+	private int failures;
+
+	/**
+	 * Create file sink
+	 * @param directory directory to write to
+	 * @param prefix file name prefix
+	 */
+	public BatchFileSink(File directory, String prefix) {
+		this.directory = directory;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Get file a page is written to
+	 * @param pageNumber
+	 * @param format
+	 * @return
+	 */
+	public File getFile(int pageNumber, ImageFormat format) {
+		return new File(directory, prefix + pageNumber + getExtension(format));
+	}
+
+	/* */
+	public File render(Page page, PageRendererOptions options) {
+		File file = getFile(page.getPageNumber(), options.getImageFormat());
+		if (page.saveAsImage(file.getAbsolutePath(), options)) {
+			return file;
+		}
+		return null;
+	}
+
+	/* */
+	public synchronized void write(int pageNumber, File result) {
+		if (result != null) {
+			files.add(result);
+		} else {
+			failures++;
+		}
+	}
+
+	/**
+	 * Get files written so far in page order
+	 * @return
+	 */
+	public synchronized List<File> getFiles() {
+		return new ArrayList<File>(files);
+	}
+
+	/**
+	 * Get number of pages that could not be written
+	 * @return
+	 */
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Get file extension of an image format
+	 * @param format
+	 * @return
+	 */
+	private static String getExtension(ImageFormat format) {
+		switch (format) {
+			case FORMAT_PNG:
+				return ".png";
+			case FORMAT_PBM:
+				return ".pbm";
+			case FORMAT_PNM:
+				return ".pnm";
+			case FORMAT_JPG:
+				return ".jpg";
+			case FORMAT_BMP:
+				return ".bmp";
+			case FORMAT_PAM:
+				return ".pam";
+			case FORMAT_TIF:
+				return ".tif";
+			default:
+				return "";
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.batch;
+
+import java.awt.image.BufferedImage;
+
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * BatchImageSink class </br></br>
+ * 
+ * Rasterizes each page into a BufferedImage and hands the images to write() </br>
+ * in page order. The image type is derived from the ImageType of the options.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public abstract class BatchImageSink implements BatchSink<BufferedImage> {
+
+	/* */
+	public BufferedImage render(Page page, PageRendererOptions options) {
+		return page.getImage(options);
+	}
+
+}
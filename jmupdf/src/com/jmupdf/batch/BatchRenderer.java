@@ -0,0 +1,204 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.batch;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+import com.jmupdf.page.PageRendererOptionsSnapshot;
+
+/**
+ * BatchRenderer class </br></br>
+ * 
+ * Rasterizes a range of pages in parallel on a bounded pool of worker threads. </br></br>
+ * 
+ * Each page is loaded, rendered and disposed on a worker thread. Pages and renders </br>
+ * run on their own cloned native context so pages of the same document render </br>
+ * concurrently. Results are handed to a BatchSink in page order. At most window </br>
+ * pages are in flight at any time which bounds memory use regardless of the </br>
+ * number of pages in the range. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * BatchRenderer batch = new BatchRenderer(doc, 4); </br>
+ * batch.render(1, doc.getPageCount(), options, new BatchFileSink(dir, "page_")); </br>
+ * batch.shutdown(); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class BatchRenderer {
+	private Document document;
+	private ExecutorService executor;
+	private boolean isExecutorOwner;
+	private int window;
+
+	/**
+	 * Create a batch renderer with its own worker pool
+	 * @param document
+	 * @param threads number of worker threads, 0 uses one per processor
+	 */
+	public BatchRenderer(Document document, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.document = document;
+		this.executor = Executors.newFixedThreadPool(threads, new BatchThreadFactory());
+		this.isExecutorOwner = true;
+		this.window = threads * 2;
+	}
+
+	/**
+	 * Create a batch renderer that runs on a caller supplied executor. </br>
+	 * The executor is not shut down by this object.
+	 * @param document
+	 * @param executor
+	 * @param window maximum number of pages in flight
+	 */
+	public BatchRenderer(Document document, ExecutorService executor, int window) {
+		this.document = document;
+		this.executor = executor;
+		this.isExecutorOwner = false;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Get document
+	 * @return
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get maximum number of pages in flight
+	 * @return
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set maximum number of pages in flight
+	 * @param window
+	 */
+	public void setWindow(int window) {
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Render a range of pages. </br></br>
+	 * 
+	 * The options are copied once so the template may be changed while the batch runs. </br>
+	 * This method returns once every page in the range has been written to the sink.
+	 * 
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param template rendering options used for every page
+	 * @param sink
+	 * @return number of pages rendered successfully
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 */
+	public <T> int render(int firstPage, int lastPage, PageRendererOptions template, BatchSink<T> sink) throws InterruptedException {
+		firstPage = Math.max(1, firstPage);
+		lastPage = Math.min(document.getPageCount(), lastPage);
+
+		PageRendererOptions options = new PageRendererOptionsSnapshot(template);
+		if (!options.isValid()) {
+			return 0;
+		}
+
+		LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+		int next = firstPage;
+		int rendered = 0;
+
+		try {
+			for (int pageNumber = firstPage; pageNumber <= lastPage; pageNumber++) {
+				while (next <= lastPage && pending.size() < window) {
+					pending.add(executor.submit(new BatchTask<T>(next++, options, sink)));
+				}
+				T result = null;
+				try {
+					result = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+				if (result != null) {
+					rendered++;
+				}
+				sink.write(pageNumber, result);
+			}
+		} finally {
+			for (Future<T> f : pending) {
+				f.cancel(true);
+			}
+		}
+
+		return rendered;
+	}
+
+	/**
+	 * Shut down worker threads if they are owned by this object
+	 */
+	public void shutdown() {
+		if (isExecutorOwner) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * BatchTask class </br>
+	 * Load, render and dispose a single page.
+	 */
+	class BatchTask<T> implements Callable<T> {
+		private int pageNumber;
+		private PageRendererOptions options;
+		private BatchSink<T> sink;
+
+		public BatchTask(int pageNumber, PageRendererOptions options, BatchSink<T> sink) {
+			this.pageNumber = pageNumber;
+			this.options = options;
+			this.sink = sink;
+		}
+
+		public T call() throws PageException {
+			Page page = document.getPage(pageNumber);
+			if (page == null) {
+				return null;
+			}
+			try {
+				return sink.render(page, options);
+			} finally {
+				page.dispose();
+			}
+		}
+	}
+
+	/**
+	 * BatchThreadFactory class </br>
+	 * Create daemon worker threads so an unfinished batch never keeps the VM alive.
+	 */
+	static class BatchThreadFactory implements ThreadFactory {
+		private int count;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "jmupdf-batch-" + (++count));
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+}
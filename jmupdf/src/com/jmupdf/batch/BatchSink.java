@@ -0,0 +1,42 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.batch;
+
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * BatchSink interface </br></br>
+ * 
+ * Receives the pages rasterized by a BatchRenderer. </br></br>
+ * 
+ * render() is called concurrently from the worker threads, one call per page. </br>
+ * write() is then called for every page, one call at a time and in page order, </br>
+ * with the value returned by render() or null if the page could not be rendered.
+ * 
+ * @author Pedro J Rivera
+ *
+ * @param <T> type of rendered result
+ */
+public interface BatchSink<T> {
+
+	/**
+	 * Render a page. </br>
+	 * The page object is disposed as soon as this method returns.
+	 * @param page
+	 * @param options immutable options shared by all pages of the batch
+	 * @return rendered result or null upon failure
+	 */
+	T render(Page page, PageRendererOptions options);
+
+	/**
+	 * Receive a rendered page in page order
+	 * @param pageNumber
+	 * @param result value returned by render() or null upon failure
+	 */
+	void write(int pageNumber, T result);
+
+}
@@ -5,8 +5,12 @@
  */
 package com.jmupdf.cbz;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
 import com.jmupdf.document.DocumentImp;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 
@@ -30,6 +34,18 @@ public final class CbzDocument extends DocumentImp  {
 		open(document, null, DOC_TYPE, maxStore);
 	}
 	
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param maxStore
+	 * @param mode OPEN_MAPPED maps the file in memory while the document is open
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(String document, int maxStore, OpenMode mode) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore, mode);
+	}
+
 	/**
 	 * Create a new document object
 	 * @param document
@@ -61,6 +77,50 @@ public final class CbzDocument extends DocumentImp  {
 		this(document, 0);
 	}
 
+	/**
+	 * Create a new document object from the remaining bytes of a buffer. </br>
+	 * Direct and memory mapped buffers are read in place until the document is disposed.
+	 * @param document
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ByteBuffer document, int maxStore) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from the remaining bytes of a buffer
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ByteBuffer document) throws DocException, DocSecurityException {
+		this(document, 0);
+	}
+
+	/**
+	 * Create a new document object from a channel. </br>
+	 * File channels are memory mapped, other channels are read to the end.
+	 * @param document
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ReadableByteChannel document, int maxStore) throws DocException, DocSecurityException {
+		open(document, null, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from a channel
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public CbzDocument(ReadableByteChannel document) throws DocException, DocSecurityException {
+		this(document, 0);
+	}
+
 	/**
 	 * Clone current document.
 	 * This will create a new handle to document. </br>
@@ -70,7 +130,11 @@ public final class CbzDocument extends DocumentImp  {
 		CbzDocument doc = null;
 		if (getHandle() > 0) {
 			try {
-				doc = new CbzDocument(getDocumentName());
+				if (getDocumentBuffer() != null) {
+					doc = new CbzDocument(getDocumentBuffer());
+				} else {
+					doc = new CbzDocument(getDocumentName(), 0, getOpenMode());
+				}
 			} catch (DocException e) {
 				doc = null;
 			} catch (DocSecurityException e) {
@@ -6,18 +6,28 @@
 package com.jmupdf.document;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import com.jmupdf.JmuPdf;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
+import com.jmupdf.enums.TextFormat;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 import com.jmupdf.exceptions.PageException;
 import com.jmupdf.interfaces.Document;
 import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
 import com.jmupdf.page.PageImp;
+import com.jmupdf.page.PageLinks;
 import com.jmupdf.page.PageRect;
+import com.jmupdf.page.PageTextLayout;
+import com.jmupdf.page.TextExporter;
 
 /**
  * Document Implementation Class
@@ -31,11 +41,14 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	private String path;
 	private String password;
 	private DocumentType type;
+	private OpenMode openMode;
 	private long handle;
 	private int pageCount;	
 	private int maxStore;
-	private boolean isCached;		
+	private boolean isLazyLoad;
+	private ByteBuffer buffer;
 	private DocumentOutline outline;
+	private PageCache pageCache = new PageCache(this);
 	
 	/**
 	 * Open a document
@@ -48,13 +61,28 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	 * @throws DocSecurityException
 	 */
 	protected void open(String document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		open(document, password, type, maxStore, OpenMode.OPEN_READ);
+	}
+
+	/**
+	 * Open a document
+	 * 
+	 * @param document
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @param mode
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(String document, String password, DocumentType type, int maxStore, OpenMode mode) throws DocException, DocSecurityException  {
 		this.document = document;
 		this.password = password;
 		this.type = type;
+		this.openMode = mode;
 		this.maxStore = maxStore << 20;
 		this.handle = 0;
 		this.pageCount = 0;
-		this.isCached = false;
 
 		File file = new File(getDocumentName());
 
@@ -62,23 +90,17 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 			throw new DocException("Document " + document + " does not exist.");
 		} 
 
-		handle = open(getType().getIntValue(), getDocumentName().getBytes(), getPassWord().getBytes(), getMaxStore());
+		handle = open(getType().getIntValue(), getDocumentName().getBytes(), getPassWord().getBytes(), getMaxStore(), getOpenMode().getIntValue());
 
-		if (getHandle() > 0) {
-			pageCount = getPageCount(getHandle());
-			fileName = file.getName();
-			path = file.getParent();
-		} else {
-			if (getHandle() == -3) {
-				throw new DocSecurityException("Error " + getHandle() + ": Document requires authentication");
-			} else {
-				throw new DocException("Error " + getHandle() + ": Document " + getDocumentName() + " could not be opened.");
-			}		
-		}
+		checkHandle(getDocumentName());
+
+		fileName = file.getName();
+		path = file.getParent();
 	}
 
 	/**
-	 * Open a document
+	 * Open a document from a byte array. </br>
+	 * The bytes are copied once into a direct buffer that is read in place.
 	 * 
 	 * @param document
 	 * @param password
@@ -88,35 +110,125 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	 * @throws DocSecurityException
 	 */
 	protected void open(byte[] document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
-		try {
-			File tmp = File.createTempFile("jmupdf" + getClass().hashCode(), ".tmp");
-			tmp.deleteOnExit();
+		open(ByteBuffer.wrap(document), password, type, maxStore);
+	}
+
+	/**
+	 * Open a document from the remaining bytes of a buffer. </br>
+	 * A direct or memory mapped buffer is read in place and kept until the </br>
+	 * document is disposed, so its contents must not change in the meantime. </br>
+	 * Any other buffer is copied once into a direct buffer.
+	 * 
+	 * @param document
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(ByteBuffer document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		this.document = null;
+		this.password = password;
+		this.type = type;
+		this.openMode = OpenMode.OPEN_READ;
+		this.maxStore = maxStore << 20;
+		this.handle = 0;
+		this.pageCount = 0;
 
-			FileOutputStream fos = new FileOutputStream(tmp.getAbsolutePath(), true);
-            fos.write(document, 0, document.length);
-            fos.flush();
-            fos.close();
+		ByteBuffer buf = document.slice();
 
-            open(tmp.getAbsolutePath(), password, type, maxStore);
-    		isCached = true;
+		if (!buf.isDirect()) {
+			buf = ByteBuffer.allocateDirect(document.remaining());
+			buf.put(document.duplicate());
+			buf.flip();
+		}
+
+		handle = openBuffer(getType().getIntValue(), buf, 0, buf.remaining(), getPassWord().getBytes(), getMaxStore());
+
+		checkHandle("buffer");
+
+		buffer = buf.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Open a document read from a channel. </br>
+	 * A file channel is memory mapped from its current position, other channels </br>
+	 * are read to the end into a direct buffer. The channel is not closed.
+	 * 
+	 * @param document
+	 * @param password
+	 * @param type
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	protected void open(ReadableByteChannel document, String password, DocumentType type, int maxStore) throws DocException, DocSecurityException  {
+		ByteBuffer buf;
+		try {
+			if (document instanceof FileChannel) {
+				FileChannel ch = (FileChannel)document;
+				long size = ch.size() - ch.position();
+				if (size > Integer.MAX_VALUE) {
+					throw new DocException("Error: channel document is too large.");
+				}
+				buf = ch.map(FileChannel.MapMode.READ_ONLY, ch.position(), size);
+			} else {
+				buf = readFully(document);
+			}
 		} catch (IOException e) {
-			throw new DocException("Error: byte[] document could not be opened.");
+			throw new DocException("Error: channel document could not be read. " + e.getMessage());
+		}
+		open(buf, password, type, maxStore);
+	}
+
+	/**
+	 * Read a channel to the end into a direct buffer
+	 * @param ch
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer readFully(ReadableByteChannel ch) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+		while (ch.read(buf) >= 0) {
+			if (!buf.hasRemaining()) {
+				if (buf.capacity() == Integer.MAX_VALUE) {
+					throw new IOException("document is too large");
+				}
+				ByteBuffer tmp = ByteBuffer.allocateDirect((int)Math.min(Integer.MAX_VALUE, buf.capacity() * 2L));
+				buf.flip();
+				tmp.put(buf);
+				buf = tmp;
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Check handle returned by native open
+	 * @param name
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	private void checkHandle(String name) throws DocException, DocSecurityException {
+		if (getHandle() > 0) {
+			pageCount = getPageCount(getHandle());
+		} else {
+			if (getHandle() == -3) {
+				throw new DocSecurityException("Error " + getHandle() + ": Document requires authentication");
+			} else {
+				throw new DocException("Error " + getHandle() + ": Document " + name + " could not be opened.");
+			}		
 		}
 	}
 
 	/* */
 	public void dispose() {
 		if (getHandle() > 0) {
+			pageCache.dispose();
 			close(getHandle());
-			if (isCached) {
-				File file = new File(document);
-				if (file.exists()) {
-					file.delete();
-				}
-			}
-			if (outline != null) {
-				disposeOutline(outline);
-			}
+			outline = null;
+			buffer = null;
 			handle = 0;
 		}
 	}
@@ -131,6 +243,14 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		return type;
 	}
 	
+	/* */
+	public OpenMode getOpenMode() {
+		if (openMode == null) {
+			openMode = OpenMode.OPEN_READ;
+		}
+		return openMode;
+	}
+
 	/* */
 	public int getMaxStore() {
 		if (maxStore <= 0) {
@@ -138,7 +258,33 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		}
 		return maxStore;
 	}
+
+	/* */
+	public StoreStats getStoreStats() {
+		if (handle > 0) {
+			return ResourceStore.getStats(handle);
+		}
+		return null;
+	}
+
+	/* */
+	public GlyphCacheStats getGlyphCacheStats() {
+		if (handle > 0) {
+			return ResourceStore.getGlyphStats(handle);
+		}
+		return null;
+	}
 	
+	/* */
+	public boolean isLazyLoad() {
+		return isLazyLoad;
+	}
+
+	/* */
+	public void setLazyLoad(boolean lazyLoad) {
+		this.isLazyLoad = lazyLoad;
+	}
+
 	/* */
 	public int getVersion() {
 		if (getHandle() > 0) {
@@ -155,6 +301,14 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		return document;
 	}
 
+	/* */
+	public ByteBuffer getDocumentBuffer() {
+		if (buffer != null) {
+			return buffer.duplicate();
+		}
+		return null;
+	}
+
 	/* */
 	public String getFileName() {
 		if (fileName == null) {
@@ -184,7 +338,7 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 		if (getHandle() > 0) {
 			synchronized (this) {
 				if (outline == null) {
-					outline = getOutline(getHandle());	
+					outline = DocumentOutline.create(getOutlineData(getHandle()));
 				}
 			}
 			return outline;
@@ -203,39 +357,74 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 	/* */
 	public Page getPage(int page) throws PageException {
 		if (getHandle() > 0) {
-			return new DocumentPageFactory(this, page);
+			if (pageCache.isEnabled()) {
+				return pageCache.acquire(page);
+			}
+			return newPage(page, null);
 		}
 		return null;
 	}
 
+	/* */
+	public PageCache getPageCache() {
+		return pageCache;
+	}
+
+	/* */
+	public int exportText(int firstPage, int lastPage, TextFormat format, OutputStream out) throws IOException, InterruptedException, PageException {
+		TextExporter exporter = new TextExporter(this, 0);
+		try {
+			return exporter.export(firstPage, lastPage, format, out);
+		} finally {
+			exporter.shutdown();
+		}
+	}
+
+	/* */
+	public int exportText(int firstPage, int lastPage, TextFormat format, WritableByteChannel out) throws IOException, InterruptedException, PageException {
+		TextExporter exporter = new TextExporter(this, 0);
+		try {
+			return exporter.export(firstPage, lastPage, format, out);
+		} finally {
+			exporter.shutdown();
+		}
+	}
+
 	/**
-	 * Release all references to outline objects
-	 * 
-	 * @param o 
+	 * Load a new page object
+	 * @param page
+	 * @param cache cache the page belongs to or null
+	 * @return
+	 * @throws PageException
 	 */
-	private static void disposeOutline(DocumentOutline o) {
-		while (o != null) {
-			if (o.getChild() != null) {
-				disposeOutline(o.getChild());
-			}
-			if (o.getNext() != null) {
-				disposeOutline(o.getNext());
-			}
-			o = null;
-		}
+	DocumentPageFactory newPage(int page, PageCache cache) throws PageException {
+		return new DocumentPageFactory(this, page, cache);
+	}
+
+	/**
+	 * Create a lease on a cached page
+	 * @param page
+	 * @return
+	 */
+	Page newLease(DocumentPageFactory page) {
+		return new DocumentPageLease(page);
 	}
 
 	/**
 	 * DocumentPageFactory class
 	 */
 	class DocumentPageFactory extends PageImp {		
-		public DocumentPageFactory(Document doc, int page) throws PageException {
+		private PageCache cache;
+
+		public DocumentPageFactory(Document doc, int page, PageCache cache) throws PageException {
 			float[] info = new float[5];
+			this.cache = cache;
 			document = doc;
 			pageNumber = page;
 			synchronized (doc) {
-				handle = newPage(doc.getHandle(), page, info);	
+				handle = newPage(doc.getHandle(), page, info, doc.isLazyLoad());	
 			}
+			isLoaded = !doc.isLazyLoad();
 			if (handle > 0) {
 				boundBox = new PageRect(info[0], info[1], info[2], info[3]);
 				rotation = (int)info[4];
@@ -243,6 +432,87 @@ public abstract class DocumentImp extends JmuPdf implements Document {
 				throw new PageException("Error: Page could not be created.");
 			}
 		}
+
+		/**
+		 * Free the page unless it is owned by a cache. </br>
+		 * Cached pages are only handed out through leases.
+		 */
+		public void dispose() {
+			if (cache == null) {
+				free();
+			}
+		}
+
+		/**
+		 * Free native page resources
+		 */
+		void free() {
+			super.dispose();
+		}
+
+		/**
+		 * Get estimated number of bytes held by the page display list and text layout
+		 * @return
+		 */
+		long getCacheSize() {
+			if (getHandle() > 0) {
+				long size = Math.max(0, getPageListSize(getHandle()));
+				PageTextLayout layout = textLayout;
+				if (layout != null) {
+					size += layout.getMemorySize();
+				}
+				return size;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * DocumentPageLease class </br></br>
+	 * 
+	 * One lease on a cached page. Every call to getPage() returns its own lease </br>
+	 * so disposing of a lease twice does not return the lease of another holder. </br>
+	 * A disposed lease has no handle and renders nothing.
+	 */
+	class DocumentPageLease extends PageImp {
+		private DocumentPageFactory page;
+		private volatile boolean released;
+
+		public DocumentPageLease(DocumentPageFactory page) {
+			this.page = page;
+			document = page.getDocument();
+			pageNumber = page.getPageNumber();
+			boundBox = page.getBoundBox();
+			rotation = page.getRotation();
+		}
+
+		/* */
+		public long getHandle() {
+			return released ? 0 : page.getHandle();
+		}
+
+		/* */
+		public PageTextLayout getTextLayout() {
+			return released ? null : page.getTextLayout();
+		}
+
+		/* */
+		public PageLinks[] getLinks(PageRendererOptions options) {
+			return released ? null : page.getLinks(options);
+		}
+
+		/**
+		 * Return the lease, only the first call has an effect
+		 */
+		public void dispose() {
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			page.cache.release(page);
+		}
 	}
 
 }
@@ -13,12 +13,21 @@ import com.jmupdf.enums.LinkType;
  * This class returns a data structure of entries that can be used to build a
  * tree view for navigating a document.
  * 
+ * The outline of a document is read in one native call. Child and next entries
+ * are created the first time getChild() or getNext() is called, so only the
+ * parts of the tree that are expanded become objects.
+ * 
  * @author Pedro J Rivera
  *
  */
 public class DocumentOutline {
 	private DocumentOutline next;
 	private DocumentOutline child;
+	private DocumentOutline parent;
+	private DocumentOutlineData data;
+	private int index;
+	private boolean isNextLoaded;
+	private boolean isChildLoaded;
 	private LinkType type;
 	private String destination;
 	private String title;	
@@ -55,25 +64,108 @@ public class DocumentOutline {
 	public DocumentOutline() {
 		this(0, "", "");
 	}
+
+	/**
+	 * Create entry from flat outline data
+	 * @param data
+	 * @param index
+	 * @param parent
+	 */
+	DocumentOutline(DocumentOutlineData data, int index, DocumentOutline parent) {
+		this(0, "", "");
+		this.data = data;
+		this.index = index;
+		this.parent = parent;
+		String title = data.getTitle(index);
+		if (title != null) {
+			this.title = title;
+		}
+		this.type = LinkType.setType(data.getType(index));
+		if (getType() == LinkType.LINK_GOTO) {
+			setPage(data.getPage(index));
+			setRect(data.getCoord(index, 0), data.getCoord(index, 1), data.getCoord(index, 2), data.getCoord(index, 3));
+		} else if (data.getDestination(index) != null) {
+			this.destination = data.getDestination(index);
+		}
+	}
+
+	/**
+	 * Create first entry of an outline
+	 * @param data
+	 * @return null if outline is empty
+	 */
+	static DocumentOutline create(byte[] data) {
+		if (data == null) {
+			return null;
+		}
+		DocumentOutlineData d = new DocumentOutlineData(data);
+		if (d.getCount() <= 0) {
+			return null;
+		}
+		return new DocumentOutline(d, 0, null);
+	}
 	
-	public DocumentOutline addChild() {		
+	public synchronized DocumentOutline addChild() {		
 		child = new DocumentOutline(0, "", "");
+		child.parent = this;
+		isChildLoaded = true;
 		return child;
 	}
 
-	public DocumentOutline getChild() {		
+	/**
+	 * Get first child, creating it if needed
+	 * @return
+	 */
+	public synchronized DocumentOutline getChild() {		
+		if (!isChildLoaded) {
+			isChildLoaded = true;
+			if (data != null && data.getChild(index) >= 0) {
+				child = new DocumentOutline(data, data.getChild(index), this);
+			}
+		}
 		return child;
 	}
+
+	/**
+	 * Determine if entry has children without creating them
+	 * @return
+	 */
+	public synchronized boolean hasChild() {
+		if (isChildLoaded) {
+			return child != null;
+		}
+		return data != null && data.getChild(index) >= 0;
+	}
 	
-	public DocumentOutline addNext() {		
+	public synchronized DocumentOutline addNext() {		
 		next = new DocumentOutline(0, "", "");
+		next.parent = parent;
+		isNextLoaded = true;
 		return next;
 	}
 	
-	public DocumentOutline getNext() {		
+	/**
+	 * Get next entry on the same level, creating it if needed
+	 * @return
+	 */
+	public synchronized DocumentOutline getNext() {		
+		if (!isNextLoaded) {
+			isNextLoaded = true;
+			if (data != null && data.getNext(index) >= 0) {
+				next = new DocumentOutline(data, data.getNext(index), parent);
+			}
+		}
 		return next;
 	}
 
+	/**
+	 * Get parent entry or null for top level entries
+	 * @return
+	 */
+	public DocumentOutline getParent() {
+		return parent;
+	}
+
 	/**
 	 * Set link type
 	 * @param type
@@ -0,0 +1,167 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.document;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * DocumentOutlineData class </br></br>
+ * 
+ * Flat outline of a document as returned by native code. </br>
+ * The buffer holds the number of items, a record of 13 ints per item in depth </br>
+ * first order and a pool of UTF-8 strings. Records link items by index so </br>
+ * DocumentOutline objects can be created one subtree at a time.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+final class DocumentOutlineData {
+	private static final int PARENT = 0;
+	private static final int NEXT = 1;
+	private static final int CHILD = 2;
+	private static final int TYPE = 3;
+	private static final int PAGE = 4;
+	private static final int X0 = 5;
+	private static final int TITLE = 9;
+	private static final int DEST = 11;
+	private static final int FIELDS = 13;
+
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int pool;
+
+	/**
+	 * Create outline data
+	 * @param data
+	 */
+	DocumentOutlineData(byte[] data) {
+		buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+		count = data.length >= 4 ? buffer.getInt(0) : 0;
+		pool = 4 + count * FIELDS * 4;
+	}
+
+	/**
+	 * Get number of items
+	 * @return
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get index of parent item or -1
+	 * @param index
+	 * @return
+	 */
+	int getParent(int index) {
+		return getInt(index, PARENT);
+	}
+
+	/**
+	 * Get index of next item on the same level or -1
+	 * @param index
+	 * @return
+	 */
+	int getNext(int index) {
+		return getInt(index, NEXT);
+	}
+
+	/**
+	 * Get index of first child or -1
+	 * @param index
+	 * @return
+	 */
+	int getChild(int index) {
+		return getInt(index, CHILD);
+	}
+
+	/**
+	 * Get link type
+	 * @param index
+	 * @return
+	 */
+	int getType(int index) {
+		return getInt(index, TYPE);
+	}
+
+	/**
+	 * Get page number of a LINK_GOTO item
+	 * @param index
+	 * @return
+	 */
+	int getPage(int index) {
+		return getInt(index, PAGE);
+	}
+
+	/**
+	 * Get coordinate of a LINK_GOTO item
+	 * @param index
+	 * @param coord 0 to 3 for x0, y0, x1, y1
+	 * @return
+	 */
+	float getCoord(int index, int coord) {
+		return buffer.getFloat(offset(index, X0 + coord));
+	}
+
+	/**
+	 * Get title or null
+	 * @param index
+	 * @return
+	 */
+	String getTitle(int index) {
+		return getString(index, TITLE);
+	}
+
+	/**
+	 * Get destination or null
+	 * @param index
+	 * @return
+	 */
+	String getDestination(int index) {
+		return getString(index, DEST);
+	}
+
+	/**
+	 * Get int field of a record
+	 * @param index
+	 * @param field
+	 * @return
+	 */
+	private int getInt(int index, int field) {
+		return buffer.getInt(offset(index, field));
+	}
+
+	/**
+	 * Get string of a record, the field is followed by the string length
+	 * @param index
+	 * @param field
+	 * @return
+	 */
+	private String getString(int index, int field) {
+		int start = getInt(index, field);
+		if (start < 0) {
+			return null;
+		}
+		try {
+			return new String(buffer.array(), pool + start, getInt(index, field + 1), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get byte offset of a record field
+	 * @param index
+	 * @param field
+	 * @return
+	 */
+	private static int offset(int index, int field) {
+		return 4 + (index * FIELDS + field) * 4;
+	}
+
+}
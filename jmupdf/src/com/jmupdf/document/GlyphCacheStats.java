@@ -0,0 +1,100 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.document;
+
+/**
+ * GlyphCacheStats class
+ * 
+ * Snapshot of glyph cache counters of a document, or of the shared store.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class GlyphCacheStats {
+	private long bytes;
+	private long items;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long maxBytes;
+
+	/**
+	 * Create statistics instance
+	 * @param stats bytes, items, hits, misses, evictions, max bytes
+	 */
+	GlyphCacheStats(long[] stats) {
+		this.bytes = stats[0];
+		this.items = stats[1];
+		this.hits = stats[2];
+		this.misses = stats[3];
+		this.evictions = stats[4];
+		this.maxBytes = stats[5];
+	}
+
+	/**
+	 * Get number of bytes currently held by the cache
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get number of glyphs currently held by the cache
+	 * @return
+	 */
+	public long getItems() {
+		return items;
+	}
+
+	/**
+	 * Get number of glyphs found in the cache
+	 * @return
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of glyphs that had to be rendered
+	 * @return
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get fraction of glyphs found in the cache, from 0 to 1
+	 * @return
+	 */
+	public float getHitRate() {
+		long total = hits + misses;
+		return total > 0 ? (float)hits / total : 0;
+	}
+
+	/**
+	 * Get number of glyphs evicted to make space for others
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Get maximum number of bytes the cache may hold
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/* */
+	public String toString() {
+		return "bytes=" + bytes + " items=" + items + " hits=" + hits + 
+			   " misses=" + misses + " evictions=" + evictions + " max=" + maxBytes;
+	}
+
+}
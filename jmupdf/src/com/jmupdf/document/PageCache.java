@@ -0,0 +1,283 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.document;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Page;
+
+/**
+ * PageCache class </br></br>
+ * 
+ * Memory bounded LRU cache of loaded pages and their display lists. </br></br>
+ * 
+ * While the cache is enabled Document.getPage() hands out reference counted leases </br>
+ * on a shared page object and Page.dispose() returns the lease instead of freeing </br>
+ * the page. Each call returns a distinct lease, disposing of it again does nothing. </br>
+ * Pages that are no longer leased stay loaded until the estimated size </br>
+ * of all cached display lists exceeds the byte budget, at which point the least </br>
+ * recently used ones are freed. Pages that are still leased are never freed. </br></br>
+ * 
+ * Pages are loaded outside of the cache lock, so other pages are served meanwhile. </br>
+ * A request for a page that is being loaded waits for that load. </br></br>
+ * 
+ * Leases share the text layout and links of the cached page but each lease has </br>
+ * its own rendering options.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class PageCache {
+	private DocumentImp document;
+	private LinkedHashMap<Integer, PageCacheEntry> entries = new LinkedHashMap<Integer, PageCacheEntry>(16, 0.75f, true);
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/* Fixed cost of a page without its display list */
+	private static final long PAGE_OVERHEAD = 1024;
+
+	/**
+	 * Create page cache
+	 * @param document
+	 */
+	PageCache(DocumentImp document) {
+		this.document = document;
+	}
+
+	/**
+	 * Determine if cache is enabled
+	 * @return
+	 */
+	public synchronized boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * Get byte budget
+	 * @return
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set byte budget. </br>
+	 * A value of zero disables the cache and frees all pages that are not leased.
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		trim();
+	}
+
+	/**
+	 * Get estimated number of bytes held by cached pages
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get number of cached pages
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Get number of requests served from the cache
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of requests that loaded a page
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get number of pages freed to stay within budget
+	 * @return
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Free all pages that are not leased
+	 */
+	public synchronized void clear() {
+		long max = maxBytes;
+		maxBytes = 0;
+		trim();
+		maxBytes = max;
+	}
+
+	/**
+	 * Lease a page, loading it if it is not cached
+	 * @param pageNumber
+	 * @return
+	 * @throws PageException
+	 */
+	Page acquire(int pageNumber) throws PageException {
+		PageCacheEntry e;
+		boolean load;
+
+		synchronized (this) {
+			e = entries.get(pageNumber);
+			load = e == null;
+			if (load) {
+				misses++;
+				e = new PageCacheEntry(null);
+				entries.put(pageNumber, e);
+			} else {
+				hits++;
+			}
+			e.refs++;
+		}
+
+		if (load) {
+			DocumentImp.DocumentPageFactory page = null;
+			try {
+				page = document.newPage(pageNumber, this);
+			} finally {
+				synchronized (this) {
+					if (page != null) {
+						e.page = page;
+						e.size = page.getCacheSize() + PAGE_OVERHEAD;
+						bytes += e.size;
+					} else {
+						entries.remove(pageNumber);
+						e.failed = true;
+					}
+					notifyAll();
+				}
+			}
+		}
+
+		synchronized (this) {
+			boolean interrupted = false;
+			while (e.page == null && !e.failed) {
+				interrupted |= waitForLoad();
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (e.failed) {
+				throw new PageException("Error: Page could not be created.");
+			}
+			trim();
+			return document.newLease(e.page);
+		}
+	}
+
+	/**
+	 * Return a page lease
+	 * @param page
+	 */
+	synchronized void release(DocumentImp.DocumentPageFactory page) {
+		PageCacheEntry e = entries.get(page.getPageNumber());
+		if (e == null || e.page != page) {
+			return;
+		}
+		if (e.refs > 0) {
+			e.refs--;
+		}
+		// Lazy pages may have built their display list since they were cached
+		long size = e.page.getCacheSize() + PAGE_OVERHEAD;
+		bytes += size - e.size;
+		e.size = size;
+		trim();
+	}
+
+	/**
+	 * Free every page including leased ones. </br>
+	 * Called when the document is disposed.
+	 */
+	synchronized void dispose() {
+		// Pages still loading use the document
+		boolean interrupted = false;
+		for (boolean loading = true; loading; ) {
+			loading = false;
+			for (PageCacheEntry e : entries.values()) {
+				loading |= e.page == null;
+			}
+			if (loading) {
+				interrupted |= waitForLoad();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		ArrayList<PageCacheEntry> list = new ArrayList<PageCacheEntry>(entries.values());
+		entries.clear();
+		bytes = 0;
+		for (PageCacheEntry e : list) {
+			e.page.free();
+		}
+	}
+
+	/**
+	 * Wait until a page has been loaded or failed to load. </br>
+	 * Called with the cache lock held. Loading cannot be interrupted, the </br>
+	 * caller restores the interrupt once done waiting.
+	 * @return true if the thread was interrupted
+	 */
+	private boolean waitForLoad() {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Free least recently used pages that are not leased until within budget. </br>
+	 * Pages being loaded are leased by the loading thread.
+	 */
+	private void trim() {
+		Iterator<PageCacheEntry> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			PageCacheEntry e = it.next();
+			if (e.refs == 0) {
+				it.remove();
+				bytes -= e.size;
+				evictions++;
+				e.page.free();
+			}
+		}
+	}
+
+	/**
+	 * PageCacheEntry class
+	 */
+	static class PageCacheEntry {
+		private DocumentImp.DocumentPageFactory page;
+		private int refs;
+		private long size;
+		private boolean failed;
+
+		public PageCacheEntry(DocumentImp.DocumentPageFactory page) {
+			this.page = page;
+			this.size = 0;
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.document;
+
+import com.jmupdf.JmuPdf;
+
+/**
+ * ResourceStore class
+ * 
+ * Process wide resource store. </br></br>
+ * 
+ * Fonts, images and other resources decoded while rendering are kept in a </br>
+ * resource store for reuse. By default every document has a store of its own </br>
+ * limited by Document.getMaxStore(), so many open documents may hold many </br>
+ * times that amount of memory. </br></br>
+ * 
+ * Once a shared budget is set, documents opened afterwards keep their </br>
+ * resources in one store limited by that budget and their own max store is </br>
+ * ignored. When space is needed it is taken first from the documents holding </br>
+ * more than an equal share of the budget, so one busy document cannot push </br>
+ * out the resources of all the others. Documents sharing the store also share </br>
+ * the lock that guards it. </br></br>
+ * 
+ * Rendered glyphs are cached per anti-alias level. Documents sharing the store </br>
+ * also share one glyph cache, so glyphs of a font embedded in many documents </br>
+ * are rendered once. Other documents have a glyph cache of their own shared by </br>
+ * all their pages.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public final class ResourceStore extends JmuPdf {
+	private static long sharedBudget;
+
+	private ResourceStore() {}
+
+	/**
+	 * Set budget of the shared store. </br>
+	 * A budget of zero or less stops documents opened afterwards from sharing </br>
+	 * the store, documents already open keep using it until they are disposed.
+	 * @param maxBytes
+	 * @return true upon success
+	 */
+	public static synchronized boolean setSharedBudget(long maxBytes) {
+		if (setSharedStore(maxBytes) != 0) {
+			return false;
+		}
+		sharedBudget = Math.max(0, maxBytes);
+		return true;
+	}
+
+	/**
+	 * Get budget of the shared store, zero when not set
+	 * @return
+	 */
+	public static synchronized long getSharedBudget() {
+		return sharedBudget;
+	}
+
+	/**
+	 * Determine if documents opened from now on share the store
+	 * @return
+	 */
+	public static boolean isShared() {
+		return getSharedBudget() > 0;
+	}
+
+	/**
+	 * Get statistics of the shared store, null when not set
+	 * @return
+	 */
+	public static StoreStats getSharedStats() {
+		return getStats(0);
+	}
+
+	/**
+	 * Set glyph cache budget of the shared store and of documents opened afterwards. </br>
+	 * A budget of zero or less leaves the shared glyph cache as is and gives documents </br>
+	 * opened afterwards the default budget of 1mb.
+	 * @param maxBytes
+	 */
+	public static synchronized void setGlyphCacheBudget(long maxBytes) {
+		setGlyphCacheSize(maxBytes);
+	}
+
+	/**
+	 * Get glyph cache statistics of the shared store, null when not set
+	 * @return
+	 */
+	public static GlyphCacheStats getSharedGlyphStats() {
+		return getGlyphStats(0);
+	}
+
+	/**
+	 * Get glyph cache statistics of a document handle, or of the shared store if handle is zero
+	 * @param handle
+	 * @return
+	 */
+	static GlyphCacheStats getGlyphStats(long handle) {
+		long[] stats = new long[6];
+		if (getGlyphCacheStats(handle, stats) != 0) {
+			return null;
+		}
+		return new GlyphCacheStats(stats);
+	}
+
+	/**
+	 * Get statistics of a document handle, or of the shared store if handle is zero
+	 * @param handle
+	 * @return
+	 */
+	static StoreStats getStats(long handle) {
+		long[] stats = new long[5];
+		if (getStoreStats(handle, stats) != 0) {
+			return null;
+		}
+		return new StoreStats(stats);
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.document;
+
+/**
+ * StoreStats class
+ * 
+ * Snapshot of resource store counters of a document, or of the shared store.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class StoreStats {
+	private long bytes;
+	private long peak;
+	private long items;
+	private long evictions;
+	private long maxBytes;
+
+	/**
+	 * Create statistics instance
+	 * @param stats bytes, peak, items, evictions, max bytes
+	 */
+	StoreStats(long[] stats) {
+		this.bytes = stats[0];
+		this.peak = stats[1];
+		this.items = stats[2];
+		this.evictions = stats[3];
+		this.maxBytes = stats[4];
+	}
+
+	/**
+	 * Get number of bytes currently held in the store
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get largest number of bytes held in the store
+	 * @return
+	 */
+	public long getPeak() {
+		return peak;
+	}
+
+	/**
+	 * Get number of items currently held in the store
+	 * @return
+	 */
+	public long getItems() {
+		return items;
+	}
+
+	/**
+	 * Get number of items evicted to make space for others
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Get maximum number of bytes the store may hold. </br>
+	 * For a document sharing the process wide store this is the shared budget.
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/* */
+	public String toString() {
+		return "bytes=" + bytes + " peak=" + peak + " items=" + items + 
+			   " evictions=" + evictions + " max=" + maxBytes;
+	}
+
+}
@@ -17,9 +17,13 @@ public enum ImageType {
 	IMAGE_TYPE_ARGB(2),
 	IMAGE_TYPE_ARGB_PRE(3),
 	IMAGE_TYPE_BGR(4),
+	IMAGE_TYPE_3BYTE_BGR(5),
+	IMAGE_TYPE_4BYTE_ABGR(6),
+	IMAGE_TYPE_4BYTE_ABGR_PRE(7),
 	IMAGE_TYPE_GRAY(10), 
 	IMAGE_TYPE_BINARY(12), 
-	IMAGE_TYPE_BINARY_DITHER(121);
+	IMAGE_TYPE_BINARY_DITHER(121),
+	IMAGE_TYPE_BINARY_ORDERED(122);
 	
 	private int type;
 	
@@ -0,0 +1,32 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.enums;
+
+/**
+ * OpenMode enum </br></br>
+ * 
+ * OPEN_READ reads the document file through buffered reads. </br>
+ * OPEN_MAPPED maps the document file in memory for as long as the document is open.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public enum OpenMode {
+
+	OPEN_READ(0),
+	OPEN_MAPPED(1);
+	
+	private int mode;
+	
+	private OpenMode(int mode) {
+		this.mode = mode;
+	}
+	
+	public int getIntValue() {
+		return mode;
+	}
+	
+}
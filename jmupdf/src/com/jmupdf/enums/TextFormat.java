@@ -0,0 +1,29 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.enums;
+
+/**
+ * TextFormat enum
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public enum TextFormat {
+
+	TEXT_PLAIN(0),
+	TEXT_JSON_LINES(1);
+	
+	private int format;
+	
+	private TextFormat(int format) {
+		this.format = format;
+	}
+	
+	public int getIntValue() {
+		return format;
+	}
+	
+}
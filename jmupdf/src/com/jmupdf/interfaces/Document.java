@@ -5,8 +5,18 @@
  */
 package com.jmupdf.interfaces;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 import com.jmupdf.document.DocumentOutline;
+import com.jmupdf.document.GlyphCacheStats;
+import com.jmupdf.document.PageCache;
+import com.jmupdf.document.StoreStats;
 import com.jmupdf.enums.DocumentType;
+import com.jmupdf.enums.OpenMode;
+import com.jmupdf.enums.TextFormat;
 import com.jmupdf.exceptions.PageException;
 
 /**
@@ -29,6 +39,20 @@ public interface Document {
 	 * @return
 	 */
 	int getMaxStore();
+
+	/**
+	 * Get resource store usage of this document. </br>
+	 * When the document shares the process wide store, the max bytes are the shared budget.
+	 * @return
+	 */
+	StoreStats getStoreStats();
+
+	/**
+	 * Get glyph cache usage of this document. </br>
+	 * When the document shares the process wide store the glyph cache is shared too.
+	 * @return
+	 */
+	GlyphCacheStats getGlyphCacheStats();
 	
 	/**
 	 * Get document version
@@ -42,12 +66,25 @@ public interface Document {
 	 */
 	DocumentType getType();
 	
+	/**
+	 * Get mode the document file was opened with
+	 * @return
+	 */
+	OpenMode getOpenMode();
+
 	/**
 	 * Get document full path plus name
 	 * @return
 	 */
 	String getDocumentName();
 
+	/**
+	 * Get read only buffer of a document opened from memory or a channel. </br>
+	 * Returns null when the document was opened from a file name.
+	 * @return
+	 */
+	ByteBuffer getDocumentBuffer();
+
 	/**
 	 * Get document file name
 	 * @return
@@ -79,12 +116,62 @@ public interface Document {
 	int getPageCount();
 
 	/**
-	 * Create a new page object.   
+	 * Determine if pages are loaded lazily
+	 * @return
+	 */
+	boolean isLazyLoad();
+
+	/**
+	 * Set lazy page loading. </br></br>
+	 * 
+	 * When enabled getPage() only loads the page bounds, rotation and links. </br>
+	 * Page contents are interpreted the first time the page is rendered or its </br>
+	 * text is extracted. This makes scanning page sizes of large documents cheap. </br>
+	 * Default is false. Only affects pages created afterwards.
+	 * @param lazyLoad
+	 */
+	void setLazyLoad(boolean lazyLoad);
+
+	/**
+	 * Create a new page object. </br>
+	 * When the page cache is enabled a lease on a shared page object is returned </br>
+	 * instead. In both cases call Page.dispose() once done with the page.
 	 * @param page
 	 * @return
 	 */
 	Page getPage(int page) throws PageException;
 
+	/**
+	 * Get page cache. </br>
+	 * The cache is disabled until a byte budget is set with PageCache.setMaxBytes().
+	 * @return
+	 */
+	PageCache getPageCache();
+
+	/**
+	 * Export the text of a range of pages as UTF-8, in page order. </br>
+	 * Pages are processed in parallel, see TextExporter. The stream is not closed.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param format
+	 * @param out
+	 * @return number of pages exported
+	 * @throws PageException if the text of a page could not be exported
+	 */
+	int exportText(int firstPage, int lastPage, TextFormat format, OutputStream out) throws IOException, InterruptedException, PageException;
+
+	/**
+	 * Export the text of a range of pages as UTF-8, in page order. </br>
+	 * Pages are processed in parallel, see TextExporter. The channel is not closed.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param format
+	 * @param out
+	 * @return number of pages exported
+	 * @throws PageException if the text of a page could not be exported
+	 */
+	int exportText(int firstPage, int lastPage, TextFormat format, WritableByteChannel out) throws IOException, InterruptedException, PageException;
+
 	/**
 	 * Close document and dispose of resources
 	 */
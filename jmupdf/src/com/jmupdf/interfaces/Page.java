@@ -5,9 +5,17 @@
  */
 package com.jmupdf.interfaces;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
 import com.jmupdf.page.PageLinks;
 import com.jmupdf.page.PageRect;
 import com.jmupdf.page.PageText;
+import com.jmupdf.page.PageTextLayout;
+import com.jmupdf.page.RenderCookie;
 
 /**
  * Page Interface
@@ -90,6 +98,14 @@ public interface Page {
 	 */
 	PageText[] getTextSpan(PageRect rect);
 
+	/**
+	 * Get text layout of the whole page. </br></br>
+	 * The layout is extracted on first use and kept until the page is disposed, </br>
+	 * later calls, and getTextSpan(), are answered from it.
+	 * @return
+	 */
+	PageTextLayout getTextLayout();
+
 	/**
 	 * Get PageLinks Array Object </br>
 	 * Optionally pass in a PageRendererOptions object to determine how to extract links. </br>
@@ -99,10 +115,20 @@ public interface Page {
 	PageLinks[] getLinks(PageRendererOptions options);
 	
 	/**
-	 * Get PagePixels object
+	 * Get PagePixels object. </br>
+	 * The PagePixels object gets its own copy of the page rendering options.
 	 * @return
 	 */
 	PagePixels getPagePixels();
+
+	/**
+	 * Get PagePixels object whose rendering options are copied from the given options. </br></br>
+	 * 
+	 * Any number of PagePixels objects may render the same page concurrently.
+	 * @param options
+	 * @return
+	 */
+	PagePixels getPagePixels(PageRendererOptions options);
 	
 	/**
 	 * Save page as an image file 
@@ -120,10 +146,106 @@ public interface Page {
 	byte[] saveAsImage(PageRendererOptions options);
 
 	/**
-	 * Get a page rendering object
+	 * Save page as an image written to a stream. </br></br>
+	 * 
+	 * The image is encoded into a small buffer that is written to the stream </br>
+	 * whenever it is full, so output starts before encoding is done and the </br>
+	 * encoded image is never held in memory. All image formats are supported. </br>
+	 * The stream is flushed but not closed.
+	 * @param out
+	 * @param options
+	 * @return true upon success, false otherwise
+	 * @throws IOException if the stream could not be written
+	 */
+	boolean saveAsImage(OutputStream out, PageRendererOptions options) throws IOException;
+
+	/**
+	 * Save page as an image written to a channel. </br>
+	 * The channel is not closed.
+	 * @param channel
+	 * @param options
+	 * @return true upon success, false otherwise
+	 * @throws IOException if the channel could not be written
+	 */
+	boolean saveAsImage(WritableByteChannel channel, PageRendererOptions options) throws IOException;
+
+	/**
+	 * Get the dimensions of the image the rendering options will produce. </br>
+	 * The page is not rendered. The returned rectangle is 0, 0, width, height.
+	 * @param options
+	 * @return
+	 */
+	PageRect getPixelBounds(PageRendererOptions options);
+
+	/**
+	 * Render page directly into a caller supplied direct byte buffer. </br></br>
+	 * 
+	 * Pixels are packed the same way as PagePixels.getPixels(), one int per pixel </br>
+	 * in native byte order, one byte per pixel for gray and binary images or 3 and 4 </br>
+	 * bytes per pixel for the 3BYTE and 4BYTE image types, and are written starting </br>
+	 * at the buffer's current position. Use getPixelBounds() to size the buffer. </br>
+	 * Nothing is allocated on the java heap.
+	 * @param options
+	 * @param buffer must be a direct buffer
+	 * @return true upon success, false otherwise
+	 */
+	boolean render(PageRendererOptions options, ByteBuffer buffer);
+
+	/**
+	 * Render page directly into the data buffer backing a BufferedImage. </br></br>
+	 * 
+	 * The image type must match the ImageType of the options and the image must be </br>
+	 * at least as large as getPixelBounds(). Pixels are written in place so no </br>
+	 * intermediate copies are made, except for binary images which are packed by Java2D.
+	 * @param options
+	 * @param image
+	 * @return true upon success, false otherwise
+	 */
+	boolean render(PageRendererOptions options, BufferedImage image);
+
+	/**
+	 * Render page directly into the data buffer backing a BufferedImage. </br>
+	 * Rendering stops early, and false is returned, when the cookie is aborted.
+	 * @param options
+	 * @param image
+	 * @param cookie can be null
+	 * @return true upon success, false otherwise
+	 */
+	boolean render(PageRendererOptions options, BufferedImage image, RenderCookie cookie);
+
+	/**
+	 * Render page into a new BufferedImage sized by getPixelBounds(). </br>
+	 * The image type is derived from the ImageType of the options.
+	 * @param options
+	 * @return BufferedImage or null upon failure
+	 */
+	BufferedImage getImage(PageRendererOptions options);
+
+	/**
+	 * Render page into a new BufferedImage sized by getPixelBounds(). </br>
+	 * Rendering stops early, and null is returned, when the cookie is aborted.
+	 * @param options
+	 * @param cookie can be null
+	 * @return BufferedImage or null upon failure
+	 */
+	BufferedImage getImage(PageRendererOptions options, RenderCookie cookie);
+
+	/**
+	 * Get a page rendering object. </br></br>
+	 * 
+	 * Options are passed by value on every render call. To render the same page </br>
+	 * from several threads use a PageRendererOptionsSnapshot per render instead </br>
+	 * of sharing this object, or a private one from newRenderingOptions().
 	 * @return
 	 */
 	PageRendererOptions getRenderingOptions();
+
+	/**
+	 * Create a new page rendering object with default options. </br>
+	 * Unlike getRenderingOptions() the object is not shared with anyone else.
+	 * @return
+	 */
+	PageRendererOptions newRenderingOptions();
 	
 	/**
 	 * Dispose of page resources
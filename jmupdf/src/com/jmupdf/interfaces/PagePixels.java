@@ -36,7 +36,10 @@ public interface PagePixels {
 	public BufferedImage getImage();
 
 	/**
-	 * Get pixel data
+	 * Get pixel data. </br></br>
+	 * 
+	 * The array comes from the pixel buffer pool and may be longer than width * height. </br>
+	 * It is no longer valid once dispose() has been called.
 	 * @return
 	 */
 	public Object getPixels();
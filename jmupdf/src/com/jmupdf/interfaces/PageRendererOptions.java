@@ -17,8 +17,9 @@ import com.jmupdf.page.PageRect;
  * The PageRendererOption object is implemented as a singleton within the </br> 
  * Page object via the Page.getRenderingOptions() factory method. </br></br>
  * So basically each Page object has its own PageRendererOption object. </br></br> 
- * It is necessary that the object be accessed in a synchronized manner preferably </br>
- * within the same thread that the page is being instantiated and rendered.
+ * Options are copied and passed by value to the native renderer on every render call, </br>
+ * so renders of the same page never share state. The object itself is not thread safe; </br>
+ * use PageRendererOptionsSnapshot to share options between threads.
  * 
  * @author Francois Barre
  * @author Pedro J Rivera
@@ -126,6 +127,14 @@ public interface PageRendererOptions {
      * default value of 75. <br/><br/>
      * </blockquote>
      * 
+     * <strong>When ImageType == FORMAT_PNG <br/></strong>
+     * <blockquote>
+     * Control the compression level of the Deflate codec. Quality     <br/>
+     * levels are in the range 1-9 with a default value of 6. Level 1  <br/>
+     * is the fastest. Levels 7 and above also pick the best          <br/>
+     * prediction filter of every row, which yields smaller files.     <br/><br/>
+     * </blockquote>
+     * 
      * @param quality
      */
     public void setQuality(int quality);
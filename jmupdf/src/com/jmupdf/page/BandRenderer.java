@@ -0,0 +1,160 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * BandRenderer class </br></br>
+ * 
+ * Renders very large pages in horizontal bands with bounded memory. </br></br>
+ * 
+ * Only one band of rows is held in memory at a time. Every band is either handed </br>
+ * to a PageBandSink or encoded straight into a PNG or TIF file before the next </br>
+ * band is drawn, so peak memory depends on the page width and the band height </br>
+ * instead of the page size. TIF files get one strip per band. </br></br>
+ * 
+ * Bands are drawn so the image is the same, pixel for pixel, as one rendered </br>
+ * in one piece. Dithered black and white images carry the error of each band </br>
+ * into the next. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * BandRenderer r = new BandRenderer(page, options); </br>
+ * r.setBandHeight(256); </br>
+ * r.save("c:\\temp\\poster.png"); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class BandRenderer extends JmuPdf {
+	private Page page;
+	private PageRendererOptions options;
+	private RenderCookie cookie = new RenderCookie();
+	private int bandHeight = 256;
+	private int width;
+	private int height;
+	private PageBandSink sink;
+
+	/**
+	 * Create band renderer. </br>
+	 * Options are copied so they may be changed afterwards.
+	 * @param page
+	 * @param options
+	 */
+	public BandRenderer(Page page, PageRendererOptions options) {
+		this.page = page;
+		this.options = new PageRendererOptionsSnapshot(options);
+		PageRect bounds = page.getPixelBounds(options);
+		if (bounds != null) {
+			width = bounds.getWidth();
+			height = bounds.getHeight();
+		}
+	}
+
+	/**
+	 * Get width of rendered page in pixels
+	 * @return
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get height of rendered page in pixels
+	 * @return
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get render cookie
+	 * @return
+	 */
+	public RenderCookie getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Get band height in rows
+	 * @return
+	 */
+	public int getBandHeight() {
+		return bandHeight;
+	}
+
+	/**
+	 * Set band height in rows. </br>
+	 * Memory use grows with the band height while taller bands run the display list less often.
+	 * @param bandHeight
+	 */
+	public void setBandHeight(int bandHeight) {
+		this.bandHeight = Math.max(1, bandHeight);
+	}
+
+	/**
+	 * Render page in the current thread and pass every band to a sink
+	 * @param sink
+	 * @return true upon success, false upon failure or when aborted
+	 */
+	public boolean render(PageBandSink sink) {
+		if (sink == null || width <= 0 || height <= 0 || !((PageImp)page).loadContents()) {
+			return false;
+		}
+		this.sink = sink;
+		cookie.reset();
+		try {
+			int[] bbox = new int[4];
+			return drawBands(page.getHandle(), PageRendererOptionsImp.getOptionsArray(options), bbox, cookie.getBuffer(), bandHeight, this) == 0;
+		} finally {
+			this.sink = null;
+		}
+	}
+
+	/**
+	 * Render page in the current thread and save it to a PNG or TIF file. </br>
+	 * The image format is taken from the options.
+	 * @param file
+	 * @return true upon success, false upon failure or when aborted
+	 */
+	public boolean save(String file) {
+		ImageFormat format = options.getImageFormat();
+		if (format != ImageFormat.FORMAT_PNG && format != ImageFormat.FORMAT_TIF) {
+			log("Only PNG and TIF file formats can be saved band by band.");
+			return false;
+		}
+		if (!options.isValid() || !((PageImp)page).loadContents()) {
+			return false;
+		}
+		cookie.reset();
+		return saveBanded(page.getHandle(), PageRendererOptionsImp.getOptionsArray(options), file.getBytes(), cookie.getBuffer(), bandHeight) == 0;
+	}
+
+	/**
+	 * Called from native code once a band is packed into the shared buffer
+	 * @param buffer
+	 * @param y
+	 * @param h
+	 */
+	void writeBand(ByteBuffer buffer, int y, int h) {
+		int size = width * h * PagePixelsImp.getPixelSize(options.getImageType());
+		if (!PagePixelsImp.isByteData(options.getImageType())) {
+			size *= 4;
+		}
+		buffer.clear();
+		buffer.limit(size);
+		sink.writeBand(buffer.order(ByteOrder.nativeOrder()), y, h);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ImageStreamWriter class </br></br>
+ * 
+ * Passes an image encoded natively to a channel. The encoder fills a small </br>
+ * direct buffer and calls write() every time the buffer is full, so the encoded </br>
+ * image is never held on the java heap. Every thread reuses its own buffer.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+final class ImageStreamWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	private WritableByteChannel channel;
+	private ByteBuffer buffer;
+	private IOException error;
+
+	/**
+	 * Create a writer for a channel
+	 * @param channel
+	 */
+	ImageStreamWriter(WritableByteChannel channel) {
+		this.channel = channel;
+		this.buffer = buffers.get();
+	}
+
+	/**
+	 * Get buffer filled by the encoder
+	 * @return
+	 */
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Write the first length bytes of the buffer to the channel. </br>
+	 * Called from native code.
+	 * @param length
+	 * @return false if the channel could not be written
+	 */
+	boolean write(int length) {
+		buffer.clear();
+		buffer.limit(length);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			error = e;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Rethrow the error raised by the channel, if any
+	 * @throws IOException
+	 */
+	void checkError() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+}
@@ -0,0 +1,35 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageBandSink interface </br></br>
+ * 
+ * Receives the bands of rows rendered by a BandRenderer, from top to bottom. </br></br>
+ * 
+ * Pixels are packed the same way as PagePixels.getPixels(), one int per pixel in </br>
+ * native byte order for RGB and ARGB images, one byte per pixel for gray and </br>
+ * black and white images and 3 or 4 bytes per pixel for the 3BYTE and 4BYTE images, </br>
+ * with rows of width pixels and no padding. </br>
+ * The buffer is reused for the next band so it must be consumed, or copied, </br>
+ * before writeBand() returns.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public interface PageBandSink {
+
+	/**
+	 * Receive a band of rows
+	 * @param pixels packed pixels of the band, positioned at its first pixel
+	 * @param y first row of the band
+	 * @param height number of rows in the band
+	 */
+	void writeBand(ByteBuffer pixels, int y, int height);
+
+}
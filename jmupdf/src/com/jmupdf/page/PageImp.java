@@ -5,7 +5,19 @@
  */
 package com.jmupdf.page;
 
-import java.nio.ByteOrder;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 import com.jmupdf.JmuPdf;
 import com.jmupdf.enums.ImageFormat;
@@ -24,10 +36,12 @@ public abstract class PageImp extends JmuPdf implements Page {
 	protected Document document;
 	protected PageRect boundBox = new PageRect();
 	protected PageLinks[] links;
+	protected volatile PageTextLayout textLayout;
 	protected long handle = 0;
 	protected int pageNumber = 0;
 	protected int rotation = 0;
 	protected PageRendererOptions options = null;
+	protected volatile boolean isLoaded = false;
 	
 	/* */
 	public long getHandle() {
@@ -76,12 +90,23 @@ public abstract class PageImp extends JmuPdf implements Page {
 
 	/* */
 	public PageText[] getTextSpan(PageRect rect) {
-		if (getHandle() > 0) {
-			return getPageText(getHandle(), 0.45f, rect.getX0(), rect.getY0(), rect.getX1(), rect.getY1());			
+		PageTextLayout layout = getTextLayout();
+		if (layout != null) {
+			return layout.getTextSpan(rect, 0.45f);
 		}
 		return null;
 	}
 
+	/* */
+	public PageTextLayout getTextLayout() {
+		synchronized (this) {
+			if (textLayout == null && loadContents()) {
+				textLayout = getTextLayout(getHandle());
+			}
+			return textLayout;
+		}
+	}
+
 	/* */
 	public PageLinks[] getLinks(PageRendererOptions options) {
 		if (getHandle() <= 0) {
@@ -118,19 +143,20 @@ public abstract class PageImp extends JmuPdf implements Page {
 	/* */
 	public synchronized void dispose() {
 		if (getHandle() > 0) {
-			freePage(getHandle());
-			if (options != null) {
-				((PageRendererOptionsImp)options).dispose();
+			/* pages are freed with the document context, same as newPage() */
+			synchronized (getDocument()) {
+				freePage(getHandle());
 			}
 			handle = 0;
+			textLayout = null;
 		}
 	}
 
     /* */
     public boolean saveAsImage(String file, PageRendererOptions options) {
-        if (getHandle() > 0) {
+        if (loadContents()) {
         	if (options.isValid()) {
-        		return saveAsFile(getHandle(), file.getBytes()) == 0;
+        		return saveAsFile(getHandle(), PageRendererOptionsImp.getOptionsArray(options), file.getBytes()) == 0;
         	}
         }
         return false;
@@ -138,11 +164,11 @@ public abstract class PageImp extends JmuPdf implements Page {
 
     /* */
     public byte[] saveAsImage(PageRendererOptions options) {
-        if (getHandle() > 0) {
+        if (loadContents()) {
             if (options.getImageFormat() == ImageFormat.FORMAT_PNG ||
             	options.getImageFormat() == ImageFormat.FORMAT_JPG) {
             	if (options.isValid()) {
-            		return saveAsByte(getHandle());
+            		return saveAsByte(getHandle(), PageRendererOptionsImp.getOptionsArray(options));
             	}
             } else {
             	log("Currently only PNG and JPEG file formats are supported when creating a byte array.");
@@ -152,19 +178,186 @@ public abstract class PageImp extends JmuPdf implements Page {
     }
 
     /* */
-    public PagePixels getPagePixels() {
+    public boolean saveAsImage(OutputStream out, PageRendererOptions options) throws IOException {
+    	boolean rc = saveAsImage(Channels.newChannel(out), options);
+    	out.flush();
+    	return rc;
+    }
+
+    /* */
+    public boolean saveAsImage(WritableByteChannel channel, PageRendererOptions options) throws IOException {
+        if (loadContents()) {
+        	if (options.isValid()) {
+        		ImageStreamWriter writer = new ImageStreamWriter(channel);
+        		int rc = saveAsStream(getHandle(), PageRendererOptionsImp.getOptionsArray(options), writer, writer.getBuffer());
+        		writer.checkError();
+        		return rc == 0;
+        	}
+        }
+        return false;
+    }
+
+    /* */
+    public PageRect getPixelBounds(PageRendererOptions options) {
     	if (getHandle() > 0) {
-    		return new PagePixelsFactory(this);
+    		int[] bbox = new int[4];
+    		if (getPixelBounds(getHandle(), PageRendererOptionsImp.getOptionsArray(options), bbox) == 0) {
+    			return new PageRect(bbox[0], bbox[1], bbox[2], bbox[3]);
+    		}
     	}
     	return null;
+    }
+
+    /* */
+    public boolean render(PageRendererOptions options, ByteBuffer buffer) {
+    	if (loadContents()) {
+    		if (buffer == null || !buffer.isDirect()) {
+    			log("A direct ByteBuffer is required.");
+    			return false;
+    		}
+    		int size = PagePixelsImp.isByteData(options.getImageType()) ? 1 : 4;
+    		if (buffer.position() % size != 0) {
+    			log("ByteBuffer position must be aligned to the pixel size.");
+    			return false;
+    		}
+    		int[] bbox = new int[4];
+    		return drawToBuffer(getHandle(), PageRendererOptionsImp.getOptionsArray(options), buffer, buffer.position() / size, 0, bbox, null) == 0;
+    	}
+    	return false;
+    }
+
+    /* */
+    public boolean render(PageRendererOptions options, BufferedImage image) {
+    	return render(options, image, null);
+    }
+
+    /* */
+    public boolean render(PageRendererOptions options, BufferedImage image, RenderCookie cookie) {
+    	if (!loadContents()) {
+    		return false;
+    	}
+
+    	int type = PagePixelsImp.getBufferedImageType(options.getImageType());
+
+    	if (image.getType() != type) {
+    		log("BufferedImage type does not match ImageType=" + options.getImageType());
+    		return false;
+    	}
+
+    	// Take one copy of the options so bounds and pixels always agree
+    	options = new PageRendererOptionsSnapshot(options);
+    	PageRect bounds = getPixelBounds(options);
+
+    	if (bounds == null || 
+    		bounds.getWidth() > image.getWidth() || 
+    		bounds.getHeight() > image.getHeight()) {
+    		return false;
+    	}
+
+    	int[] bbox = new int[4];
+    	WritableRaster raster = image.getRaster();
+
+    	// Binary images are bit packed so let Java2D do the packing
+    	if (type == BufferedImage.TYPE_BYTE_BINARY) {
+    		byte[] data = new byte[bounds.getWidth() * bounds.getHeight()];
+    		if (drawToArray(getHandle(), PageRendererOptionsImp.getOptionsArray(options), data, 0, bounds.getWidth(), bbox, RenderCookie.getBuffer(cookie)) != 0) {
+    			return false;
+    		}
+    		raster.setDataElements(0, 0, bbox[2], bbox[3], data);
+    		return true;
+    	}
+
+    	SampleModel sm = raster.getSampleModel();
+    	DataBuffer db = raster.getDataBuffer();
+    	int tx = -raster.getSampleModelTranslateX();
+    	int ty = -raster.getSampleModelTranslateY();
+    	int offset;
+    	int stride;
+
+    	if (sm instanceof SinglePixelPackedSampleModel) {
+    		offset = ((SinglePixelPackedSampleModel)sm).getOffset(tx, ty);
+    		stride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+    	} else if (sm instanceof ComponentSampleModel && 
+    			   ((ComponentSampleModel)sm).getPixelStride() == PagePixelsImp.getPixelSize(options.getImageType())) {
+    		// Byte layouts are written a whole pixel at a time, from its first band
+    		stride = ((ComponentSampleModel)sm).getScanlineStride();
+    		offset = ty * stride + tx * ((ComponentSampleModel)sm).getPixelStride();
+    	} else {
+    		return false;
+    	}
+
+    	Object data;
+
+    	if (db instanceof DataBufferInt) {
+    		data = ((DataBufferInt)db).getData();
+    	} else if (db instanceof DataBufferByte) {
+    		data = ((DataBufferByte)db).getData();
+    	} else {
+    		return false;
+    	}
+
+    	return drawToArray(getHandle(), PageRendererOptionsImp.getOptionsArray(options), data, offset + db.getOffset(), stride, bbox, RenderCookie.getBuffer(cookie)) == 0;
+    }
+
+    /* */
+    public BufferedImage getImage(PageRendererOptions options) {
+    	return getImage(options, null);
+    }
+
+    /* */
+    public BufferedImage getImage(PageRendererOptions options, RenderCookie cookie) {
+    	if (getHandle() <= 0) {
+    		return null;
+    	}
+    	options = new PageRendererOptionsSnapshot(options);
+    	PageRect bounds = getPixelBounds(options);
+    	if (bounds == null || bounds.getWidth() <= 0 || bounds.getHeight() <= 0) {
+    		return null;
+    	}
+    	int type = PagePixelsImp.getBufferedImageType(options.getImageType());
+    	BufferedImage image = new BufferedImage(bounds.getWidth(), bounds.getHeight(), type);
+    	if (render(options, image, cookie)) {
+    		return image;
+    	}
+    	image.flush();
+    	return null;
+    }
+
+    /**
+     * Make sure page contents are loaded. </br>
+     * Pages created in lazy mode interpret their contents on first use.
+     * @return true if contents are available
+     */
+    boolean loadContents() {
+    	if (!isLoaded && getHandle() > 0) {
+    		synchronized (getDocument()) {
+    			if (!isLoaded && getHandle() > 0) {
+    				isLoaded = loadPageList(getHandle()) == 0;
+    			}
+    		}
+    	}
+    	return isLoaded && getHandle() > 0;
+    }
+
+    /* */
+    public PagePixels getPagePixels() {
+    	return getPagePixels(getRenderingOptions());
     };
 
+    /* */
+    public PagePixels getPagePixels(PageRendererOptions options) {
+    	if (getHandle() > 0) {
+    		return new PagePixelsFactory(this, options);
+    	}
+    	return null;
+    }
+
     /* */
     public PageRendererOptions getRenderingOptions() {
     	if (getHandle() > 0) {
     		synchronized (this) {
         		if (options == null) {
-        			options = new PageRendererOptionsFactory(this);
+        			options = new PageRendererOptionsFactory();
     	    	}				
 			}
     		return options;
@@ -172,15 +365,22 @@ public abstract class PageImp extends JmuPdf implements Page {
     	return null;
     }
 
+    /* */
+    public PageRendererOptions newRenderingOptions() {
+    	return new PageRendererOptionsFactory();
+    }
+
     /**
      * PagePixelsFactory class
      */
     class PagePixelsFactory extends PagePixelsImp {
 
-        public PagePixelsFactory(Page page) {
+        public PagePixelsFactory(Page page, PageRendererOptions seed) {
+    		PageRendererOptionsFactory o = new PageRendererOptionsFactory();
+    		o.loadOptions(seed);
+    		o.setImageFormat(ImageFormat.FORMAT_BUFFERED_IMAGE);
     		this.page = page;
-    		options = page.getRenderingOptions();
-    		options.setImageFormat(ImageFormat.FORMAT_BUFFERED_IMAGE);
+    		this.options = o;
     	}
         
     }
@@ -190,8 +390,7 @@ public abstract class PageImp extends JmuPdf implements Page {
      */
     class PageRendererOptionsFactory extends PageRendererOptionsImp {
 
-        public PageRendererOptionsFactory(Page page) {
-    		pageStruct = getPageOptionsStruct(page.getHandle()).order(ByteOrder.nativeOrder());
+        public PageRendererOptionsFactory() {
     		loadDefaults();
     	}
         
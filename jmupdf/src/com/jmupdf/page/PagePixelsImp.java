@@ -1,9 +1,13 @@
 package com.jmupdf.page;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import com.jmupdf.JmuPdf;
 import com.jmupdf.enums.ImageType;
@@ -24,9 +28,10 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	protected Page page = null;
 	protected PageRendererOptions options = null;
 	protected BufferedImage image = null;
-	protected ByteBuffer buffer = null;
 	protected Object pixels = null;
 
+	private static final BufferedImage[] prototypes = new BufferedImage[BufferedImage.TYPE_BYTE_INDEXED + 1];
+
 	/* */
 	public Page getPage() {
 		return page;
@@ -68,17 +73,12 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 		
 		int[] bbox = new int[4];
 
-		buffer = getByteBuffer(bbox);
+		Object data = getPixelArray(bbox);
 
-		if (buffer != null) {
-			if (isByteData()) {
-				pixels = new byte[buffer.order(ByteOrder.nativeOrder()).capacity()];
-				buffer.order(ByteOrder.nativeOrder()).get((byte[])pixels);
-			} else {
-				pixels = new int[buffer.order(ByteOrder.nativeOrder()).asIntBuffer().capacity()];
-				buffer.order(ByteOrder.nativeOrder()).asIntBuffer().get((int[])pixels);
-			}
-			freeByteBuffer();
+		if (data != null) {
+			/* old pixels may still be held by callers of getPixels(), leave them to the garbage collector */
+			pixels = data;
+			image = null;
 			getOptions().getBoundBox().setRect(bbox[0], bbox[1], bbox[2], bbox[3]);
 		} else {
 			System.gc();
@@ -86,8 +86,9 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	}
 
 	/**
-	 * Create a buffered image from packed pixel data
-	 * @param pixels
+	 * Create a buffered image from packed pixel data. </br>
+	 * The image is backed by the pixel array so no copy is made, </br>
+	 * except for binary images which need to be packed into bits.
 	 */
 	private void createBufferedImage() {
 		Object p;
@@ -95,11 +96,14 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 			p = getPixels();
 			PageRect bb = getOptions().getBoundBox();
 			if (p != null) {
-				image = new BufferedImage(bb.getWidth(), bb.getHeight(), getBufferedImageType());
-			    if (image != null) {
-			    	WritableRaster raster = image.getRaster();
-			    	raster.setDataElements(bb.getX(), bb.getY(), bb.getWidth(), bb.getHeight(), p);
-			    }			    
+				int type = getBufferedImageType(getOptions().getImageType());
+				if (type == BufferedImage.TYPE_BYTE_BINARY) {
+					image = new BufferedImage(bb.getWidth(), bb.getHeight(), type);
+					WritableRaster raster = image.getRaster();
+					raster.setDataElements(bb.getX(), bb.getY(), bb.getWidth(), bb.getHeight(), p);
+				} else {
+					image = createBufferedImage(bb.getWidth(), bb.getHeight(), type, p);
+				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -112,15 +116,87 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 		}
 	}
 
+	/**
+	 * Render page into a packed pixel array taken from the pixel buffer pool
+	 * 
+	 * @param bbox
+	 * @return
+	 */
+	private Object getPixelArray(int[] bbox) {
+		long handle = getPage().getHandle();
+		if (((PageImp)getPage()).loadContents()) {
+			if (getOptions().isValid()) {
+				int[] options = PageRendererOptionsImp.getOptionsArray(getOptions());
+				if (getPixelBounds(handle, options, bbox) == 0) {
+					int stride = bbox[2] * getPixelSize(getOptions().getImageType());
+					int size = stride * bbox[3];
+					Object data;
+					if (isByteData(getOptions().getImageType())) {
+						data = PixelBufferPool.getByteArray(size);
+					} else {
+						data = PixelBufferPool.getIntArray(size);
+					}
+					if (drawToArray(handle, options, data, 0, stride, bbox, null) == 0) {
+						return data;
+					}
+					PixelBufferPool.release(data);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Create a buffered image that wraps packed pixel data. </br>
+	 * The sample model is taken from an image of the same type so byte </br>
+	 * layouts keep their band order, BGR or ABGR.
+	 * 
+	 * @param w
+	 * @param h
+	 * @param type
+	 * @param pixels int[] or byte[] of at least w*h pixels
+	 * @return
+	 */
+	static BufferedImage createBufferedImage(int w, int h, int type, Object pixels) {
+		BufferedImage prototype = getPrototype(type);
+		ColorModel cm = prototype.getColorModel();
+		SampleModel sm = prototype.getSampleModel().createCompatibleSampleModel(w, h);
+		DataBuffer db;
+		if (pixels instanceof int[]) {
+			db = new DataBufferInt((int[])pixels, w * h);
+		} else {
+			db = new DataBufferByte((byte[])pixels, w * h * sm.getNumDataElements());
+		}
+		WritableRaster raster = Raster.createWritableRaster(sm, db, null);
+		return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+	}
+
+	/**
+	 * Get a one pixel image of a buffered image type
+	 * 
+	 * @param type
+	 * @return
+	 */
+	private static BufferedImage getPrototype(int type) {
+		synchronized (prototypes) {
+			if (prototypes[type] == null) {
+				prototypes[type] = new BufferedImage(1, 1, type);
+			}
+			return prototypes[type];
+		}
+	}
+
 	/**
 	 * Get buffered image type
+	 * @param imageType
 	 * @return
 	 */
-	private int getBufferedImageType() {
+	static int getBufferedImageType(ImageType imageType) {
 		int type;
-		switch (getOptions().getImageType()) {
+		switch (imageType) {
 			case IMAGE_TYPE_BINARY:
 			case IMAGE_TYPE_BINARY_DITHER:
+			case IMAGE_TYPE_BINARY_ORDERED:
 				type = BufferedImage.TYPE_BYTE_BINARY;
 				break;
 			case IMAGE_TYPE_GRAY:
@@ -138,6 +214,15 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 			case IMAGE_TYPE_BGR:
 				type = BufferedImage.TYPE_INT_BGR;
 				break;
+			case IMAGE_TYPE_3BYTE_BGR:
+				type = BufferedImage.TYPE_3BYTE_BGR;
+				break;
+			case IMAGE_TYPE_4BYTE_ABGR:
+				type = BufferedImage.TYPE_4BYTE_ABGR;
+				break;
+			case IMAGE_TYPE_4BYTE_ABGR_PRE:
+				type = BufferedImage.TYPE_4BYTE_ABGR_PRE;
+				break;
 			default:
 				type = BufferedImage.TYPE_INT_RGB;
 				break;
@@ -147,50 +232,36 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 
 	/**
 	 * Determine if color type is a byte type.
+	 * @param imageType
 	 * @return
 	 */
-	private boolean isByteData() {
-		return (getOptions().getImageType() == ImageType.IMAGE_TYPE_BINARY        || 
-				getOptions().getImageType() == ImageType.IMAGE_TYPE_BINARY_DITHER ||
-				getOptions().getImageType() == ImageType.IMAGE_TYPE_GRAY);
+	static boolean isByteData(ImageType imageType) {
+		return (imageType == ImageType.IMAGE_TYPE_BINARY        || 
+				imageType == ImageType.IMAGE_TYPE_BINARY_DITHER ||
+				imageType == ImageType.IMAGE_TYPE_BINARY_ORDERED ||
+				imageType == ImageType.IMAGE_TYPE_GRAY ||
+				imageType == ImageType.IMAGE_TYPE_3BYTE_BGR ||
+				imageType == ImageType.IMAGE_TYPE_4BYTE_ABGR ||
+				imageType == ImageType.IMAGE_TYPE_4BYTE_ABGR_PRE);
 	}
 
 	/**
-	 * Get a page as a byte buffer
-	 * 
-	 * @param bbox
+	 * Get number of array elements, int or byte, of one pixel.
+	 * @param imageType
 	 * @return
 	 */
-	private ByteBuffer getByteBuffer(int[] bbox) {
-		if (getPage().getHandle() > 0) {
-			if (buffer == null) {
-				if (getOptions().isValid()) {
-					return getByteBuffer(getPage().getHandle(), bbox);
-				}
-			} else {
-				return buffer;
-			}
+	static int getPixelSize(ImageType imageType) {
+		switch (imageType) {
+			case IMAGE_TYPE_3BYTE_BGR:
+				return 3;
+			case IMAGE_TYPE_4BYTE_ABGR:
+			case IMAGE_TYPE_4BYTE_ABGR_PRE:
+				return 4;
+			default:
+				return 1;
 		}
-		return null;
 	}
 
-	/**
-	 * Free a byte buffer resource
-	 * 
-	 * @param buffer
-	 */
-	private void freeByteBuffer() {
-		if (getPage().getHandle() > 0) {
-			if (buffer != null) {
-				if (buffer.isDirect()) {
-					buffer.clear();
-					freeByteBuffer(getPage().getHandle(), buffer);
-					buffer = null;
-				}
-			}
-		}
-	}	
-
 	/* */
 	public PagePixels clone() {
 		PagePixels pix = null;
@@ -209,14 +280,16 @@ abstract class PagePixelsImp extends JmuPdf implements PagePixels {
 	}
 
 	/**
-	 * Dispose of resources
+	 * Dispose of resources. </br>
+	 * Pixels are returned to the pixel buffer pool and must not be used afterwards, </br>
+	 * unless an image wrapping them was handed out by getImage().
 	 */
-	public void dispose() {
-		if (image != null) {
-			image.flush();
+	public synchronized void dispose() {
+		if (pixels != null && image == null) {
+			PixelBufferPool.release(pixels);
 		}
 		pixels = null;
-		buffer = null;
+		image = null;
 	}
 	
 }
@@ -0,0 +1,26 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+/**
+ * PageRenderListener interface
+ * 
+ * Receives notice when a queued render finishes.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public interface PageRenderListener {
+
+	/**
+	 * Called once a task completes, fails or is cancelled and its page is no </br>
+	 * longer in use, so the page may be disposed here. Use task.isCancelled() </br>
+	 * and task.get() to find out which.
+	 * @param task
+	 */
+	void renderDone(PageRenderTask task);
+
+}
@@ -0,0 +1,185 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * PageRenderQueue class </br></br>
+ * 
+ * Renders pages asynchronously on a pool of worker threads. </br></br>
+ * 
+ * Every submit returns a PageRenderTask, a Future of the rendered image, that can </br>
+ * be cancelled whether it is still queued or already rendering. Queued tasks are </br>
+ * rendered highest priority first. A task submitted with a key supersedes, and </br>
+ * cancels, any earlier task with an equal key that has not completed yet, so a </br>
+ * viewer can use the page number, or the view slot, as key while scrolling and </br>
+ * only the latest request for each page is rendered. </br></br>
+ * 
+ * Pages must not be disposed until the listener of their task was called, </br>
+ * a cancelled task may still be rendering when Future.isDone() returns true. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * PageRenderQueue queue = new PageRenderQueue(2); </br>
+ * PageRenderTask task = queue.submit(page, options, 10, page.getPageNumber(), null); </br>
+ * BufferedImage image = task.get(); </br>
+ * queue.shutdown(); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class PageRenderQueue {
+	private ThreadPoolExecutor executor;
+	private HashMap<Object, PageRenderTask> pending = new HashMap<Object, PageRenderTask>();
+	private long sequence;
+	private long superseded;
+
+	/**
+	 * Create render queue
+	 * @param threads number of worker threads, 0 uses one per processor
+	 */
+	public PageRenderQueue(int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new PageRenderThreadFactory());
+		executor.prestartAllCoreThreads();
+	}
+
+	/**
+	 * Submit a render with default priority and no key
+	 * @param page
+	 * @param options
+	 * @return
+	 */
+	public PageRenderTask submit(Page page, PageRendererOptions options) {
+		return submit(page, options, 0, null, null);
+	}
+
+	/**
+	 * Submit a render. </br>
+	 * Options are copied so they may be changed once this method returns.
+	 * @param page
+	 * @param options
+	 * @param priority higher values are rendered first
+	 * @param key earlier pending tasks with an equal key are cancelled, can be null
+	 * @param listener can be null
+	 * @return
+	 */
+	public PageRenderTask submit(Page page, PageRendererOptions options, int priority, Object key, PageRenderListener listener) {
+		PageRenderTask task;
+		PageRenderTask old = null;
+		synchronized (this) {
+			task = new PageRenderTask(this, page, options, priority, key, listener, sequence++);
+			if (key != null) {
+				old = pending.put(key, task);
+			}
+		}
+		if (old != null && old.cancel(false)) {
+			synchronized (this) {
+				superseded++;
+			}
+		}
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Cancel all pending tasks
+	 */
+	public void cancelAll() {
+		ArrayList<Runnable> list = new ArrayList<Runnable>(executor.getQueue());
+		synchronized (this) {
+			list.addAll(pending.values());
+		}
+		for (Runnable r : list) {
+			((PageRenderTask)r).cancel(false);
+		}
+	}
+
+	/**
+	 * Get number of tasks waiting to be rendered
+	 * @return
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Get number of tasks cancelled because a newer task had the same key
+	 * @return
+	 */
+	public synchronized long getSuperseded() {
+		return superseded;
+	}
+
+	/**
+	 * Cancel pending tasks and stop worker threads
+	 */
+	public void shutdown() {
+		cancelAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Change priority of a queued task
+	 * @param task
+	 * @param priority
+	 */
+	void setPriority(PageRenderTask task, int priority) {
+		if (task.getPriority() == priority) {
+			return;
+		}
+		// Re-queue so the priority queue sees the new ordering
+		if (executor.remove(task)) {
+			task.updatePriority(priority);
+			executor.execute(task);
+		}
+	}
+
+	/**
+	 * Remove a cancelled task from the queue
+	 * @param task
+	 */
+	void remove(PageRenderTask task) {
+		executor.remove(task);
+	}
+
+	/**
+	 * Forget a completed task
+	 * @param task
+	 */
+	synchronized void done(PageRenderTask task) {
+		if (task.getKey() != null && pending.get(task.getKey()) == task) {
+			pending.remove(task.getKey());
+		}
+	}
+
+	/**
+	 * PageRenderThreadFactory class
+	 */
+	static class PageRenderThreadFactory implements ThreadFactory {
+		private int count;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "jmupdf-render-" + (++count));
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+}
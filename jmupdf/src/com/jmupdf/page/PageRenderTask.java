@@ -0,0 +1,219 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * PageRenderTask class </br></br>
+ * 
+ * Future result of a render submitted to a PageRenderQueue. </br></br>
+ * 
+ * Cancelling a task that is still queued removes it from the queue. Cancelling a </br>
+ * task that is rendering sets the abort flag of its cookie so MuPDF stops at the </br>
+ * next display list node instead of finishing a page nobody will look at.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class PageRenderTask extends FutureTask<BufferedImage> implements Comparable<PageRenderTask> {
+	private PageRenderQueue queue;
+	private Page page;
+	private PageRendererOptions options;
+	private RenderCookie cookie;
+	private PageRenderListener listener;
+	private Object key;
+	private volatile int priority;
+	private long sequence;
+	private boolean isStarted;
+	private boolean isFinished;
+
+	/**
+	 * Create render task
+	 * @param queue
+	 * @param page
+	 * @param options
+	 * @param priority
+	 * @param key
+	 * @param listener
+	 * @param sequence
+	 */
+	PageRenderTask(PageRenderQueue queue, Page page, PageRendererOptions options, int priority, Object key, PageRenderListener listener, long sequence) {
+		this(new PageRenderCall(), queue, page, options, priority, key, listener, sequence);
+	}
+
+	/**
+	 * Create render task
+	 */
+	private PageRenderTask(PageRenderCall call, PageRenderQueue queue, Page page, PageRendererOptions options, int priority, Object key, PageRenderListener listener, long sequence) {
+		super(call);
+		call.task = this;
+		this.queue = queue;
+		this.page = page;
+		this.options = new PageRendererOptionsSnapshot(options);
+		this.cookie = new RenderCookie();
+		this.priority = priority;
+		this.key = key;
+		this.listener = listener;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Get page being rendered
+	 * @return
+	 */
+	public Page getPage() {
+		return page;
+	}
+
+	/**
+	 * Get rendering options
+	 * @return
+	 */
+	public PageRendererOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Get coalescing key
+	 * @return
+	 */
+	public Object getKey() {
+		return key;
+	}
+
+	/**
+	 * Get render cookie. </br>
+	 * May be used to read progress while the task is rendering.
+	 * @return
+	 */
+	public RenderCookie getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Get priority. Higher values are rendered first.
+	 * @return
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Change priority of a task that is still queued. </br>
+	 * Has no effect once rendering has started.
+	 * @param priority
+	 */
+	public void setPriority(int priority) {
+		queue.setPriority(this, priority);
+	}
+
+	/**
+	 * Set priority value, called by the queue while the task is not queued
+	 * @param priority
+	 */
+	void updatePriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Cancel task. </br>
+	 * A task that is rendering is aborted whatever the value of mayInterruptIfRunning.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(false);
+		if (cancelled) {
+			cookie.abort();
+			queue.remove(this);
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Order by priority and then by submission
+	 */
+	public int compareTo(PageRenderTask o) {
+		if (priority != o.priority) {
+			return priority > o.priority ? -1 : 1;
+		}
+		if (sequence != o.sequence) {
+			return sequence < o.sequence ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Run task and notify once the page is no longer in use
+	 */
+	public void run() {
+		super.run();
+		finish();
+	}
+
+	/**
+	 * Called as soon as the task completes or is cancelled. </br>
+	 * A task cancelled while rendering is finished by run() once the native </br>
+	 * render has returned.
+	 */
+	protected void done() {
+		synchronized (this) {
+			if (isStarted) {
+				return;
+			}
+		}
+		finish();
+	}
+
+	/**
+	 * Notify queue and listener exactly once
+	 */
+	private void finish() {
+		synchronized (this) {
+			if (isFinished) {
+				return;
+			}
+			isFinished = true;
+		}
+		queue.done(this);
+		if (listener != null) {
+			try {
+				listener.renderDone(this);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Render page unless the task was cancelled before it started
+	 */
+	private BufferedImage render() {
+		synchronized (this) {
+			if (isCancelled()) {
+				return null;
+			}
+			isStarted = true;
+		}
+		return page.getImage(options, cookie);
+	}
+
+	/**
+	 * PageRenderCall class
+	 */
+	static class PageRenderCall implements Callable<BufferedImage> {
+		private PageRenderTask task;
+
+		public BufferedImage call() throws Exception {
+			return task.render();
+		}
+	}
+
+}
@@ -5,8 +5,6 @@
  */
 package com.jmupdf.page;
 
-import java.nio.ByteBuffer;
-
 import com.jmupdf.enums.ImageFormat;
 import com.jmupdf.enums.ImageType;
 import com.jmupdf.enums.TifCompression;
@@ -33,22 +31,22 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 	protected TifCompression compression;
 	protected TifMode mode;
 	protected PageRect bbox;    
-    protected ByteBuffer pageStruct;
-    protected boolean isDisposed; 
     
+	/* Layout of the options array passed by value to native code */
     protected static final int IDX_IMAGE_FORMAT = 0;
-    protected static final int IDX_IMAGE_TYPE = 4;
-    protected static final int IDX_ROTATE = 8;
-    protected static final int IDX_QUALITY = 12;
-    protected static final int IDX_COMPRESSION = 16;
-    protected static final int IDX_MODE = 20;
-    protected static final int IDX_ANTIALIAS = 24;
-    protected static final int IDX_ZOOM = 28;
-    protected static final int IDX_GAMMA = 32;
-    protected static final int IDX_X0 = 36;
-    protected static final int IDX_Y0 = 40;
-    protected static final int IDX_X1 = 44;
-    protected static final int IDX_Y1 = 48;
+    protected static final int IDX_IMAGE_TYPE = 1;
+    protected static final int IDX_ROTATE = 2;
+    protected static final int IDX_QUALITY = 3;
+    protected static final int IDX_COMPRESSION = 4;
+    protected static final int IDX_MODE = 5;
+    protected static final int IDX_ANTIALIAS = 6;
+    protected static final int IDX_ZOOM = 7;
+    protected static final int IDX_GAMMA = 8;
+    protected static final int IDX_X0 = 9;
+    protected static final int IDX_Y0 = 10;
+    protected static final int IDX_X1 = 11;
+    protected static final int IDX_Y1 = 12;
+    protected static final int OPTIONS_SIZE = 13;
 
 	protected static final int DEFAULT_RESOLUTION = 72;
 	
@@ -66,17 +64,26 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
     	setCompression(TifCompression.TIF_COMPRESSION_ZLIB);
     	setMode(TifMode.TIF_DATA_APPEND);
     	setBoundBox(new PageRect());
-    	isDisposed = false;
     }
     
     /**
-     * Get options data structure
-     * @return
+     * Copy options from another options object
+     * @param options
      */
-    private ByteBuffer getOptionsStruct() {
-    	return pageStruct;
+    protected void loadOptions(PageRendererOptions options) {
+    	setImageFormat(options.getImageFormat());
+    	setImageType(options.getImageType());
+    	setRotate(options.getRotate());
+    	setAntiAlias(options.getAntiAlias());
+    	setGamma(options.getGamma());
+    	setZoom(options.getZoom());
+    	setQuality(options.getQuality());
+    	setCompression(options.getCompression());
+    	setMode(options.getMode());
+    	PageRect b = options.getBoundBox();
+    	setBoundBox(new PageRect(b.getX0(), b.getY0(), b.getX1(), b.getY1()));
     }
-    
+
     /* */
     public ImageFormat getImageFormat() {
         return imageFormat;
@@ -84,11 +91,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setImageFormat(ImageFormat imageFormat) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.imageFormat = imageFormat;
-        getOptionsStruct().putInt(IDX_IMAGE_FORMAT, imageFormat.getIntValue());
     }
 
     /* */
@@ -98,11 +101,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setImageType(ImageType imageType) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.imageType = imageType;
-        getOptionsStruct().putInt(IDX_IMAGE_TYPE, imageType.getIntValue());
     }
 
     /* */
@@ -112,14 +111,10 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setRotate(int rotate) {
-    	if (isDisposed) {
-    		return;
-    	}
 		if (rotate == Page.PAGE_ROTATE_AUTO) {
 			rotate = Page.PAGE_ROTATE_NONE;
 		}
         this.rotation = PageRect.rotate360(rotate);
-        getOptionsStruct().putInt(IDX_ROTATE, rotate);
     }
 
     /* */
@@ -129,14 +124,10 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setZoom(float zoom) {
-    	if (isDisposed) {
-    		return;
-    	}
     	if (zoom <= 0 ) {
     		zoom = 1f;
     	}
         this.zoom = zoom;
-        getOptionsStruct().putFloat(IDX_ZOOM, zoom);
     }
 
     /* */
@@ -151,16 +142,12 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setGamma(float gamma) {
-    	if (isDisposed) {
-    		return;
-    	}
 		if (gamma <= 0) {
 			gamma = 1f;
 		} else if (gamma > 2) {
 			gamma = 2f;
 		}
         this.gamma = gamma;
-        getOptionsStruct().putFloat(IDX_GAMMA, gamma);
     }
 
     /* */
@@ -170,11 +157,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setQuality(int quality) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.quality = quality;
-        getOptionsStruct().putInt(IDX_QUALITY, quality);
     }
 
     /* */
@@ -184,11 +167,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setCompression(TifCompression compression) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.compression = compression;
-        getOptionsStruct().putInt(IDX_COMPRESSION, compression.getIntValue());
     }
 
     /* */
@@ -198,11 +177,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setMode(TifMode mode) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.mode = mode;
-        getOptionsStruct().putInt(IDX_MODE, mode.getIntValue());
     }
 
     /* */
@@ -212,14 +187,7 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setBoundBox(PageRect bbox) {
-    	if (isDisposed) {
-    		return;
-    	}
         this.bbox = bbox;
-        getOptionsStruct().putFloat(IDX_X0, bbox.getX0());
-        getOptionsStruct().putFloat(IDX_Y0, bbox.getY0());
-        getOptionsStruct().putFloat(IDX_X1, bbox.getX1());
-        getOptionsStruct().putFloat(IDX_Y1, bbox.getY1());
     }
 
     /* */
@@ -229,24 +197,102 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 
     /* */
     public void setAntiAlias(int antiAlias) {
-    	if (isDisposed) {
-    		return;
-    	}
 		if (antiAlias < 0) {
 			antiAlias = 0;
 		} else if (antiAlias > 8) {
 			antiAlias = 8;
 		}
         this.antiAlias = antiAlias;
-        getOptionsStruct().putInt(IDX_ANTIALIAS, antiAlias);
     }
 
     /* */
     public boolean isValid() {
+    	int q = getValidQuality(getImageFormat(), getCompression(), getQuality());
+    	if (q != getQuality()) {
+    		setQuality(q);
+    	}
+    	return isValid(getImageFormat(), getImageType(), getCompression(), getMode());
+    }
+
+    /**
+     * Get options as an array that can be passed by value to native code. </br>
+     * Float values are stored as raw int bits.
+     * @param options
+     * @return
+     */
+    static int[] getOptionsArray(PageRendererOptions options) {
+    	if (options instanceof PageRendererOptionsSnapshot) {
+    		return ((PageRendererOptionsSnapshot)options).getOptionsArray();
+    	}
+    	return newOptionsArray(options);
+    }
+
+    /**
+     * Create a new options array
+     * @param options
+     * @return
+     */
+    static int[] newOptionsArray(PageRendererOptions options) {
+    	int[] o = new int[OPTIONS_SIZE];
+    	PageRect b = options.getBoundBox();
+    	o[IDX_IMAGE_FORMAT] = options.getImageFormat().getIntValue();
+    	o[IDX_IMAGE_TYPE] = options.getImageType().getIntValue();
+    	o[IDX_ROTATE] = options.getRotate();
+    	o[IDX_QUALITY] = options.getQuality();
+    	o[IDX_COMPRESSION] = options.getCompression().getIntValue();
+    	o[IDX_MODE] = options.getMode().getIntValue();
+    	o[IDX_ANTIALIAS] = options.getAntiAlias();
+    	o[IDX_ZOOM] = Float.floatToRawIntBits(options.getZoom());
+    	o[IDX_GAMMA] = Float.floatToRawIntBits(options.getGamma());
+    	o[IDX_X0] = Float.floatToRawIntBits(b.getX0());
+    	o[IDX_Y0] = Float.floatToRawIntBits(b.getY0());
+    	o[IDX_X1] = Float.floatToRawIntBits(b.getX1());
+    	o[IDX_Y1] = Float.floatToRawIntBits(b.getY1());
+    	return o;
+    }
+
+    /**
+     * Get a quality level that is valid for a given format and compression
+     * @param imageFormat
+     * @param compression
+     * @param quality
+     * @return
+     */
+    static int getValidQuality(ImageFormat imageFormat, TifCompression compression, int quality) {
+    	if (imageFormat == ImageFormat.FORMAT_JPG) {
+    		if (!(quality >= 0 && quality <= 100)) {
+    			return 75;
+    		}
+    	} else if (imageFormat == ImageFormat.FORMAT_PNG) {
+    		if (!(quality >= 1 && quality <= 9)) {
+    			return 6;
+    		}
+    	} else if (imageFormat == ImageFormat.FORMAT_TIF) {
+    		if (compression == TifCompression.TIF_COMPRESSION_JPEG) {
+    			if (!(quality >= 1 && quality <= 100)) {
+    				return 75;
+    			}
+    		} else if (compression == TifCompression.TIF_COMPRESSION_ZLIB) {
+    			if (!(quality >= 1 && quality <= 9)) {
+    				return 6;
+    			}
+    		}
+    	}
+    	return quality;
+    }
+
+    /**
+     * Validate rendering options
+     * @param imageFormat
+     * @param imageType
+     * @param compression
+     * @param mode
+     * @return
+     */
+    static boolean isValid(ImageFormat imageFormat, ImageType imageType, TifCompression compression, TifMode mode) {
     	boolean retval = true;
-        ImageType imageType = getImageType();
         
-        switch (getImageFormat()) {
+        switch (imageFormat) {
         	case FORMAT_BUFFERED_IMAGE:
         		break;
         		
@@ -281,17 +327,14 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 	            	log("Invalid ImageType=" + imageType);
 	            	retval = false;
 	            }
-	            if (!(getQuality() >= 0 && 
-	            	  getQuality() <= 100)) {
-	                setQuality(75);
-	            }
 	            break;
 	        
 	        case FORMAT_BMP:
 	            if (!(imageType == ImageType.IMAGE_TYPE_RGB    || 
 	                  imageType == ImageType.IMAGE_TYPE_GRAY   || 
 	                  imageType == ImageType.IMAGE_TYPE_BINARY || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER ||
+	                  imageType == ImageType.IMAGE_TYPE_BINARY_ORDERED)) {
 	            	log("Invalid ImageType=" + imageType);
 	            	retval = false;
 	            }
@@ -313,22 +356,24 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 	                  imageType == ImageType.IMAGE_TYPE_ARGB_PRE || 
 	                  imageType == ImageType.IMAGE_TYPE_GRAY     || 
 	                  imageType == ImageType.IMAGE_TYPE_BINARY   || 
-	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+	                  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER ||
+	                  imageType == ImageType.IMAGE_TYPE_BINARY_ORDERED)) {
 	                log("Invalid color type specified.");
 	                retval = false;
 	            }
 	
-	            if (!(getMode() == TifMode.TIF_DATA_APPEND || 
-	            	  getMode() == TifMode.TIF_DATA_DISCARD)) {
+	            if (!(mode == TifMode.TIF_DATA_APPEND || 
+	            	  mode == TifMode.TIF_DATA_DISCARD)) {
 	            	log("Invalid mode value specified.");
 	            	retval = false;
 	            }
 	
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_CCITT_RLE  || 
-	            	getCompression() == TifCompression.TIF_COMPRESSION_CCITT_T_4  || 
-	            	getCompression() == TifCompression.TIF_COMPRESSION_CCITT_T_6) {
+	            if (compression == TifCompression.TIF_COMPRESSION_CCITT_RLE  || 
+	            	compression == TifCompression.TIF_COMPRESSION_CCITT_T_4  || 
+	            	compression == TifCompression.TIF_COMPRESSION_CCITT_T_6) {
 	                if (!(imageType == ImageType.IMAGE_TYPE_BINARY || 
-	                	  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER)) {
+	                	  imageType == ImageType.IMAGE_TYPE_BINARY_DITHER ||
+	                	  imageType == ImageType.IMAGE_TYPE_BINARY_ORDERED)) {
 	                	log("When using CCITT compression, color must be type binary.");
 	                	retval = false;
 	                }
@@ -338,20 +383,6 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
 	                	retval = false;
 	                }
 	            }
-	
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_JPEG) {
-	                if (!(getQuality() >= 1 && 
-	                	  getQuality() <= 100)) {
-	                    setQuality(75);
-	                }
-	            }
-
-	            if (getCompression() == TifCompression.TIF_COMPRESSION_ZLIB) {
-	                if (!(getQuality() >= 1 && 
-	                	  getQuality() <= 9)) {
-	                    setQuality(6);
-	                }
-	            }
 	            break;
 	            
 	        default:
@@ -361,17 +392,6 @@ abstract class PageRendererOptionsImp implements PageRendererOptions {
         return retval;
     }
 
-    /**
-     * Inform object that page has been disposed and disable </br>
-     * any access to change options. </br></br>
-     * 
-     * This avoids accessing a data structure that no longer exists. </br>
-     * This is called from Page.dispose()
-     */
-   protected void dispose() {
-    	isDisposed = true;
-    }
-    
     /**
      * Print error messages
      * @param text
@@ -0,0 +1,192 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.enums.TifCompression;
+import com.jmupdf.enums.TifMode;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * Page Rendering Options Snapshot Class </br></br>
+ * 
+ * An immutable copy of a PageRendererOptions object. </br></br>
+ * 
+ * Options are always passed by value to the native renderer, so a snapshot can be </br>
+ * shared by any number of threads rendering the same Page object at the same time. </br>
+ * All setters throw UnsupportedOperationException.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public final class PageRendererOptionsSnapshot implements PageRendererOptions {
+	private final ImageFormat imageFormat;
+	private final ImageType imageType;
+	private final int rotation;
+	private final int antiAlias;
+	private final float gamma;
+	private final float zoom;
+	private final int quality;
+	private final TifCompression compression;
+	private final TifMode mode;
+	private final float x0, y0, x1, y1;
+	private final int[] optionsArray;
+
+	/**
+	 * Create a snapshot of rendering options
+	 * @param options
+	 */
+	public PageRendererOptionsSnapshot(PageRendererOptions options) {
+		this(options, options.getBoundBox());
+	}
+
+	/**
+	 * Create a snapshot of rendering options with a different bounding box
+	 * @param options
+	 * @param bbox area to render in 1f zoom and 0 rotation, an empty rectangle renders the whole page
+	 */
+	public PageRendererOptionsSnapshot(PageRendererOptions options, PageRect bbox) {
+		PageRendererOptionsImp o = new PageRendererOptionsImp() {};
+		o.loadOptions(options);
+		this.imageFormat = o.getImageFormat();
+		this.imageType = o.getImageType();
+		this.rotation = o.getRotate();
+		this.antiAlias = o.getAntiAlias();
+		this.gamma = o.getGamma();
+		this.zoom = o.getZoom();
+		this.quality = PageRendererOptionsImp.getValidQuality(imageFormat, o.getCompression(), o.getQuality());
+		this.compression = o.getCompression();
+		this.mode = o.getMode();
+		this.x0 = bbox.getX0();
+		this.y0 = bbox.getY0();
+		this.x1 = bbox.getX1();
+		this.y1 = bbox.getY1();
+		this.optionsArray = PageRendererOptionsImp.newOptionsArray(this);
+	}
+
+	/**
+	 * Get options array passed to native code
+	 * @return
+	 */
+	int[] getOptionsArray() {
+		return optionsArray;
+	}
+
+	/* */
+	public ImageFormat getImageFormat() {
+		return imageFormat;
+	}
+
+	/* */
+	public void setImageFormat(ImageFormat imageFormat) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public ImageType getImageType() {
+		return imageType;
+	}
+
+	/* */
+	public void setImageType(ImageType imageType) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public int getRotate() {
+		return rotation;
+	}
+
+	/* */
+	public void setRotate(int rotate) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public float getZoom() {
+		return zoom;
+	}
+
+	/* */
+	public void setZoom(float zoom) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public float getResolution() {
+		return getZoom() * PageRendererOptionsImp.DEFAULT_RESOLUTION;
+	}
+
+	/* */
+	public float getGamma() {
+		return gamma;
+	}
+
+	/* */
+	public void setGamma(float gamma) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public int getQuality() {
+		return quality;
+	}
+
+	/* */
+	public void setQuality(int quality) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public TifCompression getCompression() {
+		return compression;
+	}
+
+	/* */
+	public void setCompression(TifCompression compression) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public TifMode getMode() {
+		return mode;
+	}
+
+	/* */
+	public void setMode(TifMode mode) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Get bounding box. </br>
+	 * A new copy is returned on each call.
+	 */
+	public PageRect getBoundBox() {
+		return new PageRect(x0, y0, x1, y1);
+	}
+
+	/* */
+	public void setBoundBox(PageRect bbox) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public int getAntiAlias() {
+		return antiAlias;
+	}
+
+	/* */
+	public void setAntiAlias(int antiAlias) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* */
+	public boolean isValid() {
+		return PageRendererOptionsImp.isValid(imageFormat, imageType, compression, mode);
+	}
+
+}
@@ -34,8 +34,25 @@ public class PageText {
 		this.x1 = x1;
 		this.y1 = y1;
 		this.endOfLine = eol == 1;
-		this.text = "";
-		toString(text);
+		this.text = toString(text);
+	}
+
+	/**
+	 * Create text span instance
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param eol
+	 * @param text
+	 */
+	public PageText(float x0, float y0, float x1, float y1, boolean eol, String text) {
+		this.x0 = x0;
+		this.y0 = y0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.endOfLine = eol;
+		this.text = text;
 	}
 
 	/**
@@ -89,18 +106,21 @@ public class PageText {
 	/**
 	 * Convert int array to string
 	 * @param text
+	 * @return
 	 */
-	private void toString(int[] text) {
+	private static String toString(int[] text) {
+		StringBuilder sb = new StringBuilder(text.length);
 		for (int i=0; i<text.length; i++) {
 			if (text[i] == 0) {
 				break;
 			}
 			if (text[i] < 32) {				
-				this.text += "?";
+				sb.append('?');
 			} else {
-				this.text += (char)text[i];
+				sb.append((char)text[i]);
 			}
 		}
+		return sb.toString();
 	}
 	
 	/* */
@@ -117,33 +137,33 @@ public class PageText {
 	 * @return
 	 */
 	public static String getStringFromArray(PageText[] textArr) {
-		String text = "";
-		
 		if (textArr == null) {
-			return text;
+			return "";
 		}
+
+		StringBuilder text = new StringBuilder();
 		
 		float len;
 		
 		for(int i=0; i<textArr.length; i++) {
-			text += textArr[i].getText();
+			text.append(textArr[i].getText());
 			if (textArr[i].isEndOfLine()) {
 				if (i == textArr.length-1) {
-					text += "\n";
+					text.append('\n');
 				} else {
 					 if ((textArr[i].getY0() == textArr[i+1].getY0())) {
 						 len = textArr[i+1].getX1() - textArr[i].getX1();
 						 if (len > 1) {
-							 text += " ";
+							 text.append(' ');
 						 }
 					 } else {
-						 text += "\n";
+						 text.append('\n');
 					 }
 				}
 			}	
 		}
 
-		return text;
+		return text.toString();
 	}
 	
     /**
@@ -0,0 +1,348 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.util.ArrayList;
+
+/**
+ * PageTextLayout class </br></br>
+ * 
+ * Text layout of a whole page extracted once and kept in flat arrays, so text </br>
+ * within any rectangle can be found without interpreting the page again. </br></br>
+ * 
+ * Characters are numbered in reading order. A span is a run of characters with </br>
+ * the same style, a line is a run of spans and a block is a run of lines. Span, </br>
+ * line and block number i covers the items from getXxxStart(i) up to, but not </br>
+ * including, getXxxEnd(i). </br></br>
+ * 
+ * Coordinates are in 1f zoom and 0 rotation. Instances are immutable and can be </br>
+ * shared between threads.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class PageTextLayout {
+	private final int[] chars;
+	private final float[] boxes;
+	private final int[] spans;
+	private final int[] lines;
+	private final int[] blocks;
+
+	/**
+	 * Create text layout, called from native code
+	 * @param chars code point of every character
+	 * @param boxes x0, y0, x1, y1 of every character
+	 * @param spans first character of every span followed by the number of characters
+	 * @param lines first span of every line followed by the number of spans
+	 * @param blocks first line of every block followed by the number of lines
+	 */
+	PageTextLayout(int[] chars, float[] boxes, int[] spans, int[] lines, int[] blocks) {
+		this.chars = chars;
+		this.boxes = boxes;
+		this.spans = spans;
+		this.lines = lines;
+		this.blocks = blocks;
+	}
+
+	/**
+	 * Get number of characters
+	 * @return
+	 */
+	public int getCharCount() {
+		return chars.length;
+	}
+
+	/**
+	 * Get unicode code point of a character
+	 * @param index
+	 * @return
+	 */
+	public int getCodePoint(int index) {
+		return chars[index];
+	}
+
+	/**
+	 * Get x0 coordinate of a character
+	 * @param index
+	 * @return
+	 */
+	public float getX0(int index) {
+		return boxes[index * 4];
+	}
+
+	/**
+	 * Get y0 coordinate of a character
+	 * @param index
+	 * @return
+	 */
+	public float getY0(int index) {
+		return boxes[index * 4 + 1];
+	}
+
+	/**
+	 * Get x1 coordinate of a character
+	 * @param index
+	 * @return
+	 */
+	public float getX1(int index) {
+		return boxes[index * 4 + 2];
+	}
+
+	/**
+	 * Get y1 coordinate of a character
+	 * @param index
+	 * @return
+	 */
+	public float getY1(int index) {
+		return boxes[index * 4 + 3];
+	}
+
+	/**
+	 * Get number of spans
+	 * @return
+	 */
+	public int getSpanCount() {
+		return spans.length - 1;
+	}
+
+	/**
+	 * Get first character of a span
+	 * @param span
+	 * @return
+	 */
+	public int getSpanStart(int span) {
+		return spans[span];
+	}
+
+	/**
+	 * Get character following the last character of a span
+	 * @param span
+	 * @return
+	 */
+	public int getSpanEnd(int span) {
+		return spans[span + 1];
+	}
+
+	/**
+	 * Get number of lines
+	 * @return
+	 */
+	public int getLineCount() {
+		return lines.length - 1;
+	}
+
+	/**
+	 * Get first span of a line
+	 * @param line
+	 * @return
+	 */
+	public int getLineStart(int line) {
+		return lines[line];
+	}
+
+	/**
+	 * Get span following the last span of a line
+	 * @param line
+	 * @return
+	 */
+	public int getLineEnd(int line) {
+		return lines[line + 1];
+	}
+
+	/**
+	 * Get number of blocks
+	 * @return
+	 */
+	public int getBlockCount() {
+		return blocks.length - 1;
+	}
+
+	/**
+	 * Get first line of a block
+	 * @param block
+	 * @return
+	 */
+	public int getBlockStart(int block) {
+		return blocks[block];
+	}
+
+	/**
+	 * Get line following the last line of a block
+	 * @param block
+	 * @return
+	 */
+	public int getBlockEnd(int block) {
+		return blocks[block + 1];
+	}
+
+	/**
+	 * Get approximate memory used by the layout in bytes
+	 * @return
+	 */
+	public long getMemorySize() {
+		return 4L * (chars.length + boxes.length + spans.length + lines.length + blocks.length);
+	}
+
+	/**
+	 * Get text of a range of characters. </br>
+	 * Control characters are returned as '?'.
+	 * @param start first character
+	 * @param end character following the last character
+	 * @return
+	 */
+	public String getText(int start, int end) {
+		StringBuilder text = new StringBuilder(end - start);
+		appendText(text, start, end);
+		return text.toString();
+	}
+
+	/**
+	 * Get text of the whole page with one line of text per line
+	 * @return
+	 */
+	public String getText() {
+		StringBuilder text = new StringBuilder(chars.length + lines.length);
+		for (int l = 0; l < getLineCount(); l++) {
+			appendText(text, spans[lines[l]], spans[lines[l + 1]]);
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Get text spans within a rectangle. </br></br>
+	 * 
+	 * A character is part of the result when it lies inside the rectangle or </br>
+	 * when the fraction of its width and height outside of it is at most the </br>
+	 * threshold. A threshold of 1 returns every character that touches the </br>
+	 * rectangle. Each span returned holds only the characters found.
+	 * @param rect
+	 * @param threshold 0 to 1
+	 * @return spans found, never null
+	 */
+	public PageText[] getTextSpan(PageRect rect, float threshold) {
+		float x0 = rect.getX0();
+		float y0 = rect.getY0();
+		float x1 = rect.getX1();
+		float y1 = rect.getY1();
+		ArrayList<PageText> list = new ArrayList<PageText>();
+		StringBuilder text = new StringBuilder();
+
+		for (int l = 0; l < getLineCount(); l++) {
+			// The last span found in a line ends the line
+			int last = -1;
+			String lastText = null;
+			for (int s = lines[l]; s < lines[l + 1]; s++) {
+				boolean seen = false;
+				text.setLength(0);
+				for (int i = spans[s]; i < spans[s + 1]; i++) {
+					if (isInBox(i, x0, y0, x1, y1, threshold)) {
+						appendText(text, i, i + 1);
+						seen = true;
+					}
+				}
+				if (seen) {
+					if (last >= 0) {
+						list.add(newPageText(last, false, lastText));
+					}
+					last = s;
+					lastText = text.toString();
+				}
+			}
+			if (last >= 0) {
+				list.add(newPageText(last, true, lastText));
+			}
+		}
+
+		return list.toArray(new PageText[list.size()]);
+	}
+
+	/**
+	 * Create text span instance covering a whole span
+	 * @param span
+	 * @param eol
+	 * @param text
+	 * @return
+	 */
+	private PageText newPageText(int span, boolean eol, String text) {
+		int start = spans[span];
+		int end = spans[span + 1] - 1;
+		return new PageText(getX0(start), getY0(start), getX1(end), getY1(end), eol, text);
+	}
+
+	/**
+	 * Append characters to a string builder
+	 * @param text
+	 * @param start
+	 * @param end
+	 */
+	private void appendText(StringBuilder text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			int c = chars[i];
+			if (c < 32) {
+				text.append('?');
+			} else if (Character.isValidCodePoint(c)) {
+				text.appendCodePoint(c);
+			}
+		}
+	}
+
+	/**
+	 * Determine if a character is within a rectangle
+	 * @param i
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param threshold
+	 * @return
+	 */
+	private boolean isInBox(int i, float x0, float y0, float x1, float y1, float threshold) {
+		float hx0 = boxes[i * 4];
+		float hy0 = boxes[i * 4 + 1];
+		float hx1 = boxes[i * 4 + 2];
+		float hy1 = boxes[i * 4 + 3];
+
+		if (hx1 < x0 || hx0 > x1 || hy1 < y0 || hy0 > y1) {
+			return false;
+		}
+
+		if (threshold >= 1) {
+			return true;
+		}
+
+		if (threshold < 0) {
+			threshold = 0;
+		}
+
+		// Vertical overlap, unless the character covers the whole rectangle
+		if (!(hy0 < y0 && hy1 > y1)) {
+			if (hy0 < y0) {
+				if ((y0 - hy0) / (hy1 - hy0) > threshold) {
+					return false;
+				}
+			} else if (hy1 > y1) {
+				if ((hy1 - y1) / (hy1 - hy0) > threshold) {
+					return false;
+				}
+			}
+		}
+
+		// Horizontal overlap
+		if (hx1 > x1) {
+			if ((hx1 - x1) / (hx1 - hx0) > threshold) {
+				return false;
+			}
+		} else if (hx0 < x0) {
+			if ((x0 - hx0) / (hx1 - hx0) > threshold) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import com.jmupdf.JmuPdf;
+
+/**
+ * PixelBufferPool class
+ * 
+ * Process wide pool of pixel buffers. </br></br>
+ * 
+ * The packed pixel arrays used by PagePixels are taken from this pool and </br>
+ * returned to it when the PagePixels object is disposed. Native pixmaps and </br>
+ * the scratch buffers used by the image writers are pooled the same way on </br>
+ * the native side. </br></br>
+ * 
+ * Buffers are grouped into size classes so that pages of the same, or nearly </br>
+ * the same, size reuse each others buffers. A buffer may therefore be slightly </br>
+ * larger than requested.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public final class PixelBufferPool extends JmuPdf {
+	private static final HashMap<Integer, LinkedList<int[]>> intBuffers = new HashMap<Integer, LinkedList<int[]>>();
+	private static final HashMap<Integer, LinkedList<byte[]>> byteBuffers = new HashMap<Integer, LinkedList<byte[]>>();
+	private static long maxBytes = 64 << 20;
+	private static int maxBuffers = 8;
+	private static long bytes;
+	private static int buffers;
+	private static long hits;
+	private static long misses;
+	private static long returns;
+	private static long discards;
+
+	private PixelBufferPool() {}
+
+	/**
+	 * Get an int array of at least size elements
+	 * @param size
+	 * @return
+	 */
+	public static int[] getIntArray(int size) {
+		int capacity = getSizeClass(size);
+		synchronized (PixelBufferPool.class) {
+			LinkedList<int[]> list = intBuffers.get(capacity);
+			if (list != null && list.size() > 0) {
+				bytes -= capacity * 4L;
+				buffers--;
+				hits++;
+				return list.removeFirst();
+			}
+			misses++;
+		}
+		return new int[capacity];
+	}
+
+	/**
+	 * Get a byte array of at least size elements
+	 * @param size
+	 * @return
+	 */
+	public static byte[] getByteArray(int size) {
+		int capacity = getSizeClass(size);
+		synchronized (PixelBufferPool.class) {
+			LinkedList<byte[]> list = byteBuffers.get(capacity);
+			if (list != null && list.size() > 0) {
+				bytes -= capacity;
+				buffers--;
+				hits++;
+				return list.removeFirst();
+			}
+			misses++;
+		}
+		return new byte[capacity];
+	}
+
+	/**
+	 * Return an array obtained from this pool. </br>
+	 * The array must not be used once it has been released.
+	 * @param array int[] or byte[]
+	 */
+	public static synchronized void release(Object array) {
+		if (array instanceof int[]) {
+			int[] a = (int[])array;
+			if (isPooled(a.length * 4L) && a.length == getSizeClass(a.length)) {
+				LinkedList<int[]> list = intBuffers.get(a.length);
+				if (list == null) {
+					list = new LinkedList<int[]>();
+					intBuffers.put(a.length, list);
+				}
+				list.addFirst(a);
+				bytes += a.length * 4L;
+				buffers++;
+				returns++;
+				return;
+			}
+		} else if (array instanceof byte[]) {
+			byte[] a = (byte[])array;
+			if (isPooled(a.length) && a.length == getSizeClass(a.length)) {
+				LinkedList<byte[]> list = byteBuffers.get(a.length);
+				if (list == null) {
+					list = new LinkedList<byte[]>();
+					byteBuffers.put(a.length, list);
+				}
+				list.addFirst(a);
+				bytes += a.length;
+				buffers++;
+				returns++;
+				return;
+			}
+		}
+		discards++;
+	}
+
+	/**
+	 * Set pool limits. </br>
+	 * Pooled arrays above the new limits are released.
+	 * @param maxBytes maximum number of bytes kept in the pool
+	 * @param maxBuffers maximum number of arrays kept in the pool
+	 */
+	public static synchronized void setLimits(long maxBytes, int maxBuffers) {
+		PixelBufferPool.maxBytes = Math.max(0, maxBytes);
+		PixelBufferPool.maxBuffers = Math.max(0, maxBuffers);
+		if (bytes > PixelBufferPool.maxBytes || buffers > PixelBufferPool.maxBuffers) {
+			intBuffers.clear();
+			byteBuffers.clear();
+			bytes = 0;
+			buffers = 0;
+		}
+	}
+
+	/**
+	 * Set limits of the native pool used for pixmaps and image writers. </br>
+	 * The default is 64mb and 8 buffers.
+	 * @param maxBytes maximum number of bytes kept in the pool
+	 * @param maxBuffers maximum number of buffers kept in the pool
+	 */
+	public static void setNativeLimits(long maxBytes, int maxBuffers) {
+		setBufferPoolLimits(maxBytes, maxBuffers);
+	}
+
+	/**
+	 * Get java pool statistics
+	 * @return
+	 */
+	public static synchronized PixelBufferStats getStats() {
+		return new PixelBufferStats(new long[] {hits, misses, returns, discards, bytes, buffers, maxBytes, maxBuffers});
+	}
+
+	/**
+	 * Get native pool statistics
+	 * @return
+	 */
+	public static PixelBufferStats getNativeStats() {
+		long[] stats = new long[8];
+		getBufferPoolStats(stats);
+		return new PixelBufferStats(stats);
+	}
+
+	/**
+	 * Determine if an array of the given size fits in the pool.
+	 * @param size
+	 * @return
+	 */
+	private static boolean isPooled(long size) {
+		return buffers < maxBuffers && bytes + size <= maxBytes;
+	}
+
+	/**
+	 * Round number of elements up to its size class. </br>
+	 * Size classes are at most 1/16th larger than the requested size.
+	 * @param size
+	 * @return
+	 */
+	private static int getSizeClass(int size) {
+		int step = 1024;
+		while (step < (1 << 26) && (step << 4) < size) {
+			step <<= 1;
+		}
+		return (int)Math.min(Integer.MAX_VALUE, ((long)size + step - 1) / step * step);
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+/**
+ * PixelBufferStats class
+ * 
+ * Snapshot of pixel buffer pool counters.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public class PixelBufferStats {
+	private long hits;
+	private long misses;
+	private long returns;
+	private long discards;
+	private long bytes;
+	private long buffers;
+	private long maxBytes;
+	private long maxBuffers;
+
+	/**
+	 * Create statistics instance
+	 * @param stats hits, misses, returns, discards, bytes, buffers, max bytes, max buffers
+	 */
+	PixelBufferStats(long[] stats) {
+		this.hits = stats[0];
+		this.misses = stats[1];
+		this.returns = stats[2];
+		this.discards = stats[3];
+		this.bytes = stats[4];
+		this.buffers = stats[5];
+		this.maxBytes = stats[6];
+		this.maxBuffers = stats[7];
+	}
+
+	/**
+	 * Get number of requests served from the pool
+	 * @return
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of requests that needed a new allocation
+	 * @return
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get number of buffers returned to the pool
+	 * @return
+	 */
+	public long getReturns() {
+		return returns;
+	}
+
+	/**
+	 * Get number of buffers released because the pool was full
+	 * @return
+	 */
+	public long getDiscards() {
+		return discards;
+	}
+
+	/**
+	 * Get number of bytes currently held by the pool
+	 * @return
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get number of buffers currently held by the pool
+	 * @return
+	 */
+	public long getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * Get maximum number of bytes the pool may hold
+	 * @return
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Get maximum number of buffers the pool may hold
+	 * @return
+	 */
+	public long getMaxBuffers() {
+		return maxBuffers;
+	}
+
+	/* */
+	public String toString() {
+		return "hits=" + hits + " misses=" + misses + " returns=" + returns + 
+			   " discards=" + discards + " bytes=" + bytes + " buffers=" + buffers;
+	}
+
+}
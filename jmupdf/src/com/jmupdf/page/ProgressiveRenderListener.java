@@ -0,0 +1,38 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+/**
+ * ProgressiveRenderListener interface
+ * 
+ * Receives progress and partial results of a ProgressiveRenderer.
+ * 
+ * @author Pedro J Rivera
+ *
+ */
+public interface ProgressiveRenderListener {
+
+	/**
+	 * Called periodically while a band renders. </br>
+	 * Progress and max are the raw cookie values of the current band, use </br>
+	 * renderer.getProgress() for the progress of the whole page. </br>
+	 * This method is called from a timer thread.
+	 * @param renderer
+	 * @param progress number of display list nodes processed
+	 * @param max number of display list nodes
+	 */
+	void renderProgress(ProgressiveRenderer renderer, int progress, int max);
+
+	/**
+	 * Called on the rendering thread once a band of rows is available in </br>
+	 * renderer.getImage(). Rows above y + height are final.
+	 * @param renderer
+	 * @param y first row of the band
+	 * @param height number of rows in the band
+	 */
+	void bandRendered(ProgressiveRenderer renderer, int y, int height);
+
+}
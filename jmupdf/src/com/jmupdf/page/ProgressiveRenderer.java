@@ -0,0 +1,247 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.awt.image.BufferedImage;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * ProgressiveRenderer class </br></br>
+ * 
+ * Renders a page band by band so the top of the page can be shown, or streamed, </br>
+ * while the rest of the page is still rendering. </br></br>
+ * 
+ * The image returned by getImage() is allocated up front and filled in place. </br>
+ * After every band the listener is told which rows became available, and while </br>
+ * a band renders the progress reported by MuPDF through the render cookie is </br>
+ * polled and passed to the listener. Rendering runs on the calling thread and </br>
+ * can be stopped from any thread with getCookie().abort(). </br></br>
+ * 
+ * Bands are drawn so the image is the same, pixel for pixel, as one rendered </br>
+ * in one piece. Dithered binary images carry the error of each band into the next. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * ProgressiveRenderer r = new ProgressiveRenderer(page, options); </br>
+ * r.setBandHeight(128); </br>
+ * r.render(listener); </br>
+ * BufferedImage image = r.getImage(); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class ProgressiveRenderer extends JmuPdf {
+	private Page page;
+	private PageRendererOptions options;
+	private RenderCookie cookie = new RenderCookie();
+	private BufferedImage image;
+	private Object pixels;
+	private int width;
+	private int height;
+	private int bandHeight = 64;
+	private long progressInterval = 100;
+	private volatile int rowsRendered;
+	private ProgressiveRenderListener listener;
+
+	private static Timer timer;
+
+	/**
+	 * Create progressive renderer. </br>
+	 * Options are copied so they may be changed afterwards.
+	 * @param page
+	 * @param options
+	 */
+	public ProgressiveRenderer(Page page, PageRendererOptions options) {
+		this.page = page;
+		this.options = new PageRendererOptionsSnapshot(options);
+		createImage();
+	}
+
+	/**
+	 * Get image being rendered. </br>
+	 * Rows that were not reported by bandRendered() yet are blank.
+	 * @return
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Get render cookie
+	 * @return
+	 */
+	public RenderCookie getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Get band height in rows
+	 * @return
+	 */
+	public int getBandHeight() {
+		return bandHeight;
+	}
+
+	/**
+	 * Set band height in rows. </br>
+	 * Smaller bands give earlier feedback at the cost of running the display list more often.
+	 * @param bandHeight
+	 */
+	public void setBandHeight(int bandHeight) {
+		this.bandHeight = Math.max(1, bandHeight);
+	}
+
+	/**
+	 * Get progress polling interval
+	 * @return
+	 */
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * Set progress polling interval in milliseconds. </br>
+	 * A value of zero turns off progress reports.
+	 * @param progressInterval
+	 */
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = Math.max(0, progressInterval);
+	}
+
+	/**
+	 * Get number of rows rendered so far
+	 * @return
+	 */
+	public int getRowsRendered() {
+		return rowsRendered;
+	}
+
+	/**
+	 * Get progress of the whole page from 0 to 1
+	 * @return
+	 */
+	public float getProgress() {
+		if (height <= 0) {
+			return 0;
+		}
+		int rows = rowsRendered;
+		float band = 0;
+		int max = cookie.getProgressMax();
+		if (rows < height && max > 0) {
+			band = Math.min(bandHeight, height - rows) * Math.min(1f, (float)cookie.getProgress() / max);
+		}
+		return (rows + band) / height;
+	}
+
+	/**
+	 * Render page in the current thread
+	 * @param listener can be null
+	 * @return true upon success, false upon failure or when aborted
+	 */
+	public boolean render(ProgressiveRenderListener listener) {
+		if (image == null || !((PageImp)page).loadContents()) {
+			return false;
+		}
+
+		this.listener = listener;
+		this.rowsRendered = 0;
+		cookie.reset();
+
+		TimerTask task = null;
+		if (listener != null && progressInterval > 0) {
+			task = new ProgressTask();
+			getTimer().schedule(task, progressInterval, progressInterval);
+		}
+
+		int rc;
+		try {
+			int[] bbox = new int[4];
+			rc = drawProgressive(page.getHandle(), PageRendererOptionsImp.getOptionsArray(options), pixels, 0, width * PagePixelsImp.getPixelSize(options.getImageType()), bbox, cookie.getBuffer(), bandHeight, this);
+		} finally {
+			if (task != null) {
+				task.cancel();
+			}
+		}
+
+		if (rc == 0 && listener != null) {
+			listener.renderProgress(this, cookie.getProgressMax(), cookie.getProgressMax());
+		}
+
+		return rc == 0;
+	}
+
+	/**
+	 * Called from native code once a band is packed into the pixel array
+	 * @param y
+	 * @param h
+	 */
+	void bandRendered(int y, int h) {
+		// Binary images are bit packed so let Java2D do the packing
+		if (image.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+			byte[] band = new byte[width * h];
+			System.arraycopy(pixels, y * width, band, 0, band.length);
+			image.getRaster().setDataElements(0, y, width, h, band);
+		}
+		rowsRendered = y + h;
+		if (listener != null) {
+			listener.bandRendered(this, y, h);
+		}
+	}
+
+	/**
+	 * Allocate the image that receives rendered rows
+	 */
+	private void createImage() {
+		PageRect bounds = page.getPixelBounds(options);
+		if (bounds == null || bounds.getWidth() <= 0 || bounds.getHeight() <= 0) {
+			return;
+		}
+		width = bounds.getWidth();
+		height = bounds.getHeight();
+		int type = PagePixelsImp.getBufferedImageType(options.getImageType());
+		if (type == BufferedImage.TYPE_BYTE_BINARY) {
+			pixels = new byte[width * height];
+			image = new BufferedImage(width, height, type);
+		} else {
+			if (PagePixelsImp.isByteData(options.getImageType())) {
+				pixels = new byte[width * height * PagePixelsImp.getPixelSize(options.getImageType())];
+			} else {
+				pixels = new int[width * height];
+			}
+			image = PagePixelsImp.createBufferedImage(width, height, type, pixels);
+		}
+	}
+
+	/**
+	 * Get timer shared by all progressive renderers
+	 * @return
+	 */
+	private static synchronized Timer getTimer() {
+		if (timer == null) {
+			timer = new Timer("jmupdf-progress", true);
+		}
+		return timer;
+	}
+
+	/**
+	 * ProgressTask class
+	 */
+	class ProgressTask extends TimerTask {
+		public void run() {
+			ProgressiveRenderListener l = listener;
+			if (l != null) {
+				l.renderProgress(ProgressiveRenderer.this, cookie.getProgress(), cookie.getProgressMax());
+			}
+		}
+	}
+
+}
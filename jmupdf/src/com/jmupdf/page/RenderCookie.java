@@ -0,0 +1,111 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RenderCookie class </br></br>
+ * 
+ * Two way communication with a render in progress. </br>
+ * Another thread may abort the render or read its progress while it runs. </br></br>
+ * 
+ * The cookie is laid out like the native fz_cookie structure inside a small </br>
+ * direct buffer so the renderer reads and writes it without any JNI calls. </br>
+ * As in MuPDF the communication is not synchronized, progress is only a hint. </br>
+ * A cookie can be reused once the render it was passed to has returned.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public final class RenderCookie {
+	private static final int ABORT = 0;
+	private static final int PROGRESS = 4;
+	private static final int PROGRESS_MAX = 8;
+	private static final int ERRORS = 12;
+	private static final int SIZE = 16;
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * Create cookie
+	 */
+	public RenderCookie() {
+		buffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+		reset();
+	}
+
+	/**
+	 * Ask the render to stop as soon as possible
+	 */
+	public void abort() {
+		buffer.putInt(ABORT, 1);
+	}
+
+	/**
+	 * Determine if render was asked to stop
+	 * @return
+	 */
+	public boolean isAborted() {
+		return buffer.getInt(ABORT) != 0;
+	}
+
+	/**
+	 * Get number of display list nodes processed so far
+	 * @return
+	 */
+	public int getProgress() {
+		return buffer.getInt(PROGRESS);
+	}
+
+	/**
+	 * Get total number of display list nodes or -1 if unknown
+	 * @return
+	 */
+	public int getProgressMax() {
+		return buffer.getInt(PROGRESS_MAX);
+	}
+
+	/**
+	 * Get number of errors found while rendering
+	 * @return
+	 */
+	public int getErrors() {
+		return buffer.getInt(ERRORS);
+	}
+
+	/**
+	 * Clear abort flag and counters
+	 */
+	public void reset() {
+		buffer.putInt(ABORT, 0);
+		buffer.putInt(PROGRESS, 0);
+		buffer.putInt(PROGRESS_MAX, -1);
+		buffer.putInt(ERRORS, 0);
+	}
+
+	/**
+	 * Get buffer passed to native renderer
+	 * @return
+	 */
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get native buffer of a cookie that may be null
+	 * @param cookie
+	 * @return
+	 */
+	static ByteBuffer getBuffer(RenderCookie cookie) {
+		if (cookie == null) {
+			return null;
+		}
+		return cookie.getBuffer();
+	}
+
+}
@@ -0,0 +1,264 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.page;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.enums.TextFormat;
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.Page;
+
+/**
+ * TextExporter class </br></br>
+ * 
+ * Streams the text of a range of pages as UTF-8, either plain text or JSON lines </br>
+ * with the bounding box of every line. </br></br>
+ * 
+ * Pages are loaded and their text encoded natively, straight into direct buffers, </br>
+ * on a bounded pool of worker threads. No Java object is created per span or line. </br>
+ * Buffers are written to the output in page order and then reused, so at most </br>
+ * window pages of text are held in memory whatever the size of the range. </br>
+ * A page whose text cannot be exported stops the export with a PageException.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class TextExporter extends JmuPdf {
+	private Document document;
+	private ExecutorService executor;
+	private boolean isExecutorOwner;
+	private int window;
+	private LinkedList<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Create a text exporter with its own worker pool
+	 * @param document
+	 * @param threads number of worker threads, 0 uses one per processor
+	 */
+	public TextExporter(Document document, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.document = document;
+		this.executor = Executors.newFixedThreadPool(threads, new ExportThreadFactory());
+		this.isExecutorOwner = true;
+		this.window = threads * 2;
+	}
+
+	/**
+	 * Create a text exporter that runs on a caller supplied executor. </br>
+	 * The executor is not shut down by this object.
+	 * @param document
+	 * @param executor
+	 * @param window maximum number of pages in flight
+	 */
+	public TextExporter(Document document, ExecutorService executor, int window) {
+		this.document = document;
+		this.executor = executor;
+		this.isExecutorOwner = false;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Export a range of pages to a stream. </br>
+	 * The stream is flushed but not closed.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param format
+	 * @param out
+	 * @return number of pages exported
+	 * @throws IOException
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 * @throws PageException if the text of a page could not be exported, pending pages are cancelled
+	 */
+	public int export(int firstPage, int lastPage, TextFormat format, OutputStream out) throws IOException, InterruptedException, PageException {
+		int pages = export(firstPage, lastPage, format, Channels.newChannel(out));
+		out.flush();
+		return pages;
+	}
+
+	/**
+	 * Export a range of pages to a channel. </br>
+	 * The channel is not closed.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param format
+	 * @param out
+	 * @return number of pages exported
+	 * @throws IOException
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 * @throws PageException if the text of a page could not be exported, pending pages are cancelled
+	 */
+	public int export(int firstPage, int lastPage, TextFormat format, WritableByteChannel out) throws IOException, InterruptedException, PageException {
+		firstPage = Math.max(1, firstPage);
+		lastPage = Math.min(document.getPageCount(), lastPage);
+
+		LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+		int next = firstPage;
+		int exported = 0;
+
+		try {
+			for (int pageNumber = firstPage; pageNumber <= lastPage; pageNumber++) {
+				while (next <= lastPage && pending.size() < window) {
+					pending.add(executor.submit(new ExportTask(next++, format)));
+				}
+				ByteBuffer text;
+				try {
+					text = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw getPageException(e);
+				}
+				try {
+					while (text.hasRemaining()) {
+						out.write(text);
+					}
+				} finally {
+					releaseBuffer(text);
+				}
+				exported++;
+			}
+		} finally {
+			for (Future<ByteBuffer> f : pending) {
+				f.cancel(true);
+			}
+		}
+
+		return exported;
+	}
+
+	/**
+	 * Shut down worker threads if they are owned by this object
+	 */
+	public void shutdown() {
+		if (isExecutorOwner) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Get the exception of a page task that failed. </br>
+	 * Unchecked exceptions and errors are thrown as they are.
+	 * @param e
+	 * @return
+	 */
+	private static PageException getPageException(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof PageException) {
+			return (PageException)cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException)cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error)cause;
+		}
+		PageException pe = new PageException("Error: " + cause);
+		pe.initCause(cause);
+		return pe;
+	}
+
+	/**
+	 * Get a buffer of at least a given size
+	 * @param size
+	 * @return
+	 */
+	private ByteBuffer getBuffer(int size) {
+		synchronized (buffers) {
+			ByteBuffer b = buffers.poll();
+			if (b != null && b.capacity() >= size) {
+				b.clear();
+				return b;
+			}
+		}
+		// Grow in steps so a few large pages settle the buffer size
+		return ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, Integer.highestOneBit(Math.max(1, size - 1)) << 1));
+	}
+
+	/**
+	 * Return a buffer for reuse
+	 * @param buffer
+	 */
+	private void releaseBuffer(ByteBuffer buffer) {
+		synchronized (buffers) {
+			if (buffers.size() < window) {
+				buffers.add(buffer);
+			}
+		}
+	}
+
+	/**
+	 * ExportTask class </br>
+	 * Load a page, encode its text and dispose it.
+	 */
+	class ExportTask implements Callable<ByteBuffer> {
+		private int pageNumber;
+		private TextFormat format;
+
+		public ExportTask(int pageNumber, TextFormat format) {
+			this.pageNumber = pageNumber;
+			this.format = format;
+		}
+
+		public ByteBuffer call() throws PageException {
+			Page page = document.getPage(pageNumber);
+			if (page == null) {
+				throw new PageException("Error: Page " + pageNumber + " could not be loaded.");
+			}
+			ByteBuffer buffer = null;
+			try {
+				if (!((PageImp)page).loadContents()) {
+					throw new PageException("Error: Contents of page " + pageNumber + " could not be loaded.");
+				}
+				buffer = getBuffer(BUFFER_SIZE);
+				int size = exportText(page.getHandle(), pageNumber, format.getIntValue(), buffer);
+				if (size > buffer.capacity()) {
+					releaseBuffer(buffer);
+					buffer = getBuffer(size);
+					size = exportText(page.getHandle(), pageNumber, format.getIntValue(), buffer);
+				}
+				if (size < 0 || size > buffer.capacity()) {
+					releaseBuffer(buffer);
+					throw new PageException("Error: Text of page " + pageNumber + " could not be exported.");
+				}
+				buffer.clear();
+				buffer.limit(size);
+				return buffer;
+			} finally {
+				page.dispose();
+			}
+		}
+	}
+
+	/**
+	 * ExportThreadFactory class </br>
+	 * Create daemon worker threads so an unfinished export never keeps the VM alive.
+	 */
+	static class ExportThreadFactory implements ThreadFactory {
+		private int count;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "jmupdf-export-" + (++count));
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ *
+ * See copyright file
+ *
+ */
+package com.jmupdf.page;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+import com.jmupdf.JmuPdf;
+import com.jmupdf.batch.BatchRenderer;
+import com.jmupdf.batch.BatchSink;
+import com.jmupdf.enums.ImageFormat;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * TiffWriter class </br></br>
+ *
+ * Writes pages to a multi-page TIF file that stays open until close() is called. </br></br>
+ *
+ * Saving pages with TifMode.TIF_DATA_APPEND opens the file again for every page </br>
+ * and walks all the images already written, so every page takes longer than the </br>
+ * one before. A TiffWriter opens the file once, so adding a page takes the same </br>
+ * time whatever the number of pages in the file. </br></br>
+ *
+ * Pages may be rendered in parallel by a BatchRenderer. They are still added to </br>
+ * the file one at a time and in page order. All TifCompression modes are supported. </br></br>
+ *
+ * Example code:
+ * <blockquote>
+ * TiffWriter tif = new TiffWriter("c:\\temp\\fax.tif", options); </br>
+ * tif.addPages(1, doc.getPageCount(), new BatchRenderer(doc, 4)); </br>
+ * tif.close(); </br>
+ * </blockquote>
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class TiffWriter extends JmuPdf {
+	private long handle;
+	private PageRendererOptions options;
+	private int pageCount;
+	private LinkedList<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+	private int maxBuffers = 1;
+
+	/**
+	 * Create a new TIF file, replacing an existing one
+	 * @param file
+	 * @param options rendering options used for every page, the image format must be TIF
+	 * @throws IOException if the file cannot be created
+	 */
+	public TiffWriter(String file, PageRendererOptions options) throws IOException {
+		this(file, options, false);
+	}
+
+	/**
+	 * Open a TIF file
+	 * @param file
+	 * @param options rendering options used for every page, the image format must be TIF
+	 * @param append true to add pages after those already in the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public TiffWriter(String file, PageRendererOptions options, boolean append) throws IOException {
+		this.options = new PageRendererOptionsSnapshot(options);
+		if (this.options.getImageFormat() != ImageFormat.FORMAT_TIF || !this.options.isValid()) {
+			throw new IllegalArgumentException("Invalid TIF rendering options");
+		}
+		handle = tifOpen(file.getBytes(), append);
+		if (handle == 0) {
+			throw new IOException("Could not open " + file);
+		}
+	}
+
+	/**
+	 * Get rendering options used for every page
+	 * @return
+	 */
+	public PageRendererOptions getOptions() {
+		return options;
+	}
+
+	/**
+	 * Get number of pages added so far
+	 * @return
+	 */
+	public synchronized int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Determine if file is open
+	 * @return
+	 */
+	public synchronized boolean isOpen() {
+		return handle != 0;
+	}
+
+	/**
+	 * Render a page in the current thread and add it to the file
+	 * @param page
+	 * @return true upon success, false otherwise
+	 */
+	public boolean addPage(Page page) {
+		TiffPage tp = packPage(page);
+		if (tp == null) {
+			return false;
+		}
+		return addPage(tp);
+	}
+
+	/**
+	 * Render a range of pages on the workers of a batch renderer and add them </br>
+	 * to the file in page order. Up to the batch window pages are held in memory.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param renderer
+	 * @return number of pages added
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 */
+	public int addPages(int firstPage, int lastPage, BatchRenderer renderer) throws InterruptedException {
+		synchronized (buffers) {
+			maxBuffers = renderer.getWindow() + 1;
+		}
+		TiffSink sink = new TiffSink();
+		renderer.render(firstPage, lastPage, options, sink);
+		return sink.added;
+	}
+
+	/**
+	 * Close the file. </br>
+	 * Pages cannot be added afterwards.
+	 * @return true if every page was written, false otherwise
+	 */
+	public synchronized boolean close() {
+		if (handle == 0) {
+			return false;
+		}
+		int rc = tifClose(handle);
+		handle = 0;
+		synchronized (buffers) {
+			buffers.clear();
+		}
+		return rc == 0;
+	}
+
+	/**
+	 * Render a page and convert it to TIF samples. </br>
+	 * Many pages may be converted at once.
+	 * @param page
+	 * @return converted page or null upon failure
+	 */
+	private TiffPage packPage(Page page) {
+		if (!((PageImp)page).loadContents()) {
+			return null;
+		}
+		int[] options = PageRendererOptionsImp.getOptionsArray(this.options);
+		int[] size = new int[2];
+		int len = tifPackPage(page.getHandle(), options, null, size);
+		if (len <= 0) {
+			return null;
+		}
+		ByteBuffer buffer = getBuffer(len);
+		if (tifPackPage(page.getHandle(), options, buffer, size) != len) {
+			releaseBuffer(buffer);
+			return null;
+		}
+		return new TiffPage(buffer, size[0], size[1]);
+	}
+
+	/**
+	 * Add a converted page to the file
+	 * @param page
+	 * @return
+	 */
+	private synchronized boolean addPage(TiffPage page) {
+		try {
+			if (handle == 0) {
+				return false;
+			}
+			if (tifAddPage(handle, PageRendererOptionsImp.getOptionsArray(options), page.buffer, page.width, page.height) != 0) {
+				return false;
+			}
+			pageCount++;
+			return true;
+		} finally {
+			releaseBuffer(page.buffer);
+		}
+	}
+
+	/**
+	 * Get a direct buffer of at least a given size
+	 * @param size
+	 * @return
+	 */
+	private ByteBuffer getBuffer(int size) {
+		synchronized (buffers) {
+			ByteBuffer b = buffers.poll();
+			if (b != null && b.capacity() >= size) {
+				return b;
+			}
+		}
+		return ByteBuffer.allocateDirect(size);
+	}
+
+	/**
+	 * Return a buffer for reuse
+	 * @param buffer
+	 */
+	private void releaseBuffer(ByteBuffer buffer) {
+		synchronized (buffers) {
+			if (buffers.size() < maxBuffers) {
+				buffers.add(buffer);
+			}
+		}
+	}
+
+	/**
+	 * TiffPage class </br>
+	 * Samples of a page ready to be added to the file.
+	 */
+	static class TiffPage {
+		private ByteBuffer buffer;
+		private int width;
+		private int height;
+
+		public TiffPage(ByteBuffer buffer, int width, int height) {
+			this.buffer = buffer;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/**
+	 * TiffSink class </br>
+	 * Convert pages on the batch workers and add them to the file in page order.
+	 */
+	class TiffSink implements BatchSink<TiffPage> {
+		private int added;
+
+		public TiffPage render(Page page, PageRendererOptions options) {
+			return packPage(page);
+		}
+
+		public void write(int pageNumber, TiffPage result) {
+			if (result != null && addPage(result)) {
+				added++;
+			}
+		}
+	}
+
+}
@@ -5,10 +5,14 @@
  */
 package com.jmupdf.pdf;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
 import com.jmupdf.document.DocumentImp;
 import com.jmupdf.enums.DictionaryType;
 import com.jmupdf.enums.DocumentType;
 import com.jmupdf.enums.EncryptType;
+import com.jmupdf.enums.OpenMode;
 import com.jmupdf.exceptions.DocException;
 import com.jmupdf.exceptions.DocSecurityException;
 
@@ -35,6 +39,19 @@ public final class PdfDocument extends DocumentImp {
 		open(document, password, DOC_TYPE, maxStore);
 	}
 
+	/**
+	 * Create a new document object
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @param mode OPEN_MAPPED maps the file in memory while the document is open
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(String document, String password, int maxStore, OpenMode mode) throws DocException, DocSecurityException {
+		open(document, password, DOC_TYPE, maxStore, mode);
+	}
+
 	/**
 	 * Create a new document object
 	 * @param document
@@ -111,6 +128,64 @@ public final class PdfDocument extends DocumentImp {
 		this(document, null, 0);
 	}
 
+	/**
+	 * Create a new document object from the remaining bytes of a buffer. </br>
+	 * Direct and memory mapped buffers are read in place until the document is disposed.
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document, String password, int maxStore) throws DocException, DocSecurityException {
+		open(document, password, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from the remaining bytes of a buffer
+	 * @param document
+	 * @param password
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document, String password) throws DocException, DocSecurityException {
+		this(document, password, 0);
+	}
+
+	/**
+	 * Create a new document object from the remaining bytes of a buffer
+	 * @param document
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ByteBuffer document) throws DocException, DocSecurityException {
+		this(document, null, 0);
+	}
+
+	/**
+	 * Create a new document object from a channel. </br>
+	 * File channels are memory mapped, other channels are read to the end.
+	 * @param document
+	 * @param password
+	 * @param maxStore
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ReadableByteChannel document, String password, int maxStore) throws DocException, DocSecurityException {
+		open(document, password, DOC_TYPE, maxStore);
+	}
+
+	/**
+	 * Create a new document object from a channel
+	 * @param document
+	 * @param password
+	 * @throws DocException
+	 * @throws DocSecurityException
+	 */
+	public PdfDocument(ReadableByteChannel document, String password) throws DocException, DocSecurityException {
+		this(document, password, 0);
+	}
+
 	/**
 	 * Get document information from info dictionary
 	 * @param key
@@ -411,7 +486,11 @@ public final class PdfDocument extends DocumentImp {
 		PdfDocument doc = null;
 		if (getHandle() > 0) {
 			try {
-				doc = new PdfDocument(getDocumentName(), getPassWord());
+				if (getDocumentBuffer() != null) {
+					doc = new PdfDocument(getDocumentBuffer(), getPassWord());
+				} else {
+					doc = new PdfDocument(getDocumentName(), getPassWord(), 0, getOpenMode());
+				}
 			} catch (DocException e) {
 				doc = null;
 			} catch (DocSecurityException e) {
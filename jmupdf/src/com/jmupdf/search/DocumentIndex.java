@@ -0,0 +1,586 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.search;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.page.PageRect;
+
+/**
+ * DocumentIndex class </br></br>
+ * 
+ * Read only, memory mapped, inverted index of the words of a document. </br></br>
+ * 
+ * An index is written by a DocumentIndexBuilder and tied to its document by a </br>
+ * digest of the whole file, so a stale index is never used for a changed file. Searches are </br>
+ * answered from the mapped file alone, pages are neither loaded nor interpreted. </br>
+ * Words are runs of letters and digits compared without case, a query matches a </br>
+ * sequence of whole words in reading order. </br></br>
+ * 
+ * Instances are immutable and can be searched from several threads. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * DocumentIndex index = DocumentIndexBuilder.build(doc, new File("manual.idx"), 0); </br>
+ * List&lt;SearchHit&gt; hits = index.search("torque wrench", 100); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class DocumentIndex {
+	static final int MAGIC = 0x4A4D4958;
+	static final int VERSION = 1;
+	static final int FINGERPRINT_SIZE = 20;
+	static final int HEADER_SIZE = 8 + FINGERPRINT_SIZE + 16;
+	static final int TERM_SIZE = 12;
+	static final int POSTING_SIZE = 22;
+
+	private ByteBuffer buffer;
+	private int pageCount;
+	private int termCount;
+	private int postingCount;
+	private int bitmapOffset;
+	private int termOffset;
+	private int poolOffset;
+	private int postingOffset;
+
+	/**
+	 * Create index from mapped file contents
+	 * @param buffer
+	 * @param fingerprint
+	 * @throws IOException if the contents are not a valid index
+	 */
+	private DocumentIndex(ByteBuffer buffer, byte[] fingerprint) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a document index");
+		}
+		byte[] fp = new byte[FINGERPRINT_SIZE];
+		ByteBuffer b = buffer.duplicate();
+		b.position(8);
+		b.get(fp);
+		if (fingerprint != null && !Arrays.equals(fp, fingerprint)) {
+			throw new IOException("Document index is out of date");
+		}
+		pageCount = buffer.getInt(8 + FINGERPRINT_SIZE);
+		termCount = buffer.getInt(12 + FINGERPRINT_SIZE);
+		postingCount = buffer.getInt(16 + FINGERPRINT_SIZE);
+		int poolSize = buffer.getInt(20 + FINGERPRINT_SIZE);
+		bitmapOffset = HEADER_SIZE;
+		termOffset = bitmapOffset + (pageCount + 7) / 8;
+		poolOffset = termOffset + termCount * TERM_SIZE;
+		postingOffset = poolOffset + poolSize;
+		if (pageCount < 0 || termCount < 0 || postingCount < 0 || poolSize < 0 ||
+			(long)postingOffset + (long)postingCount * POSTING_SIZE != buffer.capacity()) {
+			throw new IOException("Document index is corrupt");
+		}
+	}
+
+	/**
+	 * Open the index of a document. </br>
+	 * The file is mapped in memory and no file handle is kept open.
+	 * @param file
+	 * @param document document the index was built for
+	 * @return null if the file does not exist, is not an index or belongs to another document
+	 */
+	public static DocumentIndex open(File file, Document document) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return open(file, getFingerprint(document), true);
+		} catch (IOException e) {
+			log(file + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Open the index of a document. </br>
+	 * The file is either mapped or read in memory, a file that was read can be </br>
+	 * replaced right away, even on systems that lock mapped files.
+	 * @param file
+	 * @param fingerprint fingerprint of the document the index was built for
+	 * @param mapped true to map the file, false to read it
+	 * @return null if the file does not exist, is not an index or belongs to another document
+	 */
+	static DocumentIndex open(File file, byte[] fingerprint, boolean mapped) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return new DocumentIndex(mapped ? map(file) : read(file), fingerprint);
+		} catch (IOException e) {
+			log(file + ": " + e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Get number of pages of the document
+	 * @return
+	 */
+	public int getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Determine if a page was indexed
+	 * @param pageNumber starting at 1
+	 * @return
+	 */
+	public boolean isPageIndexed(int pageNumber) {
+		if (pageNumber < 1 || pageNumber > pageCount) {
+			return false;
+		}
+		int i = pageNumber - 1;
+		return (buffer.get(bitmapOffset + i / 8) & (1 << (i % 8))) != 0;
+	}
+
+	/**
+	 * Determine if every page was indexed
+	 * @return
+	 */
+	public boolean isComplete() {
+		for (int p = 1; p <= pageCount; p++) {
+			if (!isPageIndexed(p)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get number of distinct words
+	 * @return
+	 */
+	public int getTermCount() {
+		return termCount;
+	}
+
+	/**
+	 * Get number of words
+	 * @return
+	 */
+	public int getPostingCount() {
+		return postingCount;
+	}
+
+	/**
+	 * Get pages a word appears on
+	 * @param word
+	 * @return page numbers in ascending order
+	 */
+	public int[] getPages(String word) {
+		String[] terms = getTerms(word);
+		if (terms.length != 1) {
+			return new int[0];
+		}
+		int t = findTerm(terms[0]);
+		if (t < 0) {
+			return new int[0];
+		}
+		int start = getPostingStart(t);
+		int end = start + getPostingLength(t);
+		int[] pages = new int[end - start];
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			int page = getPostingPage(i);
+			if (n == 0 || pages[n - 1] != page) {
+				pages[n++] = page;
+			}
+		}
+		int[] result = new int[n];
+		System.arraycopy(pages, 0, result, 0, n);
+		return result;
+	}
+
+	/**
+	 * Find a sequence of words. </br>
+	 * Hit text is the query words in lower case, hit rectangles are merged word boxes.
+	 * @param query one or more words
+	 * @param maxHits stop after this many matches, 0 for no limit
+	 * @return matches in page order
+	 */
+	public List<SearchHit> search(String query, int maxHits) {
+		List<SearchHit> hits = new ArrayList<SearchHit>();
+		String[] terms = getTerms(query);
+		if (terms.length == 0) {
+			return hits;
+		}
+
+		int[] start = new int[terms.length];
+		int[] end = new int[terms.length];
+		for (int k = 0; k < terms.length; k++) {
+			int t = findTerm(terms[k]);
+			if (t < 0) {
+				return hits;
+			}
+			start[k] = getPostingStart(t);
+			end[k] = start[k] + getPostingLength(t);
+		}
+
+		StringBuilder text = new StringBuilder();
+		for (int k = 0; k < terms.length; k++) {
+			if (k > 0) {
+				text.append(' ');
+			}
+			text.append(terms[k]);
+		}
+
+		int[] match = new int[terms.length];
+		for (int i = start[0]; i < end[0]; i++) {
+			int page = getPostingPage(i);
+			int word = getPostingWord(i);
+			match[0] = i;
+			boolean found = true;
+			for (int k = 1; k < terms.length && found; k++) {
+				match[k] = findPosting(start[k], end[k], page, word + k);
+				found = match[k] >= 0;
+			}
+			if (found) {
+				hits.add(newSearchHit(page, match, text.toString()));
+				if (maxHits > 0 && hits.size() >= maxHits) {
+					break;
+				}
+			}
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Release the mapped file. </br>
+	 * The memory is returned once the index is garbage collected.
+	 */
+	public void dispose() {
+		buffer = ByteBuffer.allocate(HEADER_SIZE);
+		pageCount = termCount = postingCount = 0;
+		bitmapOffset = termOffset = poolOffset = postingOffset = HEADER_SIZE;
+	}
+
+	/**
+	 * Split text into index terms
+	 * @param text
+	 * @return lower case words
+	 */
+	public static String[] getTerms(String text) {
+		ArrayList<String> terms = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); ) {
+			int c = i < text.length() ? text.codePointAt(i) : ' ';
+			if (Character.isLetterOrDigit(c)) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				terms.add(normalize(text.substring(start, i)));
+				start = -1;
+			}
+			i += Character.charCount(c);
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	/**
+	 * Normalize a word into a term
+	 * @param word
+	 * @return
+	 */
+	static String normalize(String word) {
+		return word.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Compute the fingerprint of a document. </br>
+	 * Page count, file size and the whole file are hashed. </br>
+	 * Documents opened from memory are hashed the same way from their buffer.
+	 * @param document
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] getFingerprint(Document document) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		ByteBuffer buf = document.getDocumentBuffer();
+		if (buf != null) {
+			buf = buf.duplicate();
+			md.update(ByteBuffer.allocate(12).putInt(document.getPageCount()).putLong(buf.remaining()).array());
+			byte[] b = new byte[64 * 1024];
+			while (buf.hasRemaining()) {
+				int n = Math.min(b.length, buf.remaining());
+				buf.get(b, 0, n);
+				md.update(b, 0, n);
+			}
+			return md.digest();
+		}
+		File file = new File(document.getDocumentName());
+		md.update(ByteBuffer.allocate(12).putInt(document.getPageCount()).putLong(file.length()).array());
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] b = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(b)) > 0) {
+				md.update(b, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/**
+	 * Map a file in memory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read a file in memory
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] b = new byte[(int)raf.length()];
+			raf.readFully(b);
+			return ByteBuffer.wrap(b);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* */
+	/* Term table */
+	/* */
+
+	/**
+	 * Binary search the term table
+	 * @param term
+	 * @return term number or -1
+	 */
+	private int findTerm(String term) {
+		int lo = 0;
+		int hi = termCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = getTerm(mid).compareTo(term);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get text of a term
+	 * @param t
+	 * @return
+	 */
+	String getTerm(int t) {
+		int offset = poolOffset + buffer.getInt(termOffset + t * TERM_SIZE);
+		int len = buffer.getShort(offset) & 0xffff;
+		byte[] b = new byte[len];
+		ByteBuffer d = buffer.duplicate();
+		d.position(offset + 2);
+		d.get(b);
+		try {
+			return new String(b, "UTF-8");
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Get first posting of a term
+	 * @param t
+	 * @return
+	 */
+	int getPostingStart(int t) {
+		return buffer.getInt(termOffset + t * TERM_SIZE + 4);
+	}
+
+	/**
+	 * Get number of postings of a term
+	 * @param t
+	 * @return
+	 */
+	int getPostingLength(int t) {
+		return buffer.getInt(termOffset + t * TERM_SIZE + 8);
+	}
+
+	/* */
+	/* Postings */
+	/* */
+
+	/**
+	 * Binary search postings of a term for a page and word number
+	 * @param lo
+	 * @param hi
+	 * @param page
+	 * @param word
+	 * @return posting number or -1
+	 */
+	private int findPosting(int lo, int hi, int page, int word) {
+		hi--;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int p = getPostingPage(mid);
+			int cmp = p != page ? (p < page ? -1 : 1) : getPostingWord(mid) - word;
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get page number of a posting
+	 * @param i
+	 * @return
+	 */
+	int getPostingPage(int i) {
+		return buffer.getInt(postingOffset + i * POSTING_SIZE);
+	}
+
+	/**
+	 * Get word number within the page of a posting
+	 * @param i
+	 * @return
+	 */
+	int getPostingWord(int i) {
+		return buffer.getInt(postingOffset + i * POSTING_SIZE + 4);
+	}
+
+	/**
+	 * Get first character within the page of a posting
+	 * @param i
+	 * @return
+	 */
+	int getPostingChar(int i) {
+		return buffer.getInt(postingOffset + i * POSTING_SIZE + 8);
+	}
+
+	/**
+	 * Get number of characters of a posting
+	 * @param i
+	 * @return
+	 */
+	int getPostingCharCount(int i) {
+		return buffer.getShort(postingOffset + i * POSTING_SIZE + 12) & 0xffff;
+	}
+
+	/**
+	 * Get x0, y0, x1 or y1 of a posting as stored by toFixed()
+	 * @param i
+	 * @param k 0 to 3
+	 * @return
+	 */
+	char getPostingBox(int i, int k) {
+		return buffer.getChar(postingOffset + i * POSTING_SIZE + 14 + k * 2);
+	}
+
+	/**
+	 * Create a hit from the postings of consecutive words
+	 * @param page
+	 * @param match
+	 * @param text
+	 * @return
+	 */
+	private SearchHit newSearchHit(int page, int[] match, String text) {
+		ArrayList<PageRect> rects = new ArrayList<PageRect>();
+		float x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+		for (int k = 0; k < match.length; k++) {
+			int i = match[k];
+			float bx0 = toCoordinate(getPostingBox(i, 0));
+			float by0 = toCoordinate(getPostingBox(i, 1));
+			float bx1 = toCoordinate(getPostingBox(i, 2));
+			float by1 = toCoordinate(getPostingBox(i, 3));
+			// Words on the same line overlap vertically and follow each other
+			if (k > 0 && by0 < y1 && by1 > y0 && bx0 >= x0) {
+				x1 = Math.max(x1, bx1);
+				y0 = Math.min(y0, by0);
+				y1 = Math.max(y1, by1);
+			} else {
+				if (k > 0) {
+					rects.add(new PageRect(x0, y0, x1, y1));
+				}
+				x0 = bx0;
+				y0 = by0;
+				x1 = bx1;
+				y1 = by1;
+			}
+		}
+		rects.add(new PageRect(x0, y0, x1, y1));
+		int last = match[match.length - 1];
+		return new SearchHit(page, getPostingChar(match[0]), getPostingChar(last) + getPostingCharCount(last),
+				text, rects.toArray(new PageRect[rects.size()]));
+	}
+
+	/**
+	 * Store a coordinate in a quarter of a point
+	 * @param v
+	 * @return
+	 */
+	static char toFixed(float v) {
+		return (char)Math.max(0, Math.min(0xffff, Math.round(v * 4)));
+	}
+
+	/**
+	 * Restore a coordinate stored with toFixed()
+	 * @param c
+	 * @return
+	 */
+	static float toCoordinate(char c) {
+		return c / 4f;
+	}
+
+	/**
+	 * Print messages
+	 * @param text
+	 */
+	private static void log(String text) {
+		System.out.println(text);
+	}
+
+}
@@ -0,0 +1,576 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.page.PageTextLayout;
+
+/**
+ * DocumentIndexBuilder class </br></br>
+ * 
+ * Builds the DocumentIndex of a document. </br></br>
+ * 
+ * Pages are loaded and their text extracted in parallel on a bounded pool of worker </br>
+ * threads, their words are merged into the index in page order on the calling thread. </br>
+ * An index can be built incrementally: pages may be added in several calls and an </br>
+ * existing, partial, index can be loaded so only the missing pages are interpreted.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class DocumentIndexBuilder {
+	private Document document;
+	private ExecutorService executor;
+	private boolean isExecutorOwner;
+	private int window;
+	private TreeMap<String, Postings> terms = new TreeMap<String, Postings>();
+	private BitSet indexed = new BitSet();
+	private int postingCount;
+
+	/**
+	 * Create an index builder with its own worker pool
+	 * @param document
+	 * @param threads number of worker threads, 0 uses one per processor
+	 */
+	public DocumentIndexBuilder(Document document, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.document = document;
+		this.executor = Executors.newFixedThreadPool(threads, new DocumentSearcher.SearchThreadFactory());
+		this.isExecutorOwner = true;
+		this.window = threads * 2;
+	}
+
+	/**
+	 * Create an index builder that runs on a caller supplied executor. </br>
+	 * The executor is not shut down by this object.
+	 * @param document
+	 * @param executor
+	 * @param window maximum number of pages in flight
+	 */
+	public DocumentIndexBuilder(Document document, ExecutorService executor, int window) {
+		this.document = document;
+		this.executor = executor;
+		this.isExecutorOwner = false;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Open the index of a document, building or completing it first if needed
+	 * @param document
+	 * @param file
+	 * @param threads number of worker threads, 0 uses one per processor
+	 * @return null upon failure
+	 * @throws InterruptedException
+	 * @throws PageException if a page could not be indexed, the index file is left unchanged
+	 */
+	public static DocumentIndex build(Document document, File file, int threads) throws InterruptedException, PageException {
+		byte[] fingerprint;
+		try {
+			fingerprint = DocumentIndex.getFingerprint(document);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		/* read rather than map, a mapped file cannot be replaced on every system */
+		DocumentIndex index = DocumentIndex.open(file, fingerprint, false);
+		if (index == null || !index.isComplete()) {
+			DocumentIndexBuilder builder = new DocumentIndexBuilder(document, threads);
+			try {
+				if (index != null) {
+					builder.load(index);
+					index.dispose();
+				}
+				builder.addPages(1, document.getPageCount());
+				if (!builder.write(file, fingerprint)) {
+					return null;
+				}
+			} finally {
+				builder.shutdown();
+			}
+		}
+		return DocumentIndex.open(file, fingerprint, true);
+	}
+
+	/**
+	 * Add the contents of an existing index
+	 * @param index
+	 */
+	public void load(DocumentIndex index) {
+		for (int t = 0; t < index.getTermCount(); t++) {
+			Postings p = getPostings(index.getTerm(t));
+			int start = index.getPostingStart(t);
+			int end = start + index.getPostingLength(t);
+			for (int i = start; i < end; i++) {
+				p.add(index.getPostingPage(i), index.getPostingWord(i), index.getPostingChar(i), index.getPostingCharCount(i),
+					  index.getPostingBox(i, 0), index.getPostingBox(i, 1), index.getPostingBox(i, 2), index.getPostingBox(i, 3));
+				postingCount++;
+			}
+		}
+		for (int page = 1; page <= index.getPageCount(); page++) {
+			if (index.isPageIndexed(page)) {
+				indexed.set(page - 1);
+			}
+		}
+	}
+
+	/**
+	 * Determine if a page was indexed
+	 * @param pageNumber starting at 1
+	 * @return
+	 */
+	public boolean isPageIndexed(int pageNumber) {
+		return pageNumber > 0 && indexed.get(pageNumber - 1);
+	}
+
+	/**
+	 * Index a range of pages. Pages already indexed are skipped.
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @return number of pages indexed
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 * @throws PageException if a page could not be indexed, pending pages are cancelled. </br>
+	 * Pages indexed before the failed one are kept.
+	 */
+	public int addPages(int firstPage, int lastPage) throws InterruptedException, PageException {
+		firstPage = Math.max(1, firstPage);
+		lastPage = Math.min(document.getPageCount(), lastPage);
+
+		LinkedList<Future<PageWords>> pending = new LinkedList<Future<PageWords>>();
+		int next = firstPage;
+		int added = 0;
+
+		try {
+			for (int pageNumber = firstPage; pageNumber <= lastPage; pageNumber++) {
+				while (next <= lastPage && pending.size() < window) {
+					if (!isPageIndexed(next)) {
+						pending.add(executor.submit(new IndexTask(next)));
+					}
+					next++;
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+				PageWords words;
+				try {
+					words = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw DocumentSearcher.getPageException(e);
+				}
+				add(words);
+				added++;
+			}
+		} finally {
+			for (Future<PageWords> f : pending) {
+				f.cancel(true);
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Write index to a file. </br>
+	 * The index is written to a temporary file first so a reader never sees a partial index.
+	 * @param file
+	 * @return true upon success
+	 */
+	public boolean write(File file) {
+		try {
+			return write(file, DocumentIndex.getFingerprint(document));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * Write index to a file
+	 * @param file
+	 * @param fingerprint fingerprint of the document
+	 * @return true upon success
+	 */
+	private boolean write(File file, byte[] fingerprint) {
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			int pageCount = document.getPageCount();
+
+			// Term pool
+			byte[][] pool = new byte[terms.size()][];
+			int poolSize = 0;
+			int t = 0;
+			for (String term : terms.keySet()) {
+				pool[t] = term.getBytes("UTF-8");
+				if (pool[t].length > 0xffff) {
+					pool[t] = new byte[0];
+				}
+				poolSize += 2 + pool[t].length;
+				t++;
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+			try {
+				out.writeInt(DocumentIndex.MAGIC);
+				out.writeInt(DocumentIndex.VERSION);
+				out.write(fingerprint);
+				out.writeInt(pageCount);
+				out.writeInt(terms.size());
+				out.writeInt(postingCount);
+				out.writeInt(poolSize);
+
+				byte[] bitmap = new byte[(pageCount + 7) / 8];
+				for (int i = 0; i < pageCount; i++) {
+					if (indexed.get(i)) {
+						bitmap[i / 8] |= 1 << (i % 8);
+					}
+				}
+				out.write(bitmap);
+
+				int poolOffset = 0;
+				int postingStart = 0;
+				t = 0;
+				for (Postings p : terms.values()) {
+					out.writeInt(poolOffset);
+					out.writeInt(postingStart);
+					out.writeInt(p.size);
+					poolOffset += 2 + pool[t++].length;
+					postingStart += p.size;
+				}
+
+				for (byte[] b : pool) {
+					out.writeShort(b.length);
+					out.write(b);
+				}
+
+				for (Postings p : terms.values()) {
+					p.sort();
+					for (int i = 0; i < p.size; i++) {
+						out.writeInt(p.page[i]);
+						out.writeInt(p.word[i]);
+						out.writeInt(p.start[i]);
+						out.writeShort(p.length[i]);
+						for (int k = 0; k < 4; k++) {
+							out.writeChar(p.box[i * 4 + k]);
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+
+			if (file.exists() && !file.delete()) {
+				log("Could not replace " + file);
+				tmp.delete();
+				return false;
+			}
+			return tmp.renameTo(file);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			tmp.delete();
+		}
+		return false;
+	}
+
+	/**
+	 * Shut down worker threads if they are owned by this object
+	 */
+	public void shutdown() {
+		if (isExecutorOwner) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Merge the words of a page
+	 * @param words
+	 */
+	private void add(PageWords words) {
+		for (int i = 0; i < words.count; i++) {
+			getPostings(words.terms[i]).add(words.pageNumber, i, words.start[i], words.length[i],
+					words.box[i * 4], words.box[i * 4 + 1], words.box[i * 4 + 2], words.box[i * 4 + 3]);
+		}
+		postingCount += words.count;
+		indexed.set(words.pageNumber - 1);
+	}
+
+	/**
+	 * Get postings of a term, creating them if needed
+	 * @param term
+	 * @return
+	 */
+	private Postings getPostings(String term) {
+		Postings p = terms.get(term);
+		if (p == null) {
+			p = new Postings();
+			terms.put(term, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Split the text of a page into words
+	 * @param pageNumber
+	 * @param layout
+	 * @return
+	 */
+	static PageWords getWords(int pageNumber, PageTextLayout layout) {
+		PageWords words = new PageWords(pageNumber, layout.getCharCount() / 4 + 16);
+		for (int l = 0; l < layout.getLineCount(); l++) {
+			int end = layout.getSpanStart(layout.getLineEnd(l));
+			int first = -1;
+			for (int i = layout.getSpanStart(layout.getLineStart(l)); i <= end; i++) {
+				if (i < end && Character.isLetterOrDigit(layout.getCodePoint(i))) {
+					if (first < 0) {
+						first = i;
+					}
+				} else if (first >= 0) {
+					words.add(layout, first, i);
+					first = -1;
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Print messages
+	 * @param text
+	 */
+	private static void log(String text) {
+		System.out.println(text);
+	}
+
+	/**
+	 * PageWords class </br>
+	 * Words of a single page in reading order.
+	 */
+	static class PageWords {
+		int pageNumber;
+		int count;
+		String[] terms;
+		int[] start;
+		char[] length;
+		char[] box;
+
+		/**
+		 * Create word list
+		 * @param pageNumber
+		 * @param capacity initial number of words
+		 */
+		PageWords(int pageNumber, int capacity) {
+			this.pageNumber = pageNumber;
+			terms = new String[capacity];
+			start = new int[capacity];
+			length = new char[capacity];
+			box = new char[capacity * 4];
+		}
+
+		/**
+		 * Add the word made of a range of characters
+		 * @param layout
+		 * @param first first character
+		 * @param end character following the last character
+		 */
+		void add(PageTextLayout layout, int first, int end) {
+			if (count == terms.length) {
+				int n = count * 2;
+				String[] t = new String[n];
+				System.arraycopy(terms, 0, t, 0, count);
+				terms = t;
+				start = grow(start, n);
+				length = grow(length, n);
+				box = grow(box, n * 4);
+			}
+			float x0 = layout.getX0(first);
+			float y0 = layout.getY0(first);
+			float x1 = layout.getX1(first);
+			float y1 = layout.getY1(first);
+			StringBuilder sb = new StringBuilder(end - first);
+			for (int i = first; i < end; i++) {
+				sb.appendCodePoint(layout.getCodePoint(i));
+				x0 = Math.min(x0, layout.getX0(i));
+				y0 = Math.min(y0, layout.getY0(i));
+				x1 = Math.max(x1, layout.getX1(i));
+				y1 = Math.max(y1, layout.getY1(i));
+			}
+			terms[count] = DocumentIndex.normalize(sb.toString());
+			start[count] = first;
+			length[count] = (char)Math.min(0xffff, end - first);
+			box[count * 4] = DocumentIndex.toFixed(x0);
+			box[count * 4 + 1] = DocumentIndex.toFixed(y0);
+			box[count * 4 + 2] = DocumentIndex.toFixed(x1);
+			box[count * 4 + 3] = DocumentIndex.toFixed(y1);
+			count++;
+		}
+	}
+
+	/**
+	 * Postings class </br>
+	 * Occurrences of a single term.
+	 */
+	static class Postings {
+		int size;
+		int[] page = new int[4];
+		int[] word = new int[4];
+		int[] start = new int[4];
+		char[] length = new char[4];
+		char[] box = new char[16];
+
+		/**
+		 * Add an occurrence
+		 * @param pg page number
+		 * @param wd word number within the page
+		 * @param st first character within the page
+		 * @param len number of characters
+		 * @param x0
+		 * @param y0
+		 * @param x1
+		 * @param y1
+		 */
+		void add(int pg, int wd, int st, int len, char x0, char y0, char x1, char y1) {
+			if (size == page.length) {
+				int n = size * 2;
+				page = grow(page, n);
+				word = grow(word, n);
+				start = grow(start, n);
+				length = grow(length, n);
+				box = grow(box, n * 4);
+			}
+			page[size] = pg;
+			word[size] = wd;
+			start[size] = st;
+			length[size] = (char)len;
+			box[size * 4] = x0;
+			box[size * 4 + 1] = y0;
+			box[size * 4 + 2] = x1;
+			box[size * 4 + 3] = y1;
+			size++;
+		}
+
+		/**
+		 * Sort by page and word. </br>
+		 * The words of a page are always added together and in order, so only runs of </br>
+		 * pages need sorting when pages were not added in page order.
+		 */
+		void sort() {
+			ArrayList<Integer> runs = new ArrayList<Integer>();
+			boolean sorted = true;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || page[i] != page[i - 1]) {
+					runs.add(i);
+					if (i > 0 && page[i] < page[i - 1]) {
+						sorted = false;
+					}
+				}
+			}
+			if (sorted) {
+				return;
+			}
+			Integer[] order = runs.toArray(new Integer[runs.size()]);
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return page[a] < page[b] ? -1 : (page[a] == page[b] ? 0 : 1);
+				}
+			});
+			int[] pg = new int[page.length];
+			int[] wd = new int[word.length];
+			int[] st = new int[start.length];
+			char[] len = new char[length.length];
+			char[] bx = new char[box.length];
+			int n = 0;
+			for (Integer run : order) {
+				int i = run;
+				int p = page[i];
+				for (; i < size && page[i] == p; i++, n++) {
+					pg[n] = page[i];
+					wd[n] = word[i];
+					st[n] = start[i];
+					len[n] = length[i];
+					System.arraycopy(box, i * 4, bx, n * 4, 4);
+				}
+			}
+			page = pg;
+			word = wd;
+			start = st;
+			length = len;
+			box = bx;
+		}
+	}
+
+	/**
+	 * Grow an array
+	 * @param a
+	 * @param n new length
+	 * @return
+	 */
+	private static int[] grow(int[] a, int n) {
+		int[] b = new int[n];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * Grow an array
+	 * @param a
+	 * @param n new length
+	 * @return
+	 */
+	private static char[] grow(char[] a, int n) {
+		char[] b = new char[n];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * IndexTask class </br>
+	 * Load a page, split its text into words and dispose it.
+	 */
+	class IndexTask implements Callable<PageWords> {
+		private int pageNumber;
+
+		public IndexTask(int pageNumber) {
+			this.pageNumber = pageNumber;
+		}
+
+		public PageWords call() throws PageException {
+			Page page = document.getPage(pageNumber);
+			if (page == null) {
+				throw new PageException("Error: Page " + pageNumber + " could not be loaded.");
+			}
+			try {
+				PageTextLayout layout = page.getTextLayout();
+				if (layout == null) {
+					throw new PageException("Error: Text of page " + pageNumber + " could not be extracted.");
+				}
+				return getWords(pageNumber, layout);
+			} finally {
+				page.dispose();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,405 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.search;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.jmupdf.exceptions.PageException;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.Page;
+import com.jmupdf.page.PageRect;
+import com.jmupdf.page.PageTextLayout;
+
+/**
+ * DocumentSearcher class </br></br>
+ * 
+ * Searches the text of a range of pages in parallel on a bounded pool of worker threads. </br></br>
+ * 
+ * Each page is loaded, its text layout extracted on its own cloned native context, </br>
+ * searched and disposed on a worker thread. Matches are handed to a SearchListener in </br>
+ * page order as soon as all earlier pages are done, so the first hits of a long document </br>
+ * arrive early and the search can stop after a number of hits without scanning the rest. </br>
+ * A page that cannot be searched stops the search with a PageException. </br></br>
+ * 
+ * Queries are literal by default. Whitespace in a literal query matches any whitespace, </br>
+ * including line breaks, so phrases are found across lines. With REGEX the query is a </br>
+ * java.util.regex pattern matched against the page text with one line of text per line. </br></br>
+ * 
+ * Example code:
+ * <blockquote>
+ * DocumentSearcher searcher = new DocumentSearcher(doc, 4); </br>
+ * List&lt;SearchHit&gt; hits = searcher.search("force majeure", DocumentSearcher.IGNORE_CASE, 100); </br>
+ * searcher.shutdown(); </br>
+ * </blockquote>
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class DocumentSearcher {
+	/** Ignore case, for unicode text */
+	public static final int IGNORE_CASE = 1;
+	/** Query is a regular expression */
+	public static final int REGEX = 2;
+
+	private Document document;
+	private ExecutorService executor;
+	private boolean isExecutorOwner;
+	private int window;
+
+	/**
+	 * Create a searcher with its own worker pool
+	 * @param document
+	 * @param threads number of worker threads, 0 uses one per processor
+	 */
+	public DocumentSearcher(Document document, int threads) {
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.document = document;
+		this.executor = Executors.newFixedThreadPool(threads, new SearchThreadFactory());
+		this.isExecutorOwner = true;
+		this.window = threads * 2;
+	}
+
+	/**
+	 * Create a searcher that runs on a caller supplied executor. </br>
+	 * The executor is not shut down by this object.
+	 * @param document
+	 * @param executor
+	 * @param window maximum number of pages in flight
+	 */
+	public DocumentSearcher(Document document, ExecutorService executor, int window) {
+		this.document = document;
+		this.executor = executor;
+		this.isExecutorOwner = false;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Get document
+	 * @return
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get maximum number of pages in flight
+	 * @return
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Set maximum number of pages in flight
+	 * @param window
+	 */
+	public void setWindow(int window) {
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Search every page and collect the matches
+	 * @param query
+	 * @param flags IGNORE_CASE and REGEX or 0
+	 * @param maxHits stop after this many matches, 0 for no limit
+	 * @return matches in page order
+	 * @throws InterruptedException
+	 * @throws PageException if a page could not be searched
+	 */
+	public List<SearchHit> search(String query, int flags, int maxHits) throws InterruptedException, PageException {
+		final List<SearchHit> hits = new ArrayList<SearchHit>();
+		search(query, flags, 1, document.getPageCount(), maxHits, new SearchListener() {
+			public boolean hitFound(SearchHit hit) {
+				hits.add(hit);
+				return true;
+			}
+		});
+		return hits;
+	}
+
+	/**
+	 * Search a range of pages. </br></br>
+	 * 
+	 * This method returns once every page in the range has been searched, the </br>
+	 * listener returned false or maxHits matches were found.
+	 * 
+	 * @param query
+	 * @param flags IGNORE_CASE and REGEX or 0
+	 * @param firstPage first page, starting at 1
+	 * @param lastPage last page, inclusive
+	 * @param maxHits stop after this many matches, 0 for no limit
+	 * @param listener
+	 * @return number of matches passed to the listener
+	 * @throws InterruptedException if the calling thread is interrupted, pending pages are cancelled
+	 * @throws PageException if a page could not be searched, pending pages are cancelled
+	 */
+	public int search(String query, int flags, int firstPage, int lastPage, int maxHits, SearchListener listener) throws InterruptedException, PageException {
+		firstPage = Math.max(1, firstPage);
+		lastPage = Math.min(document.getPageCount(), lastPage);
+
+		Pattern pattern = compile(query, flags);
+		if (pattern == null) {
+			return 0;
+		}
+
+		LinkedList<Future<List<SearchHit>>> pending = new LinkedList<Future<List<SearchHit>>>();
+		int next = firstPage;
+		int found = 0;
+
+		try {
+			for (int pageNumber = firstPage; pageNumber <= lastPage; pageNumber++) {
+				while (next <= lastPage && pending.size() < window) {
+					pending.add(executor.submit(new SearchTask(next++, pattern)));
+				}
+				List<SearchHit> hits;
+				try {
+					hits = pending.removeFirst().get();
+				} catch (ExecutionException e) {
+					throw getPageException(e);
+				}
+				for (SearchHit hit : hits) {
+					found++;
+					if (!listener.hitFound(hit) || (maxHits > 0 && found >= maxHits)) {
+						return found;
+					}
+				}
+			}
+		} finally {
+			for (Future<List<SearchHit>> f : pending) {
+				f.cancel(true);
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Search the text layout of a single page
+	 * @param pageNumber
+	 * @param layout
+	 * @param query
+	 * @param flags IGNORE_CASE and REGEX or 0
+	 * @return matches in reading order
+	 */
+	public static List<SearchHit> search(int pageNumber, PageTextLayout layout, String query, int flags) {
+		Pattern pattern = compile(query, flags);
+		if (pattern == null) {
+			return new ArrayList<SearchHit>();
+		}
+		return search(pageNumber, layout, pattern);
+	}
+
+	/**
+	 * Shut down worker threads if they are owned by this object
+	 */
+	public void shutdown() {
+		if (isExecutorOwner) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compile a query
+	 * @param query
+	 * @param flags
+	 * @return null for an empty or invalid query
+	 */
+	private static Pattern compile(String query, int flags) {
+		if (query == null || query.trim().length() == 0) {
+			return null;
+		}
+		int f = 0;
+		if ((flags & IGNORE_CASE) != 0) {
+			f |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+		}
+		String regex;
+		if ((flags & REGEX) != 0) {
+			regex = query;
+			f |= Pattern.MULTILINE;
+		} else {
+			StringBuilder sb = new StringBuilder();
+			for (String word : query.trim().split("\\s+")) {
+				if (sb.length() > 0) {
+					sb.append("\\s+");
+				}
+				sb.append(Pattern.quote(word));
+			}
+			regex = sb.toString();
+		}
+		try {
+			return Pattern.compile(regex, f);
+		} catch (RuntimeException e) {
+			log("Invalid search query: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Find matches of a pattern in a page text layout
+	 * @param pageNumber
+	 * @param layout
+	 * @param pattern
+	 * @return
+	 */
+	private static List<SearchHit> search(int pageNumber, PageTextLayout layout, Pattern pattern) {
+		List<SearchHit> hits = new ArrayList<SearchHit>();
+
+		// Page text with one line per line and the character behind every text position
+		int count = layout.getCharCount();
+		StringBuilder text = new StringBuilder(count + layout.getLineCount());
+		int[] index = new int[count * 2 + layout.getLineCount()];
+		for (int l = 0; l < layout.getLineCount(); l++) {
+			int start = layout.getSpanStart(layout.getLineStart(l));
+			int end = layout.getSpanStart(layout.getLineEnd(l));
+			for (int i = start; i < end; i++) {
+				int c = layout.getCodePoint(i);
+				if (c < 32 || !Character.isValidCodePoint(c)) {
+					c = '?';
+				}
+				int pos = text.length();
+				text.appendCodePoint(c);
+				for (; pos < text.length(); pos++) {
+					index[pos] = i;
+				}
+			}
+			index[text.length()] = -1;
+			text.append('\n');
+		}
+
+		Matcher m = pattern.matcher(text);
+		while (m.find()) {
+			if (m.end() == m.start()) {
+				continue;
+			}
+			ArrayList<PageRect> rects = new ArrayList<PageRect>();
+			float x0 = 0, y0 = 0, x1 = 0, y1 = 0;
+			int first = -1;
+			int last = -1;
+			boolean open = false;
+			for (int pos = m.start(); pos < m.end(); pos++) {
+				int i = index[pos];
+				if (i < 0) {
+					if (open) {
+						rects.add(new PageRect(x0, y0, x1, y1));
+						open = false;
+					}
+					continue;
+				}
+				if (first < 0) {
+					first = i;
+				}
+				last = i;
+				if (!open) {
+					x0 = layout.getX0(i);
+					y0 = layout.getY0(i);
+					x1 = layout.getX1(i);
+					y1 = layout.getY1(i);
+					open = true;
+				} else {
+					x0 = Math.min(x0, layout.getX0(i));
+					y0 = Math.min(y0, layout.getY0(i));
+					x1 = Math.max(x1, layout.getX1(i));
+					y1 = Math.max(y1, layout.getY1(i));
+				}
+			}
+			if (open) {
+				rects.add(new PageRect(x0, y0, x1, y1));
+			}
+			if (first >= 0) {
+				hits.add(new SearchHit(pageNumber, first, last + 1, m.group(), rects.toArray(new PageRect[rects.size()])));
+			}
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Get the exception of a page task that failed. </br>
+	 * Unchecked exceptions and errors are thrown as they are.
+	 * @param e
+	 * @return
+	 */
+	static PageException getPageException(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof PageException) {
+			return (PageException)cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException)cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error)cause;
+		}
+		PageException pe = new PageException("Error: " + cause);
+		pe.initCause(cause);
+		return pe;
+	}
+
+	/**
+	 * Print messages
+	 * @param text
+	 */
+	private static void log(String text) {
+		System.out.println(text);
+	}
+
+	/**
+	 * SearchTask class </br>
+	 * Load, search and dispose a single page.
+	 */
+	class SearchTask implements Callable<List<SearchHit>> {
+		private int pageNumber;
+		private Pattern pattern;
+
+		public SearchTask(int pageNumber, Pattern pattern) {
+			this.pageNumber = pageNumber;
+			this.pattern = pattern;
+		}
+
+		public List<SearchHit> call() throws PageException {
+			Page page = document.getPage(pageNumber);
+			if (page == null) {
+				throw new PageException("Error: Page " + pageNumber + " could not be loaded.");
+			}
+			try {
+				PageTextLayout layout = page.getTextLayout();
+				if (layout == null) {
+					throw new PageException("Error: Text of page " + pageNumber + " could not be extracted.");
+				}
+				return search(pageNumber, layout, pattern);
+			} finally {
+				page.dispose();
+			}
+		}
+	}
+
+	/**
+	 * SearchThreadFactory class </br>
+	 * Create daemon worker threads so an unfinished search never keeps the VM alive.
+	 */
+	static class SearchThreadFactory implements ThreadFactory {
+		private int count;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread th = new Thread(r, "jmupdf-search-" + (++count));
+			th.setDaemon(true);
+			return th;
+		}
+	}
+
+}
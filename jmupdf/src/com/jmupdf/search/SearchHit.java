@@ -0,0 +1,88 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.search;
+
+import com.jmupdf.page.PageRect;
+
+/**
+ * SearchHit class </br></br>
+ * 
+ * A match found by a DocumentSearcher. </br>
+ * A match that spans several lines has one rectangle per line. </br>
+ * Coordinates are in 1f zoom and 0 rotation.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public class SearchHit {
+	private int pageNumber;
+	private int start;
+	private int end;
+	private String text;
+	private PageRect[] rects;
+
+	/**
+	 * Create search hit
+	 * @param pageNumber
+	 * @param start
+	 * @param end
+	 * @param text
+	 * @param rects
+	 */
+	SearchHit(int pageNumber, int start, int end, String text, PageRect[] rects) {
+		this.pageNumber = pageNumber;
+		this.start = start;
+		this.end = end;
+		this.text = text;
+		this.rects = rects;
+	}
+
+	/**
+	 * Get page number, starting at 1
+	 * @return
+	 */
+	public int getPageNumber() {
+		return pageNumber;
+	}
+
+	/**
+	 * Get first character of the match in the page text layout
+	 * @return
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * Get character following the last character of the match in the page text layout
+	 * @return
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Get text matched
+	 * @return
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Get bounding rectangles of the match, one per line
+	 * @return
+	 */
+	public PageRect[] getRects() {
+		return rects;
+	}
+
+	/* */
+	public String toString() {
+		return "page " + pageNumber + " [" + start + "," + end + ") " + text;
+	}
+
+}
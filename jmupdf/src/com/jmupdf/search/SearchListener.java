@@ -0,0 +1,26 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.search;
+
+/**
+ * SearchListener interface
+ * 
+ * Receives the matches found by a DocumentSearcher.
+ * 
+ * @author Pedro J Rivera
+ * 
+ */
+public interface SearchListener {
+
+	/**
+	 * Called on the searching thread for every match, in page order and in </br>
+	 * reading order within a page.
+	 * @param hit
+	 * @return true to continue searching, false to stop
+	 */
+	boolean hitFound(SearchHit hit);
+
+}
@@ -35,6 +35,21 @@ public class TileCache {
 	 * @param tileh
 	 */
 	public TileCache(Page page, ImageType color, int rotate, float zoom, int tilew, int tileh) {
+		this(page, color, rotate, zoom, tilew, tileh, null);
+	}
+
+	/**
+	 * TileCache Class </br>
+	 * Tiles already held by the image cache are served from it instead of being rendered.
+	 * @param page
+	 * @param color
+	 * @param rotate
+	 * @param zoom
+	 * @param tilew
+	 * @param tileh
+	 * @param imageCache rendered tile cache or null
+	 */
+	public TileCache(Page page, ImageType color, int rotate, float zoom, int tilew, int tileh, TileImageCache imageCache) {
 		this.tilew = tilew;
 		this.tileh = tileh;
 		
@@ -65,7 +80,7 @@ public class TileCache {
 		// Images are not rendered here. I am just establishing tile data.
 		for (int y=0; y<tilesy; y++) {
 			for (int x=0; x<tilesx; x++) {
-				tiles.add(new TiledImage(pagePixels, x, y, tilew, tileh));				
+				tiles.add(new TiledImage(pagePixels, x, y, tilew, tileh, imageCache));				
 			}
 		}
 		
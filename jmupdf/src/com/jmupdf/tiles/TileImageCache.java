@@ -0,0 +1,308 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.tiles;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jmupdf.interfaces.Document;
+
+/**
+ * TileImageCache Class </br></br>
+ *
+ * Memory bounded LRU cache of rendered tiles. </br></br>
+ *
+ * Tiles are keyed by document, page, zoom, rotation, color, gamma, anti alias </br>
+ * level and tile position so a TileCache created for the same view will re-serve </br>
+ * tiles that were already rendered. The cache may be shared between TileCache </br>
+ * objects, pages and documents. </br></br>
+ *
+ * Pixels are either kept on the java heap, in which case cached images are shared </br>
+ * and must not be modified, or off heap in direct buffers, in which case each hit </br>
+ * copies the pixels into a new image.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+public class TileImageCache {
+	private LinkedHashMap<TileKey, TileImageEntry> entries = new LinkedHashMap<TileKey, TileImageEntry>(64, 0.75f, true);
+	private boolean offHeap;
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create tile image cache that keeps pixels on the java heap
+	 * @param maxBytes
+	 */
+	public TileImageCache(long maxBytes) {
+		this(maxBytes, false);
+	}
+
+	/**
+	 * Create tile image cache
+	 * @param maxBytes
+	 * @param offHeap keep pixels in direct buffers outside of the java heap
+	 */
+	public TileImageCache(long maxBytes, boolean offHeap) {
+		this.maxBytes = Math.max(0, maxBytes);
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * Determine if pixels are kept off heap
+	 * @return
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * Get byte budget
+	 * @return
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set byte budget
+	 * @param maxBytes
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		trim();
+	}
+
+	/**
+	 * Get number of bytes held by cached tiles
+	 * @return
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get number of cached tiles
+	 * @return
+	 */
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	/**
+	 * Get number of tiles served from the cache
+	 * @return
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get number of tiles that had to be rendered
+	 * @return
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Get number of tiles dropped to stay within budget
+	 * @return
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Remove all tiles
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Remove all tiles of a document
+	 * @param document
+	 */
+	public synchronized void clear(Document document) {
+		clear(document, 0);
+	}
+
+	/**
+	 * Remove all tiles of a page
+	 * @param document
+	 * @param page page number or zero for all pages
+	 */
+	public synchronized void clear(Document document, int page) {
+		Iterator<Map.Entry<TileKey, TileImageEntry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<TileKey, TileImageEntry> e = it.next();
+			TileKey key = e.getKey();
+			if (key.getDocument() == document && (page == 0 || key.getPageNumber() == page)) {
+				bytes -= e.getValue().size;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get a cached tile image
+	 * @param key
+	 * @return
+	 */
+	BufferedImage get(TileKey key) {
+		TileImageEntry e;
+		synchronized (this) {
+			e = entries.get(key);
+			if (e == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		return e.getImage();
+	}
+
+	/**
+	 * Add a copy of a rendered tile image
+	 * @param key
+	 * @param image
+	 */
+	void put(TileKey key, BufferedImage image) {
+		if (image == null || getMaxBytes() == 0) {
+			return;
+		}
+		TileImageEntry e = new TileImageEntry(image, offHeap);
+		synchronized (this) {
+			if (e.size > maxBytes) {
+				return;
+			}
+			TileImageEntry old = entries.put(key, e);
+			if (old != null) {
+				bytes -= old.size;
+			}
+			bytes += e.size;
+			trim();
+		}
+	}
+
+	/**
+	 * Drop least recently used tiles until within budget
+	 */
+	private void trim() {
+		Iterator<TileImageEntry> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			TileImageEntry e = it.next();
+			it.remove();
+			bytes -= e.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * TileImageEntry class </br>
+	 * Holds a private copy of the tile pixels.
+	 */
+	static class TileImageEntry {
+		private BufferedImage image;
+		private ByteBuffer buffer;
+		private ColorModel colorModel;
+		private SampleModel sampleModel;
+		private boolean isInt;
+		private int length;
+		private long size;
+
+		public TileImageEntry(BufferedImage source, boolean offHeap) {
+			Raster raster = source.getRaster();
+			DataBuffer db = raster.getDataBuffer();
+			colorModel = source.getColorModel();
+			sampleModel = raster.getSampleModel();
+			length = db.getSize();
+			isInt = db instanceof DataBufferInt;
+
+			Object data;
+			if (isInt) {
+				data = ((DataBufferInt)db).getData();
+				size = length * 4L;
+			} else {
+				data = ((DataBufferByte)db).getData();
+				size = length;
+			}
+
+			if (offHeap) {
+				buffer = ByteBuffer.allocateDirect((int)size).order(ByteOrder.nativeOrder());
+				if (isInt) {
+					buffer.asIntBuffer().put((int[])data, 0, length);
+				} else {
+					buffer.put((byte[])data, 0, length);
+					buffer.clear();
+				}
+			} else {
+				Object copy;
+				if (isInt) {
+					copy = new int[length];
+				} else {
+					copy = new byte[length];
+				}
+				System.arraycopy(data, 0, copy, 0, length);
+				image = createImage(copy);
+			}
+		}
+
+		/**
+		 * Get tile image
+		 * @return
+		 */
+		public BufferedImage getImage() {
+			if (image != null) {
+				return image;
+			}
+			Object data;
+			if (isInt) {
+				int[] a = new int[length];
+				buffer.duplicate().order(ByteOrder.nativeOrder()).asIntBuffer().get(a);
+				data = a;
+			} else {
+				byte[] a = new byte[length];
+				buffer.duplicate().get(a);
+				data = a;
+			}
+			return createImage(data);
+		}
+
+		/**
+		 * Wrap pixel data into an image laid out like the source
+		 * @param data
+		 * @return
+		 */
+		private BufferedImage createImage(Object data) {
+			DataBuffer db;
+			if (isInt) {
+				db = new DataBufferInt((int[])data, length);
+			} else {
+				db = new DataBufferByte((byte[])data, length);
+			}
+			WritableRaster raster = Raster.createWritableRaster(sampleModel, db, null);
+			return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * 
+ * See copyright file
+ *  
+ */
+package com.jmupdf.tiles;
+
+import com.jmupdf.enums.ImageType;
+import com.jmupdf.interfaces.Document;
+import com.jmupdf.interfaces.PageRendererOptions;
+
+/**
+ * TileKey Class
+ *
+ * Identifies a rendered tile by document, page, rendering options and tile position.
+ *
+ * @author Pedro J Rivera
+ *
+ */
+final class TileKey {
+	private final Document document;
+	private final int page;
+	private final float zoom;
+	private final int rotate;
+	private final ImageType color;
+	private final float gamma;
+	private final int antiAlias;
+	private final int tilex;
+	private final int tiley;
+	private final int tilew;
+	private final int tileh;
+	private final int hash;
+
+	/**
+	 * Create tile key
+	 * @param document
+	 * @param page
+	 * @param options
+	 * @param tilex
+	 * @param tiley
+	 * @param tilew
+	 * @param tileh
+	 */
+	TileKey(Document document, int page, PageRendererOptions options, int tilex, int tiley, int tilew, int tileh) {
+		this.document = document;
+		this.page = page;
+		this.zoom = options.getZoom();
+		this.rotate = options.getRotate();
+		this.color = options.getImageType();
+		this.gamma = options.getGamma();
+		this.antiAlias = options.getAntiAlias();
+		this.tilex = tilex;
+		this.tiley = tiley;
+		this.tilew = tilew;
+		this.tileh = tileh;
+
+		int h = System.identityHashCode(document);
+		h = h * 31 + page;
+		h = h * 31 + Float.floatToIntBits(zoom);
+		h = h * 31 + rotate;
+		h = h * 31 + color.ordinal();
+		h = h * 31 + Float.floatToIntBits(gamma);
+		h = h * 31 + antiAlias;
+		h = h * 31 + tilex;
+		h = h * 31 + tiley;
+		h = h * 31 + tilew;
+		h = h * 31 + tileh;
+		this.hash = h;
+	}
+
+	/**
+	 * Get document the tile belongs to
+	 * @return
+	 */
+	Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * Get page number the tile belongs to
+	 * @return
+	 */
+	int getPageNumber() {
+		return page;
+	}
+
+	/* */
+	public int hashCode() {
+		return hash;
+	}
+
+	/* */
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TileKey)) {
+			return false;
+		}
+		TileKey k = (TileKey)obj;
+		return document == k.document &&
+			   page == k.page &&
+			   Float.floatToIntBits(zoom) == Float.floatToIntBits(k.zoom) &&
+			   rotate == k.rotate &&
+			   color == k.color &&
+			   Float.floatToIntBits(gamma) == Float.floatToIntBits(k.gamma) &&
+			   antiAlias == k.antiAlias &&
+			   tilex == k.tilex &&
+			   tiley == k.tiley &&
+			   tilew == k.tilew &&
+			   tileh == k.tileh;
+	}
+
+}
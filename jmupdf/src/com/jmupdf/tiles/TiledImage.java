@@ -21,6 +21,9 @@ import com.jmupdf.page.PageRect;
  */
 public class TiledImage {
 	private PagePixels pagePixels;
+	private TileImageCache imageCache;
+	private TileKey key;
+	private BufferedImage image;
 	private PageRect tileRect;
 	private PageRect pixRect;
 	private int tilex;
@@ -35,11 +38,29 @@ public class TiledImage {
 	 * @param pagePixels
 	 */
 	public TiledImage(PagePixels pagePixels, int tilex, int tiley, int tilew, int tileh) {
+		this(pagePixels, tilex, tiley, tilew, tileh, null);
+	}
+
+	/**
+	 * TiledImage Class
+	 * @param pagePixels
+	 * @param tilex
+	 * @param tiley
+	 * @param tilew
+	 * @param tileh
+	 * @param imageCache rendered tile cache or null
+	 */
+	public TiledImage(PagePixels pagePixels, int tilex, int tiley, int tilew, int tileh, TileImageCache imageCache) {
 		this.tilex = tilex;
 		this.tiley = tiley;
 		this.tileRect = new PageRect(tilex * tilew, tiley * tileh, tilew, tileh);
 		this.pixRect = new PageRect();		
-		this.pagePixels = pagePixels.clone();
+		this.pagePixels = pagePixels.getPage().getPagePixels(pagePixels.getOptions());
+		this.imageCache = imageCache;
+		if (imageCache != null) {
+			Page page = pagePixels.getPage();
+			this.key = new TileKey(page.getDocument(), page.getPageNumber(), pagePixels.getOptions(), tilex, tiley, tilew, tileh);
+		}
 		normalize();
 	}
 
@@ -48,19 +69,32 @@ public class TiledImage {
 	 * @return
 	 */
 	public BufferedImage getImage() {
+		if (image != null) {
+			return image;
+		}
 		return getPagePixels().getImage();
 	}
 	
 	/**
-	 * Render tile image
+	 * Render tile image. </br>
+	 * When a tile image cache is used the image is only rendered if it is not cached.
 	 */
 	public void render() {
+		if (imageCache != null) {
+			image = imageCache.get(key);
+			if (image != null) {
+				return;
+			}
+		}
 		getPagePixels().drawPage(
 				 null,
 				 pixRect.getX0() / getPagePixels().getOptions().getZoom(), 
 				 pixRect.getY0() / getPagePixels().getOptions().getZoom(), 
 				 pixRect.getX1() / getPagePixels().getOptions().getZoom(), 
 				 pixRect.getY1() / getPagePixels().getOptions().getZoom() );
+		if (imageCache != null) {
+			imageCache.put(key, getPagePixels().getImage());
+		}
 	}
 
 	/**
@@ -117,7 +151,7 @@ public class TiledImage {
 	public void dispose() {
 		tileRect = null;
 		pixRect = null;
-		pagePixels.getPage().dispose();
+		image = null;
 		pagePixels.dispose();
 	}
 
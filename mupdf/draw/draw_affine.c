@@ -604,7 +604,7 @@ fz_paint_image_imp(fz_pixmap *dst, fz_bbox scissor, fz_pixmap *shape, fz_pixmap
 	int x, y, w, h;
 	int sw, sh, n, hw;
 	fz_matrix inv;
-	fz_bbox bbox;
+	fz_bbox rect, bbox;
 	int dolerp;
 	void (*paintfn)(byte *dp, byte *sp, int sw, int sh, int u, int v, int fa, int fb, int w, int n, int alpha, byte *color, byte *hp);
 
@@ -629,8 +629,8 @@ fz_paint_image_imp(fz_pixmap *dst, fz_bbox scissor, fz_pixmap *shape, fz_pixmap
 			dolerp = 0;
 	}
 
-	bbox = fz_bbox_covering_rect(fz_transform_rect(ctm, fz_unit_rect));
-	bbox = fz_intersect_bbox(bbox, scissor);
+	rect = fz_bbox_covering_rect(fz_transform_rect(ctm, fz_unit_rect));
+	bbox = fz_intersect_bbox(rect, scissor);
 	x = bbox.x0;
 	if (shape && shape->x > x)
 		x = shape->x;
@@ -663,8 +663,14 @@ fz_paint_image_imp(fz_pixmap *dst, fz_bbox scissor, fz_pixmap *shape, fz_pixmap
 	/* Calculate initial texture positions. Do a half step to start. */
 	/* Bug 693021: Keep calculation in float for as long as possible to
 	 * avoid overflow. */
-	u = (int)((inv.a * x) + (inv.c * y) + inv.e + ((inv.a + inv.c) * .5f));
-	v = (int)((inv.b * x) + (inv.d * y) + inv.f + ((inv.b + inv.d) * .5f));
+	/* JMuPDF: start from the corner of the image and step to (x,y) in
+	 * fixed point, as the rows are stepped below, so texture positions do
+	 * not depend on the scissor and banded rendering matches a single
+	 * render. */
+	u = (int)((inv.a * rect.x0) + (inv.c * rect.y0) + inv.e + ((inv.a + inv.c) * .5f));
+	v = (int)((inv.b * rect.x0) + (inv.d * rect.y0) + inv.f + ((inv.b + inv.d) * .5f));
+	u = (int)(u + (int64_t)(x - rect.x0) * fa + (int64_t)(y - rect.y0) * fc);
+	v = (int)(v + (int64_t)(x - rect.x0) * fb + (int64_t)(y - rect.y0) * fd);
 
 	/* RJW: The following is voodoo. No idea why it works, but it gives
 	 * the best match between scaled/unscaled/interpolated/non-interpolated
@@ -251,8 +251,6 @@ fz_bound_gel(fz_gel *gel)
 
 enum { INSIDE, OUTSIDE, LEAVE, ENTER };
 
-#define clip_lerp_y(v,m,x0,y0,x1,y1,t) clip_lerp_x(v,m,y0,x0,y1,x1,t)
-
 static int
 clip_lerp_x(int val, int m, int x0, int y0, int x1, int y1, int *out)
 {
@@ -286,6 +284,7 @@ fz_insert_gel_raw(fz_gel *gel, int x0, int y0, int x1, int y1)
 	int winding;
 	int width;
 	int tmp;
+	int cy0, cy1;
 
 	if (y0 == y1)
 		return;
@@ -298,13 +297,21 @@ fz_insert_gel_raw(fz_gel *gel, int x0, int y0, int x1, int y1)
 	else
 		winding = 1;
 
+	/* JMuPDF: clip in y by stepping the edge to the clip rather than
+	 * starting a new edge there, so the edge covers the same subpixels
+	 * whatever the clip and banded rendering matches a single render. */
+	if (y1 <= gel->clip.y0 || y0 >= gel->clip.y1)
+		return;
+	cy0 = fz_maxi(y0, gel->clip.y0);
+	cy1 = fz_mini(y1, gel->clip.y1);
+
 	if (x0 < gel->bbox.x0) gel->bbox.x0 = x0;
 	if (x0 > gel->bbox.x1) gel->bbox.x1 = x0;
 	if (x1 < gel->bbox.x0) gel->bbox.x0 = x1;
 	if (x1 > gel->bbox.x1) gel->bbox.x1 = x1;
 
-	if (y0 < gel->bbox.y0) gel->bbox.y0 = y0;
-	if (y1 > gel->bbox.y1) gel->bbox.y1 = y1;
+	if (cy0 < gel->bbox.y0) gel->bbox.y0 = cy0;
+	if (cy1 > gel->bbox.y1) gel->bbox.y1 = cy1;
 
 	if (gel->len + 1 == gel->cap) {
 		int new_cap = gel->cap + 512;
@@ -342,6 +349,19 @@ fz_insert_gel_raw(fz_gel *gel, int x0, int y0, int x1, int y1)
 		edge->xmove = (width / dy) * edge->xdir;
 		edge->adj_up = width % dy;
 	}
+
+	/* advance the edge by the rows above the clip as advance_active
+	 * would, the error term stays within (-dy, 0] */
+	if (cy0 > y0)
+	{
+		int k = cy0 - y0;
+		int64_t e = edge->e + (int64_t)k * edge->adj_up;
+		int64_t n = e > 0 ? (e + dy - 1) / dy : 0;
+		edge->x += edge->xmove * k + (int)n * edge->xdir;
+		edge->e = (int)(e - n * dy);
+		edge->y = cy0;
+	}
+	edge->h = cy1 - cy0;
 }
 
 void
@@ -365,15 +385,9 @@ fz_insert_gel(fz_gel *gel, float fx0, float fy0, float fx1, float fy1)
 	x1 = (int)fz_clamp(fx1, BBOX_MIN * fz_aa_hscale, BBOX_MAX * fz_aa_hscale);
 	y1 = (int)fz_clamp(fy1, BBOX_MIN * fz_aa_vscale, BBOX_MAX * fz_aa_vscale);
 
-	d = clip_lerp_y(gel->clip.y0, 0, x0, y0, x1, y1, &v);
-	if (d == OUTSIDE) return;
-	if (d == LEAVE) { y1 = gel->clip.y0; x1 = v; }
-	if (d == ENTER) { y0 = gel->clip.y0; x0 = v; }
-
-	d = clip_lerp_y(gel->clip.y1, 1, x0, y0, x1, y1, &v);
-	if (d == OUTSIDE) return;
-	if (d == LEAVE) { y1 = gel->clip.y1; x1 = v; }
-	if (d == ENTER) { y0 = gel->clip.y1; x0 = v; }
+	/* JMuPDF: clipping in y is left to fz_insert_gel_raw */
+	if (fz_maxi(y0, y1) <= gel->clip.y0 || fz_mini(y0, y1) >= gel->clip.y1)
+		return;
 
 	d = clip_lerp_x(gel->clip.x0, 0, x0, y0, x1, y1, &v);
 	if (d == OUTSIDE) {
@@ -4,22 +4,42 @@
 #define MAX_CACHE_SIZE (1024*1024)
 
 typedef struct fz_glyph_key_s fz_glyph_key;
+typedef struct fz_glyph_entry_s fz_glyph_entry;
 
 struct fz_glyph_cache_s
 {
 	int refs;
 	fz_hash_table *hash;
-	int total;
+	/* JMuPDF: entries are kept in order of use, most recently used first */
+	fz_glyph_entry *head;
+	fz_glyph_entry *tail;
+	fz_glyph_cache_usage usage;
 };
 
+/* JMuPDF: fonts whose data can be digested are keyed by that digest rather than
+ * by the font itself. Their glyphs do not keep the font alive, survive
+ * the font being reloaded, and can be shared with other documents that
+ * embed the same font. */
 struct fz_glyph_key_s
 {
 	fz_font *font;
+	unsigned char digest[16];
 	int a, b;
 	int c, d;
 	unsigned short gid;
 	unsigned char e, f;
-	int aa;
+	unsigned char aa;
+	unsigned char style;
+};
+
+struct fz_glyph_entry_s
+{
+	fz_glyph_key key;
+	fz_pixmap *val;
+	unsigned int size;
+	void *owner;
+	fz_glyph_entry *prev;
+	fz_glyph_entry *next;
 };
 
 void
@@ -37,34 +57,117 @@ fz_new_glyph_cache_context(fz_context *ctx)
 		fz_free(ctx, cache);
 		fz_rethrow(ctx);
 	}
-	cache->total = 0;
+	cache->head = NULL;
+	cache->tail = NULL;
+	memset(&cache->usage, 0, sizeof(cache->usage));
+	cache->usage.max = MAX_CACHE_SIZE;
 	cache->refs = 1;
 
 	ctx->glyph_cache = cache;
 }
 
+/* The glyph cache lock is always held when this function is called. */
+static void
+fz_drop_glyph_entry(fz_context *ctx, fz_glyph_entry *entry)
+{
+	fz_glyph_cache *cache = ctx->glyph_cache;
+
+	fz_hash_remove(ctx, cache->hash, &entry->key);
+	if (entry->next)
+		entry->next->prev = entry->prev;
+	else
+		cache->tail = entry->prev;
+	if (entry->prev)
+		entry->prev->next = entry->next;
+	else
+		cache->head = entry->next;
+	cache->usage.size -= entry->size;
+	cache->usage.items--;
+
+	if (entry->key.font)
+		fz_drop_font(ctx, entry->key.font);
+	fz_drop_pixmap(ctx, entry->val);
+	fz_free(ctx, entry);
+}
+
 /* The glyph cache lock is always held when this function is called. */
 static void
 fz_evict_glyph_cache(fz_context *ctx)
 {
 	fz_glyph_cache *cache = ctx->glyph_cache;
-	fz_glyph_key *key;
-	fz_pixmap *pixmap;
-	int i;
 
-	for (i = 0; i < fz_hash_len(ctx, cache->hash); i++)
+	while (cache->head)
+		fz_drop_glyph_entry(ctx, cache->head);
+}
+
+/* JMuPDF: evict the least recently used glyphs until size more bytes fit. Glyphs
+ * keyed by a font are only evicted by contexts of the same owner, as
+ * dropping the font may release resources of that owner. The glyph cache
+ * lock is always held when this function is called. */
+static void
+fz_shrink_glyph_cache(fz_context *ctx, unsigned int size)
+{
+	fz_glyph_cache *cache = ctx->glyph_cache;
+	fz_glyph_entry *entry, *prev;
+
+	for (entry = cache->tail; entry && cache->usage.size + size > cache->usage.max; entry = prev)
 	{
-		key = fz_hash_get_key(ctx, cache->hash, i);
-		if (key->font)
-			fz_drop_font(ctx, key->font);
-		pixmap = fz_hash_get_val(ctx, cache->hash, i);
-		if (pixmap)
-			fz_drop_pixmap(ctx, pixmap);
+		prev = entry->prev;
+		if (entry->key.font && entry->owner != ctx->store_usage)
+			continue;
+		cache->usage.evictions++;
+		fz_drop_glyph_entry(ctx, entry);
 	}
+}
+
+void
+fz_purge_glyph_cache(fz_context *ctx)
+{
+	fz_glyph_cache *cache = ctx->glyph_cache;
+	fz_glyph_entry *entry, *next;
 
-	cache->total = 0;
+	if (!cache)
+		return;
 
-	fz_empty_hash(ctx, cache->hash);
+	fz_lock(ctx, FZ_LOCK_GLYPHCACHE);
+	if (!ctx->store_usage)
+		fz_evict_glyph_cache(ctx);
+	else
+	{
+		for (entry = cache->head; entry; entry = next)
+		{
+			next = entry->next;
+			if (entry->key.font && entry->owner == ctx->store_usage)
+				fz_drop_glyph_entry(ctx, entry);
+		}
+	}
+	fz_unlock(ctx, FZ_LOCK_GLYPHCACHE);
+}
+
+void
+fz_set_glyph_cache_max(fz_context *ctx, unsigned int max)
+{
+	if (!ctx->glyph_cache)
+		return;
+
+	fz_lock(ctx, FZ_LOCK_GLYPHCACHE);
+	ctx->glyph_cache->usage.max = max;
+	fz_shrink_glyph_cache(ctx, 0);
+	fz_unlock(ctx, FZ_LOCK_GLYPHCACHE);
+}
+
+void
+fz_glyph_cache_usage_total(fz_context *ctx, fz_glyph_cache_usage *usage)
+{
+	if (!ctx->glyph_cache)
+	{
+		memset(usage, 0, sizeof(*usage));
+		return;
+	}
+
+	fz_lock(ctx, FZ_LOCK_GLYPHCACHE);
+	*usage = ctx->glyph_cache->usage;
+	fz_unlock(ctx, FZ_LOCK_GLYPHCACHE);
 }
 
 void
@@ -94,6 +197,63 @@ fz_keep_glyph_cache(fz_context *ctx)
 	return ctx->glyph_cache;
 }
 
+/* Put a rendered glyph into the cache, returning the glyph to use. If
+ * another thread cached the same glyph meanwhile, ours is dropped and
+ * the cached one is returned instead. The glyph cache lock is always held
+ * when this function is called, the hash table does not drop it. */
+static fz_pixmap *
+fz_cache_glyph(fz_context *ctx, fz_glyph_key *key, fz_pixmap *val)
+{
+	fz_glyph_cache *cache = ctx->glyph_cache;
+	fz_glyph_entry *entry = NULL;
+	fz_glyph_entry *existing = NULL;
+	unsigned int size = val->w * val->h * val->n;
+
+	fz_var(entry);
+
+	existing = fz_hash_find(ctx, cache->hash, key);
+	if (existing)
+	{
+		fz_drop_pixmap(ctx, val);
+		return fz_keep_pixmap(ctx, existing->val);
+	}
+
+	fz_shrink_glyph_cache(ctx, size);
+	if (cache->usage.size + size > cache->usage.max)
+		return val;
+
+	fz_try(ctx)
+	{
+		entry = fz_malloc_struct(ctx, fz_glyph_entry);
+		fz_hash_insert(ctx, cache->hash, key, entry);
+	}
+	fz_catch(ctx)
+	{
+		fz_free(ctx, entry);
+		fz_warn(ctx, "Failed to encache glyph - continuing");
+		return val;
+	}
+
+	entry->key = *key;
+	entry->val = fz_keep_pixmap(ctx, val);
+	entry->size = size;
+	entry->owner = ctx->store_usage;
+	if (key->font)
+		fz_keep_font(ctx, key->font);
+
+	entry->prev = NULL;
+	entry->next = cache->head;
+	if (entry->next)
+		entry->next->prev = entry;
+	else
+		cache->tail = entry;
+	cache->head = entry;
+	cache->usage.size += size;
+	cache->usage.items++;
+
+	return val;
+}
+
 fz_pixmap *
 fz_render_stroked_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix trm, fz_matrix ctm, fz_stroke_state *stroke, fz_bbox scissor)
 {
@@ -120,6 +280,7 @@ fz_render_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix ctm, fz_color
 {
 	fz_glyph_cache *cache;
 	fz_glyph_key key;
+	fz_glyph_entry *entry;
 	fz_pixmap *val;
 	float size = fz_matrix_expansion(ctm);
 	int do_cache;
@@ -139,7 +300,6 @@ fz_render_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix ctm, fz_color
 	cache = ctx->glyph_cache;
 
 	memset(&key, 0, sizeof key);
-	key.font = font;
 	key.gid = gid;
 	key.a = ctm.a * 65536;
 	key.b = ctm.b * 65536;
@@ -148,23 +308,47 @@ fz_render_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix ctm, fz_color
 	key.e = (ctm.e - floorf(ctm.e)) * 256;
 	key.f = (ctm.f - floorf(ctm.f)) * 256;
 	key.aa = fz_aa_level(ctx);
+	key.style = (!!font->ft_substitute) | (!!font->ft_bold << 1) | (!!font->ft_italic << 2) | (!!font->ft_hint << 3);
 
 	ctm.e = floorf(ctm.e) + key.e / 256.0f;
 	ctm.f = floorf(ctm.f) + key.f / 256.0f;
 
 	fz_lock(ctx, FZ_LOCK_GLYPHCACHE);
-	val = fz_hash_find(ctx, cache->hash, &key);
-	if (val)
+	/* The digest is taken under the lock as it is stored in the font */
+	if (!fz_font_digest(ctx, font, key.digest))
+		key.font = font;
+	entry = fz_hash_find(ctx, cache->hash, &key);
+	if (entry)
 	{
-		fz_keep_pixmap(ctx, val);
+		/* LRU: Move the entry to the front */
+		if (entry->prev)
+		{
+			entry->prev->next = entry->next;
+			if (entry->next)
+				entry->next->prev = entry->prev;
+			else
+				cache->tail = entry->prev;
+			entry->prev = NULL;
+			entry->next = cache->head;
+			cache->head->prev = entry;
+			cache->head = entry;
+		}
+		cache->usage.hits++;
+		val = fz_keep_pixmap(ctx, entry->val);
 		fz_unlock(ctx, FZ_LOCK_GLYPHCACHE);
 		return val;
 	}
+	cache->usage.misses++;
 
 	fz_try(ctx)
 	{
 		if (font->ft_face)
 		{
+			/* Freetype glyphs are rendered under the glyph cache lock.
+			 * Hinted glyphs depend on the state the font program leaves
+			 * in the face, so a glyph is only rendered by one face at a
+			 * time, the same as when each font had a cache of its own.
+			 */
 			val = fz_render_ft_glyph(ctx, font, gid, ctm, key.aa);
 		}
 		else if (font->t3procs)
@@ -197,27 +381,7 @@ fz_render_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix ctm, fz_color
 	if (val && do_cache)
 	{
 		if (val->w < MAX_GLYPH_SIZE && val->h < MAX_GLYPH_SIZE)
-		{
-			if (cache->total + val->w * val->h > MAX_CACHE_SIZE)
-				fz_evict_glyph_cache(ctx);
-			fz_try(ctx)
-			{
-				fz_pixmap *pix = fz_hash_insert(ctx, cache->hash, &key, val);
-				if (pix)
-				{
-					fz_drop_pixmap(ctx, val);
-					val = pix;
-				}
-				else
-					fz_keep_font(ctx, key.font);
-				val = fz_keep_pixmap(ctx, val);
-			}
-			fz_catch(ctx)
-			{
-				fz_warn(ctx, "Failed to encache glyph - continuing");
-			}
-			cache->total += val->w * val->h;
-		}
+			val = fz_cache_glyph(ctx, &key, val);
 	}
 
 	fz_unlock(ctx, FZ_LOCK_GLYPHCACHE);
@@ -358,15 +358,22 @@ static inline void step_edge(int *ael, int *del, int n)
 		ael[k] += del[k];
 }
 
+/* JMuPDF: step an edge over a number of rows at once */
+static inline void skip_edge(int *ael, int *del, int n, int rows)
+{
+	int k;
+	ael[0] = (int)(ael[0] + (int64_t)del[0] * rows);
+	for (k = 2; k < n; k++)
+		ael[k] = (int)(ael[k] + (int64_t)del[k] * rows);
+}
+
 static void
 fz_paint_triangle(fz_pixmap *pix, float *av, float *bv, float *cv, int n, fz_bbox bbox)
 {
 	float poly[MAXV][MAXN];
 	float temp[MAXV][MAXN];
 	float cx0 = bbox.x0;
-	float cy0 = bbox.y0;
 	float cx1 = bbox.x1;
-	float cy1 = bbox.y1;
 
 	int gel[MAXV][MAXN];
 	int ael[2][MAXN];
@@ -380,10 +387,11 @@ fz_paint_triangle(fz_pixmap *pix, float *av, float *bv, float *cv, int n, fz_bbo
 	copy_vert(poly[1], bv, n);
 	copy_vert(poly[2], cv, n);
 
+	/* JMuPDF: the polygon is only clipped in x. Rows outside of the clip
+	 * are stepped over instead, so the edges start from the same vertices
+	 * whatever the clip and banded rendering matches a single render. */
 	len = clip_poly(poly, temp, 3, n, cx0, 0, 0);
 	len = clip_poly(temp, poly, len, n, cx1, 0, 1);
-	len = clip_poly(poly, temp, len, n, cy0, 1, 0);
-	len = clip_poly(temp, poly, len, n, cy1, 1, 1);
 
 	if (len < 3)
 		return;
@@ -408,6 +416,9 @@ fz_paint_triangle(fz_pixmap *pix, float *av, float *bv, float *cv, int n, fz_bbo
 	if (gel[bot][1] - gel[top][1] == 0)
 		return;
 
+	if (gel[bot][1] <= bbox.y0 || gel[top][1] >= bbox.y1)
+		return;
+
 	y = gel[top][1];
 
 	if (find_next(gel, len, top, &s0, &e0, 1))
@@ -418,7 +429,30 @@ fz_paint_triangle(fz_pixmap *pix, float *av, float *bv, float *cv, int n, fz_bbo
 	load_edge(gel, s0, e0, ael[0], del[0], n);
 	load_edge(gel, s1, e1, ael[1], del[1], n);
 
-	while (1)
+	while (y < bbox.y0)
+	{
+		int rows = fz_mini(bbox.y0, fz_mini(gel[e0][1], gel[e1][1])) - y;
+
+		skip_edge(ael[0], del[0], n, rows);
+		skip_edge(ael[1], del[1], n, rows);
+		y += rows;
+
+		if (y >= gel[e0][1])
+		{
+			if (find_next(gel, len, e0, &s0, &e0, 1))
+				return;
+			load_edge(gel, s0, e0, ael[0], del[0], n);
+		}
+
+		if (y >= gel[e1][1])
+		{
+			if (find_next(gel, len, e1, &s1, &e1, -1))
+				return;
+			load_edge(gel, s1, e1, ael[1], del[1], n);
+		}
+	}
+
+	while (y < bbox.y1)
 	{
 		int x0 = ael[0][0] >> 16;
 		int x1 = ael[1][0] >> 16;
@@ -131,5 +131,7 @@ fz_clone_context_internal(fz_context *ctx)
 	new_ctx->glyph_cache = fz_keep_glyph_cache(new_ctx);
 	new_ctx->font = ctx->font;
 	new_ctx->font = fz_keep_font_context(new_ctx);
+	/* JMuPDF: clones store items for the same owner */
+	new_ctx->store_usage = ctx->store_usage;
 	return new_ctx;
 }
@@ -285,12 +285,16 @@ void fz_drop_storable(fz_context *, fz_storable *);
 	to an fz_store_hash structure. If make_hash_key function returns 0,
 	then the key is determined not to be hashable, and the value is
 	not stored in the hash table.
+
+	JMuPDF: the store sets the owner itself, so that owners sharing a store
+	(see fz_store_usage) never find each others items.
 */
 typedef struct fz_store_hash_s fz_store_hash;
 
 struct fz_store_hash_s
 {
 	fz_store_free_fn *free;
+	void *owner; /* JMuPDF: store usage of the owner of the item */
 	union
 	{
 		struct
@@ -388,9 +392,71 @@ void fz_remove_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store
 
 /*
 	fz_empty_store: Evict everything from the store.
+
+	JMuPDF: if the context has a store_usage set, only the items stored
+	through contexts with that same store_usage are evicted. This
+	lets one owner of a shared store clean up after itself without
+	throwing away the items of the other owners.
 */
 void fz_empty_store(fz_context *ctx);
 
+/*
+	fz_store_usage: Usage of a store.
+
+	JMuPDF: a context may point to an fz_store_usage (ctx->store_usage, which
+	is copied to cloned contexts). Every item put into the store is
+	then charged to it until the item leaves the store. This gives
+	the usage of each owner, typically a document, when several
+	owners share one store. The usage must stay valid until the owner
+	has emptied its items from the store with fz_empty_store.
+
+	Items are only evicted through contexts of their owner, as freeing
+	them may release resources of that owner. An owner that needs
+	space evicts its own least recently used items. If it holds less
+	than an equal share of the store and cannot find the space, the
+	owners above an equal share give theirs back the next time they
+	store an item.
+
+	size: The size in bytes of the items held.
+
+	peak: The largest size reached.
+
+	items: The number of items held.
+
+	evictions: The number of items evicted to make space.
+
+	All fields are updated under the FZ_LOCK_ALLOC lock.
+*/
+struct fz_store_usage_s
+{
+	unsigned int size;
+	unsigned int peak;
+	int items;
+	int evictions;
+};
+
+/*
+	fz_store_usage_total: Get the usage of the whole store (JMuPDF).
+
+	usage: Filled in with the usage of all owners together.
+
+	Returns the maximum size of the store.
+*/
+unsigned int fz_store_usage_total(fz_context *ctx, fz_store_usage *usage);
+
+/*
+	fz_set_store_max: Change the maximum size of the store, evicting
+	unused items if the store is now too big.
+
+	JMuPDF: only the items of the owner of the context are evicted at once,
+	see fz_store_usage. The other owners give back the rest as they
+	store new items.
+
+	max: The maximum size (in bytes) that the store is allowed to grow
+	to. FZ_STORE_UNLIMITED means no limit.
+*/
+void fz_set_store_max(fz_context *ctx, unsigned int max);
+
 /*
 	fz_store_scavenge: Internal function used as part of the scavenging
 	allocator; when we fail to allocate memory, before returning a
@@ -765,6 +831,10 @@ struct fz_font_s
 	/* substitute metrics */
 	int width_count;
 	int *width_table; /* in 1000 units */
+
+	/* JMuPDF: digest of the font data, see fz_font_digest */
+	int has_digest; /* 0 if not known yet, -1 if not available */
+	unsigned char digest[16];
 };
 
 void fz_new_font_context(fz_context *ctx);
@@ -776,6 +846,18 @@ fz_font *fz_new_type3_font(fz_context *ctx, char *name, fz_matrix matrix);
 fz_font *fz_new_font_from_memory(fz_context *ctx, char *name, unsigned char *data, int len, int index, int use_glyph_bbox);
 fz_font *fz_new_font_from_file(fz_context *ctx, char *name, char *path, int index, int use_glyph_bbox);
 
+/*
+	fz_font_digest: Get a digest of the font data and face index.
+
+	Fonts with the same digest render the same glyphs, so glyphs can be
+	cached by digest and shared between fonts loaded from the same data.
+	The digest is taken the first time it is asked for.
+
+	Returns 0 if the font has no digest, for example type 3 fonts, fonts
+	loaded from a file and fonts with substitute metrics.
+*/
+int fz_font_digest(fz_context *ctx, fz_font *font, unsigned char digest[16]);
+
 fz_font *fz_keep_font(fz_context *ctx, fz_font *font);
 void fz_drop_font(fz_context *ctx, fz_font *font);
 
@@ -885,8 +967,55 @@ void fz_print_path(fz_context *ctx, FILE *out, fz_path *, int indent);
 void fz_new_glyph_cache_context(fz_context *ctx);
 fz_glyph_cache *fz_keep_glyph_cache(fz_context *ctx);
 void fz_drop_glyph_cache_context(fz_context *ctx);
+
+/*
+	fz_purge_glyph_cache: Evict glyphs from the glyph cache.
+
+	If the context has a store_usage set, only the glyphs of fonts that
+	were cached through contexts with that same store_usage are evicted.
+	Glyphs of fonts known by their digest hold no reference to the font
+	and stay cached. Otherwise every glyph is evicted.
+*/
 void fz_purge_glyph_cache(fz_context *ctx);
 
+/*
+	fz_glyph_cache_usage: Usage of a glyph cache.
+
+	size: The size in bytes of the glyphs held.
+
+	max: The maximum size in bytes, the least recently used glyphs are
+	evicted to stay below it.
+
+	items: The number of glyphs held.
+
+	hits, misses: The number of lookups that found, or did not find,
+	their glyph in the cache.
+
+	evictions: The number of glyphs evicted to make space.
+*/
+typedef struct fz_glyph_cache_usage_s fz_glyph_cache_usage;
+
+struct fz_glyph_cache_usage_s
+{
+	unsigned int size;
+	unsigned int max;
+	int items;
+	unsigned int hits;
+	unsigned int misses;
+	int evictions;
+};
+
+/*
+	fz_glyph_cache_usage_total: Get the usage of the glyph cache.
+*/
+void fz_glyph_cache_usage_total(fz_context *ctx, fz_glyph_cache_usage *usage);
+
+/*
+	fz_set_glyph_cache_max: Change the maximum size of the glyph cache,
+	evicting glyphs if the cache is now too big.
+*/
+void fz_set_glyph_cache_max(fz_context *ctx, unsigned int max);
+
 fz_path *fz_outline_ft_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix trm);
 fz_path *fz_outline_glyph(fz_context *ctx, fz_font *font, int gid, fz_matrix ctm);
 fz_pixmap *fz_render_ft_glyph(fz_context *ctx, fz_font *font, int cid, fz_matrix trm, int aa);
@@ -188,6 +188,7 @@ typedef struct fz_font_context_s fz_font_context;
 typedef struct fz_aa_context_s fz_aa_context;
 typedef struct fz_locks_context_s fz_locks_context;
 typedef struct fz_store_s fz_store;
+typedef struct fz_store_usage_s fz_store_usage; /* JMuPDF */
 typedef struct fz_glyph_cache_s fz_glyph_cache;
 typedef struct fz_context_s fz_context;
 
@@ -279,6 +280,7 @@ struct fz_context_s
 	fz_aa_context *aa;
 	fz_store *store;
 	fz_glyph_cache *glyph_cache;
+	fz_store_usage *store_usage; /* JMuPDF: owner of the items stored */
 };
 
 /*
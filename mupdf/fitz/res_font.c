@@ -67,6 +67,8 @@ fz_new_font(fz_context *ctx, char *name, int use_glyph_bbox, int glyph_count)
 	font->width_count = 0;
 	font->width_table = NULL;
 
+	font->has_digest = 0;
+
 	return font;
 }
 
@@ -315,6 +317,36 @@ fz_new_font_from_memory(fz_context *ctx, char *name, unsigned char *data, int le
 	return font;
 }
 
+/* JMuPDF: glyphs are cached by font digest */
+int
+fz_font_digest(fz_context *ctx, fz_font *font, unsigned char digest[16])
+{
+	FT_Face face = font->ft_face;
+
+	if (font->has_digest == 0)
+	{
+		font->has_digest = -1;
+		/* Only faces opened from memory keep their data at hand */
+		if (face && face->stream && face->stream->base && !font->width_table)
+		{
+			fz_md5 md5;
+			int index = face->face_index;
+
+			fz_md5_init(&md5);
+			fz_md5_update(&md5, face->stream->base, face->stream->size);
+			fz_md5_update(&md5, (unsigned char *)&index, sizeof index);
+			fz_md5_final(&md5, font->digest);
+			font->has_digest = 1;
+		}
+	}
+
+	if (font->has_digest < 0)
+		return 0;
+
+	memcpy(digest, font->digest, 16);
+	return 1;
+}
+
 static fz_matrix
 fz_adjust_ft_glyph_width(fz_context *ctx, fz_font *font, int gid, fz_matrix trm)
 {
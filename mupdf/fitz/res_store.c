@@ -11,6 +11,8 @@ struct fz_item_s
 	fz_item *prev;
 	fz_store *store;
 	fz_store_type *type;
+	fz_store_usage *usage; /* JMuPDF: owner of the item */
+	int drop; /* JMuPDF: value to free with the item */
 };
 
 struct fz_store_s
@@ -29,6 +31,15 @@ struct fz_store_s
 	/* We keep track of the size of the store, and keep it below max. */
 	unsigned int max;
 	unsigned int size;
+
+	/* JMuPDF: usage of all items together, and the number of owners that
+	 * hold items. */
+	fz_store_usage total;
+	int owners;
+
+	/* JMuPDF: space that an owner below an equal share could not find, to be
+	 * given back by the owners above it as they store new items. */
+	unsigned int wanted;
 };
 
 void
@@ -50,6 +61,9 @@ fz_new_store_context(fz_context *ctx, unsigned int max)
 	store->tail = NULL;
 	store->size = 0;
 	store->max = max;
+	memset(&store->total, 0, sizeof(store->total));
+	store->owners = 0;
+	store->wanted = 0;
 	ctx->store = store;
 }
 
@@ -91,13 +105,50 @@ fz_drop_storable(fz_context *ctx, fz_storable *s)
 		s->free(ctx, s);
 }
 
+/* JMuPDF: charge a newly linked item to its owner. Called with the lock held. */
 static void
-evict(fz_context *ctx, fz_item *item)
+charge(fz_store *store, fz_item *item)
+{
+	fz_store_usage *usage = item->usage;
+
+	store->total.items++;
+	if (store->size > store->total.peak)
+		store->total.peak = store->size;
+	if (usage)
+	{
+		if (usage->items++ == 0)
+			store->owners++;
+		usage->size += item->size;
+		if (usage->size > usage->peak)
+			usage->peak = usage->size;
+	}
+}
+
+/* JMuPDF: undo charge as an item leaves the store. Called with the lock held. */
+static void
+discharge(fz_store *store, fz_item *item)
+{
+	fz_store_usage *usage = item->usage;
+
+	store->size -= item->size;
+	store->total.items--;
+	if (usage)
+	{
+		usage->size -= item->size;
+		if (--usage->items == 0)
+			store->owners--;
+	}
+}
+
+/* JMuPDF: take an item out of the store, returning non zero if the value has to
+ * be freed. Called with the lock held. */
+static int
+unlink_item(fz_context *ctx, fz_item *item)
 {
 	fz_store *store = ctx->store;
 	int drop;
 
-	store->size -= item->size;
+	discharge(store, item);
 	/* Unlink from the linked list */
 	if (item->next)
 		item->next->prev = item->prev;
@@ -114,22 +165,92 @@ evict(fz_context *ctx, fz_item *item)
 	{
 		fz_store_hash hash = { NULL };
 		hash.free = item->val->free;
+		hash.owner = item->usage;
 		if (item->type->make_hash_key(&hash, item->key))
 			fz_hash_remove(ctx, store->hash, &hash);
 	}
-	fz_unlock(ctx, FZ_LOCK_ALLOC);
+	return drop;
+}
+
+/* JMuPDF: free an item taken out of the store. Called without the lock. */
+static void
+free_item(fz_context *ctx, fz_item *item, int drop)
+{
 	if (drop)
 		item->val->free(ctx, item->val);
 	/* Always drops the key and free the item */
 	item->type->drop_key(ctx, item->key);
 	fz_free(ctx, item);
+}
+
+static void
+evict(fz_context *ctx, fz_item *item)
+{
+	int drop = unlink_item(ctx, item);
+	fz_unlock(ctx, FZ_LOCK_ALLOC);
+	free_item(ctx, item, drop);
 	fz_lock(ctx, FZ_LOCK_ALLOC);
 }
 
+/* JMuPDF: free a list of items taken out of the store. Called without the lock. */
+static void
+free_items(fz_context *ctx, fz_item *item)
+{
+	fz_item *next;
+
+	for (; item; item = next)
+	{
+		next = item->next;
+		free_item(ctx, item, item->drop);
+	}
+}
+
+/* JMuPDF: evict the unused items of the calling owner, least recently used
+ * first, until tofree bytes are freed or the owner holds no more than
+ * keep bytes. Only the owner of an item evicts it, as freeing the item
+ * may release resources of that owner, which another owner could be
+ * closing meanwhile. The items are all taken out of the list before
+ * the lock is dropped to free them, so no other evict process can
+ * find a stale item. Returns the number of bytes freed. */
+static unsigned int
+evict_own(fz_context *ctx, unsigned int tofree, unsigned int keep)
+{
+	fz_store *store = ctx->store;
+	fz_store_usage *usage = ctx->store_usage;
+	fz_item *item, *prev;
+	fz_item *dead = NULL;
+	unsigned int count = 0;
+
+	for (item = store->tail; item && count < tofree; item = prev)
+	{
+		prev = item->prev;
+		if (item->usage != usage || item->val->refs != 1)
+			continue;
+		if (usage && usage->size <= keep)
+			break;
+		count += item->size;
+		store->total.evictions++;
+		if (usage)
+			usage->evictions++;
+		item->drop = unlink_item(ctx, item);
+		item->next = dead;
+		dead = item;
+	}
+
+	if (dead)
+	{
+		fz_unlock(ctx, FZ_LOCK_ALLOC);
+		free_items(ctx, dead);
+		fz_lock(ctx, FZ_LOCK_ALLOC);
+	}
+
+	return count;
+}
+
 static int
 ensure_space(fz_context *ctx, unsigned int tofree)
 {
-	fz_item *item, *prev;
+	fz_item *item;
 	unsigned int count;
 	fz_store *store = ctx->store;
 
@@ -140,7 +261,7 @@ ensure_space(fz_context *ctx, unsigned int tofree)
 	count = 0;
 	for (item = store->tail; item; item = item->prev)
 	{
-		if (item->val->refs == 1)
+		if (item->val->refs == 1 && item->usage == ctx->store_usage)
 		{
 			count += item->size;
 			if (count >= tofree)
@@ -148,44 +269,42 @@ ensure_space(fz_context *ctx, unsigned int tofree)
 		}
 	}
 
-	/* If we ran out of items to search, then we can never free enough */
+	/* If we ran out of items to search, then we can never free enough.
+	 * When several owners share the store, ask the owners above an
+	 * equal share to give the space back. */
 	if (item == NULL)
 	{
+		if (store->owners > 1 && tofree > store->wanted)
+			store->wanted = tofree;
 		return 0;
 	}
 
 	/* Actually free the items */
-	count = 0;
-	for (item = store->tail; item; item = prev)
-	{
-		prev = item->prev;
-		if (item->val->refs == 1)
-		{
-			/* Free this item. Evict has to drop the lock to
-			 * manage that, which could cause prev to be removed
-			 * in the meantime. To avoid that we bump its reference
-			 * count here. This may cause another simultaneous
-			 * evict process to fail to make enough space as prev is
-			 * pinned - but that will only happen if we're near to
-			 * the limit anyway, and it will only cause something to
-			 * not be cached. */
-			count += item->size;
-			if (prev)
-				prev->val->refs++;
-			evict(ctx, item); /* Drops then retakes lock */
-			/* So the store has 1 reference to prev, as do we, so
-			 * no other evict process can have thrown prev away in
-			 * the meantime. So we are safe to just decrement its
-			 * reference count here. */
-			if (prev)
-				--prev->val->refs;
+	return evict_own(ctx, tofree, 0);
+}
 
-			if (count >= tofree)
-				return count;
-		}
+/* JMuPDF: give space back to the owners below an equal share of the store.
+ * Called with the lock held, may drop then retake it. */
+static void
+give_back(fz_context *ctx)
+{
+	fz_store *store = ctx->store;
+	fz_store_usage *usage = ctx->store_usage;
+	unsigned int share, count;
+
+	if (store->wanted == 0)
+		return;
+	if (store->owners < 2 || store->size + store->wanted <= store->max)
+	{
+		store->wanted = 0;
+		return;
 	}
+	share = store->max / store->owners;
+	if (usage == NULL || usage->size <= share)
+		return;
 
-	return count;
+	count = evict_own(ctx, store->wanted, share);
+	store->wanted = count < store->wanted ? store->wanted - count : 0;
 }
 
 void *
@@ -218,6 +337,7 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 	if (type->make_hash_key)
 	{
 		hash.free = val->free;
+		hash.owner = ctx->store_usage;
 		use_hash = type->make_hash_key(&hash, key);
 	}
 
@@ -225,6 +345,8 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 	fz_lock(ctx, FZ_LOCK_ALLOC);
 	if (store->max != FZ_STORE_UNLIMITED)
 	{
+		/* give_back may drop, then retake the lock */
+		give_back(ctx);
 		size = store->size + itemsize;
 		while (size > store->max)
 		{
@@ -237,6 +359,9 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 				type->drop_key(ctx, key);
 				return NULL;
 			}
+			/* Other contexts sharing the store may have added
+			 * items while the lock was dropped */
+			size = store->size + itemsize;
 		}
 	}
 	store->size += itemsize;
@@ -246,6 +371,7 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 	item->size = itemsize;
 	item->next = NULL;
 	item->type = type;
+	item->usage = ctx->store_usage;
 
 	/* If we can index it fast, put it into the hash table */
 	if (use_hash)
@@ -268,6 +394,7 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 		{
 			/* Take a new reference */
 			existing->val->refs++;
+			store->size -= itemsize;
 			fz_unlock(ctx, FZ_LOCK_ALLOC);
 			fz_free(ctx, item);
 			return existing->val;
@@ -284,6 +411,7 @@ fz_store_item(fz_context *ctx, void *key, void *val_, unsigned int itemsize, fz_
 		store->tail = item;
 	store->head = item;
 	item->prev = NULL;
+	charge(store, item);
 	fz_unlock(ctx, FZ_LOCK_ALLOC);
 
 	return NULL;
@@ -306,6 +434,7 @@ fz_find_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store_type *
 	if (type->make_hash_key)
 	{
 		hash.free = free;
+		hash.owner = ctx->store_usage;
 		use_hash = type->make_hash_key(&hash, key);
 	}
 
@@ -320,7 +449,7 @@ fz_find_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store_type *
 		/* Others we have to hunt for slowly */
 		for (item = store->head; item; item = item->next)
 		{
-			if (item->val->free == free && !type->cmp_key(item->key, key))
+			if (item->val->free == free && item->usage == ctx->store_usage && !type->cmp_key(item->key, key))
 				break;
 		}
 	}
@@ -361,12 +490,13 @@ fz_remove_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store_type
 	fz_item *item;
 	fz_store *store = ctx->store;
 	int drop;
-	fz_store_hash hash;
+	fz_store_hash hash = { NULL };
 	int use_hash = 0;
 
 	if (type->make_hash_key)
 	{
 		hash.free = free;
+		hash.owner = ctx->store_usage;
 		use_hash = type->make_hash_key(&hash, key);
 	}
 
@@ -382,11 +512,12 @@ fz_remove_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store_type
 	{
 		/* Others we have to hunt for slowly */
 		for (item = store->head; item; item = item->next)
-			if (item->val->free == free && !type->cmp_key(item->key, key))
+			if (item->val->free == free && item->usage == ctx->store_usage && !type->cmp_key(item->key, key))
 				break;
 	}
 	if (item)
 	{
+		discharge(store, item);
 		if (item->next)
 			item->next->prev = item->prev;
 		else
@@ -406,8 +537,74 @@ fz_remove_item(fz_context *ctx, fz_store_free_fn *free, void *key, fz_store_type
 		fz_unlock(ctx, FZ_LOCK_ALLOC);
 }
 
+static void
+empty_store(fz_context *ctx, fz_store_usage *usage)
+{
+	fz_store *store = ctx->store;
+	fz_item *item, *next;
+	fz_item *dead = NULL;
+
+	if (store == NULL)
+		return;
+
+	fz_lock(ctx, FZ_LOCK_ALLOC);
+	if (usage == NULL)
+	{
+		/* Run through all the items in the store */
+		while (store->head)
+		{
+			evict(ctx, store->head); /* Drops then retakes lock */
+		}
+		fz_unlock(ctx, FZ_LOCK_ALLOC);
+		return;
+	}
+
+	/* JMuPDF: take the items of this owner out in one pass, other owners may be
+	 * using the store meanwhile so the list cannot be walked while the
+	 * lock is dropped. The items are freed once the lock is released. */
+	for (item = store->head; item; item = next)
+	{
+		next = item->next;
+		if (item->usage != usage)
+			continue;
+		item->drop = unlink_item(ctx, item);
+		item->next = dead;
+		dead = item;
+	}
+	fz_unlock(ctx, FZ_LOCK_ALLOC);
+
+	free_items(ctx, dead);
+}
+
 void
 fz_empty_store(fz_context *ctx)
+{
+	empty_store(ctx, ctx->store_usage);
+}
+
+unsigned int
+fz_store_usage_total(fz_context *ctx, fz_store_usage *usage)
+{
+	fz_store *store = ctx->store;
+	unsigned int max;
+
+	if (store == NULL)
+	{
+		memset(usage, 0, sizeof(*usage));
+		return 0;
+	}
+
+	fz_lock(ctx, FZ_LOCK_ALLOC);
+	*usage = store->total;
+	usage->size = store->size;
+	max = store->max;
+	fz_unlock(ctx, FZ_LOCK_ALLOC);
+
+	return max;
+}
+
+void
+fz_set_store_max(fz_context *ctx, unsigned int max)
 {
 	fz_store *store = ctx->store;
 
@@ -415,10 +612,14 @@ fz_empty_store(fz_context *ctx)
 		return;
 
 	fz_lock(ctx, FZ_LOCK_ALLOC);
-	/* Run through all the items in the store */
-	while (store->head)
+	store->max = max;
+	if (max != FZ_STORE_UNLIMITED && store->size > max)
 	{
-		evict(ctx, store->head); /* Drops then retakes lock */
+		/* JMuPDF: only the items of this owner go at once, the other owners
+		 * give back what is left as they store new items. */
+		evict_own(ctx, store->size - max, 0);
+		if (store->owners > 1 && store->size > max)
+			store->wanted = store->size - max;
 	}
 	fz_unlock(ctx, FZ_LOCK_ALLOC);
 }
@@ -446,7 +647,7 @@ fz_drop_store_context(fz_context *ctx)
 	if (refs != 0)
 		return;
 
-	fz_empty_store(ctx);
+	empty_store(ctx, NULL);
 	fz_free_hash(ctx, ctx->store->hash);
 	fz_free(ctx, ctx->store);
 	ctx->store = NULL;
@@ -479,35 +680,12 @@ fz_print_store(fz_context *ctx, FILE *out)
 }
 #endif
 
-/* This is now an n^2 algorithm - not ideal, but it'll only be bad if we are
- * actually managing to scavenge lots of blocks back. */
+/* JMuPDF: only the items of the calling owner are scavenged, see evict_own. */
 static int
 scavenge(fz_context *ctx, unsigned int tofree)
 {
-	fz_store *store = ctx->store;
-	unsigned int count = 0;
-	fz_item *item, *prev;
-
-	/* Free the items */
-	for (item = store->tail; item; item = prev)
-	{
-		prev = item->prev;
-		if (item->val->refs == 1)
-		{
-			/* Free this item */
-			count += item->size;
-			evict(ctx, item); /* Drops then retakes lock */
-
-			if (count >= tofree)
-				break;
-
-			/* Have to restart search again, as prev may no longer
-			 * be valid due to release of lock in evict. */
-			prev = store->tail;
-		}
-	}
 	/* Success is managing to evict any blocks */
-	return count != 0;
+	return evict_own(ctx, tofree, 0) != 0;
 }
 
 int fz_store_scavenge(fz_context *ctx, unsigned int size, int *phase)
@@ -31,9 +31,13 @@ typedef enum jni_color_types
 	COLOR_ARGB = 2,
 	COLOR_ARGB_PRE = 3,
 	COLOR_BGR = 4,
+	COLOR_3BYTE_BGR = 5,
+	COLOR_4BYTE_ABGR = 6,
+	COLOR_4BYTE_ABGR_PRE = 7,
 	COLOR_GRAY_SCALE = 10,
 	COLOR_BLACK_WHITE = 12,
-	COLOR_BLACK_WHITE_DITHER = 121
+	COLOR_BLACK_WHITE_DITHER = 121,
+	COLOR_BLACK_WHITE_ORDERED = 122
 } jni_color_type;
 
 // Document types
@@ -47,6 +51,16 @@ typedef enum jni_doc_types
 // Page rendering options
 typedef struct jni_options_s jni_options;
 
+// Memory mapped document file
+typedef struct jni_file_map_s jni_file_map;
+
+// Document open modes
+typedef enum jni_open_modes
+{
+	OPEN_READ = 0,
+	OPEN_MAPPED = 1
+} jni_open_mode;
+
 // Document structure
 typedef struct jni_document_s jni_document;
 struct jni_document_s
@@ -54,6 +68,8 @@ struct jni_document_s
 	fz_context *ctx;
 	fz_document *doc;
 	jni_doc_type type;
+	jni_file_map *map;
+	fz_store_usage usage;
 };
 
 // Page structure
@@ -62,9 +78,9 @@ struct jni_page_s
 {
 	fz_context *ctx;
 	jni_document *doc;
-	jni_options *options;
 	fz_page *page;
 	fz_display_list *list;
+	size_t list_size;
 	fz_rect bbox;
 };
 
@@ -85,11 +101,42 @@ static const int DEFAULT_DPI = 72;
 // Calculate resolution based on zoom factor
 #define jni_resolution(Z) (Z*DEFAULT_DPI)
 
+// Process wide locks
+typedef enum jni_global_locks
+{
+	JNI_GLOBAL_LOCK_POOL = 0,
+	JNI_GLOBAL_LOCK_STORE,
+	JNI_GLOBAL_LOCK_GLYPHS,
+	JNI_GLOBAL_LOCK_SHARED,
+	JNI_GLOBAL_MAX_LOCKS
+} jni_global_lock_id;
+
 // jni_concurrent.c
-fz_locks_context * jni_new_locks();
+fz_locks_context * jni_new_locks(int);
 void jni_free_locks(fz_locks_context*);
 void jni_lock(fz_context*);
 void jni_unlock(fz_context*);
+void jni_global_lock(int);
+void jni_global_unlock(int);
+
+// Parallel task, called with the index of the task
+typedef void (jni_task_fn)(void *arg, int index);
+int jni_cpu_count();
+void jni_run_tasks(jni_task_fn*, void*, int);
+
+// jni_store.c
+fz_context * jni_new_shared_context(fz_locks_context*);
+fz_context * jni_new_private_context(fz_locks_context*, int);
+int jni_has_shared_store();
+
+// jni_file_map.c
+jni_file_map * jni_map_file(fz_context*, const char*);
+void jni_unmap_file(fz_context*, jni_file_map*);
+fz_stream * jni_open_map(fz_context*, jni_file_map*);
+
+// jni_buffer_pool.c
+void * jni_pool_alloc(size_t);
+void jni_pool_free(void*);
 
 // jni_java_document.c
 jni_document *jni_get_document(jlong);
@@ -98,18 +145,56 @@ jni_document *jni_get_document(jlong);
 jni_page *jni_get_page(jlong);
 
 // jni_java_pixmap.c
-jni_options * jni_new_options(fz_context*);
 char * jni_jbyte_to_char(JNIEnv*, fz_context*, jbyteArray);
 fz_matrix jni_get_view_ctm(float, int);
-int jni_pix_to_black_white(fz_context*, fz_pixmap*, int, unsigned char* );
+
+// jni_dither.c
+typedef struct jni_bilevel_s jni_bilevel;
+int jni_is_bilevel(int);
+jni_bilevel * jni_new_bilevel(int, int);
+void jni_free_bilevel(jni_bilevel*);
+int jni_bilevel_convert(jni_bilevel*, fz_pixmap*, int, unsigned char*, int);
+int jni_pix_to_black_white(fz_context*, fz_pixmap*, int, unsigned char*, int);
 int jni_pix_to_binary(fz_context*, fz_pixmap*, int, unsigned char*);
 
 // jni_write_xxx.c
-void * jni_write_png(JNIEnv*, fz_context*, fz_pixmap*, const char*, int, float);
+void * jni_write_png(JNIEnv*, fz_context*, fz_pixmap*, const char*, int, float, int);
 void * jni_write_jpg(JNIEnv*, fz_context*, fz_pixmap*, const char*, float, int, int);
 int jni_write_tif(fz_context*, fz_pixmap*, const char*, float, int, int, int, int);
 int jni_write_bmp(fz_context*, fz_pixmap*, const char*, float, int);
 
+// Output function of streaming writers, returns 0 upon success
+typedef int (jni_write_fn)(void *user, const unsigned char *data, int len);
+int jni_file_write(void*, const unsigned char*, int);
+
+// Writers passing the whole image to an output function
+int jni_output_png(fz_context*, fz_pixmap*, jni_write_fn*, void*, int, float, int);
+int jni_output_jpg(fz_context*, fz_pixmap*, jni_write_fn*, void*, float, int, int);
+int jni_output_tif(fz_context*, fz_pixmap*, jni_write_fn*, void*, float, int, int, int);
+int jni_output_bmp(fz_context*, fz_pixmap*, jni_write_fn*, void*, float, int);
+int jni_output_pnm(fz_context*, fz_pixmap*, jni_write_fn*, void*);
+int jni_output_pam(fz_context*, fz_pixmap*, jni_write_fn*, void*, int);
+int jni_output_pbm(fz_context*, fz_bitmap*, jni_write_fn*, void*);
+
+// Streaming writers, images are written one band at a time
+typedef struct jni_png_stream_s jni_png_stream;
+jni_png_stream * jni_png_begin(fz_context*, jni_write_fn*, void*, int, int, int, int, float, int);
+int jni_png_write_band(jni_png_stream*, fz_pixmap*);
+int jni_png_end(jni_png_stream*);
+
+typedef struct jni_tif_stream_s jni_tif_stream;
+jni_tif_stream * jni_tif_begin(fz_context*, const char*, int, int, int, int, float, int, int, int, int);
+int jni_tif_write_band(jni_tif_stream*, fz_pixmap*);
+int jni_tif_end(jni_tif_stream*);
+
+// Multi-page TIF file kept open while pages are added
+typedef struct jni_tif_file_s jni_tif_file;
+size_t jni_tif_page_size(int, int, int, int, int);
+int jni_tif_pack_page(fz_context*, fz_pixmap*, int, int, unsigned char*);
+jni_tif_file * jni_tif_open_file(const char*, int);
+int jni_tif_add_page(jni_tif_file*, unsigned char*, int, int, int, float, int, int, int);
+int jni_tif_close_file(jni_tif_file*);
+
 // JNI String
 #define jni_new_char(str) (*env)->GetStringUTFChars(env, str, 0);
 #define jni_free_char(str, chars) (*env)->ReleaseStringUTFChars(env, str, chars);
@@ -142,35 +227,31 @@ int jni_write_bmp(fz_context*, fz_pixmap*, const char*, float, int);
 // JNI ByteBuffer
 #define jni_new_buffer_direct(mem, len) (*env)->NewDirectByteBuffer(env, mem, len)
 #define jni_get_buffer_address(buf) (*env)->GetDirectBufferAddress(env, buf)
-#define jni_get_buffer_capacity(buf) (*env)->GetDirectBufferCatpacity(env, buf)
-
-// DocumentOutline class and methods: Strong Typing
-#define jni_new_outline_class() (*env)->FindClass(env, "com/jmupdf/document/DocumentOutline");
-#define jni_new_outline_obj(cls, method) (*env)->NewObject(env, cls, method);
-#define jni_get_outline_init(cls) (*env)->GetMethodID(env, cls, "<init>",   "()V");
-#define jni_get_outline_add_next(cls) (*env)->GetMethodID(env, cls, "addNext",  "()Lcom/jmupdf/document/DocumentOutline;");
-#define jni_get_outline_add_child(cls) (*env)->GetMethodID(env, cls, "addChild", "()Lcom/jmupdf/document/DocumentOutline;");
-#define jni_get_outline_set_page(cls) (*env)->GetMethodID(env, cls, "setPage",  "(I)V");
-#define jni_get_outline_set_rect(cls) (*env)->GetMethodID(env, cls, "setRect",  "(FFFF)V");
-#define jni_get_outline_set_title(cls) (*env)->GetMethodID(env, cls, "setTitle", "(Ljava/lang/String;)V");
-#define jni_get_outline_set_type(cls) (*env)->GetMethodID(env, cls, "setType", "(I)V");
-#define jni_get_outline_set_destination(cls) (*env)->GetMethodID(env, cls, "setDestination", "(Ljava/lang/String;)V");
-#define jni_outline_set_title_call(obj, method, string) (*env)->CallVoidMethod(env, obj, method, string);
-#define jni_outline_set_type_call(obj, method, type) (*env)->CallVoidMethod(env, obj, method, type);
-#define jni_outline_set_page_call(obj, method, page) (*env)->CallVoidMethod(env, obj, method, page);
-#define jni_outline_set_rect_call(obj, method, x0, y0, x1, y1) (*env)->CallVoidMethod(env, obj, method, x0, y0, x1, y1);
-#define jni_outline_set_destination_call(obj, method, dest) (*env)->CallVoidMethod(env, obj, method, dest);
-#define jni_outline_add_child_call(obj, method) (*env)->CallObjectMethod(env, obj, method);
-#define jni_outline_add_next_call(obj, method) (*env)->CallObjectMethod(env, obj, method);
-
-// PageText class and methods: Strong Typing
-#define jni_new_page_text_class() (*env)->FindClass(env, "com/jmupdf/page/PageText");
-#define jni_new_page_text_obj(cls, method, x0, y0, x1, y1, eol, text) (*env)->NewObject(env, cls, method, x0, y0, x1, y1, eol, text);
-#define jni_get_page_text_init(cls) (*env)->GetMethodID(env, cls, "<init>", "(FFFFI[I)V");
+#define jni_get_buffer_capacity(buf) (*env)->GetDirectBufferCapacity(env, buf)
+
+// Java classes and methods called from native code, looked up once in JNI_OnLoad()
+typedef struct jni_registry_s jni_registry;
+struct jni_registry_s
+{
+	jclass page_text_layout;
+	jmethodID page_text_layout_init;
+	jclass page_links;
+	jmethodID page_links_init;
+	jclass progressive_renderer;
+	jmethodID band_rendered;
+	jclass band_renderer;
+	jmethodID write_band;
+	jclass image_stream_writer;
+	jmethodID write_stream;
+};
+
+// jni_registry.c
+extern jni_registry jni_ids;
+
+// PageTextLayout class and methods: Strong Typing
+#define jni_new_page_text_layout_obj(cls, method, chars, boxes, spans, lines, blocks) (*env)->NewObject(env, cls, method, chars, boxes, spans, lines, blocks);
 
 // Page links and methods: Strong Typing
-#define jni_new_page_links_class() (*env)->FindClass(env, "com/jmupdf/page/PageLinks");
 #define jni_new_page_links_obj(cls, method, x0, y0, x1, y1, eol, text) (*env)->NewObject(env, cls, method, x0, y0, x1, y1, type, text);
-#define jni_get_page_links_init(cls) (*env)->GetMethodID(env, cls, "<init>", "(FFFFILjava/lang/String;)V");
 
 #endif
@@ -0,0 +1,213 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * This program implements a process wide pool of pixel
+ * buffers. Pixmap samples, packed pixel buffers and the
+ * scratch buffers used by the image writers are taken from
+ * this pool so that rendering a sequence of pages of the
+ * same size does not allocate memory in steady state.
+ *
+ * Buffers are grouped into size classes. A request is
+ * rounded up to its size class (at most 1/16th larger) and
+ * only served from a free buffer of the same class. The pool
+ * is bounded by a maximum number of bytes and buffers kept.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+typedef struct jni_pool_block_s jni_pool_block;
+struct jni_pool_block_s
+{
+	size_t capacity;
+	jni_pool_block *next;
+};
+
+// Keep buffers 16 byte aligned
+#define JNI_POOL_HEADER ((sizeof(jni_pool_block) + 15) & ~15)
+
+// Pool statistics indexes
+enum
+{
+	JNI_POOL_HITS = 0,
+	JNI_POOL_MISSES,
+	JNI_POOL_RETURNS,
+	JNI_POOL_DISCARDS,
+	JNI_POOL_BYTES,
+	JNI_POOL_BUFFERS,
+	JNI_POOL_MAX_BYTES,
+	JNI_POOL_MAX_BUFFERS,
+	JNI_POOL_STATS
+};
+
+typedef struct jni_pool_s jni_pool;
+struct jni_pool_s
+{
+	jni_pool_block *head;
+	size_t bytes;
+	int buffers;
+	size_t max_bytes;
+	int max_buffers;
+	jlong hits;
+	jlong misses;
+	jlong returns;
+	jlong discards;
+};
+
+static jni_pool pool = { NULL, 0, 0, 64 << 20, 8, 0, 0, 0, 0 };
+
+/**
+ * Round size up to its size class
+ */
+static size_t jni_pool_class(size_t size)
+{
+	size_t step = 4096;
+	while ((step << 4) < size)
+	{
+		step <<= 1;
+	}
+	return (size + step - 1) & ~(step - 1);
+}
+
+/**
+ * Free buffers until pool is within its limits.
+ * Must be called while holding the pool lock.
+ */
+static jni_pool_block * jni_pool_trim()
+{
+	jni_pool_block *trimmed = NULL;
+	jni_pool_block *block;
+	while (pool.head && (pool.bytes > pool.max_bytes || pool.buffers > pool.max_buffers))
+	{
+		block = pool.head;
+		pool.head = block->next;
+		pool.bytes -= block->capacity;
+		pool.buffers--;
+		block->next = trimmed;
+		trimmed = block;
+	}
+	return trimmed;
+}
+
+/**
+ * Get a buffer of at least size bytes
+ */
+void * jni_pool_alloc(size_t size)
+{
+	size_t capacity = jni_pool_class(size);
+	jni_pool_block **prev;
+	jni_pool_block *block;
+
+	jni_global_lock(JNI_GLOBAL_LOCK_POOL);
+	for (prev = &pool.head; *prev; prev = &(*prev)->next)
+	{
+		if ((*prev)->capacity == capacity)
+		{
+			break;
+		}
+	}
+	block = *prev;
+	if (block)
+	{
+		*prev = block->next;
+		pool.bytes -= capacity;
+		pool.buffers--;
+		pool.hits++;
+	}
+	else
+	{
+		pool.misses++;
+	}
+	jni_global_unlock(JNI_GLOBAL_LOCK_POOL);
+
+	if (!block)
+	{
+		block = malloc(JNI_POOL_HEADER + capacity);
+		if (!block)
+		{
+			return NULL;
+		}
+		block->capacity = capacity;
+	}
+
+	block->next = NULL;
+
+	return (unsigned char*)block + JNI_POOL_HEADER;
+}
+
+/**
+ * Return a buffer to the pool
+ */
+void jni_pool_free(void *ptr)
+{
+	if (!ptr)
+	{
+		return;
+	}
+
+	jni_pool_block *block = (jni_pool_block*)((unsigned char*)ptr - JNI_POOL_HEADER);
+
+	jni_global_lock(JNI_GLOBAL_LOCK_POOL);
+	if (pool.buffers < pool.max_buffers && pool.bytes + block->capacity <= pool.max_bytes)
+	{
+		block->next = pool.head;
+		pool.head = block;
+		pool.bytes += block->capacity;
+		pool.buffers++;
+		pool.returns++;
+		block = NULL;
+	}
+	else
+	{
+		pool.discards++;
+	}
+	jni_global_unlock(JNI_GLOBAL_LOCK_POOL);
+
+	if (block)
+	{
+		free(block);
+	}
+}
+
+/**
+ * Set pool limits. Free buffers above the new limits are released.
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_setBufferPoolLimits(JNIEnv *env, jclass obj, jlong max_bytes, jint max_buffers)
+{
+	jni_pool_block *trimmed;
+	jni_pool_block *block;
+
+	jni_global_lock(JNI_GLOBAL_LOCK_POOL);
+	pool.max_bytes = max_bytes > 0 ? (size_t)max_bytes : 0;
+	pool.max_buffers = max_buffers > 0 ? max_buffers : 0;
+	trimmed = jni_pool_trim();
+	jni_global_unlock(JNI_GLOBAL_LOCK_POOL);
+
+	while (trimmed)
+	{
+		block = trimmed;
+		trimmed = block->next;
+		free(block);
+	}
+}
+
+/**
+ * Get pool statistics
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_getBufferPoolStats(JNIEnv *env, jclass obj, jlongArray stats)
+{
+	jlong data[JNI_POOL_STATS];
+
+	jni_global_lock(JNI_GLOBAL_LOCK_POOL);
+	data[JNI_POOL_HITS] = pool.hits;
+	data[JNI_POOL_MISSES] = pool.misses;
+	data[JNI_POOL_RETURNS] = pool.returns;
+	data[JNI_POOL_DISCARDS] = pool.discards;
+	data[JNI_POOL_BYTES] = pool.bytes;
+	data[JNI_POOL_BUFFERS] = pool.buffers;
+	data[JNI_POOL_MAX_BYTES] = pool.max_bytes;
+	data[JNI_POOL_MAX_BUFFERS] = pool.max_buffers;
+	jni_global_unlock(JNI_GLOBAL_LOCK_POOL);
+
+	jsize len = jni_get_array_len(stats);
+	(*env)->SetLongArrayRegion(env, stats, 0, fz_mini(len, JNI_POOL_STATS), data);
+}
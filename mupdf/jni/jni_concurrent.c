@@ -10,9 +10,22 @@
  * A unique lock object is created for each opened document
  * this way each document handles locks within itself. This
  * lets us process multiple documents concurrently as well.
+ *
+ * A small set of process wide locks is also provided for
+ * resources that are shared by all documents, such as the
+ * pixel buffer pool. Documents that share a resource store
+ * and glyph cache also share the allocation and glyph cache
+ * locks that guard them, while the rest of their locks
+ * remain their own.
+ *
+ * Finally a small pool of task threads lets encoders spread
+ * work over the processors of the machine.
  * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
 
 #ifdef __WIN32__
+#ifndef _WIN32_WINNT
+#define _WIN32_WINNT 0x0600
+#endif
 #include <windows.h>
 typedef CRITICAL_SECTION jni_mutex;
 #define jni_init_mutex(l) InitializeCriticalSection(l)
@@ -21,6 +34,7 @@ typedef CRITICAL_SECTION jni_mutex;
 #define jni_leave_critical(l) LeaveCriticalSection(l)
 #elif __linux__ || __APPLE__
 #include <pthread.h>
+#include <unistd.h>
 typedef pthread_mutex_t jni_mutex;
 #define jni_init_mutex(l) pthread_mutex_init(l, NULL)
 #define jni_destroy_mutex(l) pthread_mutex_destroy(l)
@@ -32,6 +46,7 @@ typedef struct jni_locks_s jni_locks;
 struct jni_locks_s
 {
 	jni_mutex * lock;
+	int shared;
 };
 
 enum
@@ -70,10 +85,12 @@ static void jni_unlock_internal(void *user, int lock)
 	}
 }
 
+static jni_mutex * jni_global_mutex_ptr(int);
+
 /**
  * Create new lock object
  */
-static void * jni_new_lock_obj()
+static void * jni_new_lock_obj(int shared_store)
 {
 	jni_locks *obj = malloc(sizeof(jni_locks) * JNI_MAX_LOCKS);
 	if (obj)
@@ -81,8 +98,16 @@ static void * jni_new_lock_obj()
 		int i = 0;
 		for (i = 0; i < JNI_MAX_LOCKS; i++)
 		{
-			obj[i].lock = malloc(sizeof(jni_mutex));
-			jni_init_mutex(obj[i].lock);
+			obj[i].shared = shared_store && (i == FZ_LOCK_ALLOC || i == FZ_LOCK_GLYPHCACHE);
+			if (obj[i].shared)
+			{
+				obj[i].lock = jni_global_mutex_ptr(i == FZ_LOCK_ALLOC ? JNI_GLOBAL_LOCK_STORE : JNI_GLOBAL_LOCK_GLYPHS);
+			}
+			else
+			{
+				obj[i].lock = malloc(sizeof(jni_mutex));
+				jni_init_mutex(obj[i].lock);
+			}
 		}
 		return obj;
 	}
@@ -90,9 +115,10 @@ static void * jni_new_lock_obj()
 }
 
 /**
- * Configure fz_locks_context
+ * Configure fz_locks_context.
+ * With shared_store set the allocation and glyph cache locks are process wide.
  */
-fz_locks_context * jni_new_locks()
+fz_locks_context * jni_new_locks(int shared_store)
 {
 	fz_locks_context *locks = malloc(sizeof(fz_locks_context));
 
@@ -101,7 +127,7 @@ fz_locks_context * jni_new_locks()
 		return NULL;
 	}
 
-	locks->user = jni_new_lock_obj();
+	locks->user = jni_new_lock_obj(shared_store);
 	locks->lock = jni_lock_internal;
 	locks->unlock = jni_unlock_internal;
 
@@ -125,7 +151,7 @@ void jni_free_locks(fz_locks_context *locks)
 		int i = 0;
 		for (i = 0; i < JNI_MAX_LOCKS; i++)
 		{
-			if (obj[i].lock)
+			if (obj[i].lock && !obj[i].shared)
 			{
 				jni_destroy_mutex(obj[i].lock);
 				free(obj[i].lock);
@@ -151,3 +177,331 @@ void jni_unlock(fz_context *ctx)
 {
 	jni_unlock_internal(ctx->locks->user, JNI_LOCK_INTERNAL);
 }
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Process wide locks
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+static jni_mutex jni_global_mutex[JNI_GLOBAL_MAX_LOCKS];
+
+/**
+ * Create process wide lock objects
+ */
+static void jni_new_global_locks()
+{
+	int i = 0;
+	for (i = 0; i < JNI_GLOBAL_MAX_LOCKS; i++)
+	{
+		jni_init_mutex(&jni_global_mutex[i]);
+	}
+}
+
+#ifdef __WIN32__
+static volatile LONG jni_global_init = 0;
+
+/**
+ * Initialize process wide locks once
+ */
+static void jni_init_global_locks()
+{
+	if (InterlockedCompareExchange(&jni_global_init, 1, 0) == 0)
+	{
+		jni_new_global_locks();
+		jni_global_init = 2;
+	}
+	while (jni_global_init != 2)
+	{
+		Sleep(0);
+	}
+}
+#else
+static pthread_once_t jni_global_once = PTHREAD_ONCE_INIT;
+#define jni_init_global_locks() pthread_once(&jni_global_once, jni_new_global_locks)
+#endif
+
+/**
+ * Get a process wide lock object
+ */
+static jni_mutex * jni_global_mutex_ptr(int lock)
+{
+	jni_init_global_locks();
+	return &jni_global_mutex[lock];
+}
+
+/**
+ * Enter process wide critical section
+ */
+void jni_global_lock(int lock)
+{
+	jni_init_global_locks();
+	jni_enter_critical(&jni_global_mutex[lock]);
+}
+
+/**
+ * Exit process wide critical section
+ */
+void jni_global_unlock(int lock)
+{
+	jni_leave_critical(&jni_global_mutex[lock]);
+}
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * Parallel tasks
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Maximum number of threads of the task pool
+#define JNI_MAX_TASK_THREADS 64
+
+#ifdef __WIN32__
+typedef CONDITION_VARIABLE jni_cond;
+#define jni_init_cond(c) InitializeConditionVariable(c)
+#define jni_wait_cond(c, l) SleepConditionVariableCS(c, l, INFINITE)
+#define jni_wake_all(c) WakeAllConditionVariable(c)
+#else
+typedef pthread_cond_t jni_cond;
+#define jni_init_cond(c) pthread_cond_init(c, NULL)
+#define jni_wait_cond(c, l) pthread_cond_wait(c, l)
+#define jni_wake_all(c) pthread_cond_broadcast(c)
+#endif
+
+/**
+ * A set of tasks.
+ * Sets with tasks that are not started yet are queued for the
+ * pool threads. All fields are guarded by the pool lock.
+ */
+typedef struct jni_tasks_s jni_tasks;
+struct jni_tasks_s
+{
+	jni_task_fn *fn;
+	void *arg;
+	int count;
+	int next;
+	int done;
+	jni_tasks *link;
+};
+
+/**
+ * Process wide task pool.
+ * The threads are started the first time tasks are run and live as
+ * long as the process, so concurrent callers share one thread per
+ * processor instead of each starting their own.
+ */
+static struct
+{
+	jni_mutex lock;
+	jni_cond work;
+	jni_cond done;
+	jni_tasks *queue;
+	int threads;
+} jni_task_pool;
+
+/**
+ * Remove a set of tasks from the queue, pool lock must be held
+ */
+static void jni_dequeue_tasks(jni_tasks *tasks)
+{
+	jni_tasks **p = &jni_task_pool.queue;
+
+	while (*p && *p != tasks)
+	{
+		p = &(*p)->link;
+	}
+	if (*p)
+	{
+		*p = tasks->link;
+	}
+	tasks->link = NULL;
+}
+
+/**
+ * Take the next task of a set, pool lock must be held
+ */
+static int jni_next_task(jni_tasks *tasks)
+{
+	int i = tasks->next++;
+
+	if (tasks->next >= tasks->count)
+	{
+		jni_dequeue_tasks(tasks);
+	}
+
+	return i;
+}
+
+/**
+ * Run one task without the pool lock and count it as done
+ */
+static void jni_run_task(jni_tasks *tasks, int i)
+{
+	jni_leave_critical(&jni_task_pool.lock);
+	tasks->fn(tasks->arg, i);
+	jni_enter_critical(&jni_task_pool.lock);
+
+	if (++tasks->done == tasks->count)
+	{
+		jni_wake_all(&jni_task_pool.done);
+	}
+}
+
+/**
+ * Pool thread, runs queued tasks forever
+ */
+static void jni_task_loop()
+{
+	jni_tasks *tasks;
+
+	jni_enter_critical(&jni_task_pool.lock);
+
+	for (;;)
+	{
+		while (!jni_task_pool.queue)
+		{
+			jni_wait_cond(&jni_task_pool.work, &jni_task_pool.lock);
+		}
+		tasks = jni_task_pool.queue;
+		jni_run_task(tasks, jni_next_task(tasks));
+	}
+}
+
+#ifdef __WIN32__
+static DWORD WINAPI jni_task_thread(LPVOID arg)
+{
+	jni_task_loop();
+	return 0;
+}
+#else
+static void * jni_task_thread(void *arg)
+{
+	jni_task_loop();
+	return NULL;
+}
+#endif
+
+/**
+ * Get number of processors
+ */
+int jni_cpu_count()
+{
+#ifdef __WIN32__
+	SYSTEM_INFO info;
+	GetSystemInfo(&info);
+	return info.dwNumberOfProcessors > 0 ? info.dwNumberOfProcessors : 1;
+#else
+	long n = sysconf(_SC_NPROCESSORS_ONLN);
+	return n > 0 ? n : 1;
+#endif
+}
+
+/**
+ * Start one pool thread per processor besides the calling one
+ */
+static void jni_new_task_pool()
+{
+	int threads = fz_mini(jni_cpu_count(), JNI_MAX_TASK_THREADS) - 1;
+	int i;
+
+	jni_init_mutex(&jni_task_pool.lock);
+	jni_init_cond(&jni_task_pool.work);
+	jni_init_cond(&jni_task_pool.done);
+	jni_task_pool.queue = NULL;
+	jni_task_pool.threads = 0;
+
+	for (i = 0; i < threads; i++)
+	{
+#ifdef __WIN32__
+		HANDLE thread = CreateThread(NULL, 0, jni_task_thread, NULL, 0, NULL);
+		if (!thread)
+		{
+			break;
+		}
+		CloseHandle(thread);
+#else
+		pthread_t thread;
+		if (pthread_create(&thread, NULL, jni_task_thread, NULL) != 0)
+		{
+			break;
+		}
+		pthread_detach(thread);
+#endif
+		jni_task_pool.threads++;
+	}
+}
+
+#ifdef __WIN32__
+static volatile LONG jni_task_init = 0;
+
+/**
+ * Start the task pool once
+ */
+static void jni_init_task_pool()
+{
+	if (InterlockedCompareExchange(&jni_task_init, 1, 0) == 0)
+	{
+		jni_new_task_pool();
+		jni_task_init = 2;
+	}
+	while (jni_task_init != 2)
+	{
+		Sleep(0);
+	}
+}
+#else
+static pthread_once_t jni_task_once = PTHREAD_ONCE_INIT;
+#define jni_init_task_pool() pthread_once(&jni_task_once, jni_new_task_pool)
+#endif
+
+/**
+ * Run fn(arg, i) for every i below count and wait for all of them.
+ *
+ * Tasks run on the process wide pool threads and on the calling
+ * thread, which keeps taking tasks of its own set until none is left.
+ * Concurrent callers share the pool so the number of task threads
+ * stays at one per processor however many threads call in. If the
+ * pool has no thread the caller runs every task.
+ * Tasks must not call into the JVM or throw.
+ */
+void jni_run_tasks(jni_task_fn *fn, void *arg, int count)
+{
+	jni_tasks tasks;
+	int i;
+
+	jni_init_task_pool();
+
+	if (count <= 1 || jni_task_pool.threads == 0)
+	{
+		for (i = 0; i < count; i++)
+		{
+			fn(arg, i);
+		}
+		return;
+	}
+
+	tasks.fn = fn;
+	tasks.arg = arg;
+	tasks.count = count;
+	tasks.next = 0;
+	tasks.done = 0;
+	tasks.link = NULL;
+
+	jni_enter_critical(&jni_task_pool.lock);
+
+	jni_tasks **p = &jni_task_pool.queue;
+	while (*p)
+	{
+		p = &(*p)->link;
+	}
+	*p = &tasks;
+	jni_wake_all(&jni_task_pool.work);
+
+	while (tasks.next < tasks.count)
+	{
+		jni_run_task(&tasks, jni_next_task(&tasks));
+	}
+
+	while (tasks.done < tasks.count)
+	{
+		jni_wait_cond(&jni_task_pool.done, &jni_task_pool.lock);
+	}
+
+	jni_leave_critical(&jni_task_pool.lock);
+}
@@ -0,0 +1,320 @@
+#include "includes/jmupdf.h"
+
+// Rows converted by one parallel task
+#define BILEVEL_BAND_ROWS 64
+
+// Gray values below this threshold are black
+#define BILEVEL_THRESHOLD 128
+
+// 8x8 Bayer matrix of ordered dithering
+static const unsigned char jni_bayer[8][8] =
+{
+	{  0, 32,  8, 40,  2, 34, 10, 42 },
+	{ 48, 16, 56, 24, 50, 18, 58, 26 },
+	{ 12, 44,  4, 36, 14, 46,  6, 38 },
+	{ 60, 28, 52, 20, 62, 30, 54, 22 },
+	{  3, 35, 11, 43,  1, 33,  9, 41 },
+	{ 51, 19, 59, 27, 49, 17, 57, 25 },
+	{ 15, 47,  7, 39, 13, 45,  5, 37 },
+	{ 63, 31, 55, 23, 61, 29, 53, 21 }
+};
+
+/**
+ * Black and white converter
+ *
+ * Error diffusion keeps the errors of the current and of the next
+ * row, padded by one on each side, so consecutive bands of the same
+ * image continue the diffusion where the previous band stopped.
+ */
+struct jni_bilevel_s
+{
+	int color;
+	int w;
+	int *err;
+	int *cur;
+	int *nxt;
+};
+
+/**
+ * Parallel conversion of a pixmap, one task per band of rows
+ */
+typedef struct jni_bilevel_job_s jni_bilevel_job;
+struct jni_bilevel_job_s
+{
+	fz_pixmap *pix;
+	int color;
+	int packed;
+	unsigned char *trgbuf;
+	int stride;
+};
+
+/**
+ * Determine if a color type is black and white
+ */
+int jni_is_bilevel(int color)
+{
+	return (color == COLOR_BLACK_WHITE ||
+			color == COLOR_BLACK_WHITE_DITHER ||
+			color == COLOR_BLACK_WHITE_ORDERED);
+}
+
+/**
+ * Get the 8 thresholds of a row.
+ * Ordered dithering repeats the Bayer matrix from the pixmap origin,
+ * so bands of the same image line up.
+ */
+static void jni_bilevel_thresholds(fz_pixmap *pix, int color, int y, unsigned char *t)
+{
+	int x;
+
+	for (x = 0; x < 8; x++)
+	{
+		if (color == COLOR_BLACK_WHITE_ORDERED)
+		{
+			t[x] = jni_bayer[(pix->y + y) & 7][(pix->x + x) & 7] * 4 + 2;
+		}
+		else
+		{
+			t[x] = BILEVEL_THRESHOLD;
+		}
+	}
+}
+
+/**
+ * Convert a row against fixed thresholds.
+ * Packed rows have one bit per pixel with black set, others
+ * one byte per pixel with black 0 and white 255.
+ */
+static void jni_threshold_row(unsigned char *s, int n, int w, unsigned char *t, int packed, unsigned char *d)
+{
+	int x;
+
+	if (packed)
+	{
+		memset(d, 0, (w + 7) >> 3);
+		for (x = 0; x < w; x++)
+		{
+			if (s[0] < t[x & 7])
+			{
+				d[x >> 3] |= 0x80 >> (x & 7);
+			}
+			s += n;
+		}
+	}
+	else
+	{
+		for (x = 0; x < w; x++)
+		{
+			d[x] = s[0] < t[x & 7] ? 0 : 255;
+			s += n;
+		}
+	}
+}
+
+/**
+ * Convert a row with Floyd-Steinberg error diffusion.
+ * http://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
+ *
+ * Errors are kept in 1/16 of a gray level so the weights 7, 3, 5
+ * and 1 need no division. cur holds the errors carried into this
+ * row and nxt receives the errors of the next one.
+ */
+static void jni_diffuse_row(unsigned char *s, int n, int w, int *cur, int *nxt, int packed, unsigned char *d)
+{
+	int x, v, e;
+
+	memset(nxt, 0, (w + 2) * sizeof(int));
+
+	if (packed)
+	{
+		memset(d, 0, (w + 7) >> 3);
+	}
+
+	for (x = 0; x < w; x++)
+	{
+		v = s[0] + ((cur[x + 1] + 8) >> 4);
+		s += n;
+
+		if (v < 0)
+		{
+			v = 0;
+		}
+		else if (v > 255)
+		{
+			v = 255;
+		}
+
+		if (v < BILEVEL_THRESHOLD)
+		{
+			e = v;
+			if (packed)
+			{
+				d[x >> 3] |= 0x80 >> (x & 7);
+			}
+			else
+			{
+				d[x] = 0;
+			}
+		}
+		else
+		{
+			e = v - 255;
+			if (!packed)
+			{
+				d[x] = 255;
+			}
+		}
+
+		cur[x + 2] += e * 7;
+		nxt[x]     += e * 3;
+		nxt[x + 1] += e * 5;
+		nxt[x + 2] += e;
+	}
+}
+
+/**
+ * Convert a band of rows against fixed thresholds
+ */
+static void jni_bilevel_task(void *arg, int index)
+{
+	jni_bilevel_job *job = (jni_bilevel_job*)arg;
+	fz_pixmap *pix = job->pix;
+	int y0 = index * BILEVEL_BAND_ROWS;
+	int y1 = fz_mini(y0 + BILEVEL_BAND_ROWS, pix->h);
+	unsigned char t[8];
+	int y;
+
+	for (y = y0; y < y1; y++)
+	{
+		jni_bilevel_thresholds(pix, job->color, y, t);
+		jni_threshold_row(pix->samples + y * pix->w * pix->n, pix->n, pix->w, t, job->packed, job->trgbuf + y * job->stride);
+	}
+}
+
+/**
+ * Create a black and white converter for images w pixels wide
+ */
+jni_bilevel * jni_new_bilevel(int color, int w)
+{
+	jni_bilevel *bl = jni_pool_alloc(sizeof(jni_bilevel));
+
+	if (!bl)
+	{
+		return NULL;
+	}
+
+	bl->color = color;
+	bl->w = w;
+	bl->err = NULL;
+	bl->cur = NULL;
+	bl->nxt = NULL;
+
+	if (color == COLOR_BLACK_WHITE_DITHER)
+	{
+		bl->err = jni_pool_alloc((w + 2) * 2 * sizeof(int));
+		if (!bl->err)
+		{
+			jni_pool_free(bl);
+			return NULL;
+		}
+		memset(bl->err, 0, (w + 2) * 2 * sizeof(int));
+		bl->cur = bl->err;
+		bl->nxt = bl->err + w + 2;
+	}
+
+	return bl;
+}
+
+/**
+ * Free a black and white converter
+ */
+void jni_free_bilevel(jni_bilevel *bl)
+{
+	if (bl)
+	{
+		jni_pool_free(bl->err);
+		jni_pool_free(bl);
+	}
+}
+
+/**
+ * Convert the next rows of an image to black and white.
+ *
+ * Threshold and ordered conversions have no state, the rows are
+ * converted in bands by the shared task pool, which is sized for the
+ * whole process so converters called from several threads do not
+ * multiply the task threads. Error diffusion runs from top to bottom
+ * in the calling thread.
+ *
+ * Stride is the number of bytes between two target rows.
+ */
+int jni_bilevel_convert(jni_bilevel *bl, fz_pixmap *pix, int packed, unsigned char *trgbuf, int stride)
+{
+	int y;
+
+	if (pix->w != bl->w)
+	{
+		return -1;
+	}
+
+	if (bl->color == COLOR_BLACK_WHITE_DITHER)
+	{
+		for (y = 0; y < pix->h; y++)
+		{
+			int *tmp;
+			jni_diffuse_row(pix->samples + y * pix->w * pix->n, pix->n, pix->w, bl->cur, bl->nxt, packed, trgbuf + y * stride);
+			tmp = bl->cur;
+			bl->cur = bl->nxt;
+			bl->nxt = tmp;
+		}
+	}
+	else
+	{
+		jni_bilevel_job job;
+		job.pix = pix;
+		job.color = bl->color;
+		job.packed = packed;
+		job.trgbuf = trgbuf;
+		job.stride = stride;
+		jni_run_tasks(jni_bilevel_task, &job, (pix->h + BILEVEL_BAND_ROWS - 1) / BILEVEL_BAND_ROWS);
+	}
+
+	return 0;
+}
+
+/**
+ * Convert a whole pixmap to black and white
+ */
+static int jni_pix_to_bilevel(fz_pixmap *pix, int color, int packed, unsigned char *trgbuf, int stride)
+{
+	jni_bilevel *bl = jni_new_bilevel(color, pix->w);
+	int rc;
+
+	if (!bl)
+	{
+		return -1;
+	}
+
+	rc = jni_bilevel_convert(bl, pix, packed, trgbuf, stride);
+	jni_free_bilevel(bl);
+
+	return rc;
+}
+
+/**
+ * Convert pixels to a black and white image of one byte per pixel.
+ * Color is COLOR_BLACK_WHITE, COLOR_BLACK_WHITE_DITHER or
+ * COLOR_BLACK_WHITE_ORDERED.
+ */
+int jni_pix_to_black_white(fz_context *ctx, fz_pixmap *pix, int color, unsigned char *trgbuf, int stride)
+{
+	return jni_pix_to_bilevel(pix, color, 0, trgbuf, stride);
+}
+
+/**
+ * Convert pixels to a packed binary image, rows are padded to a byte
+ */
+int jni_pix_to_binary(fz_context *ctx, fz_pixmap *pix, int color, unsigned char *trgbuf)
+{
+	return jni_pix_to_bilevel(pix, color, 1, trgbuf, (pix->w + 7) >> 3);
+}
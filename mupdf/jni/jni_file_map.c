@@ -0,0 +1,136 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * This program implements memory mapped document files.
+ *
+ * A mapped file is read by MuPDF as a block of memory. The
+ * xref and object lookups that seek all over a document no
+ * longer go through read() calls, the pages of the file are
+ * brought in, and read ahead, by the OS page cache.
+ *
+ * The mapping belongs to the document and is removed once
+ * the document is closed.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+#ifdef __WIN32__
+#include <windows.h>
+#elif __linux__ || __APPLE__
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#endif
+
+struct jni_file_map_s
+{
+	unsigned char *data;
+	size_t len;
+#ifdef __WIN32__
+	HANDLE file;
+	HANDLE mapping;
+#endif
+};
+
+/**
+ * Map a file read only, returns NULL upon failure
+ */
+jni_file_map *jni_map_file(fz_context *ctx, const char *file)
+{
+	jni_file_map *map = fz_malloc_no_throw(ctx, sizeof(jni_file_map));
+
+	if (!map)
+	{
+		return NULL;
+	}
+
+	map->data = NULL;
+	map->len = 0;
+
+#ifdef __WIN32__
+	map->mapping = NULL;
+	map->file = CreateFileA(file, GENERIC_READ, FILE_SHARE_READ, NULL, OPEN_EXISTING, FILE_ATTRIBUTE_NORMAL, NULL);
+
+	if (map->file != INVALID_HANDLE_VALUE)
+	{
+		LARGE_INTEGER size;
+		// MuPDF streams use int offsets
+		if (GetFileSizeEx(map->file, &size) && size.QuadPart > 0 && size.QuadPart <= INT_MAX)
+		{
+			map->mapping = CreateFileMapping(map->file, NULL, PAGE_READONLY, 0, 0, NULL);
+			if (map->mapping)
+			{
+				map->data = MapViewOfFile(map->mapping, FILE_MAP_READ, 0, 0, 0);
+				map->len = (size_t)size.QuadPart;
+			}
+		}
+	}
+#elif __linux__ || __APPLE__
+	int fd = open(file, O_RDONLY);
+
+	if (fd != -1)
+	{
+		struct stat st;
+		// MuPDF streams use int offsets
+		if (fstat(fd, &st) == 0 && st.st_size > 0 && st.st_size <= INT_MAX)
+		{
+			void *data = mmap(NULL, st.st_size, PROT_READ, MAP_SHARED, fd, 0);
+			if (data != MAP_FAILED)
+			{
+				map->data = data;
+				map->len = st.st_size;
+			}
+		}
+		// The mapping stays valid once the file is closed
+		close(fd);
+	}
+#endif
+
+	if (!map->data)
+	{
+		jni_unmap_file(ctx, map);
+		return NULL;
+	}
+
+	return map;
+}
+
+/**
+ * Remove mapping and free resources
+ */
+void jni_unmap_file(fz_context *ctx, jni_file_map *map)
+{
+	if (!map)
+	{
+		return;
+	}
+
+#ifdef __WIN32__
+	if (map->data)
+	{
+		UnmapViewOfFile(map->data);
+	}
+	if (map->mapping)
+	{
+		CloseHandle(map->mapping);
+	}
+	if (map->file != INVALID_HANDLE_VALUE)
+	{
+		CloseHandle(map->file);
+	}
+#elif __linux__ || __APPLE__
+	if (map->data)
+	{
+		munmap(map->data, map->len);
+	}
+#endif
+
+	fz_free(ctx, map);
+}
+
+/**
+ * Open a stream over a mapped file
+ */
+fz_stream *jni_open_map(fz_context *ctx, jni_file_map *map)
+{
+	return fz_open_memory(ctx, map->data, (int)map->len);
+}
@@ -17,11 +17,20 @@ static void jni_free_document(jni_document *doc)
 		return;
 	}
 
+	// Glyphs that keep fonts of this document must go before the document
+	fz_purge_glyph_cache(ctx);
+
 	if (doc->doc)
 	{
 		fz_close_document(doc->doc);
 	}
 
+	// Remove the items of this document before its usage goes away
+	fz_empty_store(ctx);
+	ctx->store_usage = NULL;
+
+	jni_unmap_file(ctx, doc->map);
+
 	fz_locks_context *locks = ctx->locks;
 
 	fz_free(ctx, doc);
@@ -36,14 +45,25 @@ static void jni_free_document(jni_document *doc)
  */
 static jni_document *jni_new_document(int max_store, jni_doc_type type)
 {
-	fz_locks_context *locks = jni_new_locks();
+	int shared_store = jni_has_shared_store();
+	fz_locks_context *locks = jni_new_locks(shared_store);
 
 	if (!locks)
 	{
 		return NULL;
 	}
 
-	fz_context *ctx = fz_new_context(NULL, locks, max_store);
+	fz_context *ctx = NULL;
+
+	if (shared_store)
+	{
+		ctx = jni_new_shared_context(locks);
+	}
+
+	if (!ctx)
+	{
+		ctx = jni_new_private_context(locks, max_store);
+	}
 
 	if (!ctx)
 	{
@@ -63,21 +83,29 @@ static jni_document *jni_new_document(int max_store, jni_doc_type type)
 	doc->ctx = ctx;
 	doc->doc = NULL;
 	doc->type = type;
+	doc->map = NULL;
+	memset(&doc->usage, 0, sizeof(fz_store_usage));
+
+	// Items stored through this context, or its clones, are charged to the document
+	ctx->store_usage = &doc->usage;
 
 	return doc;
 }
 
 /**
- * Open a document
+ * Open a document from a stream, the stream is closed
  */
-static int jni_open_document(jni_document *doc, const char *file, char *password)
+static int jni_open_document(jni_document *doc, fz_stream *stm, char *password)
 {
-	fz_stream *stm = NULL;
 	int rc = 0;
 
+	if (!stm)
+	{
+		return -1;
+	}
+
 	fz_try(doc->ctx)
 	{
-		stm = fz_open_file(doc->ctx, file);
 		if (doc->type == DOC_PDF)
 		{
 			doc->doc = (fz_document*)pdf_open_document_with_stream(stm);
@@ -97,14 +125,7 @@ static int jni_open_document(jni_document *doc, const char *file, char *password
 	}
 	fz_catch(doc->ctx)
 	{
-		if (!stm)
-		{
-			rc = -1;
-		}
-		else if (!doc->doc)
-		{
-			rc = -2;
-		}
+		rc = -2;
 	}
 
 	if (doc->doc)
@@ -121,80 +142,168 @@ static int jni_open_document(jni_document *doc, const char *file, char *password
 	return rc;
 }
 
+// Outline record fields, see DocumentOutlineData
+enum
+{
+	OUTLINE_PARENT,
+	OUTLINE_NEXT,
+	OUTLINE_CHILD,
+	OUTLINE_TYPE,
+	OUTLINE_PAGE,
+	OUTLINE_X0,
+	OUTLINE_Y0,
+	OUTLINE_X1,
+	OUTLINE_Y1,
+	OUTLINE_TITLE,
+	OUTLINE_TITLE_LEN,
+	OUTLINE_DEST,
+	OUTLINE_DEST_LEN,
+	OUTLINE_FIELDS
+};
+
+// Outline item with children still to be walked
+typedef struct jni_outline_item_s jni_outline_item;
+struct jni_outline_item_s
+{
+	fz_outline *node;
+	int index;
+};
+
 /**
- * Load outline to PdfOutline object structure
+ * Get link type and destination string of an outline item
  */
-static void jni_load_outline(JNIEnv *env, jclass cls, jobject obj,
-		                     jmethodID add_next, jmethodID add_child, jmethodID set_page,
-		                     jmethodID set_rect, jmethodID set_dest, jmethodID set_title,
-		                     jmethodID set_type, jni_document *doc, fz_outline *outline)
+static int jni_outline_type(fz_outline *outline, char **dest)
 {
-	jstring text;
-	char *buf;
-	int type;
-	int page;
-	while (outline)
-	{
-		switch (outline->dest.kind) {
-			case FZ_LINK_GOTO:
-				type = 1;
-				page = outline->dest.ld.gotor.page + 1;
-				break;
-			case FZ_LINK_URI:
-				type = 2;
-				buf = outline->dest.ld.uri.uri;
-				break;
-			case FZ_LINK_LAUNCH:
-				type = 3;
-				buf = outline->dest.ld.launch.file_spec;
-				break;
-			case FZ_LINK_NAMED:
-				type = 4;
-				buf = outline->dest.ld.named.named;
-				break;
-			case FZ_LINK_GOTOR:
-				type = 5;
-				buf = outline->dest.ld.gotor.file_spec;
-				break;
-			default:
-				type = 0;
-				break;
-		}
-		if (type > 0)
+	*dest = NULL;
+	switch (outline->dest.kind) {
+		case FZ_LINK_GOTO:
+			return 1;
+		case FZ_LINK_URI:
+			*dest = outline->dest.ld.uri.uri;
+			return 2;
+		case FZ_LINK_LAUNCH:
+			*dest = outline->dest.ld.launch.file_spec;
+			return 3;
+		case FZ_LINK_NAMED:
+			*dest = outline->dest.ld.named.named;
+			return 4;
+		case FZ_LINK_GOTOR:
+			*dest = outline->dest.ld.gotor.file_spec;
+			return 5;
+		default:
+			return 0;
+	}
+}
+
+/**
+ * Store a string in the string pool, returns offset or -1 if none
+ */
+static int jni_outline_string(char *pool, int *size, const char *str, int *len)
+{
+	if (!str)
+	{
+		*len = 0;
+		return -1;
+	}
+	int offset = *size;
+	*len = strlen(str);
+	if (pool)
+	{
+		memcpy(pool + offset, str, *len);
+	}
+	*size += *len;
+	return offset;
+}
+
+/**
+ * Walk outline in depth first order without recursion.
+ * When rec is NULL items and string bytes are only counted, otherwise
+ * a record is written for every item and strings are written to pool.
+ * Returns number of items or -1 if out of memory.
+ */
+static int jni_walk_outline(fz_context *ctx, fz_outline *outline, jint *rec, char *pool, int *poolsize)
+{
+	jni_outline_item *stack = NULL;
+	int depth = 0;
+	int max = 0;
+	int n = 0;
+	int size = 0;
+	fz_outline *node = outline;
+
+	while (node)
+	{
+		int i = n++;
+		char *dest;
+		int tlen, dlen;
+		int type = jni_outline_type(node, &dest);
+		int title = jni_outline_string(pool, &size, node->title, &tlen);
+		int destination = jni_outline_string(pool, &size, dest, &dlen);
+
+		if (rec)
 		{
-			jni_outline_set_type_call(obj, set_type, type);
+			jint *r = rec + i * OUTLINE_FIELDS;
+			float rect[4] = {0, 0, 0, 0};
+			r[OUTLINE_PARENT] = depth > 0 ? stack[depth - 1].index : -1;
+			r[OUTLINE_NEXT] = -1;
+			r[OUTLINE_CHILD] = node->down ? i + 1 : -1;
+			r[OUTLINE_TYPE] = type;
+			r[OUTLINE_PAGE] = 0;
 			if (type == 1)
 			{
-				float x0 = outline->dest.ld.gotor.lt.x;
-				float y0 = outline->dest.ld.gotor.lt.y;
-				float x1 = outline->dest.ld.gotor.rb.x;
-				float y1 = outline->dest.ld.gotor.rb.y;
-				jni_outline_set_page_call(obj, set_page, page);
-				jni_outline_set_rect_call(obj, set_rect, x0, y0, x1, y1);
-			}
-			else
-			{
-				text = jni_new_string(buf);
-				if (buf)
-					jni_outline_set_destination_call(obj, set_dest, text);
+				r[OUTLINE_PAGE] = node->dest.ld.gotor.page + 1;
+				rect[0] = node->dest.ld.gotor.lt.x;
+				rect[1] = node->dest.ld.gotor.lt.y;
+				rect[2] = node->dest.ld.gotor.rb.x;
+				rect[3] = node->dest.ld.gotor.rb.y;
 			}
+			memcpy(r + OUTLINE_X0, rect, sizeof(rect));
+			r[OUTLINE_TITLE] = title;
+			r[OUTLINE_TITLE_LEN] = tlen;
+			r[OUTLINE_DEST] = destination;
+			r[OUTLINE_DEST_LEN] = dlen;
 		}
-		if (outline->title)
+
+		// Walk children first, remember where to continue
+		if (node->down)
 		{
-			jstring title = jni_new_string(outline->title);
-			jni_outline_set_title_call(obj, set_title, title);
+			if (depth == max)
+			{
+				int newmax = max > 0 ? max * 2 : 16;
+				jni_outline_item *tmp = fz_resize_array_no_throw(ctx, stack, newmax, sizeof(jni_outline_item));
+				if (!tmp)
+				{
+					fz_free(ctx, stack);
+					return -1;
+				}
+				stack = tmp;
+				max = newmax;
+			}
+			stack[depth].node = node;
+			stack[depth].index = i;
+			depth++;
+			node = node->down;
+			continue;
 		}
-		if (outline->down)
+
+		// Climb up until an item with a next sibling is found
+		int last = i;
+		while (!node->next && depth > 0)
 		{
-			jobject new_child = jni_outline_add_child_call(obj, add_child);
-			jni_load_outline(env, cls, new_child, add_next, add_child, set_page, set_rect, set_dest, set_title, set_type, doc, outline->down);
+			depth--;
+			node = stack[depth].node;
+			last = stack[depth].index;
 		}
-		outline = outline->next;
-		if (outline)
+		node = node->next;
+		if (node && rec)
 		{
-			obj = jni_outline_add_next_call(obj, add_next);
+			rec[last * OUTLINE_FIELDS + OUTLINE_NEXT] = n;
 		}
 	}
+
+	fz_free(ctx, stack);
+	*poolsize = size;
+
+	return n;
 }
 
 /**
@@ -213,7 +322,7 @@ jni_document *jni_get_document(jlong handle)
  * Open a document
  */
 JNIEXPORT jlong JNICALL
-Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray document, jbyteArray password, jint max_store)
+Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray document, jbyteArray password, jint max_store, jint mode)
 {
     jni_document *doc = jni_new_document(max_store, type);
 
@@ -224,8 +333,29 @@ Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray docum
 
     char * file = jni_jbyte_to_char(env, doc->ctx, document);
     char * pass = jni_jbyte_to_char(env, doc->ctx, password);
+    fz_stream *stm = NULL;
+
+    fz_try(doc->ctx)
+    {
+    	if (mode == OPEN_MAPPED)
+    	{
+    		doc->map = jni_map_file(doc->ctx, file);
+    		if (doc->map)
+    		{
+    			stm = jni_open_map(doc->ctx, doc->map);
+    		}
+    	}
+    	else
+    	{
+    		stm = fz_open_file(doc->ctx, file);
+    	}
+    }
+    fz_catch(doc->ctx)
+    {
+    	stm = NULL;
+    }
 
-    int rc = jni_open_document(doc, (const char*)file, pass);
+    int rc = jni_open_document(doc, stm, pass);
 
     fz_free(doc->ctx, file);
     fz_free(doc->ctx, pass);
@@ -239,6 +369,52 @@ Java_com_jmupdf_JmuPdf_open(JNIEnv *env, jclass obj, jint type, jbyteArray docum
     return jni_ptr_to_jlong(doc);
 }
 
+/**
+ * Open a document held in a direct buffer.
+ * The buffer is read in place so it must stay valid until the document is closed.
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_openBuffer(JNIEnv *env, jclass obj, jint type, jobject buffer, jint offset, jint length, jbyteArray password, jint max_store)
+{
+	unsigned char *data = jni_get_buffer_address(buffer);
+
+	if (!data || offset < 0 || length <= 0 || (jlong)offset + length > jni_get_buffer_capacity(buffer))
+	{
+		return -4;
+	}
+
+	jni_document *doc = jni_new_document(max_store, type);
+
+	if (!doc)
+	{
+		return -1;
+	}
+
+	char * pass = jni_jbyte_to_char(env, doc->ctx, password);
+	fz_stream *stm = NULL;
+
+	fz_try(doc->ctx)
+	{
+		stm = fz_open_memory(doc->ctx, data + offset, length);
+	}
+	fz_catch(doc->ctx)
+	{
+		stm = NULL;
+	}
+
+	int rc = jni_open_document(doc, stm, pass);
+
+	fz_free(doc->ctx, pass);
+
+	if (rc != 0)
+	{
+		jni_free_document(doc);
+		return rc;
+	}
+
+	return jni_ptr_to_jlong(doc);
+}
+
 /**
  * Close a document and free resources
  */
@@ -290,10 +466,12 @@ Java_com_jmupdf_JmuPdf_getVersion(JNIEnv *env, jclass obj, jlong handle)
 }
 
 /**
- * Get an array that has the outline of the document
+ * Get outline of the document as one flat buffer.
+ * The buffer holds the number of items, a record per item in depth first
+ * order and a pool of UTF-8 strings. Values are in native byte order.
  */
-JNIEXPORT jobject JNICALL
-Java_com_jmupdf_JmuPdf_getOutline(JNIEnv *env, jclass obj, jlong handle)
+JNIEXPORT jbyteArray JNICALL
+Java_com_jmupdf_JmuPdf_getOutlineData(JNIEnv *env, jclass obj, jlong handle)
 {
 	jni_document *doc = jni_get_document(handle);
 
@@ -302,47 +480,46 @@ Java_com_jmupdf_JmuPdf_getOutline(JNIEnv *env, jclass obj, jlong handle)
 		return NULL;
 	}
 
-	jclass cls = jni_new_outline_class();
+	fz_outline *outline = NULL;
 
-	if (!cls)
+	fz_try(doc->ctx)
 	{
-		return NULL;
+		outline = fz_load_outline(doc->doc);
+	}
+	fz_catch(doc->ctx)
+	{
+		outline = NULL;
 	}
 
-	jmethodID init      = jni_get_outline_init(cls);
-	jmethodID add_next  = jni_get_outline_add_next(cls);
-	jmethodID add_child = jni_get_outline_add_child(cls);
-	jmethodID set_page  = jni_get_outline_set_page(cls);
-	jmethodID set_rect  = jni_get_outline_set_rect(cls);
-	jmethodID set_dest  = jni_get_outline_set_destination(cls);
-	jmethodID set_title = jni_get_outline_set_title(cls);
-	jmethodID set_type  = jni_get_outline_set_type(cls);
+	if (!outline)
+	{
+		return NULL;
+	}
 
-	fz_outline *outline = NULL;
-	jobject out = NULL;
+	jbyteArray out = NULL;
+	int poolsize = 0;
+	int n = jni_walk_outline(doc->ctx, outline, NULL, NULL, &poolsize);
 
-	if(init > 0 && add_next > 0 && add_child > 0 && set_page > 0 && set_rect > 0 && set_title > 0 && set_dest > 0 && set_type > 0)
+	if (n > 0)
 	{
-		outline = fz_load_outline(doc->doc);
-		if (outline)
+		int recsize = sizeof(jint) * (1 + n * OUTLINE_FIELDS);
+		jint *buf = fz_malloc_no_throw(doc->ctx, recsize + poolsize);
+		if (buf)
 		{
-			out = jni_new_outline_obj(cls, init);
-			if (out)
+			buf[0] = n;
+			if (jni_walk_outline(doc->ctx, outline, buf + 1, (char*)buf + recsize, &poolsize) == n)
 			{
-				jni_load_outline(env, cls, out, add_next, add_child, set_page, set_rect, set_dest, set_title, set_type, doc, outline);
+				out = jni_new_byte_array(recsize + poolsize);
+				if (out)
+				{
+					(*env)->SetByteArrayRegion(env, out, 0, recsize + poolsize, (jbyte*)buf);
+				}
 			}
+			fz_free(doc->ctx, buf);
 		}
 	}
 
-	if (cls)
-	{
-		jni_free_ref(cls);
-	}
-
-	if (outline)
-	{
-		fz_free_outline(doc->ctx, outline);
-	}
+	fz_free_outline(doc->ctx, outline);
 
 	return out;
 }
@@ -23,11 +23,6 @@ static void jni_free_page(jni_page *page)
 		fz_free_page(doc->doc, page->page);
 	}
 
-	if (page->options)
-	{
-		fz_free(ctx, page->options);
-	}
-
 	fz_free(ctx, page);
 	fz_free_context(ctx);
 	page = NULL;
@@ -49,41 +44,264 @@ static jni_page *jni_new_page(jni_document *doc)
 	page->doc = doc;
 	page->page = NULL;
 	page->list = NULL;
+	page->list_size = 0;
 	page->ctx = ctx;
-	page->options = jni_new_options(ctx);
 
-	if (page->options == NULL)
+	return page;
+}
+
+/**
+ * Allocator that counts the bytes held through a context.
+ * Used to estimate the memory held by a display list.
+ *
+ * The size of every block is kept in an open addressing table so
+ * reallocations only count the difference and frees are subtracted.
+ * Blocks that are not in the table, e.g. when it could not grow,
+ * are counted when allocated but never subtracted.
+ */
+typedef struct jni_count_alloc_s jni_count_alloc;
+struct jni_count_alloc_s
+{
+	fz_alloc_context alloc;
+	fz_alloc_context *base;
+	size_t bytes;
+	void **keys;
+	unsigned int *sizes;
+	int cap;
+	int len;
+};
+
+static int jni_count_hash(jni_count_alloc *a, void *p)
+{
+	return (int)((((size_t)p >> 4) * 2654435761u) & (a->cap - 1));
+}
+
+static int jni_count_find(jni_count_alloc *a, void *p)
+{
+	int i = jni_count_hash(a, p);
+	while (a->keys[i] && a->keys[i] != p)
 	{
-		jni_free_page(page);
-		page = NULL;
+		i = (i + 1) & (a->cap - 1);
 	}
+	return i;
+}
 
-	return page;
+static int jni_count_grow(jni_count_alloc *a)
+{
+	void **keys = a->keys;
+	unsigned int *sizes = a->sizes;
+	int cap = a->cap;
+	int ncap = cap ? cap * 2 : 1024;
+	int i, k;
+
+	a->keys = a->base->malloc(a->base->user, ncap * sizeof(void*));
+	a->sizes = a->base->malloc(a->base->user, ncap * sizeof(unsigned int));
+
+	if (!a->keys || !a->sizes)
+	{
+		if (a->keys)
+		{
+			a->base->free(a->base->user, a->keys);
+		}
+		if (a->sizes)
+		{
+			a->base->free(a->base->user, a->sizes);
+		}
+		a->keys = keys;
+		a->sizes = sizes;
+		return -1;
+	}
+
+	memset(a->keys, 0, ncap * sizeof(void*));
+	a->cap = ncap;
+
+	for (i = 0; i < cap; i++)
+	{
+		if (keys[i])
+		{
+			k = jni_count_find(a, keys[i]);
+			a->keys[k] = keys[i];
+			a->sizes[k] = sizes[i];
+		}
+	}
+
+	if (keys)
+	{
+		a->base->free(a->base->user, keys);
+		a->base->free(a->base->user, sizes);
+	}
+
+	return 0;
+}
+
+static void jni_count_insert(jni_count_alloc *a, void *p, unsigned int size)
+{
+	int i;
+
+	if ((a->len + 1) * 2 > a->cap && jni_count_grow(a) != 0)
+	{
+		return;
+	}
+
+	i = jni_count_find(a, p);
+	if (!a->keys[i])
+	{
+		a->len++;
+	}
+	a->keys[i] = p;
+	a->sizes[i] = size;
 }
 
 /**
- * Initiate and load page
- *
- * NOTE #1: When initiating a new page the doc->ctx must be used or
- *          else some documents will cause the application to experience
- *          a horrible death.
+ * Remove a block from the table and return its size.
+ * Entries after it are shifted back so lookups need no tombstones.
+ */
+static unsigned int jni_count_remove(jni_count_alloc *a, void *p)
+{
+	unsigned int size;
+	int i, j, k;
+
+	if (!a->cap)
+	{
+		return 0;
+	}
+
+	i = jni_count_find(a, p);
+	if (!a->keys[i])
+	{
+		return 0;
+	}
+
+	size = a->sizes[i];
+	j = i;
+
+	for (;;)
+	{
+		j = (j + 1) & (a->cap - 1);
+		if (!a->keys[j])
+		{
+			break;
+		}
+		k = jni_count_hash(a, a->keys[j]);
+		if ((j > i && (k <= i || k > j)) || (j < i && k <= i && k > j))
+		{
+			a->keys[i] = a->keys[j];
+			a->sizes[i] = a->sizes[j];
+			i = j;
+		}
+	}
+
+	a->keys[i] = NULL;
+	a->len--;
+
+	return size;
+}
+
+static void * jni_count_malloc(void *user, unsigned int size)
+{
+	jni_count_alloc *a = (jni_count_alloc*)user;
+	void *p = a->base->malloc(a->base->user, size);
+	if (p)
+	{
+		a->bytes += size;
+		jni_count_insert(a, p, size);
+	}
+	return p;
+}
+
+static void * jni_count_realloc(void *user, void *old, unsigned int size)
+{
+	jni_count_alloc *a = (jni_count_alloc*)user;
+	void *p = a->base->realloc(a->base->user, old, size);
+	if (p)
+	{
+		if (old)
+		{
+			a->bytes -= jni_count_remove(a, old);
+		}
+		a->bytes += size;
+		jni_count_insert(a, p, size);
+	}
+	return p;
+}
+
+static void jni_count_free(void *user, void *ptr)
+{
+	jni_count_alloc *a = (jni_count_alloc*)user;
+	if (ptr)
+	{
+		a->bytes -= jni_count_remove(a, ptr);
+	}
+	a->base->free(a->base->user, ptr);
+}
+
+/**
+ * Free the size table of a counting allocator
+ */
+static void jni_count_done(jni_count_alloc *a)
+{
+	if (a->keys)
+	{
+		a->base->free(a->base->user, a->keys);
+		a->base->free(a->base->user, a->sizes);
+	}
+	a->keys = NULL;
+	a->sizes = NULL;
+	a->cap = 0;
+	a->len = 0;
+}
+
+/**
+ * Interpret page contents into a display list
  *
- * NOTE #2: This function *must* be synchronized. Currently it is
- *          synch'd from the java side.
+ * NOTE: This function *must* be synchronized with all other users
+ *       of doc->ctx. Currently it is synch'd from the java side.
  */
-static void jni_load_page(jni_page *page, int pagen)
+static void jni_load_page_list(jni_page *page)
 {
 	fz_device *dev = NULL;
 	fz_context *ctx = page->doc->ctx;
 	fz_document *doc = page->doc->doc;
+	fz_display_list *list = NULL;
 	fz_cookie cookie = { 0 };
+	jni_count_alloc count;
+
+	if (page->list)
+	{
+		return;
+	}
+
+	// The list device allocates through its own context so the
+	// memory held by the display list nodes can be counted. It
+	// shares the error stack of ctx so both throw to the same place.
+	fz_context *lctx = fz_clone_context(ctx);
+
+	if (!lctx)
+	{
+		fz_throw(ctx, "Could not load page.");
+	}
+
+	fz_error_context *error = lctx->error;
+	lctx->error = ctx->error;
+	count.base = lctx->alloc;
+	count.bytes = 0;
+	count.keys = NULL;
+	count.sizes = NULL;
+	count.cap = 0;
+	count.len = 0;
+	count.alloc.user = &count;
+	count.alloc.malloc = jni_count_malloc;
+	count.alloc.realloc = jni_count_realloc;
+	count.alloc.free = jni_count_free;
+	lctx->alloc = &count.alloc;
+
+	fz_var(list);
+
 	fz_try(ctx)
 	{
-		page->list = fz_new_display_list(ctx);
-		dev = fz_new_list_device(ctx, page->list);
-		page->page = fz_load_page(doc, pagen-1);
+		list = fz_new_display_list(lctx);
+		dev = fz_new_list_device(lctx, list);
 		fz_run_page(doc, page->page, dev, fz_identity, &cookie);
-		page->bbox = fz_bound_page(doc, page->page);
 		if (cookie.errors) {
 			fz_warn(ctx, "Warning, errors found on page.");
 		}
@@ -94,114 +312,95 @@ static void jni_load_page(jni_page *page, int pagen)
 	}
 	fz_catch(ctx)
 	{
+		fz_free_display_list(ctx, list);
+		lctx->alloc = count.base;
+		lctx->error = error;
+		fz_free_context(lctx);
+		jni_count_done(&count);
 		fz_throw(ctx, "Could not load page.");
 	}
+
+	lctx->alloc = count.base;
+	lctx->error = error;
+	fz_free_context(lctx);
+
+	page->list = list;
+	page->list_size = count.bytes;
+	jni_count_done(&count);
 }
 
 /**
- * Determine if a character is within an acceptable clipbox region.
+ * Initiate and load page
+ *
+ * When lazy is set only the page object and its bounds are loaded.
+ * The display list is built later by jni_load_page_list().
+ *
+ * NOTE #1: When initiating a new page the doc->ctx must be used or
+ *          else some documents will cause the application to experience
+ *          a horrible death.
+ *
+ * NOTE #2: This function *must* be synchronized. Currently it is
+ *          synch'd from the java side.
  */
-static int jni_char_is_in_box(fz_text_char *text, fz_rect clipbox, float threshold)
+static void jni_load_page(jni_page *page, int pagen, int lazy)
 {
-	fz_rect hitbox = text->bbox;
-	int seen = 0;
-	float d, w, h, p;
-
-	/* valid threshold is 0 to 1*/
-	if (threshold < 0)
-		threshold = 0;
-
-	if (hitbox.x1 >= clipbox.x0 && hitbox.x0 <= clipbox.x1 && hitbox.y1 >= clipbox.y0 && hitbox.y0 <= clipbox.y1)
+	fz_context *ctx = page->doc->ctx;
+	fz_document *doc = page->doc->doc;
+	fz_try(ctx)
 	{
-		/* default is seen */
-		seen = 1;
-
-		/* if >=1 value return all text */
-		if (threshold >= 1)
-			return seen;
-
-		/* if somewhere in the middle, bypass */
-		if (!(hitbox.y0 < clipbox.y0 && hitbox.y1 > clipbox.y1))
-		{
-			/* check bottom */
-			if (hitbox.y0 < clipbox.y0)
-			{
-				d = clipbox.y0 - hitbox.y0;
-				h = hitbox.y1 - hitbox.y0;
-				p = d / h;
-				if (p > threshold)
-					seen = 0;
-			}
-
-			/* check top */
-			else if (hitbox.y1 > clipbox.y1)
-			{
-				d = hitbox.y1 - clipbox.y1;
-				h = hitbox.y1 - hitbox.y0;
-				p = d / h;
-				if (p > threshold)
-					seen = 0;
-			}
-		}
-
-		/* check left */
-		if (hitbox.x1 > clipbox.x1)
-		{
-			d = hitbox.x1 - clipbox.x1;
-			w = hitbox.x1 - hitbox.x0;
-			p = d / w;
-			if (p > threshold)
-				seen = 0;
-		}
-
-		/* check right */
-		else if (hitbox.x0 < clipbox.x0)
+		page->page = fz_load_page(doc, pagen-1);
+		page->bbox = fz_bound_page(doc, page->page);
+		if (!lazy)
 		{
-			d = clipbox.x0 - hitbox.x0;
-			w = hitbox.x1 - hitbox.x0;
-			p = d / w;
-			if (p > threshold)
-				seen = 0;
+			jni_load_page_list(page);
 		}
 	}
-	return seen;
+	fz_catch(ctx)
+	{
+		fz_throw(ctx, "Could not load page.");
+	}
 }
 
 /**
  * Load page text
  */
-static fz_text_page * jni_load_text(jni_page *page, fz_rect clipbox)
+static fz_text_page * jni_load_text(fz_context *ctx, jni_page *page, fz_rect clipbox)
 {
 	fz_text_page *page_text = NULL;
 	fz_text_sheet *page_sheet = NULL;
 	fz_device *dev = NULL;
 	fz_cookie cookie = { 0 };
 
-	fz_try(page->ctx)
+	if (!page->list)
+	{
+		return NULL;
+	}
+
+	fz_try(ctx)
 	{
 		fz_matrix ctm = jni_get_view_ctm(1, 0);
-		page_sheet = fz_new_text_sheet(page->ctx);
-		page_text = fz_new_text_page(page->ctx, page->bbox);
-		dev = fz_new_text_device(page->ctx, page_sheet, page_text);
+		page_sheet = fz_new_text_sheet(ctx);
+		page_text = fz_new_text_page(ctx, page->bbox);
+		dev = fz_new_text_device(ctx, page_sheet, page_text);
 		fz_bbox bb = fz_bbox_covering_rect(clipbox);
 		fz_run_display_list(page->list, dev, ctm, bb, &cookie);
 		if (cookie.errors) {
-			fz_warn(page->ctx, "Warning, errors found on page.");
+			fz_warn(ctx, "Warning, errors found on page.");
 		}
 	}
-	fz_always(page->ctx)
+	fz_always(ctx)
 	{
 		fz_free_device(dev);
 		if (page_sheet)
 		{
-			fz_free_text_sheet(page->ctx, page_sheet);
+			fz_free_text_sheet(ctx, page_sheet);
 		}
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
 	{
 		if (page_text)
 		{
-			fz_free_text_page(page->ctx, page_text);
+			fz_free_text_page(ctx, page_text);
 			page_text = NULL;
 		}
 	}
@@ -210,150 +409,334 @@ static fz_text_page * jni_load_text(jni_page *page, fz_rect clipbox)
 }
 
 /**
- * Count text span objects within given coordinates
+ * Get page from pointer
  */
-static int jni_count_text_span(fz_text_page *page_text, fz_rect clipbox, float threshold)
+jni_page *jni_get_page(jlong handle)
 {
+	if (handle > 0)
+	{
+		return (jni_page *)jni_jlong_to_ptr(handle);
+	}
+	return NULL;
+}
+
+/**
+ * Get the text layout of a whole page as flat arrays.
+ *
+ * Characters are stored in reading order. For every character its code point
+ * and bounding box (x0, y0, x1, y1) are stored. Spans, lines and blocks are
+ * stored as the index of their first character, span and line respectively,
+ * followed by one closing index so item i ends where item i + 1 starts.
+ *
+ * Coordinates reflect a zoom factor of 1f and 0 rotation.
+ */
+JNIEXPORT jobject JNICALL
+Java_com_jmupdf_JmuPdf_getTextLayout(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return NULL;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		return NULL;
+	}
+
+	fz_text_page *page_text = jni_load_text(ctx, page, page->bbox);
+
+	if (!page_text)
+	{
+		fz_free_context(ctx);
+		return NULL;
+	}
+
 	fz_text_block *block;
 	fz_text_line *line;
 	fz_text_span *span;
-	int i = 0;
-	int totspan = 0;
+	int nchars = 0;
+	int nspans = 0;
+	int nlines = 0;
+	int nblocks = page_text->len;
 
 	for (block = page_text->blocks; block < page_text->blocks + page_text->len; block++)
 	{
+		nlines += block->len;
 		for (line = block->lines; line < block->lines + block->len; line++)
 		{
+			nspans += line->len;
 			for (span = line->spans; span < line->spans + line->len; span++)
 			{
-				for (i = 0; i < span->len; i++)
+				nchars += span->len;
+			}
+		}
+	}
+
+	jobject layout = NULL;
+	jclass cls = jni_ids.page_text_layout;
+	jmethodID init = jni_ids.page_text_layout_init;
+
+	jintArray chars = jni_new_int_array(nchars);
+	jfloatArray boxes = jni_new_float_array(nchars * 4);
+	jintArray spans = jni_new_int_array(nspans + 1);
+	jintArray lines = jni_new_int_array(nlines + 1);
+	jintArray blocks = jni_new_int_array(nblocks + 1);
+
+	if (cls && chars && boxes && spans && lines && blocks)
+	{
+		jint *c = jni_get_int_array(chars);
+		jfloat *b = jni_get_float_array(boxes);
+		jint *s = jni_get_int_array(spans);
+		jint *l = jni_get_int_array(lines);
+		jint *k = jni_get_int_array(blocks);
+		int ci = 0, si = 0, li = 0, ki = 0;
+		int i;
+
+		for (block = page_text->blocks; block < page_text->blocks + page_text->len; block++)
+		{
+			k[ki++] = li;
+			for (line = block->lines; line < block->lines + block->len; line++)
+			{
+				l[li++] = si;
+				for (span = line->spans; span < line->spans + line->len; span++)
 				{
-					if (jni_char_is_in_box(&span->text[i], clipbox, threshold))
+					s[si++] = ci;
+					for (i = 0; i < span->len; i++)
 					{
-						++totspan;
-						break;
+						fz_rect r = span->text[i].bbox;
+						c[ci] = span->text[i].c;
+						b[ci * 4 + 0] = r.x0;
+						b[ci * 4 + 1] = r.y0;
+						b[ci * 4 + 2] = r.x1;
+						b[ci * 4 + 3] = r.y1;
+						ci++;
 					}
 				}
 			}
 		}
+		s[si] = ci;
+		l[li] = si;
+		k[ki] = li;
+
+		jni_release_int_array(chars, c);
+		jni_release_float_array(boxes, b);
+		jni_release_int_array(spans, s);
+		jni_release_int_array(lines, l);
+		jni_release_int_array(blocks, k);
+
+		layout = jni_new_page_text_layout_obj(cls, init, chars, boxes, spans, lines, blocks);
 	}
-	return totspan;
+
+	fz_free_text_page(ctx, page_text);
+	fz_free_context(ctx);
+
+	return layout;
 }
 
 /**
- * Get page from pointer
+ * UTF-8 text writer that keeps counting once its buffer is full
  */
-jni_page *jni_get_page(jlong handle)
+typedef struct jni_text_out_s jni_text_out;
+struct jni_text_out_s
 {
-	if (handle > 0)
+	unsigned char *buf;
+	int cap;
+	int len;
+};
+
+static void jni_text_put(jni_text_out *out, const char *s, int n)
+{
+	if (out->len + n <= out->cap)
 	{
-		return (jni_page *)jni_jlong_to_ptr(handle);
+		memcpy(out->buf + out->len, s, n);
 	}
-	return NULL;
+	out->len += n;
+}
+
+static void jni_text_puts(jni_text_out *out, const char *s)
+{
+	jni_text_put(out, s, strlen(s));
+}
+
+static void jni_text_putc(jni_text_out *out, int c, int json)
+{
+	char tmp[8];
+	int n;
+
+	if (json && (c == '"' || c == '\\'))
+	{
+		tmp[0] = '\\';
+		tmp[1] = c;
+		jni_text_put(out, tmp, 2);
+		return;
+	}
+
+	if (c < 32)
+	{
+		if (json)
+		{
+			sprintf(tmp, "\\u%04x", c);
+			jni_text_put(out, tmp, 6);
+		}
+		else
+		{
+			jni_text_put(out, "?", 1);
+		}
+		return;
+	}
+
+	if (c > 0x10FFFF || (c >= 0xD800 && c <= 0xDFFF))
+	{
+		c = 0xFFFD;
+	}
+
+	n = fz_runetochar(tmp, c);
+	jni_text_put(out, tmp, n);
 }
 
 /**
- * Get Page Text
- *
- * Coordinates are assumed to reflect a zoom factor of 1f and 0 rotation
+ * Write a number with two decimals.
+ * printf would use the decimal separator of the current locale, JSON
+ * always needs a point. Values are clamped so hundredths fit an int,
+ * long is only 32 bits on some platforms.
  */
-JNIEXPORT jobjectArray JNICALL
-Java_com_jmupdf_JmuPdf_getPageText(JNIEnv *env, jclass obj, jlong handle, jfloat threshold, jfloat x0, jfloat y0, jfloat x1, jfloat y1)
+static void jni_text_putnum(jni_text_out *out, float v)
 {
-	jni_page *page = jni_get_page(handle);
+	char tmp[32];
+	int n;
 
-	if (!page)
+	if (v != v)
 	{
-		return NULL;
+		v = 0;
+	}
+	else if (v > 2e7f)
+	{
+		v = 2e7f;
+	}
+	else if (v < -2e7f)
+	{
+		v = -2e7f;
 	}
 
-	fz_rect clipbox = fz_empty_rect;
-	clipbox.x0 = x0;
-	clipbox.y0 = y0;
-	clipbox.x1 = x1;
-	clipbox.y1 = y1;
+	n = (int)(v < 0 ? v * 100.0 - 0.5 : v * 100.0 + 0.5);
+	if (n < 0)
+	{
+		jni_text_put(out, "-", 1);
+		n = -n;
+	}
 
-	fz_text_page *page_text = jni_load_text(page, clipbox);
+	sprintf(tmp, "%d.%02d", n / 100, n % 100);
+	jni_text_puts(out, tmp);
+}
 
-	if (!page_text)
+/**
+ * Export the text of a page as UTF-8 into a direct byte buffer.
+ *
+ * Format 0 is plain text with one line per line, an empty line after every
+ * block and a form feed after the page. Format 1 is JSON lines, one object
+ * per line of text with its page, block and line numbers and bounding box.
+ *
+ * Returns the number of bytes the text needs. When this is more than the
+ * capacity of the buffer its contents are incomplete and the call should be
+ * repeated with a larger buffer.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_exportText(JNIEnv *env, jclass obj, jlong handle, jint pageNumber, jint format, jobject buffer)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
 	{
-		return NULL;
+		return -1;
 	}
 
-	jclass cls = jni_new_page_text_class();
+	jni_text_out out;
+	out.buf = jni_get_buffer_address(buffer);
+	out.cap = out.buf ? (int)jni_get_buffer_capacity(buffer) : 0;
+	out.len = 0;
 
-	if (!cls)
+	if (!out.buf || (format != 0 && format != 1))
 	{
-		fz_free_text_page(page->ctx, page_text);
-		return NULL;
+		return -3;
 	}
 
-	jmethodID init = jni_get_page_text_init(cls);
-	jobjectArray page_text_arr = NULL;
-
-	int totspan = jni_count_text_span(page_text, clipbox, threshold);
+	fz_context *ctx = fz_clone_context(page->ctx);
 
-	if (totspan > 0)
+	if (!ctx)
 	{
-		page_text_arr = jni_new_object_array(totspan, cls);
+		return -2;
+	}
 
-		if (page_text_arr)
-		{
-			int e = 0;
-			int p = 0;
-			int i = 0;
-			int seen = 0;
+	fz_text_page *page_text = jni_load_text(ctx, page, page->bbox);
 
-			jintArray txtarr = NULL;
-			jint *txtptr = NULL;
-			jobject new_page;
+	if (!page_text)
+	{
+		fz_free_context(ctx);
+		return -2;
+	}
 
-			fz_text_block *block;
-			fz_text_line *line;
-			fz_text_span *span;
+	fz_text_block *block;
+	fz_text_line *line;
+	fz_text_span *span;
+	char tmp[160];
+	int b = 0;
+	int l;
+	int i;
 
-			for (block = page_text->blocks; block < page_text->blocks + page_text->len; block++)
+	for (block = page_text->blocks; block < page_text->blocks + page_text->len; block++, b++)
+	{
+		for (line = block->lines, l = 0; line < block->lines + block->len; line++, l++)
+		{
+			if (format == 1)
 			{
-				for (line = block->lines; line < block->lines + block->len; line++)
+				fz_rect r = fz_empty_rect;
+				for (span = line->spans; span < line->spans + line->len; span++)
 				{
-					for (span = line->spans; span < line->spans + line->len; span++)
+					for (i = 0; i < span->len; i++)
 					{
-						seen = 0;
-						p = 0;
-						for (i = 0; i < span->len; i++)
-						{
-							if (jni_char_is_in_box(&span->text[i], clipbox, threshold))
-							{
-								if (seen == 0)
-								{
-									txtarr = jni_new_int_array(span->len);
-									txtptr = jni_get_int_array(txtarr);
-									seen = 1;
-								}
-								txtptr[p++] = span->text[i].c;
-							}
-						}
-						if (seen == 1)
-						{
-							int eol = 0;
-							if (span + 1 == line->spans + line->len)
-							{
-								eol = 1;
-							}
-							jni_release_int_array(txtarr, txtptr);
-							fz_rect c = span->text[i].bbox;
-							fz_rect b = span->text[0].bbox;
-							new_page = jni_new_page_text_obj(cls, init, b.x0, b.y0, c.x1, c.y1, eol, txtarr);
-							jni_set_object_array_el(page_text_arr, e++, new_page);
-						}
+						r = fz_union_rect(r, span->text[i].bbox);
 					}
 				}
+				sprintf(tmp, "{\"page\":%d,\"block\":%d,\"line\":%d,\"bbox\":[",
+						(int)pageNumber, b, l);
+				jni_text_puts(&out, tmp);
+				jni_text_putnum(&out, r.x0);
+				jni_text_puts(&out, ",");
+				jni_text_putnum(&out, r.y0);
+				jni_text_puts(&out, ",");
+				jni_text_putnum(&out, r.x1);
+				jni_text_puts(&out, ",");
+				jni_text_putnum(&out, r.y1);
+				jni_text_puts(&out, "],\"text\":\"");
+			}
+			for (span = line->spans; span < line->spans + line->len; span++)
+			{
+				for (i = 0; i < span->len; i++)
+				{
+					jni_text_putc(&out, span->text[i].c, format == 1);
+				}
 			}
+			jni_text_puts(&out, format == 1 ? "\"}\n" : "\n");
 		}
+		if (format == 0)
+		{
+			jni_text_puts(&out, "\n");
+		}
+	}
+
+	if (format == 0)
+	{
+		jni_text_puts(&out, "\f");
 	}
-	jni_free_ref(cls);
-	fz_free_text_page(page->ctx, page_text);
-	return page_text_arr;
+
+	fz_free_text_page(ctx, page_text);
+	fz_free_context(ctx);
+
+	return out.len;
 }
 
 /**
@@ -376,7 +759,7 @@ Java_com_jmupdf_JmuPdf_getPageLinks(JNIEnv *env, jclass obj, jlong handle)
 		return NULL;
 	}
 
-	jclass cls = jni_new_page_links_class();
+	jclass cls = jni_ids.page_links;
 
 	if (!cls)
 	{
@@ -384,7 +767,7 @@ Java_com_jmupdf_JmuPdf_getPageLinks(JNIEnv *env, jclass obj, jlong handle)
 		return NULL;
 	}
 
-	jmethodID mid = jni_get_page_links_init(cls);
+	jmethodID mid = jni_ids.page_links_init;
 	jobjectArray page_links_arr = NULL;
 
 	// Count up total links
@@ -466,7 +849,6 @@ Java_com_jmupdf_JmuPdf_getPageLinks(JNIEnv *env, jclass obj, jlong handle)
 	}
 
 	// Free resources
-	jni_free_ref(cls);
 	fz_drop_link(page->ctx, page_links);
 
 	return page_links_arr;
@@ -476,7 +858,7 @@ Java_com_jmupdf_JmuPdf_getPageLinks(JNIEnv *env, jclass obj, jlong handle)
  * Create new page object
  */
 JNIEXPORT jlong JNICALL
-Java_com_jmupdf_JmuPdf_newPage(JNIEnv *env, jclass obj, jlong handle, jint pagen, jfloatArray info)
+Java_com_jmupdf_JmuPdf_newPage(JNIEnv *env, jclass obj, jlong handle, jint pagen, jfloatArray info, jboolean lazy)
 {
 	jni_document *doc = jni_get_document(handle);
 	jni_page *page = NULL;
@@ -489,7 +871,7 @@ Java_com_jmupdf_JmuPdf_newPage(JNIEnv *env, jclass obj, jlong handle, jint pagen
 	fz_try(doc->ctx)
 	{
 		page = jni_new_page(doc);
-		jni_load_page(page, pagen);
+		jni_load_page(page, pagen, lazy);
 	}
 	fz_catch(doc->ctx)
 	{
@@ -528,3 +910,49 @@ Java_com_jmupdf_JmuPdf_freePage(JNIEnv *env, jclass obj, jlong handle)
 {
 	jni_free_page(jni_get_page(handle));
 }
+
+/**
+ * Build the display list of a page loaded in lazy mode
+ *
+ * NOTE: This function *must* be synchronized. Currently it is
+ *       synch'd from the java side.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_loadPageList(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	int rc = 0;
+
+	fz_try(page->doc->ctx)
+	{
+		jni_load_page_list(page);
+	}
+	fz_catch(page->doc->ctx)
+	{
+		rc = -2;
+	}
+
+	return rc;
+}
+
+/**
+ * Get estimated number of bytes held by the display list of a page
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_getPageListSize(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_page *page = jni_get_page(handle);
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	return (jlong)page->list_size;
+}
@@ -29,13 +29,31 @@ struct jni_options_s
 	jfloat y1;
 };
 
+// Number of 32 bit values in jni_options
+#define JNI_OPTIONS_LEN (sizeof(jni_options) / sizeof(jint))
+
 /**
- * Create new options object
+ * Copy rendering options passed by value from java.
+ *
+ * Floats are passed as their raw int bits so the whole
+ * structure can be copied in a single call.
  */
-jni_options * jni_new_options(fz_context *ctx)
+static int jni_get_options(JNIEnv *env, jintArray options, jni_options *o)
 {
-	jni_options *o = fz_malloc_no_throw(ctx, sizeof(jni_options));
-	return o;
+	if (!options)
+	{
+		return -1;
+	}
+
+	jsize len = jni_get_array_len(options);
+
+	if (len < JNI_OPTIONS_LEN)
+	{
+		return -1;
+	}
+
+	(*env)->GetIntArrayRegion(env, options, 0, JNI_OPTIONS_LEN, (jint*)o);
+	return 0;
 }
 
 /**
@@ -81,13 +99,23 @@ fz_matrix jni_get_view_ctm(float zoom, int rotate)
 static int jni_save_alpha(int color)
 {
 	if (color == COLOR_ARGB ||
-		color == COLOR_ARGB_PRE)
+		color == COLOR_ARGB_PRE ||
+		color == COLOR_4BYTE_ABGR ||
+		color == COLOR_4BYTE_ABGR_PRE)
 	{
 		return 1;
 	}
 	return 0;
 }
 
+/**
+ * Determine if pixels keep the premultiplied samples of the draw device
+ */
+static int jni_is_premultiplied(int color)
+{
+	return (color == COLOR_ARGB_PRE || color == COLOR_4BYTE_ABGR_PRE);
+}
+
 /**
  * Get color space
  */
@@ -102,11 +130,15 @@ static fz_colorspace * jni_get_color_space(int color)
 			colorspace = fz_device_rgb;
 			break;
 		case COLOR_BGR:
+		case COLOR_3BYTE_BGR:
+		case COLOR_4BYTE_ABGR:
+		case COLOR_4BYTE_ABGR_PRE:
 			colorspace = fz_device_bgr;
 			break;
 		case COLOR_GRAY_SCALE:
 		case COLOR_BLACK_WHITE:
 		case COLOR_BLACK_WHITE_DITHER:
+		case COLOR_BLACK_WHITE_ORDERED:
 			colorspace = fz_device_gray;
 			break;
 		default:
@@ -119,11 +151,11 @@ static fz_colorspace * jni_get_color_space(int color)
 /**
  * Normalize rectangle bounds
  */
-static fz_rect jni_normalize_rect(jni_page *page)
+static fz_rect jni_normalize_rect(jni_page *page, jni_options *o)
 {
 	fz_rect rect = fz_empty_rect;
-	if (page->options->x0 == 0 && page->options->y0 == 0 &&
-		page->options->x1 == 0 && page->options->y1 == 0)
+	if (o->x0 == 0 && o->y0 == 0 &&
+		o->x1 == 0 && o->y1 == 0)
 	{
 		rect.x0 = page->bbox.x0;
 		rect.y0 = page->bbox.y0;
@@ -132,10 +164,10 @@ static fz_rect jni_normalize_rect(jni_page *page)
 	}
 	else
 	{
-		rect.x0 = fz_maxi(page->options->x0, page->bbox.x0);
-		rect.y0 = fz_maxi(page->options->y0, page->bbox.y0);
-		rect.x1 = fz_mini(page->options->x1, page->bbox.x1);
-		rect.y1 = fz_mini(page->options->y1, page->bbox.y1);
+		rect.x0 = fz_maxi(o->x0, page->bbox.x0);
+		rect.y0 = fz_maxi(o->y0, page->bbox.y0);
+		rect.x1 = fz_mini(o->x1, page->bbox.x1);
+		rect.y1 = fz_mini(o->y1, page->bbox.y1);
 	}
 	return rect;
 }
@@ -143,20 +175,99 @@ static fz_rect jni_normalize_rect(jni_page *page)
 /**
  * Set anti alias level
  */
-static void jni_set_aa_level(jni_page *page)
+static void jni_set_aa_level(fz_context *ctx, jni_options *o)
+{
+	// Glyphs are cached per anti-alias level so the glyph cache is kept
+	if (fz_aa_level(ctx) != o->antiAlias)
+	{
+		fz_set_aa_level(ctx, o->antiAlias);
+	}
+}
+
+/**
+ * Create a new pixmap whose samples are taken from the buffer pool
+ */
+static fz_pixmap *jni_new_pixmap(fz_context *ctx, fz_colorspace *colorspace, fz_bbox bbox)
+{
+	fz_pixmap *pix = NULL;
+	int w = bbox.x1 - bbox.x0;
+	int h = bbox.y1 - bbox.y0;
+	int n = colorspace->n + 1;
+
+	if (w < 0 || h < 0 || (h > 0 && w > INT_MAX / n / h))
+	{
+		fz_throw(ctx, "invalid pixmap size %d x %d", w, h);
+	}
+
+	unsigned char *samples = jni_pool_alloc((size_t)w * h * n);
+
+	if (!samples)
+	{
+		fz_throw(ctx, "could not allocate pixmap samples");
+	}
+
+	fz_try(ctx)
+	{
+		pix = fz_new_pixmap_with_bbox_and_data(ctx, colorspace, bbox, samples);
+	}
+	fz_catch(ctx)
+	{
+		jni_pool_free(samples);
+		fz_rethrow(ctx);
+	}
+
+	return pix;
+}
+
+/**
+ * Drop a pixmap created with jni_new_pixmap() and
+ * return its samples to the buffer pool
+ */
+static void jni_drop_pixmap(fz_context *ctx, fz_pixmap *pix)
+{
+	if (pix)
+	{
+		unsigned char *samples = pix->samples;
+		fz_drop_pixmap(ctx, pix);
+		jni_pool_free(samples);
+	}
+}
+
+/**
+ * Get bounding box of pixel data for current options
+ */
+static fz_bbox jni_get_pixmap_bbox(jni_page *page, jni_options *o, fz_matrix *ctm)
+{
+	*ctm = jni_get_view_ctm(o->zoom, o->rotate);
+	return fz_round_rect(fz_transform_rect(*ctm, jni_normalize_rect(page, o)));
+}
+
+/**
+ * Get the cookie held by a direct ByteBuffer.
+ *
+ * The buffer is owned by java so nothing has to be freed.
+ * Returns NULL when no usable buffer is passed.
+ */
+static fz_cookie *jni_get_cookie(JNIEnv *env, jobject cookie)
 {
-	if (fz_aa_level(page->ctx) != page->options->antiAlias)
+	if (!cookie)
+	{
+		return NULL;
+	}
+	if (jni_get_buffer_capacity(cookie) < (jlong)sizeof(fz_cookie))
 	{
-		fz_drop_glyph_cache_context(page->ctx);
-		fz_set_aa_level(page->ctx, page->options->antiAlias);
-		fz_new_glyph_cache_context(page->ctx);
+		return NULL;
 	}
+	return (fz_cookie*)jni_get_buffer_address(cookie);
 }
 
 /**
  * Get an RGB, ARGB, Gray scale pixel data
+ *
+ * Rendering stops early when the abort flag of the cookie is set,
+ * in which case no pixmap is returned.
  */
-static fz_pixmap *jni_get_pixmap(jni_page *page)
+static fz_pixmap *jni_get_pixmap(fz_context *ctx, jni_page *page, jni_options *o, fz_cookie *cookie)
 {
 	fz_pixmap *pix = NULL;
 	fz_device *dev = NULL;
@@ -164,47 +275,61 @@ static fz_pixmap *jni_get_pixmap(jni_page *page)
 	fz_bbox bbox;
 
 	// Try to get pixel buffer
-	fz_try(page->ctx)
+	fz_try(ctx)
 	{
-		jni_set_aa_level(page);
-		ctm = jni_get_view_ctm(page->options->zoom, page->options->rotate);
-		bbox = fz_round_rect(fz_transform_rect(ctm, jni_normalize_rect(page)));
-		pix = fz_new_pixmap_with_bbox(page->ctx, jni_get_color_space(page->options->imageType), bbox);
+		if (!page->list)
+		{
+			fz_throw(ctx, "Page contents are not loaded.");
+		}
+		jni_set_aa_level(ctx, o);
+		bbox = jni_get_pixmap_bbox(page, o, &ctm);
+		pix = jni_new_pixmap(ctx, jni_get_color_space(o->imageType), bbox);
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
 	{
 		return NULL;
 	}
 
 	// Render image
-	fz_try(page->ctx)
+	fz_try(ctx)
 	{
-		if (jni_save_alpha(page->options->imageType))
+		if (jni_save_alpha(o->imageType))
 		{
-			fz_clear_pixmap(page->ctx, pix);
+			fz_clear_pixmap(ctx, pix);
 		}
 		else
 		{
-			fz_clear_pixmap_with_value(page->ctx, pix, 255);
-		}
-		dev = fz_new_draw_device(page->ctx, pix);
-		fz_run_display_list(page->list, dev, ctm, bbox, NULL);
-		if (page->options->gamma != 1 && page->options->gamma > 0)
-		{
-			fz_gamma_pixmap(page->ctx, pix, page->options->gamma);
+			fz_clear_pixmap_with_value(ctx, pix, 255);
 		}
-		if (page->options->imageType != COLOR_ARGB_PRE)
+		dev = fz_new_draw_device(ctx, pix);
+		fz_run_display_list(page->list, dev, ctm, bbox, cookie);
+		// Aborted pixels are dropped below, skip post processing
+		if (!cookie || !cookie->abort)
 		{
-			fz_unmultiply_pixmap(page->ctx, pix);
+			if (o->gamma != 1 && o->gamma > 0)
+			{
+				fz_gamma_pixmap(ctx, pix, o->gamma);
+			}
+			if (!jni_is_premultiplied(o->imageType))
+			{
+				fz_unmultiply_pixmap(ctx, pix);
+			}
 		}
 	}
-	fz_always(page->ctx)
+	fz_always(ctx)
 	{
 		fz_free_device(dev);
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
+	{
+		jni_drop_pixmap(ctx, pix);
+		pix = NULL;
+	}
+
+	// Partially rendered pixels are of no use
+	if (pix && cookie && cookie->abort)
 	{
-		fz_drop_pixmap(page->ctx, pix);
+		jni_drop_pixmap(ctx, pix);
 		pix = NULL;
 	}
 
@@ -212,459 +337,1340 @@ static fz_pixmap *jni_get_pixmap(jni_page *page)
 }
 
 /**
- * Get a new direct byte buffer that wraps packed pixel data
+ * Called for every rendered band. Returning non zero stops rendering.
+ */
+typedef int (jni_band_fn)(fz_context *ctx, fz_pixmap *band, int y, void *user);
+
+/**
+ * Render pixel data in horizontal bands of at most band_height rows.
+ *
+ * A single band sized pixmap is reused for the whole page and the display
+ * list is run once per band with the band as scissor, so nodes outside of
+ * the band are culled. Each band is handed to fn with its row offset from
+ * the top of the page before the next band is drawn over it.
+ *
+ * Returns 0, -2 upon error, -5 when aborted or the non zero value of fn.
  */
-static jobject jni_get_packed_pixels(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, jint color)
+static int jni_render_bands(fz_context *ctx, jni_page *page, jni_options *o, int band_height, fz_cookie *cookie, jni_band_fn *fn, void *user)
 {
-	int usebyte = (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER || color == COLOR_GRAY_SCALE);
-	int size = pix->w * pix->h;
-	int memsize = usebyte ? (size*sizeof(jbyte)) : (size*sizeof(jint));
+	fz_pixmap *pix = NULL;
+	fz_device *dev = NULL;
+	fz_matrix ctm;
+	fz_bbox bbox;
+	fz_bbox band;
+	int h = 0;
+	int y;
+	int rc = 0;
+
+	fz_try(ctx)
+	{
+		if (!page->list)
+		{
+			fz_throw(ctx, "Page contents are not loaded.");
+		}
+		jni_set_aa_level(ctx, o);
+		bbox = jni_get_pixmap_bbox(page, o, &ctm);
+		if (band_height <= 0 || band_height > bbox.y1 - bbox.y0)
+		{
+			band_height = bbox.y1 - bbox.y0;
+		}
+		band = bbox;
+		band.y1 = band.y0 + band_height;
+		pix = jni_new_pixmap(ctx, jni_get_color_space(o->imageType), band);
+		h = pix->h;
+	}
+	fz_catch(ctx)
+	{
+		return -2;
+	}
 
-	jobject pixarray = fz_malloc_no_throw(ctx, memsize);
+	fz_var(dev);
+	fz_var(rc);
 
-	if (!pixarray)
+	for (y = bbox.y0; y < bbox.y1 && rc == 0; y += band_height)
 	{
-		return NULL;
+		band.y0 = y;
+		band.y1 = fz_mini(y + band_height, bbox.y1);
+		pix->y = band.y0;
+		pix->h = band.y1 - band.y0;
+
+		fz_try(ctx)
+		{
+			if (jni_save_alpha(o->imageType))
+			{
+				fz_clear_pixmap(ctx, pix);
+			}
+			else
+			{
+				fz_clear_pixmap_with_value(ctx, pix, 255);
+			}
+			dev = fz_new_draw_device(ctx, pix);
+			fz_run_display_list(page->list, dev, ctm, band, cookie);
+			if (cookie && cookie->abort)
+			{
+				rc = -5;
+			}
+			else
+			{
+				if (o->gamma != 1 && o->gamma > 0)
+				{
+					fz_gamma_pixmap(ctx, pix, o->gamma);
+				}
+				if (!jni_is_premultiplied(o->imageType))
+				{
+					fz_unmultiply_pixmap(ctx, pix);
+				}
+			}
+		}
+		fz_always(ctx)
+		{
+			fz_free_device(dev);
+			dev = NULL;
+		}
+		fz_catch(ctx)
+		{
+			rc = -2;
+		}
+
+		if (rc == 0)
+		{
+			rc = fn(ctx, pix, y - bbox.y0, user);
+		}
+	}
+
+	pix->h = h;
+	jni_drop_pixmap(ctx, pix);
+
+	return rc;
+}
+
+/**
+ * Determine if packed pixels are stored in bytes
+ */
+static int jni_is_byte_data(int color)
+{
+	return (jni_is_bilevel(color) ||
+			color == COLOR_GRAY_SCALE ||
+			color == COLOR_3BYTE_BGR ||
+			color == COLOR_4BYTE_ABGR ||
+			color == COLOR_4BYTE_ABGR_PRE);
+}
+
+/**
+ * Get number of packed elements (jint or jbyte) of one pixel
+ */
+static int jni_get_pixel_size(int color)
+{
+	switch (color)
+	{
+		case COLOR_3BYTE_BGR:
+			return 3;
+		case COLOR_4BYTE_ABGR:
+		case COLOR_4BYTE_ABGR_PRE:
+			return 4;
+		default:
+			return 1;
 	}
+}
 
-	jint *ptr_pixint = (jint*)pixarray;
-	jbyte *ptr_pixbyte = (jbyte*)pixarray;
+/**
+ * Pack pixel data into a target memory block.
+ *
+ * Stride is the number of packed elements (jint or jbyte)
+ * between the start of two consecutive rows. Bands of the same
+ * image pass the black and white converter of the image, so the
+ * dithering is not broken between bands.
+ */
+static int jni_pack_pixels(fz_context *ctx, fz_pixmap *pix, int color, void *target, int stride, jni_bilevel *bl)
+{
 	unsigned char *pixels = pix->samples;
-	int i = 0;
+	jint *ptr_pixint;
+	jbyte *ptr_pixbyte;
+	int x, y;
 	int rc = 0;
-	int dither = (color == COLOR_BLACK_WHITE_DITHER);
 
 	// Set color space
 	switch (color)
 	{
 		case COLOR_RGB:
-			for (i=0; i<size; i++)
+			for (y = 0; y < pix->h; y++)
 			{
-				*ptr_pixint++ = jni_get_rgb_r(pixels[0]) |
-								jni_get_rgb_g(pixels[1]) |
-								jni_get_rgb_b(pixels[2]);
-				pixels += pix->n;
+				ptr_pixint = (jint*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					*ptr_pixint++ = jni_get_rgb_r(pixels[0]) |
+									jni_get_rgb_g(pixels[1]) |
+									jni_get_rgb_b(pixels[2]);
+					pixels += pix->n;
+				}
 			}
 			break;
 		case COLOR_ARGB:
 		case COLOR_ARGB_PRE:
-			for (i=0; i<size; i++)
+			for (y = 0; y < pix->h; y++)
 			{
-				*ptr_pixint++ = jni_get_rgb_a(pixels[3]) |
-								jni_get_rgb_r(pixels[0]) |
-								jni_get_rgb_g(pixels[1]) |
-								jni_get_rgb_b(pixels[2]);
-				pixels += pix->n;
+				ptr_pixint = (jint*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					*ptr_pixint++ = jni_get_rgb_a(pixels[3]) |
+									jni_get_rgb_r(pixels[0]) |
+									jni_get_rgb_g(pixels[1]) |
+									jni_get_rgb_b(pixels[2]);
+					pixels += pix->n;
+				}
 			}
 			break;
 		case COLOR_BGR:
-			for (i=0; i<size; i++)
+			for (y = 0; y < pix->h; y++)
 			{
-				*ptr_pixint++ = jni_get_bgr_b(pixels[0]) |
-								jni_get_bgr_g(pixels[1]) |
-								jni_get_bgr_r(pixels[2]);
-				pixels += pix->n;
+				ptr_pixint = (jint*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					*ptr_pixint++ = jni_get_bgr_b(pixels[0]) |
+									jni_get_bgr_g(pixels[1]) |
+									jni_get_bgr_r(pixels[2]);
+					pixels += pix->n;
+				}
 			}
 			break;
+		// Byte layouts are the pixmap samples without alpha or with alpha
+		// moved first, so pixels are copied a byte at a time
 		case COLOR_GRAY_SCALE:
-			for (i=0; i<size; i++)
+			for (y = 0; y < pix->h; y++)
+			{
+				ptr_pixbyte = (jbyte*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					*ptr_pixbyte++ = pixels[0];
+					pixels += pix->n;
+				}
+			}
+			break;
+		case COLOR_3BYTE_BGR:
+			for (y = 0; y < pix->h; y++)
+			{
+				ptr_pixbyte = (jbyte*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					ptr_pixbyte[0] = pixels[0];
+					ptr_pixbyte[1] = pixels[1];
+					ptr_pixbyte[2] = pixels[2];
+					ptr_pixbyte += 3;
+					pixels += pix->n;
+				}
+			}
+			break;
+		case COLOR_4BYTE_ABGR:
+		case COLOR_4BYTE_ABGR_PRE:
+			for (y = 0; y < pix->h; y++)
 			{
-				*ptr_pixbyte++ = jni_get_rgb_r(pixels[0]) |
-							 	 jni_get_rgb_g(pixels[0]) |
-								 jni_get_rgb_b(pixels[0]);
-				pixels += pix->n;
+				ptr_pixbyte = (jbyte*)target + y * stride;
+				for (x = 0; x < pix->w; x++)
+				{
+					ptr_pixbyte[0] = pixels[3];
+					ptr_pixbyte[1] = pixels[0];
+					ptr_pixbyte[2] = pixels[1];
+					ptr_pixbyte[3] = pixels[2];
+					ptr_pixbyte += 4;
+					pixels += pix->n;
+				}
 			}
 			break;
 		case COLOR_BLACK_WHITE:
 		case COLOR_BLACK_WHITE_DITHER:
-			rc = jni_pix_to_black_white(ctx, pix, dither, (unsigned char *)ptr_pixbyte);
+		case COLOR_BLACK_WHITE_ORDERED:
+			if (bl)
+			{
+				rc = jni_bilevel_convert(bl, pix, 0, (unsigned char *)target, stride);
+			}
+			else
+			{
+				rc = jni_pix_to_black_white(ctx, pix, color, (unsigned char *)target, stride);
+			}
 			break;
 		default:
 			break;
 	}
 
-	if (rc != 0)
-	{
-		fz_free(ctx, pixarray);
-		return NULL;
-	}
-
-	return jni_new_buffer_direct(pixarray, memsize);
+	return rc;
 }
 
 /**
- * Convert pixels to black and white image
- * with optional dithering.
+ * Determine if a target holding a given number of elements
+ * can receive the packed pixels of a pixmap.
  */
-int jni_pix_to_black_white(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
+static int jni_check_target(fz_pixmap *pix, int color, jlong elements, jint offset, jint stride)
 {
-	int size = pix->w * pix->h;
-	unsigned char *pixbuf = (unsigned char*)fz_malloc_no_throw(ctx, (size_t)size);
-
-	if (!pixbuf)
-	{
-		return -1;
-	}
-
-	unsigned char *srcbuf = pixbuf;
-	unsigned char *ptrsrc = pixbuf;
-	unsigned char *ptrstr = pixbuf;
-	unsigned char *pixels = pix->samples;
-
-	float value, qerror;
-	int threshold = 128;
-	int stride, x, y;
+	int row = pix->w * jni_get_pixel_size(color);
 
-	// Create a packed gray scale image
-	for (x = 0; x < size; x++)
+	if (offset < 0 || stride < row)
 	{
-		*srcbuf++ = jni_get_rgb_r(*pixels) |
-				    jni_get_rgb_g(*pixels) |
-				    jni_get_rgb_b(*pixels);
-		pixels += pix->n;
+		return -3;
 	}
-
-	for (y = 0; y < pix->h; y++)
+	if (elements < (jlong)offset + (jlong)(pix->h - 1) * stride + row)
 	{
-		for (x = 0; x < pix->w; x++)
-		{
-			//  Get gray value
-			value = *ptrsrc++;
-
-			// Threshold value
-			*trgbuf++ = value < threshold ? 0 : 255;
-
-			// Spread error amongst neighboring pixels
-			// Based on Floyd-Steinberg Dithering
-			// http://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
-			if (dither)
-			{
-				if((x > 0) && (y > 0) && (x < (pix->w-1)) && (y < (pix->h-1)))
-				{
-					// Compute quantization error
-					qerror = value < threshold ? value : (value-255);
-
-					stride = y * pix->w;
-
-					// 7/16 = 0.4375f
-					srcbuf = ptrstr + x + 1 + stride;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.4375f * qerror), 0, 255);
-
-					// 3/16 = 0.1875f
-					srcbuf = ptrstr + x - 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.1875f * qerror), 0, 255);
-
-					// 5/16 = 0.3125f
-					srcbuf = ptrstr + x + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.3125f * qerror), 0, 255);
-
-					// 1/16 = 0.0625f
-					srcbuf = ptrstr + x + 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.0625f * qerror), 0, 255);
-				}
-			}
-		}
+		return -3;
 	}
-	fz_free(ctx, pixbuf);
 	return 0;
 }
 
 /**
- * Convert pixels to packed binary image
- * with optional dithering.
+ * Copy pixmap dimensions to a java bound box array
  */
-int jni_pix_to_binary(fz_context *ctx, fz_pixmap * pix, int dither, unsigned char * trgbuf)
+static void jni_set_pixmap_bbox(JNIEnv *env, jintArray bbox, int w, int h)
 {
-	int size = pix->w * pix->h;
-	unsigned char *pixbuf = (unsigned char*)fz_malloc_no_throw(ctx, (size_t)size);
+	jint *ae = jni_get_int_array(bbox);
 
-	if (!pixbuf)
+	if (ae)
 	{
-		return -1;
+		ae[0] = 0;
+		ae[1] = 0;
+		ae[2] = fz_absi(w);
+		ae[3] = fz_absi(h);
+		jni_release_int_array(bbox, ae);
 	}
+}
 
-	unsigned char *srcbuf = pixbuf;
-	unsigned char *ptrsrc = pixbuf;
-	unsigned char *ptrstr = pixbuf;
-	unsigned char *pixels = pix->samples;
-	unsigned char bitpack = 0;
-	float value, qerror;
-	int threshold = 128;
-	int bitcnt = 7;
-	int stride, x, y;
+/**
+ * Get dimensions of the pixel data the given options
+ * would produce without rendering the page.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getPixelBounds(JNIEnv *env, jclass obj, jlong handle, jintArray options, jintArray bbox)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
 
-	// Create a packed gray scale image
-	for (x = 0; x < size; x++)
+	if (!page)
 	{
-		*srcbuf++ = jni_get_rgb_r(*pixels) |
-				    jni_get_rgb_g(*pixels) |
-				    jni_get_rgb_b(*pixels);
-		pixels += pix->n;
+		return -1;
 	}
 
-	for (y = 0; y < pix->h; y++)
+	if (jni_get_options(env, options, &opts) != 0)
 	{
-		for (x = 0; x < pix->w; x++)
-		{
-			 // Grab gray value
-			value = *ptrsrc++;
-
-			// Convert to binary and Pack bits
-			bitpack |= (value < threshold) << bitcnt; //(7-(bitcnt%8));
-			if (bitcnt-- == 0) {
-				*trgbuf++ = bitpack;
-				bitpack = 0;
-				bitcnt = 7;
-			}
+		return -3;
+	}
 
-			// Spread error amongst neighboring pixels
-			// Based on Floyd-Steinberg Dithering
-			// http://en.wikipedia.org/wiki/Floyd-Steinberg_dithering
-			if (dither == 1)
-			{
-				if((x > 0) && (y > 0) && (x < (pix->w-1)) && (y < (pix->h-1)))
-				{
-					// Compute quantization error
-					qerror = value < threshold ? value : (value-255);
-
-					stride = y * pix->w;
-
-					// 7/16 = 0.4375f
-					srcbuf = ptrstr + x + 1 + stride;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.4375f * qerror), 0, 255);
-
-					// 3/16 = 0.1875f
-					srcbuf = ptrstr + x - 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.1875f * qerror), 0, 255);
-
-					// 5/16 = 0.3125f
-					srcbuf = ptrstr + x + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.3125f * qerror), 0, 255);
-
-					// 1/16 = 0.0625f
-					srcbuf = ptrstr + x + 1 + stride + pix->w;
-					value = *srcbuf;
-					*srcbuf = fz_clamp(roundf(value + 0.0625f * qerror), 0, 255);
-				}
-			}
-		}
+	fz_matrix ctm;
+	fz_bbox bb = jni_get_pixmap_bbox(page, &opts, &ctm);
 
-		// Pad bit pack if needed
-		if (bitcnt < 7)
-		{
-			while (bitcnt >= 0)
-			{
-				bitpack |= 0 << bitcnt--;
-			}
-			*trgbuf++ = bitpack;
-			bitpack = 0;
-			bitcnt = 7;
-		}
+	jni_set_pixmap_bbox(env, bbox, bb.x1 - bb.x0, bb.y1 - bb.y0);
 
-	}
-	fz_free(ctx, pixbuf);
 	return 0;
 }
 
 /**
- * Get an packed RGB, Gray or Binary pixels
- * Returns a DirectByteBuffer
+ * Render packed pixels directly into a caller supplied direct ByteBuffer.
+ *
+ * Offset and stride are expressed in packed elements (jint or jbyte).
+ * A stride of zero means rows are tightly packed.
+ * Returns -5 when rendering was aborted through the cookie.
  */
-JNIEXPORT jobject JNICALL
-Java_com_jmupdf_JmuPdf_getByteBuffer(JNIEnv *env, jclass obj, jlong handle, jintArray bbox)
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_drawToBuffer(JNIEnv *env, jclass obj, jlong handle, jintArray options, jobject buffer, jint offset, jint stride, jintArray bbox, jobject cookie)
 {
 	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
 
 	if (!page)
 	{
-		return NULL;
+		return -1;
 	}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+	jbyte *target = jni_get_buffer_address(buffer);
+	jlong capacity = jni_get_buffer_capacity(buffer);
 
-	if (!pix)
+	if (!target || capacity <= 0 || jni_get_options(env, options, o) != 0)
 	{
-		return NULL;
+		return -3;
 	}
 
-	jobject pixarray = jni_get_packed_pixels(env, page->ctx, pix, page->options->imageType);
+	fz_context *ctx = fz_clone_context(page->ctx);
 
-	if (!pixarray)
+	if (!ctx)
 	{
-		fz_drop_pixmap(page->ctx, pix);
-		return NULL;
+		return -2;
 	}
 
-	jint *ae = jni_get_int_array(bbox);
+	fz_cookie *c = jni_get_cookie(env, cookie);
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, c);
 
-	if (ae)
+	if (!pix)
 	{
-		ae[0] = 0;
-		ae[1] = 0;
-		ae[2] = fz_absi(pix->w);
-		ae[3] = fz_absi(pix->h);
+		fz_free_context(ctx);
+		return (c && c->abort) ? -5 : -2;
 	}
 
-	jni_release_int_array(bbox, ae);
-	fz_drop_pixmap(page->ctx, pix);
+	int color = o->imageType;
+	int elsize = jni_is_byte_data(color) ? sizeof(jbyte) : sizeof(jint);
 
-	return pixarray;
-}
+	if (stride <= 0)
+	{
+		stride = pix->w * jni_get_pixel_size(color);
+	}
 
-/**
- * Free a ByteBuffer resource
- */
-JNIEXPORT void JNICALL
-Java_com_jmupdf_JmuPdf_freeByteBuffer(JNIEnv *env, jclass obj, jlong handle, jobject buffer)
-{
-	jni_page *page = jni_get_page(handle);
+	int rc = jni_check_target(pix, color, capacity / elsize, offset, stride);
 
-	if (!page)
+	if (rc == 0)
+	{
+		rc = jni_pack_pixels(ctx, pix, color, target + offset * elsize, stride, NULL);
+	}
+
+	if (rc == 0)
 	{
-		return;
+		jni_set_pixmap_bbox(env, bbox, pix->w, pix->h);
 	}
 
-	void *pixmap = jni_get_buffer_address(buffer);
+	jni_drop_pixmap(ctx, pix);
+	fz_free_context(ctx);
 
-	fz_free(page->ctx, pixmap);
+	return rc;
 }
 
 /**
- * Create an image file from a given page
+ * Render packed pixels directly into a caller supplied int[] or byte[].
+ *
+ * The page is rendered before the array is pinned so the critical
+ * section only covers the packing of pixels.
+ * Returns -5 when rendering was aborted through the cookie.
  */
 JNIEXPORT jint JNICALL
-Java_com_jmupdf_JmuPdf_saveAsFile(JNIEnv *env, jobject obj, jlong handle, jbyteArray out)
+Java_com_jmupdf_JmuPdf_drawToArray(JNIEnv *env, jclass obj, jlong handle, jintArray options, jarray array, jint offset, jint stride, jintArray bbox, jobject cookie)
 {
 	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
 
 	if (!page)
 	{
 		return -1;
 	}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+	if (jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
 
-	if (!pix)
+	if (!ctx)
 	{
 		return -2;
 	}
 
-	char * file = jni_jbyte_to_char(env, page->ctx, out);
-	int rc = 0;
+	fz_cookie *c = jni_get_cookie(env, cookie);
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, c);
 
-	fz_try(page->ctx)
+	if (!pix)
 	{
-		switch (page->options->imageFormat)
-		{
-		case FORMAT_PNG:
-			jni_write_png(NULL, page->ctx, pix, (const char*)file, jni_save_alpha(page->options->imageType), page->options->zoom);
-			break;
-		case FORMAT_JPG:
-			jni_write_jpg(NULL, page->ctx, pix, (const char*)file, page->options->zoom, page->options->imageType, page->options->quality);
-			break;
-		case FORMAT_TIF:
-			rc = jni_write_tif(page->ctx, pix, (const char*)file, page->options->zoom, page->options->compression, page->options->imageType, page->options->mode, page->options->quality);
-			break;
-		case FORMAT_PNM:
-			fz_write_pnm(page->ctx, pix, file);
-			break;
-		case FORMAT_PAM:
-			fz_write_pam(page->ctx, pix, file, jni_save_alpha(page->options->imageType));
-			break;
-		case FORMAT_PBM:
+		fz_free_context(ctx);
+		return (c && c->abort) ? -5 : -2;
+	}
+
+	int color = o->imageType;
+	int elsize = jni_is_byte_data(color) ? sizeof(jbyte) : sizeof(jint);
+
+	if (stride <= 0)
+	{
+		stride = pix->w * jni_get_pixel_size(color);
+	}
+
+	jsize len = jni_get_array_len(array);
+	int rc = jni_check_target(pix, color, len, offset, stride);
+
+	if (rc == 0)
+	{
+		jbyte *target = jni_start_array_critical(array);
+		if (target)
 		{
-			fz_halftone *ht = fz_default_halftone(page->ctx, 1);
+			rc = jni_pack_pixels(ctx, pix, color, target + offset * elsize, stride, NULL);
+			jni_end_array_critical(array, target);
+		}
+		else
+		{
+			rc = -4;
+		}
+	}
+
+	if (rc == 0)
+	{
+		jni_set_pixmap_bbox(env, bbox, pix->w, pix->h);
+	}
+
+	jni_drop_pixmap(ctx, pix);
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * State shared with jni_progressive_band()
+ */
+typedef struct jni_progressive_s jni_progressive;
+struct jni_progressive_s
+{
+	JNIEnv *env;
+	jarray array;
+	jint offset;
+	jint stride;
+	int color;
+	int elsize;
+	jni_bilevel *bilevel;
+	jobject callback;
+	jmethodID method;
+};
+
+/**
+ * Pack a band into the java array and notify the callback
+ */
+static int jni_progressive_band(fz_context *ctx, fz_pixmap *band, int y, void *user)
+{
+	jni_progressive *p = (jni_progressive*)user;
+	JNIEnv *env = p->env;
+	int rc;
+
+	jbyte *target = jni_start_array_critical(p->array);
+
+	if (!target)
+	{
+		return -4;
+	}
+
+	rc = jni_pack_pixels(ctx, band, p->color, target + (p->offset + y * p->stride) * p->elsize, p->stride, p->bilevel);
+	jni_end_array_critical(p->array, target);
+
+	if (rc == 0 && p->callback)
+	{
+		(*env)->CallVoidMethod(env, p->callback, p->method, y, band->h);
+		if ((*env)->ExceptionCheck(env))
+		{
+			rc = -2;
+		}
+	}
+
+	return rc;
+}
+
+/**
+ * Render packed pixels into a caller supplied int[] or byte[] band by band.
+ *
+ * After each band of at most bandHeight rows is packed into the array the
+ * callback method "void bandRendered(int y, int h)" is invoked so the rows
+ * rendered so far can be displayed while the rest of the page renders.
+ * Progress within a band can be read from the cookie by another thread.
+ *
+ * Returns -5 when rendering was aborted through the cookie.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_drawProgressive(JNIEnv *env, jclass obj, jlong handle, jintArray options, jarray array, jint offset, jint stride, jintArray bbox, jobject cookie, jint bandHeight, jobject callback)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+	jni_progressive p;
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	fz_matrix ctm;
+	fz_bbox bb = jni_get_pixmap_bbox(page, o, &ctm);
+	int w = bb.x1 - bb.x0;
+	int h = bb.y1 - bb.y0;
+	jsize len = jni_get_array_len(array);
+
+	int row = w * jni_get_pixel_size(o->imageType);
+
+	if (stride <= 0)
+	{
+		stride = row;
+	}
+
+	if (offset < 0 || stride < row || len < (jlong)offset + (jlong)(h - 1) * stride + row)
+	{
+		return -3;
+	}
+
+	p.env = env;
+	p.array = array;
+	p.offset = offset;
+	p.stride = stride;
+	p.color = o->imageType;
+	p.elsize = jni_is_byte_data(o->imageType) ? sizeof(jbyte) : sizeof(jint);
+	p.callback = callback;
+	p.method = NULL;
+
+	if (callback)
+	{
+		p.method = jni_ids.band_rendered;
+		if (!p.method)
+		{
+			return -3;
+		}
+	}
+
+	p.bilevel = NULL;
+
+	if (jni_is_bilevel(p.color))
+	{
+		p.bilevel = jni_new_bilevel(p.color, w);
+		if (!p.bilevel)
+		{
+			return -2;
+		}
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		jni_free_bilevel(p.bilevel);
+		return -2;
+	}
+
+	int rc = jni_render_bands(ctx, page, o, bandHeight, jni_get_cookie(env, cookie), jni_progressive_band, &p);
+
+	if (rc == 0)
+	{
+		jni_set_pixmap_bbox(env, bbox, w, h);
+	}
+
+	fz_free_context(ctx);
+	jni_free_bilevel(p.bilevel);
+
+	return rc;
+}
+
+/**
+ * State shared with jni_sink_band()
+ */
+typedef struct jni_sink_s jni_sink;
+struct jni_sink_s
+{
+	JNIEnv *env;
+	void *target;
+	jobject buffer;
+	int color;
+	jni_bilevel *bilevel;
+	jobject callback;
+	jmethodID method;
+};
+
+/**
+ * Pack a band into the shared direct buffer and hand it to the callback
+ */
+static int jni_sink_band(fz_context *ctx, fz_pixmap *band, int y, void *user)
+{
+	jni_sink *p = (jni_sink*)user;
+	JNIEnv *env = p->env;
+
+	int rc = jni_pack_pixels(ctx, band, p->color, p->target, band->w * jni_get_pixel_size(p->color), p->bilevel);
+
+	if (rc == 0)
+	{
+		(*env)->CallVoidMethod(env, p->callback, p->method, p->buffer, y, band->h);
+		if ((*env)->ExceptionCheck(env))
+		{
+			rc = -2;
+		}
+	}
+
+	return rc;
+}
+
+/**
+ * Render packed pixels band by band into a single band sized direct buffer.
+ *
+ * After each band of at most bandHeight rows is packed the callback method
+ * "void writeBand(ByteBuffer buffer, int y, int h)" is invoked. The buffer
+ * is overwritten by the next band so the callback must consume it before
+ * returning. Peak memory is bound by the band height, not the page height.
+ *
+ * Returns -5 when rendering was aborted through the cookie.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_drawBands(JNIEnv *env, jclass obj, jlong handle, jintArray options, jintArray bbox, jobject cookie, jint bandHeight, jobject callback)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+	jni_sink p;
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (!callback || jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	fz_matrix ctm;
+	fz_bbox bb = jni_get_pixmap_bbox(page, o, &ctm);
+	int w = bb.x1 - bb.x0;
+	int h = bb.y1 - bb.y0;
+
+	if (w <= 0 || h <= 0)
+	{
+		return -2;
+	}
+
+	if (bandHeight <= 0 || bandHeight > h)
+	{
+		bandHeight = h;
+	}
+
+	p.method = jni_ids.write_band;
+
+	if (!p.method)
+	{
+		return -3;
+	}
+
+	jlong size = (jlong)w * bandHeight * jni_get_pixel_size(o->imageType) * (jni_is_byte_data(o->imageType) ? sizeof(jbyte) : sizeof(jint));
+
+	p.env = env;
+	p.color = o->imageType;
+	p.callback = callback;
+	p.target = jni_pool_alloc(size);
+
+	if (!p.target)
+	{
+		return -2;
+	}
+
+	p.buffer = (*env)->NewDirectByteBuffer(env, p.target, size);
+
+	if (!p.buffer)
+	{
+		jni_pool_free(p.target);
+		return -2;
+	}
+
+	p.bilevel = NULL;
+
+	if (jni_is_bilevel(p.color))
+	{
+		p.bilevel = jni_new_bilevel(p.color, w);
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+	int rc = -2;
+
+	if (ctx && (p.bilevel || !jni_is_bilevel(p.color)))
+	{
+		rc = jni_render_bands(ctx, page, o, bandHeight, jni_get_cookie(env, cookie), jni_sink_band, &p);
+	}
+
+	if (ctx)
+	{
+		fz_free_context(ctx);
+	}
+
+	if (rc == 0)
+	{
+		jni_set_pixmap_bbox(env, bbox, w, h);
+	}
+
+	(*env)->DeleteLocalRef(env, p.buffer);
+	jni_free_bilevel(p.bilevel);
+	jni_pool_free(p.target);
+
+	return rc;
+}
+
+/**
+ * Append a band to a streaming PNG image
+ */
+static int jni_png_band(fz_context *ctx, fz_pixmap *band, int y, void *user)
+{
+	return jni_png_write_band((jni_png_stream*)user, band);
+}
+
+/**
+ * Append a band to a streaming TIF image
+ */
+static int jni_tif_band(fz_context *ctx, fz_pixmap *band, int y, void *user)
+{
+	return jni_tif_write_band((jni_tif_stream*)user, band);
+}
+
+/**
+ * Create a PNG or TIF image file from a given page band by band.
+ *
+ * Every band is encoded as soon as it is rendered so memory use depends
+ * on the band height and the page width only. TIF images get one strip
+ * per band. Other image formats are not supported.
+ *
+ * Returns -4 for unsupported formats and -5 when aborted through the cookie.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_saveBanded(JNIEnv *env, jobject obj, jlong handle, jintArray options, jbyteArray out, jobject cookie, jint bandHeight)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	if (o->imageFormat != FORMAT_PNG && o->imageFormat != FORMAT_TIF)
+	{
+		return -4;
+	}
+
+	fz_matrix ctm;
+	fz_bbox bb = jni_get_pixmap_bbox(page, o, &ctm);
+	int w = bb.x1 - bb.x0;
+	int h = bb.y1 - bb.y0;
+	int n = jni_get_color_space(o->imageType)->n + 1;
+
+	if (w <= 0 || h <= 0)
+	{
+		return -2;
+	}
+
+	if (bandHeight <= 0 || bandHeight > h)
+	{
+		bandHeight = h;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	char * file = jni_jbyte_to_char(env, ctx, out);
+	int rc = -2;
+
+	if (!file)
+	{
+		fz_free_context(ctx);
+		return -2;
+	}
+
+	if (o->imageFormat == FORMAT_PNG)
+	{
+		FILE *fp = fopen(file, "wb");
+		if (fp)
+		{
+			jni_png_stream *png = jni_png_begin(ctx, jni_file_write, fp, w, h, n, jni_save_alpha(o->imageType), o->zoom, o->quality);
+			if (png)
+			{
+				rc = jni_render_bands(ctx, page, o, bandHeight, jni_get_cookie(env, cookie), jni_png_band, png);
+				int end = jni_png_end(png);
+				if (rc == 0)
+				{
+					rc = end;
+				}
+			}
+			if (fclose(fp) != 0 && rc == 0)
+			{
+				rc = -2;
+			}
+		}
+	}
+	else
+	{
+		// JPEG compressed (7) strips must be a multiple of 16 rows
+		if (o->compression == 7 && bandHeight < h)
+		{
+			bandHeight = fz_mini(h, (bandHeight + 15) & ~15);
+		}
+		jni_tif_stream *tif = jni_tif_begin(ctx, file, w, h, n, bandHeight, o->zoom, o->compression, o->imageType, o->mode, o->quality);
+		if (tif)
+		{
+			rc = jni_render_bands(ctx, page, o, bandHeight, jni_get_cookie(env, cookie), jni_tif_band, tif);
+			int end = jni_tif_end(tif);
+			if (rc == 0)
+			{
+				rc = end;
+			}
+		}
+	}
+
+	fz_free(ctx, file);
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Create an image file from a given page
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_saveAsFile(JNIEnv *env, jobject obj, jlong handle, jintArray options, jbyteArray out)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, NULL);
+
+	if (!pix)
+	{
+		fz_free_context(ctx);
+		return -2;
+	}
+
+	char * file = jni_jbyte_to_char(env, ctx, out);
+	int rc = 0;
+
+	fz_try(ctx)
+	{
+		switch (o->imageFormat)
+		{
+		case FORMAT_PNG:
+			jni_write_png(NULL, ctx, pix, (const char*)file, jni_save_alpha(o->imageType), o->zoom, o->quality);
+			break;
+		case FORMAT_JPG:
+			jni_write_jpg(NULL, ctx, pix, (const char*)file, o->zoom, o->imageType, o->quality);
+			break;
+		case FORMAT_TIF:
+			rc = jni_write_tif(ctx, pix, (const char*)file, o->zoom, o->compression, o->imageType, o->mode, o->quality);
+			break;
+		case FORMAT_PNM:
+			fz_write_pnm(ctx, pix, file);
+			break;
+		case FORMAT_PAM:
+			fz_write_pam(ctx, pix, file, jni_save_alpha(o->imageType));
+			break;
+		case FORMAT_PBM:
+		{
+			fz_halftone *ht = fz_default_halftone(ctx, 1);
 			fz_bitmap *bit = NULL;
 			if (ht)
 			{
-				bit = fz_halftone_pixmap(page->ctx, pix, ht);
+				bit = fz_halftone_pixmap(ctx, pix, ht);
 			}
 			if (bit)
 			{
-				fz_write_pbm(page->ctx, bit, (char*)file);
+				fz_write_pbm(ctx, bit, (char*)file);
 			}
 			break;
 		}
 		case FORMAT_BMP:
-			rc = jni_write_bmp(page->ctx, pix, (const char*)file, page->options->zoom, page->options->imageType);
+			rc = jni_write_bmp(ctx, pix, (const char*)file, o->zoom, o->imageType);
 			break;
 		default:
-			fprintf(stderr,"Image Format not supported : %i\n", (int)page->options->imageFormat);
+			fprintf(stderr,"Image Format not supported : %i\n", (int)o->imageFormat);
 			rc = -4;
 			break;
 		}
 	}
-	fz_catch(page->ctx)
+	fz_catch(ctx)
 	{
 		rc = -3;
 	}
 
-	fz_free(page->ctx, file);
-	fz_drop_pixmap(page->ctx, pix);
+	fz_free(ctx, file);
+	jni_drop_pixmap(ctx, pix);
+	fz_free_context(ctx);
 
 	return rc;
 }
 
 JNIEXPORT jbyteArray JNICALL
-Java_com_jmupdf_JmuPdf_saveAsByte(JNIEnv *env, jobject obj, jlong handle)
+Java_com_jmupdf_JmuPdf_saveAsByte(JNIEnv *env, jobject obj, jlong handle, jintArray options)
 {
 	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
 
-	if (!page)
+	if (!page || jni_get_options(env, options, o) != 0)
+	{
+		return NULL;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
 	{
 		return NULL;
 	}
 
-	fz_pixmap *pix = jni_get_pixmap(page);
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, NULL);
 
 	if (!pix)
 	{
+		fz_free_context(ctx);
 		return NULL;
 	}
 
 	jbyteArray buffer = NULL;
 
-	fz_try(page->ctx)
+	fz_try(ctx)
 	{
-		switch (page->options->imageFormat)
+		switch (o->imageFormat)
 		{
 		case FORMAT_PNG:
-			buffer = (jbyteArray)jni_write_png(env, page->ctx, pix, NULL, jni_save_alpha(page->options->imageType), page->options->zoom);
+			buffer = (jbyteArray)jni_write_png(env, ctx, pix, NULL, jni_save_alpha(o->imageType), o->zoom, o->quality);
 			break;
 		case FORMAT_JPG:
-			buffer = (jbyteArray)jni_write_jpg(env, page->ctx, pix, NULL, page->options->zoom, page->options->imageType, page->options->quality);
+			buffer = (jbyteArray)jni_write_jpg(env, ctx, pix, NULL, o->zoom, o->imageType, o->quality);
 			break;
 		default:
-			fprintf(stderr,"Image Format not supported : %i\n", (int)page->options->imageFormat);
+			fprintf(stderr,"Image Format not supported : %i\n", (int)o->imageFormat);
 			break;
 		}
 	}
-	fz_catch(page->ctx) {}
+	fz_catch(ctx) {}
 
-	fz_drop_pixmap(page->ctx, pix);
+	jni_drop_pixmap(ctx, pix);
+	fz_free_context(ctx);
 
 	return buffer;
 }
 
 /**
- * Get pointer to page options structure
+ * Output function writing to a java stream through a direct buffer.
+ *
+ * Data is collected in the buffer and the method "boolean write(int length)"
+ * of the writer is invoked every time the buffer is full and once more at
+ * the end. The method returns false when the stream could not be written.
+ */
+typedef struct jni_stream_writer_s
+{
+	JNIEnv *env;
+	jobject writer;
+	jmethodID method;
+	unsigned char *buf;
+	int cap;
+	int len;
+} jni_stream_writer;
+
+static int jni_stream_flush(jni_stream_writer *w)
+{
+	JNIEnv *env = w->env;
+
+	if (w->len > 0)
+	{
+		jboolean ok = (*env)->CallBooleanMethod(env, w->writer, w->method, w->len);
+		if ((*env)->ExceptionCheck(env) || !ok)
+		{
+			return -1;
+		}
+		w->len = 0;
+	}
+
+	return 0;
+}
+
+static int jni_stream_write(void *user, const unsigned char *data, int len)
+{
+	jni_stream_writer *w = (jni_stream_writer*)user;
+
+	while (len > 0)
+	{
+		int n = fz_mini(len, w->cap - w->len);
+		memcpy(w->buf + w->len, data, n);
+		w->len += n;
+		data += n;
+		len -= n;
+		if (w->len == w->cap && jni_stream_flush(w) != 0)
+		{
+			return -1;
+		}
+	}
+
+	return 0;
+}
+
+/**
+ * Create an image from a given page and write it to a java stream.
+ *
+ * The image is encoded straight into a small direct buffer that is handed
+ * to the writer whenever it is full, so the encoded image is never held
+ * on the java heap. All image formats are supported.
+ *
+ * Returns -6 when the writer failed.
  */
-JNIEXPORT jobject JNICALL
-Java_com_jmupdf_JmuPdf_getPageOptionsStruct(JNIEnv *env, jclass obj, jlong handle)
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_saveAsStream(JNIEnv *env, jobject obj, jlong handle, jintArray options, jobject writer, jobject buffer)
 {
 	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+	jni_stream_writer w;
 
 	if (!page)
 	{
-		return NULL;
+		return -1;
+	}
+
+	if (!writer || !buffer || jni_get_options(env, options, o) != 0)
+	{
+		return -3;
+	}
+
+	w.env = env;
+	w.writer = writer;
+	w.method = jni_ids.write_stream;
+	w.buf = jni_get_buffer_address(buffer);
+	w.cap = w.buf ? (int)jni_get_buffer_capacity(buffer) : 0;
+	w.len = 0;
+
+	if (!w.method || w.cap <= 0)
+	{
+		return -3;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, NULL);
+
+	if (!pix)
+	{
+		fz_free_context(ctx);
+		return -2;
+	}
+
+	fz_halftone *ht = NULL;
+	fz_bitmap *bit = NULL;
+	int rc = 0;
+
+	fz_var(ht);
+	fz_var(bit);
+
+	fz_try(ctx)
+	{
+		switch (o->imageFormat)
+		{
+		case FORMAT_PNG:
+			rc = jni_output_png(ctx, pix, jni_stream_write, &w, jni_save_alpha(o->imageType), o->zoom, o->quality);
+			break;
+		case FORMAT_JPG:
+			rc = jni_output_jpg(ctx, pix, jni_stream_write, &w, o->zoom, o->imageType, o->quality);
+			break;
+		case FORMAT_TIF:
+			rc = jni_output_tif(ctx, pix, jni_stream_write, &w, o->zoom, o->compression, o->imageType, o->quality);
+			break;
+		case FORMAT_PNM:
+			rc = jni_output_pnm(ctx, pix, jni_stream_write, &w);
+			break;
+		case FORMAT_PAM:
+			rc = jni_output_pam(ctx, pix, jni_stream_write, &w, jni_save_alpha(o->imageType));
+			break;
+		case FORMAT_PBM:
+			ht = fz_default_halftone(ctx, 1);
+			bit = fz_halftone_pixmap(ctx, pix, ht);
+			rc = bit ? jni_output_pbm(ctx, bit, jni_stream_write, &w) : -2;
+			break;
+		case FORMAT_BMP:
+			rc = jni_output_bmp(ctx, pix, jni_stream_write, &w, o->zoom, o->imageType);
+			break;
+		default:
+			rc = -4;
+			break;
+		}
+		if (rc == 0)
+		{
+			rc = jni_stream_flush(&w);
+		}
+		if (rc == -1)
+		{
+			rc = -6;
+		}
+	}
+	fz_catch(ctx)
+	{
+		rc = -2;
+	}
+
+	fz_drop_bitmap(ctx, bit);
+	fz_drop_halftone(ctx, ht);
+	jni_drop_pixmap(ctx, pix);
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Open a multi-page TIF file, returns 0 upon failure
+ */
+JNIEXPORT jlong JNICALL
+Java_com_jmupdf_JmuPdf_tifOpen(JNIEnv *env, jclass obj, jbyteArray out, jboolean append)
+{
+	jsize len = jni_get_array_len(out);
+	char *file = malloc(len + 1);
+
+	if (!file)
+	{
+		return 0;
+	}
+
+	(*env)->GetByteArrayRegion(env, out, 0, len, (jbyte*)file);
+	file[len] = '\0';
+
+	jni_tif_file *tif = jni_tif_open_file(file, append);
+
+	free(file);
+
+	return jni_ptr_to_jlong(tif);
+}
+
+/**
+ * Render a page and convert it to the samples of a TIF image.
+ *
+ * The width and height of the image are returned in size. When the buffer
+ * is missing or smaller than the samples the page is not rendered. Many
+ * pages may be converted at once.
+ *
+ * Returns the size of the samples in bytes.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_tifPackPage(JNIEnv *env, jobject obj, jlong handle, jintArray options, jobject buffer, jintArray size)
+{
+	jni_page *page = jni_get_page(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+
+	if (!page)
+	{
+		return -1;
+	}
+
+	if (jni_get_options(env, options, o) != 0 || o->imageFormat != FORMAT_TIF)
+	{
+		return -3;
+	}
+
+	fz_matrix ctm;
+	fz_bbox bb = jni_get_pixmap_bbox(page, o, &ctm);
+	jint wh[2];
+	wh[0] = bb.x1 - bb.x0;
+	wh[1] = bb.y1 - bb.y0;
+
+	if (wh[0] <= 0 || wh[1] <= 0)
+	{
+		return -2;
+	}
+
+	(*env)->SetIntArrayRegion(env, size, 0, 2, wh);
+
+	int n = jni_get_color_space(o->imageType)->n + 1;
+	size_t len = jni_tif_page_size(wh[0], wh[1], n, o->compression, o->imageType);
+
+	if (len > INT_MAX)
+	{
+		return -2;
+	}
+
+	unsigned char *trgbuf = buffer ? jni_get_buffer_address(buffer) : NULL;
+
+	if (!trgbuf || jni_get_buffer_capacity(buffer) < (jlong)len)
+	{
+		return (jint)len;
+	}
+
+	fz_context *ctx = fz_clone_context(page->ctx);
+
+	if (!ctx)
+	{
+		return -2;
+	}
+
+	fz_pixmap *pix = jni_get_pixmap(ctx, page, o, NULL);
+	int rc = -2;
+
+	if (pix)
+	{
+		if (pix->w == wh[0] && pix->h == wh[1] &&
+			jni_tif_pack_page(ctx, pix, o->compression, o->imageType, trgbuf) == 0)
+		{
+			rc = (jint)len;
+		}
+		jni_drop_pixmap(ctx, pix);
+	}
+
+	fz_free_context(ctx);
+
+	return rc;
+}
+
+/**
+ * Add a page converted by tifPackPage() as the next image of a TIF file.
+ * Pages must be added one at a time.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_tifAddPage(JNIEnv *env, jclass obj, jlong handle, jintArray options, jobject buffer, jint w, jint h)
+{
+	jni_tif_file *tif = (jni_tif_file*)jni_jlong_to_ptr(handle);
+	jni_options opts;
+	jni_options *o = &opts;
+
+	if (!tif)
+	{
+		return -1;
+	}
+
+	if (jni_get_options(env, options, o) != 0 || o->imageFormat != FORMAT_TIF)
+	{
+		return -3;
+	}
+
+	int n = jni_get_color_space(o->imageType)->n + 1;
+	unsigned char *samples = jni_get_buffer_address(buffer);
+
+	if (!samples || jni_get_buffer_capacity(buffer) < (jlong)jni_tif_page_size(w, h, n, o->compression, o->imageType))
+	{
+		return -3;
+	}
+
+	return jni_tif_add_page(tif, samples, w, h, n, o->zoom, o->compression, o->imageType, o->quality);
+}
+
+/**
+ * Close a multi-page TIF file
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_tifClose(JNIEnv *env, jclass obj, jlong handle)
+{
+	jni_tif_file *tif = (jni_tif_file*)jni_jlong_to_ptr(handle);
+
+	if (!tif)
+	{
+		return -1;
 	}
 
-	return jni_new_buffer_direct((void *)page->options, sizeof(*page->options));
+	return jni_tif_close_file(tif);
 }
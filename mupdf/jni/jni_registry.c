@@ -0,0 +1,152 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * This program implements a registry of the Java classes
+ * and methods called from native code.
+ *
+ * Looking up a class and its methods on every call costs
+ * more than extracting the links or text of a small page.
+ * Instead the lookups are done once when the library is
+ * loaded. Classes are kept as global references so the
+ * method ids stay valid until the library is unloaded.
+ *
+ * A class that cannot be found is left out of the registry
+ * and the functions that need it return NULL, the same as
+ * when the lookup was done per call.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+jni_registry jni_ids;
+
+/**
+ * Find a class and keep a global reference to it
+ */
+static jclass jni_registry_class(JNIEnv *env, const char *name)
+{
+	jclass cls = (*env)->FindClass(env, name);
+
+	if (!cls)
+	{
+		(*env)->ExceptionClear(env);
+		return NULL;
+	}
+
+	jclass ref = (*env)->NewGlobalRef(env, cls);
+	(*env)->DeleteLocalRef(env, cls);
+
+	return ref;
+}
+
+/**
+ * Get a method id, returns NULL if class or method is missing
+ */
+static jmethodID jni_registry_method(JNIEnv *env, jclass cls, const char *name, const char *sig)
+{
+	if (!cls)
+	{
+		return NULL;
+	}
+
+	jmethodID mid = (*env)->GetMethodID(env, cls, name, sig);
+
+	if (!mid)
+	{
+		(*env)->ExceptionClear(env);
+	}
+
+	return mid;
+}
+
+/**
+ * Drop a class whose methods could not all be found
+ */
+static jclass jni_registry_drop(JNIEnv *env, jclass cls)
+{
+	if (cls)
+	{
+		(*env)->DeleteGlobalRef(env, cls);
+	}
+	return NULL;
+}
+
+/**
+ * Look up classes and methods
+ */
+static void jni_registry_load(JNIEnv *env)
+{
+	jni_registry *r = &jni_ids;
+
+	r->page_text_layout = jni_registry_class(env, "com/jmupdf/page/PageTextLayout");
+	r->page_text_layout_init = jni_registry_method(env, r->page_text_layout, "<init>", "([I[F[I[I[I)V");
+
+	if (!r->page_text_layout_init)
+	{
+		r->page_text_layout = jni_registry_drop(env, r->page_text_layout);
+	}
+
+	r->page_links = jni_registry_class(env, "com/jmupdf/page/PageLinks");
+	r->page_links_init = jni_registry_method(env, r->page_links, "<init>", "(FFFFILjava/lang/String;)V");
+
+	if (!r->page_links_init)
+	{
+		r->page_links = jni_registry_drop(env, r->page_links);
+	}
+
+	r->progressive_renderer = jni_registry_class(env, "com/jmupdf/page/ProgressiveRenderer");
+	r->band_rendered = jni_registry_method(env, r->progressive_renderer, "bandRendered", "(II)V");
+
+	r->band_renderer = jni_registry_class(env, "com/jmupdf/page/BandRenderer");
+	r->write_band = jni_registry_method(env, r->band_renderer, "writeBand", "(Ljava/nio/ByteBuffer;II)V");
+
+	r->image_stream_writer = jni_registry_class(env, "com/jmupdf/page/ImageStreamWriter");
+	r->write_stream = jni_registry_method(env, r->image_stream_writer, "write", "(I)Z");
+}
+
+/**
+ * Release global references
+ */
+static void jni_registry_free(JNIEnv *env)
+{
+	jni_registry *r = &jni_ids;
+
+	jni_registry_drop(env, r->page_text_layout);
+	jni_registry_drop(env, r->page_links);
+	jni_registry_drop(env, r->progressive_renderer);
+	jni_registry_drop(env, r->band_renderer);
+	jni_registry_drop(env, r->image_stream_writer);
+
+	memset(r, 0, sizeof(jni_registry));
+}
+
+/**
+ * Called by the JVM when the library is loaded
+ */
+JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved)
+{
+	JNIEnv *env;
+
+	if ((*vm)->GetEnv(vm, (void**)&env, JNI_VERSION_1_4) != JNI_OK)
+	{
+		return JNI_ERR;
+	}
+
+	jni_registry_load(env);
+
+	return JNI_VERSION_1_4;
+}
+
+/**
+ * Called by the JVM when the class loader of the library is collected
+ */
+JNIEXPORT void JNICALL
+JNI_OnUnload(JavaVM *vm, void *reserved)
+{
+	JNIEnv *env;
+
+	if ((*vm)->GetEnv(vm, (void**)&env, JNI_VERSION_1_4) != JNI_OK)
+	{
+		return;
+	}
+
+	jni_registry_free(env);
+}
@@ -0,0 +1,295 @@
+#include "includes/jmupdf.h"
+
+/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+ * This program implements the process wide resource store.
+ *
+ * By default every document has a resource store of its own
+ * with its own budget, so the memory used by many open
+ * documents grows with their number. Once a shared budget
+ * is set, documents opened afterwards put their resources in
+ * one shared store instead. A document only evicts its own
+ * items, so closing one document never races with another
+ * one evicting its items. A document below an equal share of
+ * the budget that finds no space of its own asks the others
+ * to give theirs back as they store new items.
+ *
+ * Every document keeps the usage of its own items, whether
+ * its store is shared or not, and removes its items from the
+ * store when it is closed. Documents sharing the store also
+ * share the lock that guards it.
+ *
+ * The glyph cache follows the store. Documents sharing the
+ * store share one glyph cache, so a font embedded in many
+ * documents is rendered once. Otherwise the glyph cache is
+ * shared by the pages of one document. Either cache is kept
+ * below the glyph cache budget.
+ * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~ */
+
+// Store statistics indexes
+enum
+{
+	JNI_STORE_BYTES = 0,
+	JNI_STORE_PEAK,
+	JNI_STORE_ITEMS,
+	JNI_STORE_EVICTIONS,
+	JNI_STORE_MAX_BYTES,
+	JNI_STORE_STATS
+};
+
+// Glyph cache statistics indexes
+enum
+{
+	JNI_GLYPH_BYTES = 0,
+	JNI_GLYPH_ITEMS,
+	JNI_GLYPH_HITS,
+	JNI_GLYPH_MISSES,
+	JNI_GLYPH_EVICTIONS,
+	JNI_GLYPH_MAX_BYTES,
+	JNI_GLYPH_STATS
+};
+
+// Context holding the shared store, guarded by JNI_GLOBAL_LOCK_SHARED
+static fz_context *shared_ctx = NULL;
+
+// Glyph cache budget, zero keeps the MuPDF default, guarded by JNI_GLOBAL_LOCK_SHARED
+static unsigned int glyph_max = 0;
+
+/**
+ * Determine if a shared store is set
+ */
+int jni_has_shared_store()
+{
+	jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+	int rc = shared_ctx != NULL;
+	jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+	return rc;
+}
+
+/**
+ * Create a context that uses the shared store.
+ * Returns NULL if there is no shared store.
+ */
+fz_context * jni_new_shared_context(fz_locks_context *locks)
+{
+	fz_context *ctx = NULL;
+
+	jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+
+	if (shared_ctx)
+	{
+		ctx = fz_new_context(NULL, locks, FZ_STORE_UNLIMITED);
+		if (ctx)
+		{
+			fz_drop_store_context(ctx);
+			ctx->store = shared_ctx->store;
+			fz_keep_store_context(ctx);
+			fz_drop_glyph_cache_context(ctx);
+			ctx->glyph_cache = shared_ctx->glyph_cache;
+			fz_keep_glyph_cache(ctx);
+		}
+	}
+
+	jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+
+	return ctx;
+}
+
+/**
+ * Create a context with a store and glyph cache of its own
+ */
+fz_context * jni_new_private_context(fz_locks_context *locks, int max_store)
+{
+	fz_context *ctx = fz_new_context(NULL, locks, max_store);
+
+	jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+	if (ctx && glyph_max > 0)
+	{
+		fz_set_glyph_cache_max(ctx, glyph_max);
+	}
+	jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+
+	return ctx;
+}
+
+/**
+ * Copy store usage to a java array
+ */
+static void jni_store_stats(JNIEnv *env, jlongArray stats, fz_store_usage *usage, unsigned int max)
+{
+	jlong data[JNI_STORE_STATS];
+
+	data[JNI_STORE_BYTES] = usage->size;
+	data[JNI_STORE_PEAK] = usage->peak;
+	data[JNI_STORE_ITEMS] = usage->items;
+	data[JNI_STORE_EVICTIONS] = usage->evictions;
+	data[JNI_STORE_MAX_BYTES] = max;
+
+	jsize len = jni_get_array_len(stats);
+	(*env)->SetLongArrayRegion(env, stats, 0, fz_mini(len, JNI_STORE_STATS), data);
+}
+
+/**
+ * Set budget of the shared store.
+ * Zero or less stops documents opened afterwards from sharing the store.
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_setSharedStore(JNIEnv *env, jclass obj, jlong max_bytes)
+{
+	int rc = 0;
+	unsigned int max = max_bytes > UINT_MAX ? UINT_MAX : (unsigned int)max_bytes;
+
+	jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+
+	if (max_bytes <= 0)
+	{
+		if (shared_ctx)
+		{
+			// Documents still open keep their reference to the store
+			fz_locks_context *locks = shared_ctx->locks;
+			fz_free_context(shared_ctx);
+			jni_free_locks(locks);
+			shared_ctx = NULL;
+		}
+	}
+	else if (shared_ctx)
+	{
+		fz_set_store_max(shared_ctx, max);
+	}
+	else
+	{
+		fz_locks_context *locks = jni_new_locks(1);
+		if (locks)
+		{
+			shared_ctx = fz_new_context(NULL, locks, max);
+			if (!shared_ctx)
+			{
+				jni_free_locks(locks);
+			}
+			else if (glyph_max > 0)
+			{
+				fz_set_glyph_cache_max(shared_ctx, glyph_max);
+			}
+		}
+		rc = shared_ctx ? 0 : -1;
+	}
+
+	jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+
+	return rc;
+}
+
+/**
+ * Get store statistics of a document, or of the shared store when handle is zero
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getStoreStats(JNIEnv *env, jclass obj, jlong handle, jlongArray stats)
+{
+	fz_store_usage usage;
+	unsigned int max;
+
+	if (handle == 0)
+	{
+		int found = 0;
+
+		jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+		if (shared_ctx)
+		{
+			max = fz_store_usage_total(shared_ctx, &usage);
+			found = 1;
+		}
+		jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+
+		if (!found)
+		{
+			return -1;
+		}
+	}
+	else
+	{
+		jni_document *doc = jni_get_document(handle);
+
+		if (!doc)
+		{
+			return -1;
+		}
+
+		// Usage of one document is updated under the store lock
+		max = fz_store_usage_total(doc->ctx, &usage);
+		fz_lock(doc->ctx, FZ_LOCK_ALLOC);
+		usage = doc->usage;
+		fz_unlock(doc->ctx, FZ_LOCK_ALLOC);
+	}
+
+	jni_store_stats(env, stats, &usage, max);
+
+	return 0;
+}
+
+/**
+ * Set glyph cache budget of the shared store and of documents opened afterwards
+ */
+JNIEXPORT void JNICALL
+Java_com_jmupdf_JmuPdf_setGlyphCacheSize(JNIEnv *env, jclass obj, jlong max_bytes)
+{
+	jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+
+	glyph_max = max_bytes > UINT_MAX ? UINT_MAX : max_bytes > 0 ? (unsigned int)max_bytes : 0;
+
+	if (shared_ctx && glyph_max > 0)
+	{
+		fz_set_glyph_cache_max(shared_ctx, glyph_max);
+	}
+
+	jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+}
+
+/**
+ * Get glyph cache statistics of a document, or of the shared store when handle is zero
+ */
+JNIEXPORT jint JNICALL
+Java_com_jmupdf_JmuPdf_getGlyphCacheStats(JNIEnv *env, jclass obj, jlong handle, jlongArray stats)
+{
+	fz_glyph_cache_usage usage;
+	jlong data[JNI_GLYPH_STATS];
+
+	if (handle == 0)
+	{
+		int found = 0;
+
+		jni_global_lock(JNI_GLOBAL_LOCK_SHARED);
+		if (shared_ctx)
+		{
+			fz_glyph_cache_usage_total(shared_ctx, &usage);
+			found = 1;
+		}
+		jni_global_unlock(JNI_GLOBAL_LOCK_SHARED);
+
+		if (!found)
+		{
+			return -1;
+		}
+	}
+	else
+	{
+		jni_document *doc = jni_get_document(handle);
+
+		if (!doc)
+		{
+			return -1;
+		}
+
+		fz_glyph_cache_usage_total(doc->ctx, &usage);
+	}
+
+	data[JNI_GLYPH_BYTES] = usage.size;
+	data[JNI_GLYPH_ITEMS] = usage.items;
+	data[JNI_GLYPH_HITS] = usage.hits;
+	data[JNI_GLYPH_MISSES] = usage.misses;
+	data[JNI_GLYPH_EVICTIONS] = usage.evictions;
+	data[JNI_GLYPH_MAX_BYTES] = usage.max;
+
+	jsize len = jni_get_array_len(stats);
+	(*env)->SetLongArrayRegion(env, stats, 0, fz_mini(len, JNI_GLYPH_STATS), data);
+
+	return 0;
+}
@@ -1,102 +1,184 @@
 #include "includes/jmupdf.h"
-#include "bmpfile.h"
 
+// Pixels per meter in one dot per inch
+#define BMP_DPI_FACTOR 39.37007874015748
+
+static inline void little16(unsigned char *buf, unsigned int v)
+{
+	buf[0] = (v) & 0xff;
+	buf[1] = (v >> 8) & 0xff;
+}
+
+static inline void little32(unsigned char *buf, unsigned int v)
+{
+	buf[0] = (v) & 0xff;
+	buf[1] = (v >> 8) & 0xff;
+	buf[2] = (v >> 16) & 0xff;
+	buf[3] = (v >> 24) & 0xff;
+}
+
+/**
+ * Create a BMP image file
+ */
 int jni_write_bmp(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int color)
 {
-	bmpfile_t *bmp;
-	rgb_pixel_t pixel;
-	uint32_t depth;
-	int i, j;
-	unsigned char *pixels = pix->samples;
-	int rc = 0;
+	FILE *fp = fopen(file, "wb");
+
+	if (!fp)
+	{
+		return -1;
+	}
+
+	int rc = jni_output_bmp(ctx, pix, jni_file_write, fp, zoom, color);
+
+	if (fclose(fp) != 0 && rc == 0)
+	{
+		rc = -1;
+	}
+
+	return rc;
+}
+
+/**
+ * Create a BMP image and write it through an output function.
+ *
+ * RGB images are 24 bit, gray scale images are 8 bit with a gray
+ * palette and black and white images are 1 bit. Rows are stored
+ * bottom up, so they are converted one at a time from the end of
+ * the pixmap. Returns 0 upon success, -1 when the output function
+ * fails and -2 upon other errors.
+ */
+int jni_output_bmp(fz_context *ctx, fz_pixmap *pix, jni_write_fn *write, void *user, float zoom, int color)
+{
+	unsigned char head[14 + 40];
+	unsigned char palette[256 * 4];
+	unsigned char *bwbuf = NULL;
+	unsigned char *row;
+	int depth, ncolors, stride, bwstride = 0;
+	int x, y, rc = 0;
 
 	if (color == COLOR_RGB)
 	{
 		depth = 24;
+		ncolors = 0;
 	}
 	else if (color == COLOR_GRAY_SCALE)
 	{
 		depth = 8;
+		ncolors = 256;
 	}
 	else
 	{
 		depth = 1;
+		ncolors = 2;
 	}
 
-	/* control access here */
-	fz_lock(ctx, FZ_LOCK_ALLOC);
-	bmp = bmp_create(pix->w, pix->h, depth);
-	fz_unlock(ctx, FZ_LOCK_ALLOC);
+	// Rows are padded to four bytes
+	stride = ((pix->w * depth + 31) / 32) * 4;
+
+	unsigned int offset = sizeof(head) + ncolors * 4;
+	unsigned int size = stride * pix->h;
+	unsigned int ppm = (unsigned int)(jni_resolution(zoom) * BMP_DPI_FACTOR);
+
+	memset(head, 0, sizeof(head));
+	head[0] = 'B';
+	head[1] = 'M';
+	little32(head+2, offset + size);		// File size
+	little32(head+10, offset);				// Pixel data offset
+	little32(head+14, 40);					// Header size
+	little32(head+18, pix->w);
+	little32(head+22, pix->h);
+	little16(head+26, 1);					// Planes
+	little16(head+28, depth);
+	little32(head+34, size);
+	little32(head+38, ppm);
+	little32(head+42, ppm);
+	little32(head+46, ncolors);
 
-	if (bmp == NULL)
+	for (x = 0; x < ncolors; x++)
 	{
-		return -1;
+		unsigned char v = x * 255 / (ncolors - 1);
+		palette[x*4+0] = v;
+		palette[x*4+1] = v;
+		palette[x*4+2] = v;
+		palette[x*4+3] = 0;
 	}
 
-	bmp_set_dpi(bmp, jni_resolution(zoom), jni_resolution(zoom));
-
-	if (color == COLOR_RGB)
+	if (depth == 1)
 	{
-		for (i=0; i<pix->h; i++)
+		bwstride = (pix->w + 7) >> 3;
+		bwbuf = jni_pool_alloc(bwstride * pix->h);
+		if (!bwbuf)
 		{
-			for (j=0; j<pix->w; j++)
-			{
-				pixel.red = pixels[0];
-				pixel.green = pixels[1];
-				pixel.blue = pixels[2];
-				bmp_set_pixel(bmp, j, i, pixel);
-				pixels += pix->n;
-			}
+			return -2;
+		}
+		rc = jni_pix_to_binary(ctx, pix, color, bwbuf);
+		if (rc != 0)
+		{
+			jni_pool_free(bwbuf);
+			return -2;
 		}
 	}
 
-	else if (color == COLOR_GRAY_SCALE)
+	row = jni_pool_alloc(stride);
+
+	if (!row)
+	{
+		jni_pool_free(bwbuf);
+		return -2;
+	}
+
+	rc = write(user, head, sizeof(head));
+
+	if (rc == 0 && ncolors > 0)
+	{
+		rc = write(user, palette, ncolors * 4);
+	}
+
+	for (y = pix->h - 1; y >= 0 && rc == 0; y--)
 	{
-		for (i=0; i<pix->h; i++)
+		memset(row, 0, stride);
+
+		if (depth == 24)
 		{
-			for (j=0; j<pix->w; j++)
+			unsigned char *s = pix->samples + y * pix->w * pix->n;
+			unsigned char *d = row;
+			for (x = 0; x < pix->w; x++)
 			{
-				pixel.red = pixels[0];
-				pixel.green = pixels[0];
-				pixel.blue = pixels[0];
-				bmp_set_pixel(bmp, j, i, pixel);
-				pixels += pix->n;
+				*d++ = s[2];
+				*d++ = s[1];
+				*d++ = s[0];
+				s += pix->n;
 			}
 		}
-	}
-
-	else if (color == COLOR_BLACK_WHITE || color == COLOR_BLACK_WHITE_DITHER)
-	{
-		unsigned char *trgbuf = (unsigned char*)fz_malloc_no_throw(ctx, pix->w*pix->h);
-		if (trgbuf)
+		else if (depth == 8)
+		{
+			unsigned char *s = pix->samples + y * pix->w * pix->n;
+			for (x = 0; x < pix->w; x++)
+			{
+				row[x] = s[0];
+				s += pix->n;
+			}
+		}
+		else
 		{
-			unsigned char *ptrbuf = trgbuf;
-			int dither = (color == COLOR_BLACK_WHITE_DITHER);
-			rc = jni_pix_to_black_white(ctx, pix, dither, ptrbuf);
-			if (rc == 0)
+			// Binary rows have black bits set, black is the first palette entry
+			unsigned char *s = bwbuf + y * bwstride;
+			for (x = 0; x < bwstride; x++)
 			{
-				ptrbuf = trgbuf;
-				for (i=0; i<pix->h; i++)
-				{
-					for (j=0; j<pix->w; j++)
-					{
-						pixel.red = ptrbuf[0];
-						pixel.green = ptrbuf[0];
-						pixel.blue = ptrbuf[0];
-						bmp_set_pixel(bmp, j, i, pixel);
-						ptrbuf++;
-					}
-				}
+				row[x] = ~s[x];
+			}
+			if (pix->w & 7)
+			{
+				row[bwstride - 1] &= 0xff << (8 - (pix->w & 7));
 			}
-			fz_free(ctx, trgbuf);
 		}
+
+		rc = write(user, row, stride);
 	}
 
-	/* control access here */
-	fz_lock(ctx, FZ_LOCK_ALLOC);
-	bmp_save(bmp, file);
-	bmp_destroy(bmp);
-	fz_unlock(ctx, FZ_LOCK_ALLOC);
+	jni_pool_free(row);
+	jni_pool_free(bwbuf);
 
 	return rc;
 }
@@ -2,89 +2,94 @@
 #include "jpeglib.h"
 
 /**
- *
- * Create a JPEG image format and save to file or byte buffer
- *
- * When *env is passed in we are assuming creation of a byte buffer.
- *
- * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
- * ByteBuffer and avoid getting in the way of the GC due to array pinning.
- *
+ * Destination manager writing through an output function
  */
-void * jni_write_jpg(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int color, int quality)
+typedef struct jni_jpg_dest_s
 {
-	struct jpeg_compress_struct cinfo;
-	struct jpeg_error_mgr jerr;
-
-	FILE *fp = NULL;
-	unsigned char *outbuffer = NULL;
-	long unsigned int outlen = 4096;
+	struct jpeg_destination_mgr pub;
+	jni_write_fn *write;
+	void *user;
+	int err;
+	JOCTET buffer[4096];
+} jni_jpg_dest;
 
-	JSAMPLE *trgbuf = NULL;
-	int stride = pix->w * (pix->n - 1);
-	int size = pix->w * pix->h;
-	int i = 0;
-
-	/*
-	 * Step 1: allocate and initialize JPEG compression object
-	 */
-	cinfo.err = jpeg_std_error(&jerr);
-	jpeg_create_compress(&cinfo);
+static void jni_jpg_init_destination(j_compress_ptr cinfo)
+{
+	jni_jpg_dest *dest = (jni_jpg_dest*)cinfo->dest;
+	dest->pub.next_output_byte = dest->buffer;
+	dest->pub.free_in_buffer = sizeof(dest->buffer);
+}
 
-	/*
-	 * Step 2: specify data destination
-	 */
-	if (env)
+static boolean jni_jpg_empty_output_buffer(j_compress_ptr cinfo)
+{
+	jni_jpg_dest *dest = (jni_jpg_dest*)cinfo->dest;
+	// Once the output fails the rest of the image is dropped
+	if (dest->err == 0)
 	{
-		outbuffer = malloc(outlen);
-		if (!outbuffer)
-			goto cleanup;
-		jpeg_mem_dest(&cinfo, &outbuffer, &outlen);
+		dest->err = dest->write(dest->user, dest->buffer, sizeof(dest->buffer));
 	}
-	else
+	dest->pub.next_output_byte = dest->buffer;
+	dest->pub.free_in_buffer = sizeof(dest->buffer);
+	return TRUE;
+}
+
+static void jni_jpg_term_destination(j_compress_ptr cinfo)
+{
+	jni_jpg_dest *dest = (jni_jpg_dest*)cinfo->dest;
+	int len = sizeof(dest->buffer) - dest->pub.free_in_buffer;
+	if (dest->err == 0 && len > 0)
 	{
-		fp = fopen(file, "wb");
-		if (!fp)
-			goto cleanup;
-		jpeg_stdio_dest(&cinfo, fp);
+		dest->err = dest->write(dest->user, dest->buffer, len);
 	}
+}
+
+/**
+ * Compress pixels to a JPEG destination already set up
+ */
+static int jni_jpg_compress(j_compress_ptr cinfo, fz_pixmap *pix, float zoom, int color, int quality)
+{
+	JSAMPLE *trgbuf = NULL;
+	int stride = pix->w * (pix->n - 1);
+	int size = pix->w * pix->h;
+	int i = 0;
 
 	/*
-	 * Step 3: set parameters for compression
+	 * Set parameters for compression
 	 */
-	cinfo.image_width = pix->w;
-	cinfo.image_height = pix->h;
-	cinfo.input_components = pix->n - 1;
+	cinfo->image_width = pix->w;
+	cinfo->image_height = pix->h;
+	cinfo->input_components = pix->n - 1;
 
 	if (color == COLOR_GRAY_SCALE)
 	{
-		cinfo.in_color_space = JCS_GRAYSCALE;
+		cinfo->in_color_space = JCS_GRAYSCALE;
 	}
 	else
 	{
-		cinfo.in_color_space = JCS_RGB;
+		cinfo->in_color_space = JCS_RGB;
 	}
 
-	jpeg_set_defaults(&cinfo);
-	jpeg_set_quality(&cinfo, quality, TRUE);
+	jpeg_set_defaults(cinfo);
+	jpeg_set_quality(cinfo, quality, TRUE);
 
-	cinfo.X_density = jni_resolution(zoom);
-	cinfo.Y_density = jni_resolution(zoom);;
-	cinfo.density_unit = 1;
+	cinfo->X_density = jni_resolution(zoom);
+	cinfo->Y_density = jni_resolution(zoom);
+	cinfo->density_unit = 1;
 
 	/*
-	 * Step 4: Compression initialization
+	 * Compression initialization
 	 */
-	jpeg_start_compress(&cinfo, TRUE);
+	jpeg_start_compress(cinfo, TRUE);
 
 	/*
-	 * Step 5: Remove alpha from original pixels
+	 * Remove alpha from original pixels
 	 */
-	trgbuf = (JSAMPLE*)fz_malloc_no_throw(ctx, pix->h*stride);
+	trgbuf = (JSAMPLE*)jni_pool_alloc(pix->h*stride);
 
 	if (!trgbuf)
 	{
-		goto cleanup;
+		jpeg_abort_compress(cinfo);
+		return -2;
 	}
 
 	JSAMPLE * ptrbuf = trgbuf;
@@ -110,27 +115,88 @@ void * jni_write_jpg(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, const char *f
 	}
 
 	/*
-	 * Step 6: while (scan lines remain to be written)
+	 * while (scan lines remain to be written)
 	 */
 	JSAMPROW row_pointer[1];
-	while (cinfo.next_scanline < cinfo.image_height)
+	while (cinfo->next_scanline < cinfo->image_height)
 	{
-		row_pointer[0] = &trgbuf[cinfo.next_scanline * stride];
-		jpeg_write_scanlines(&cinfo, row_pointer, 1);
+		row_pointer[0] = &trgbuf[cinfo->next_scanline * stride];
+		jpeg_write_scanlines(cinfo, row_pointer, 1);
 	}
 
-cleanup:
+	/*
+	 * Finish compression
+	 */
+	jpeg_finish_compress(cinfo);
+
+	jni_pool_free(trgbuf);
+
+	return 0;
+}
+
+/**
+ *
+ * Create a JPEG image format and save to file or byte buffer
+ *
+ * When *env is passed in we are assuming creation of a byte buffer.
+ *
+ * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
+ * ByteBuffer and avoid getting in the way of the GC due to array pinning.
+ *
+ */
+void * jni_write_jpg(JNIEnv *env, fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int color, int quality)
+{
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+
+	FILE *fp = NULL;
+	unsigned char *outbuffer = NULL;
+	long unsigned int outlen = 4096;
+	int rc = -2;
+	int i = 0;
 
 	/*
-	 * Step 7: Finish compression
+	 * Step 1: allocate and initialize JPEG compression object
 	 */
-	jpeg_finish_compress(&cinfo);
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+
+	/*
+	 * Step 2: specify data destination
+	 */
+	if (env)
+	{
+		outbuffer = malloc(outlen);
+		if (outbuffer)
+		{
+			jpeg_mem_dest(&cinfo, &outbuffer, &outlen);
+		}
+	}
+	else
+	{
+		fp = fopen(file, "wb");
+		if (fp)
+		{
+			jpeg_stdio_dest(&cinfo, fp);
+		}
+	}
+
+	/*
+	 * Step 3: compress image
+	 */
+	if (outbuffer || fp)
+	{
+		rc = jni_jpg_compress(&cinfo, pix, zoom, color, quality);
+	}
 
 	jbyteArray ba = NULL;
 
 	if (env)
 	{
-		ba = jni_new_byte_array(outlen);
+		if (rc == 0)
+		{
+			ba = jni_new_byte_array(outlen);
+		}
 		if (ba)
 		{
 			jbyte *pa = jni_start_array_critical(ba);
@@ -151,16 +217,56 @@ cleanup:
 	}
 
 	/*
-	 * Step 8: release JPEG compression object
+	 * Step 4: release JPEG compression object
 	 */
 	jpeg_destroy_compress(&cinfo);
 
-	if (trgbuf)
-		fz_free(ctx, trgbuf);
-
 	if (env)
 	{
 		return ba;
 	}
 	return NULL;
 }
+
+/**
+ * Create a JPEG image and write it through an output function.
+ * Compressed data is passed on every 4096 bytes.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_jpg(fz_context *ctx, fz_pixmap *pix, jni_write_fn *write, void *user, float zoom, int color, int quality)
+{
+	struct jpeg_compress_struct cinfo;
+	struct jpeg_error_mgr jerr;
+	jni_jpg_dest *dest;
+	int rc;
+
+	dest = jni_pool_alloc(sizeof(jni_jpg_dest));
+
+	if (!dest)
+	{
+		return -2;
+	}
+
+	cinfo.err = jpeg_std_error(&jerr);
+	jpeg_create_compress(&cinfo);
+
+	dest->pub.init_destination = jni_jpg_init_destination;
+	dest->pub.empty_output_buffer = jni_jpg_empty_output_buffer;
+	dest->pub.term_destination = jni_jpg_term_destination;
+	dest->write = write;
+	dest->user = user;
+	dest->err = 0;
+	cinfo.dest = &dest->pub;
+
+	rc = jni_jpg_compress(&cinfo, pix, zoom, color, quality);
+
+	if (rc == 0)
+	{
+		rc = dest->err;
+	}
+
+	jpeg_destroy_compress(&cinfo);
+	jni_pool_free(dest);
+
+	return rc;
+}
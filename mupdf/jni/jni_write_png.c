@@ -20,24 +20,27 @@ static inline void big32(unsigned char *buf, unsigned int v)
 	buf[3] = (v) & 0xff;
 }
 
-static inline void put32(unsigned int v, FILE *fp)
-{
-	putc(v >> 24, fp);
-	putc(v >> 16, fp);
-	putc(v >> 8, fp);
-	putc(v, fp);
-}
-
-static void putchunk(char *tag, unsigned char *data, int size, FILE *fp)
+/**
+ * Write a chunk through an output function
+ */
+static int jni_put_chunk(jni_write_fn *write, void *user, char *tag, unsigned char *data, int size)
 {
+	unsigned char buf[4];
 	unsigned int sum;
-	put32(size, fp);
-	fwrite(tag, 1, 4, fp);
-	fwrite(data, 1, size, fp);
+
 	sum = crc32(0, NULL, 0);
 	sum = crc32(sum, (unsigned char*)tag, 4);
 	sum = crc32(sum, data, size);
-	put32(sum, fp);
+
+	big32(buf, size);
+	if (write(user, buf, 4) != 0 ||
+		write(user, (unsigned char*)tag, 4) != 0 ||
+		(size > 0 && write(user, data, size) != 0))
+	{
+		return -1;
+	}
+	big32(buf, sum);
+	return write(user, buf, 4);
 }
 
 static int chunksize(int rawsize)
@@ -72,39 +75,202 @@ static int putchunk_buffer(char *tag, unsigned char *data, int size, jbyte *buf,
 	return chunksize(size);
 }
 
+// PNG row filters
+enum
+{
+	PNG_FILTER_NONE = 0,
+	PNG_FILTER_SUB,
+	PNG_FILTER_UP,
+	PNG_FILTER_AVERAGE,
+	PNG_FILTER_PAETH,
+	PNG_FILTERS
+};
+
+// Compression levels from this one pick the filter of every row
+#define PNG_ADAPTIVE_LEVEL 7
+
+// Amount of filtered data deflated by one task
+#define PNG_CHUNK_SIZE (256 * 1024)
+
+// Size of the deflate window used to prime a chunk
+#define PNG_DICT_SIZE 32768
+
 /**
+ * Get a zlib compression level from a quality level
+ */
+static int jni_png_level(int quality)
+{
+	if (quality < 1 || quality > 9)
+	{
+		return 6;
+	}
+	return quality;
+}
+
+/**
+ * Cost of a filtered byte, smaller values compress better
+ */
+static inline int jni_png_cost(int v)
+{
+	v = (signed char)v;
+	return v < 0 ? -v : v;
+}
+
+/**
+ * Paeth predictor
+ */
+static inline int jni_png_paeth(int a, int b, int c)
+{
+	int p = a + b - c;
+	int pa = abs(p - a);
+	int pb = abs(p - b);
+	int pc = abs(p - c);
+
+	if (pa <= pb && pa <= pc)
+	{
+		return a;
+	}
+	if (pb <= pc)
+	{
+		return b;
+	}
+	return c;
+}
+
+/**
+ * Pick the filter of a row with the smallest sum of absolute differences
+ */
+static int jni_png_pick_filter(const unsigned char *cur, const unsigned char *prev, int len, int bpp)
+{
+	unsigned int sum[PNG_FILTERS];
+	int i, filter;
+
+	memset(sum, 0, sizeof(sum));
+
+	for (i = 0; i < bpp; i++)
+	{
+		int x = cur[i];
+		int b = prev[i];
+		sum[PNG_FILTER_NONE] += jni_png_cost(x);
+		sum[PNG_FILTER_SUB] += jni_png_cost(x);
+		sum[PNG_FILTER_UP] += jni_png_cost(x - b);
+		sum[PNG_FILTER_AVERAGE] += jni_png_cost(x - (b >> 1));
+		sum[PNG_FILTER_PAETH] += jni_png_cost(x - b);
+	}
+
+	for (i = bpp; i < len; i++)
+	{
+		int x = cur[i];
+		int a = cur[i-bpp];
+		int b = prev[i];
+		int c = prev[i-bpp];
+		sum[PNG_FILTER_NONE] += jni_png_cost(x);
+		sum[PNG_FILTER_SUB] += jni_png_cost(x - a);
+		sum[PNG_FILTER_UP] += jni_png_cost(x - b);
+		sum[PNG_FILTER_AVERAGE] += jni_png_cost(x - ((a + b) >> 1));
+		sum[PNG_FILTER_PAETH] += jni_png_cost(x - jni_png_paeth(a, b, c));
+	}
+
+	filter = PNG_FILTER_NONE;
+	for (i = 1; i < PNG_FILTERS; i++)
+	{
+		if (sum[i] < sum[filter])
+		{
+			filter = i;
+		}
+	}
+
+	return filter;
+}
+
+/**
+ * Filter a row of len bytes with bpp bytes per pixel.
  *
- * Create a PNG image format and save to file or byte buffer
- *
- * When *env is passed in we are assuming creation of a byte buffer.
- *
- * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
- * ByteBuffer and avoid getting in the way of the GC due to array pinning.
- *
+ * prev holds the row above, all zeros for the first row. The filter type
+ * and the filtered row are written to dp. Rows are filtered with the sub
+ * filter unless adaptive is set, then every row gets the filter that
+ * suits it best.
  */
-void * jni_write_png(JNIEnv *env, fz_context *ctx, fz_pixmap *pixmap, const char *filename, int savealpha, float zoom)
+static void jni_png_filter_row(unsigned char *dp, const unsigned char *cur, const unsigned char *prev, int len, int bpp, int adaptive)
 {
-	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
-	FILE *fp = NULL;
-	unsigned char head[13];
-	unsigned char *udata = NULL;
-	unsigned char *cdata = NULL;
-	unsigned char *sp, *dp;
-	uLong usize, csize;
-	int y, x, k, sn, dn;
-	int color;
-	int err;
+	int filter = adaptive ? jni_png_pick_filter(cur, prev, len, bpp) : PNG_FILTER_SUB;
+	int i;
 
-	fz_var(udata);
-	fz_var(cdata);
+	*dp++ = filter;
 
-	if (pixmap->n != 1 && pixmap->n != 2 && pixmap->n != 4)
-		fz_throw(ctx, "pixmap must be grayscale or rgb to write as png");
+	switch (filter)
+	{
+	case PNG_FILTER_NONE:
+		memcpy(dp, cur, len);
+		break;
+	case PNG_FILTER_SUB:
+		memcpy(dp, cur, bpp);
+		for (i = bpp; i < len; i++)
+			dp[i] = cur[i] - cur[i-bpp];
+		break;
+	case PNG_FILTER_UP:
+		for (i = 0; i < len; i++)
+			dp[i] = cur[i] - prev[i];
+		break;
+	case PNG_FILTER_AVERAGE:
+		for (i = 0; i < bpp; i++)
+			dp[i] = cur[i] - (prev[i] >> 1);
+		for (i = bpp; i < len; i++)
+			dp[i] = cur[i] - ((cur[i-bpp] + prev[i]) >> 1);
+		break;
+	case PNG_FILTER_PAETH:
+		for (i = 0; i < bpp; i++)
+			dp[i] = cur[i] - prev[i];
+		for (i = bpp; i < len; i++)
+			dp[i] = cur[i] - jni_png_paeth(cur[i-bpp], prev[i], prev[i-bpp]);
+		break;
+	}
+}
 
-	sn = pixmap->n;
-	dn = pixmap->n;
-	if (!savealpha && dn > 1)
-		dn--;
+/**
+ * Get the samples of a row without alpha when sn and dn differ
+ */
+static const unsigned char * jni_png_pack_row(unsigned char *row, const unsigned char *sp, int w, int sn, int dn)
+{
+	unsigned char *dp = row;
+	int x, k;
+
+	if (sn == dn)
+	{
+		return sp;
+	}
+
+	for (x = 0; x < w; x++)
+	{
+		for (k = 0; k < dn; k++)
+		{
+			dp[k] = sp[k];
+		}
+		sp += sn;
+		dp += dn;
+	}
+
+	return row;
+}
+
+/**
+ * Write the two byte zlib header of a compression level
+ */
+static void jni_zlib_header(unsigned char *buf, int level)
+{
+	int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+
+	buf[0] = 0x78; /* deflate, 32K window */
+	buf[1] = flevel << 6;
+	buf[1] += 31 - ((buf[0] << 8) + buf[1]) % 31;
+}
+
+/**
+ * Fill the IHDR chunk of an image
+ */
+static void jni_png_header(unsigned char *head, int w, int h, int dn)
+{
+	int color;
 
 	switch (dn)
 	{
@@ -115,135 +281,615 @@ void * jni_write_png(JNIEnv *env, fz_context *ctx, fz_pixmap *pixmap, const char
 	case 4: color = 6; break;
 	}
 
-	usize = (pixmap->w * dn + 1) * pixmap->h;
-	csize = compressBound(usize);
-	fz_try(ctx)
+	big32(head+0, w);
+	big32(head+4, h);
+	head[8] = 8;  /* depth */
+	head[9] = color;
+	head[10] = 0; /* compression */
+	head[11] = 0; /* filter */
+	head[12] = 0; /* interlace */
+}
+
+/**
+ * Fill the pHYs chunk of an image
+ */
+static void jni_png_phys(unsigned char *phys, float zoom)
+{
+	float factor = 0.0254; 	// <= 1 inch = 0.0254 meters
+	float dpi = jni_resolution(zoom);
+	float px = dpi / factor;
+	big32(phys+0, px);		// PixelsPerUnitX
+	big32(phys+4, px);		// PixelsPerUnitY
+	phys[8] = 1;			// PixelUnits 1 = Meters
+}
+
+/**
+ * A run of rows deflated by one task
+ */
+typedef struct jni_png_chunk_s jni_png_chunk;
+struct jni_png_chunk_s
+{
+	int y;
+	int h;
+	unsigned char *cdata;
+	unsigned char *data;
+	uLong csize;
+	uLong adler;
+	int err;
+};
+
+/**
+ * Image shared by the tasks of a parallel PNG encoder
+ */
+typedef struct jni_png_image_s jni_png_image;
+struct jni_png_image_s
+{
+	fz_pixmap *pixmap;
+	int sn;
+	int dn;
+	int level;
+	int adaptive;
+	int rowsize;
+	unsigned char *udata;
+	jni_png_chunk *chunks;
+};
+
+/**
+ * Filter the rows of a chunk
+ */
+static void jni_png_filter_task(void *arg, int index)
+{
+	jni_png_image *img = (jni_png_image*)arg;
+	jni_png_chunk *chunk = &img->chunks[index];
+	fz_pixmap *pix = img->pixmap;
+	int len = pix->w * img->dn;
+	int stride = pix->w * img->sn;
+	unsigned char *row = jni_pool_alloc(len * 2);
+	const unsigned char *cur, *prev;
+	int y, half = 0;
+
+	if (!row)
+	{
+		chunk->err = -1;
+		return;
+	}
+
+	if (chunk->y == 0)
+	{
+		memset(row + len, 0, len);
+		prev = row + len;
+	}
+	else
+	{
+		prev = jni_png_pack_row(row + len, pix->samples + (chunk->y - 1) * stride, pix->w, img->sn, img->dn);
+	}
+
+	for (y = chunk->y; y < chunk->y + chunk->h; y++)
+	{
+		// Rows packed without alpha alternate between the two halves of row
+		cur = jni_png_pack_row(row + half * len, pix->samples + y * stride, pix->w, img->sn, img->dn);
+		jni_png_filter_row(img->udata + y * img->rowsize, cur, prev, len, img->dn, img->adaptive);
+		prev = cur;
+		half ^= 1;
+	}
+
+	jni_pool_free(row);
+}
+
+/**
+ * Deflate the filtered rows of a chunk as a raw deflate stream.
+ *
+ * The stream is primed with the data preceding the chunk and ends on a
+ * byte boundary, so the chunks put one after another form one stream
+ * the same as if the image had been deflated in one go. Room is left for
+ * the zlib header before the data and the checksum after it.
+ */
+static void jni_png_deflate_task(void *arg, int index)
+{
+	jni_png_image *img = (jni_png_image*)arg;
+	jni_png_chunk *chunk = &img->chunks[index];
+	unsigned char *udata = img->udata + chunk->y * img->rowsize;
+	uLong usize = (uLong)chunk->h * img->rowsize;
+	int last = chunk->y + chunk->h == img->pixmap->h;
+	z_stream z;
+	uLong bound;
+
+	if (chunk->err != 0)
+	{
+		return;
+	}
+
+	memset(&z, 0, sizeof(z));
+	if (deflateInit2(&z, img->level, Z_DEFLATED, -15, 8, Z_DEFAULT_STRATEGY) != Z_OK)
+	{
+		chunk->err = -1;
+		return;
+	}
+
+	if (chunk->y > 0)
+	{
+		uLong dict = fz_mini(PNG_DICT_SIZE, chunk->y * img->rowsize);
+		deflateSetDictionary(&z, udata - dict, dict);
+	}
+
+	// A sync flush ends the data with an empty stored block
+	bound = deflateBound(&z, usize) + 16;
+	chunk->cdata = jni_pool_alloc(2 + bound + 4);
+
+	if (!chunk->cdata)
+	{
+		deflateEnd(&z);
+		chunk->err = -1;
+		return;
+	}
+
+	chunk->data = chunk->cdata + 2;
+	z.next_in = udata;
+	z.avail_in = usize;
+	z.next_out = chunk->data;
+	z.avail_out = bound;
+
+	int zrc = deflate(&z, last ? Z_FINISH : Z_SYNC_FLUSH);
+
+	if ((last && zrc != Z_STREAM_END) || (!last && zrc != Z_OK) || z.avail_in != 0)
 	{
-		udata = fz_malloc(ctx, usize);
-		cdata = fz_malloc(ctx, csize);
+		chunk->err = -1;
 	}
-	fz_catch(ctx)
+
+	chunk->csize = bound - z.avail_out;
+	chunk->adler = adler32(adler32(0, NULL, 0), udata, usize);
+
+	deflateEnd(&z);
+}
+
+/**
+ * Free chunks of a parallel PNG encoder
+ */
+static void jni_png_free_chunks(jni_png_chunk *chunks, int count)
+{
+	int i;
+
+	for (i = 0; i < count; i++)
 	{
-		fz_free(ctx, udata);
-		fz_free(ctx, cdata);
+		jni_pool_free(chunks[i].cdata);
+	}
+	jni_pool_free(chunks);
+}
+
+/**
+ * Filter and deflate an image on all processors.
+ *
+ * The image is cut in runs of rows that are filtered and deflated on all
+ * processors. Every run is primed with the window of data before it, so
+ * the result compresses almost as well as one deflate of the whole image.
+ * The zlib header is put before the first run and the checksum after the
+ * last one. Returns the runs, each is written as an IDAT chunk of its own.
+ *
+ * Quality is the zlib compression level, 1 is the fastest. From level
+ * PNG_ADAPTIVE_LEVEL on the best filter of every row is picked.
+ */
+static jni_png_chunk * jni_png_compress(fz_context *ctx, fz_pixmap *pixmap, int savealpha, int quality, int *dn, int *count)
+{
+	jni_png_image img;
+	jni_png_chunk *chunks = NULL;
+	int rows, n, i;
+	uLong adler;
+
+	if (pixmap->n != 1 && pixmap->n != 2 && pixmap->n != 4)
+		fz_throw(ctx, "pixmap must be grayscale or rgb to write as png");
+
+	img.pixmap = pixmap;
+	img.sn = pixmap->n;
+	img.dn = pixmap->n;
+	if (!savealpha && img.dn > 1)
+		img.dn--;
+	img.level = jni_png_level(quality);
+	img.adaptive = img.level >= PNG_ADAPTIVE_LEVEL;
+	img.rowsize = pixmap->w * img.dn + 1;
+
+	rows = fz_maxi(1, PNG_CHUNK_SIZE / img.rowsize);
+	n = (pixmap->h + rows - 1) / rows;
+
+	img.udata = jni_pool_alloc((size_t)img.rowsize * pixmap->h);
+	chunks = jni_pool_alloc(sizeof(jni_png_chunk) * n);
+	if (!img.udata || !chunks)
+	{
+		jni_pool_free(img.udata);
+		jni_pool_free(chunks);
 		fz_throw(ctx, "Could not allocate memory");
 	}
 
-	sp = pixmap->samples;
-	dp = udata;
-	for (y = 0; y < pixmap->h; y++)
+	memset(chunks, 0, sizeof(jni_png_chunk) * n);
+	for (i = 0; i < n; i++)
 	{
-		*dp++ = 1; /* sub prediction filter */
-		for (x = 0; x < pixmap->w; x++)
+		chunks[i].y = i * rows;
+		chunks[i].h = fz_mini(rows, pixmap->h - chunks[i].y);
+	}
+	img.chunks = chunks;
+
+	// Every run needs the filtered data before it, so filter all rows first
+	jni_run_tasks(jni_png_filter_task, &img, n);
+	jni_run_tasks(jni_png_deflate_task, &img, n);
+
+	jni_pool_free(img.udata);
+
+	for (i = 0; i < n; i++)
+	{
+		if (chunks[i].err != 0)
 		{
-			for (k = 0; k < dn; k++)
-			{
-				if (x == 0)
-					dp[k] = sp[k];
-				else
-					dp[k] = sp[k] - sp[k-sn];
-			}
-			sp += sn;
-			dp += dn;
+			jni_png_free_chunks(chunks, n);
+			fz_throw(ctx, "cannot compress image data");
 		}
 	}
 
-	err = compress(cdata, &csize, udata, usize);
-	if (err != Z_OK)
+	adler = chunks[0].adler;
+	for (i = 1; i < n; i++)
+	{
+		adler = adler32_combine(adler, chunks[i].adler, (uLong)chunks[i].h * img.rowsize);
+	}
+
+	// Add zlib header to the first run and checksum to the last one
+	chunks[0].data -= 2;
+	chunks[0].csize += 2;
+	jni_zlib_header(chunks[0].data, img.level);
+	big32(chunks[n-1].data + chunks[n-1].csize, adler);
+	chunks[n-1].csize += 4;
+
+	*dn = img.dn;
+	*count = n;
+
+	return chunks;
+}
+
+/**
+ *
+ * Create a PNG image format and save to file or byte buffer
+ *
+ * When *env is passed in we are assuming creation of a byte buffer.
+ *
+ * To improve performance I am using GetPrimitiveArrayCritical(). Later on we could change this to a
+ * ByteBuffer and avoid getting in the way of the GC due to array pinning.
+ *
+ */
+void * jni_write_png(JNIEnv *env, fz_context *ctx, fz_pixmap *pixmap, const char *filename, int savealpha, float zoom, int quality)
+{
+	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
+	unsigned char head[13];
+	jni_png_chunk *chunks;
+	int count, dn, i;
+
+	if (!env)
 	{
-		fz_free(ctx, udata);
-		fz_free(ctx, cdata);
-		fz_throw(ctx, "cannot compress image data");
+		FILE *fp = fopen(filename, "wb");
+		if (!fp)
+			fz_throw(ctx, "cannot open file '%s': %s", filename, strerror(errno));
+		int rc = jni_output_png(ctx, pixmap, jni_file_write, fp, savealpha, zoom, quality);
+		if (fclose(fp) != 0 || rc != 0)
+			fz_throw(ctx, "cannot write file '%s'", filename);
+		return NULL;
 	}
 
+	chunks = jni_png_compress(ctx, pixmap, savealpha, quality, &dn, &count);
+
 	jbyteArray buf = NULL;
 	jbyte *ptrbuf = NULL;
 
-	if (env)
+	int size = 8 + chunksize(13) + chunksize(9) + chunksize(0);
+	for (i = 0; i < count; i++)
+	{
+		size += chunksize(chunks[i].csize);
+	}
+	buf = jni_new_byte_array(size);
+	if (!buf)
+	{
+		jni_png_free_chunks(chunks, count);
+		fz_throw(ctx, "could not create buffer");
+	}
+	ptrbuf = jni_start_array_critical(buf);
+	if (!ptrbuf)
+	{
+		jni_png_free_chunks(chunks, count);
+		fz_throw(ctx, "could not create buffer");
+	}
+
+	jni_png_header(head, pixmap->w, pixmap->h, dn);
+
+	int offset = 0;
+
+	memcpy(ptrbuf, pngsig, 8);
+	offset += 8;
+	offset += putchunk_buffer("IHDR", head, 13, ptrbuf, offset);
+
+	if (zoom > 0)
+	{
+		unsigned char phys[9];
+		jni_png_phys(phys, zoom);
+		offset += putchunk_buffer("pHYs", phys, 9, ptrbuf, offset);
+	}
+
+	for (i = 0; i < count; i++)
+	{
+		offset += putchunk_buffer("IDAT", chunks[i].data, chunks[i].csize, ptrbuf, offset);
+	}
+
+	offset += putchunk_buffer("IEND", head, 0, ptrbuf, offset);
+	jni_end_array_critical(buf, ptrbuf);
+
+	jni_png_free_chunks(chunks, count);
+
+	return buf;
+}
+
+/**
+ * Create a PNG image and write it through an output function.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_png(fz_context *ctx, fz_pixmap *pixmap, jni_write_fn *write, void *user, int savealpha, float zoom, int quality)
+{
+	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
+	unsigned char head[13];
+	jni_png_chunk *chunks;
+	int count, dn, i;
+	int rc;
+
+	chunks = jni_png_compress(ctx, pixmap, savealpha, quality, &dn, &count);
+
+	jni_png_header(head, pixmap->w, pixmap->h, dn);
+
+	rc = write(user, pngsig, 8);
+
+	if (rc == 0)
+	{
+		rc = jni_put_chunk(write, user, "IHDR", head, 13);
+	}
+
+	if (rc == 0 && zoom > 0)
+	{
+		unsigned char phys[9];
+		jni_png_phys(phys, zoom);
+		rc = jni_put_chunk(write, user, "pHYs", phys, 9);
+	}
+
+	for (i = 0; i < count && rc == 0; i++)
+	{
+		rc = jni_put_chunk(write, user, "IDAT", chunks[i].data, chunks[i].csize);
+	}
+
+	if (rc == 0)
+	{
+		rc = jni_put_chunk(write, user, "IEND", head, 0);
+	}
+
+	jni_png_free_chunks(chunks, count);
+
+	return rc;
+}
+
+/**
+ * Output function for streams written to a FILE
+ */
+int jni_file_write(void *user, const unsigned char *data, int len)
+{
+	if (fwrite(data, 1, len, (FILE*)user) != (size_t)len)
+	{
+		return -1;
+	}
+	return 0;
+}
+
+/**
+ * Streaming PNG writer
+ *
+ * Rows are filtered and deflated as they arrive so only one row of
+ * filtered data and one IDAT chunk of compressed data are held in memory.
+ */
+struct jni_png_stream_s
+{
+	fz_context *ctx;
+	jni_write_fn *write;
+	void *user;
+	z_stream z;
+	unsigned char *udata;
+	unsigned char *cdata;
+	unsigned char *rows;
+	const unsigned char *prev;
+	int w;
+	int h;
+	int sn;
+	int dn;
+	int adaptive;
+	int half;
+	int count;
+	int err;
+};
+
+// Size of the compressed data held before an IDAT chunk is written
+#define PNG_IDAT_SIZE (64 * 1024)
+
+/**
+ * Write a chunk through the output function of a stream
+ */
+static int jni_png_put_chunk(jni_png_stream *png, char *tag, unsigned char *data, int size)
+{
+	return jni_put_chunk(png->write, png->user, tag, data, size);
+}
+
+/**
+ * Deflate pending input and write full IDAT chunks
+ */
+static int jni_png_deflate(jni_png_stream *png, int flush)
+{
+	int zrc;
+
+	do
 	{
-		int size = 8 + chunksize(13) + chunksize(9) + chunksize(csize) + chunksize(0);
-		buf = jni_new_byte_array(size);
-		if (!buf)
+		zrc = deflate(&png->z, flush);
+		if (zrc == Z_STREAM_ERROR)
 		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "could not create buffer");
+			return -1;
 		}
-		ptrbuf = jni_start_array_critical(buf);
-		if (!ptrbuf)
+		if (png->z.avail_out == 0 || (flush == Z_FINISH && png->z.avail_out < PNG_IDAT_SIZE))
 		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "could not create buffer");
+			if (jni_png_put_chunk(png, "IDAT", png->cdata, PNG_IDAT_SIZE - png->z.avail_out) != 0)
+			{
+				return -1;
+			}
+			png->z.next_out = png->cdata;
+			png->z.avail_out = PNG_IDAT_SIZE;
 		}
 	}
-	else
+	while (png->z.avail_in > 0 || (flush == Z_FINISH && zrc != Z_STREAM_END));
+
+	return 0;
+}
+
+/**
+ * Start a PNG image of w x h pixels with n components per pixel
+ * and write its header. Quality is the zlib compression level.
+ * Returns NULL upon failure.
+ */
+jni_png_stream * jni_png_begin(fz_context *ctx, jni_write_fn *write, void *user, int w, int h, int n, int savealpha, float zoom, int quality)
+{
+	int level = jni_png_level(quality);
+	static const unsigned char pngsig[8] = { 137, 80, 78, 71, 13, 10, 26, 10 };
+	unsigned char head[13];
+	jni_png_stream *png;
+
+	if (n != 1 && n != 2 && n != 4)
 	{
-		fp = fopen(filename, "wb");
-		if (!fp)
-		{
-			fz_free(ctx, udata);
-			fz_free(ctx, cdata);
-			fz_throw(ctx, "cannot open file '%s': %s", filename, strerror(errno));
-		}
+		return NULL;
 	}
 
-	big32(head+0, pixmap->w);
-	big32(head+4, pixmap->h);
-	head[8] = 8;  /* depth */
-	head[9] = color;
-	head[10] = 0; /* compression */
-	head[11] = 0; /* filter */
-	head[12] = 0; /* interlace */
+	png = jni_pool_alloc(sizeof(jni_png_stream));
 
-	int offset = 0;
+	if (!png)
+	{
+		return NULL;
+	}
 
-	if (env)
+	memset(png, 0, sizeof(jni_png_stream));
+	png->ctx = ctx;
+	png->write = write;
+	png->user = user;
+	png->w = w;
+	png->h = h;
+	png->sn = n;
+	png->dn = n;
+	if (!savealpha && png->dn > 1)
 	{
-		memcpy(ptrbuf, pngsig, 8);
-		offset += 8;
-		offset += putchunk_buffer("IHDR", head, 13, ptrbuf, offset);
+		png->dn--;
 	}
-	else
+
+	png->adaptive = level >= PNG_ADAPTIVE_LEVEL;
+	png->udata = jni_pool_alloc(w * png->dn + 1);
+	png->cdata = jni_pool_alloc(PNG_IDAT_SIZE);
+	png->rows = jni_pool_alloc(w * png->dn * 3);
+
+	if (!png->udata || !png->cdata || !png->rows || deflateInit(&png->z, level) != Z_OK)
 	{
-		fwrite(pngsig, 1, 8, fp);
-		putchunk("IHDR", head, 13, fp);
+		jni_pool_free(png->udata);
+		jni_pool_free(png->cdata);
+		jni_pool_free(png->rows);
+		jni_pool_free(png);
+		return NULL;
 	}
 
-	if (zoom > 0)
+	// The row above the first row is all zeros
+	memset(png->rows + w * png->dn * 2, 0, w * png->dn);
+	png->prev = png->rows + w * png->dn * 2;
+
+	png->z.next_out = png->cdata;
+	png->z.avail_out = PNG_IDAT_SIZE;
+
+	jni_png_header(head, w, h, png->dn);
+
+	png->err = write(user, pngsig, 8);
+
+	if (png->err == 0)
+	{
+		png->err = jni_png_put_chunk(png, "IHDR", head, 13);
+	}
+
+	if (png->err == 0 && zoom > 0)
 	{
 		unsigned char phys[9];
-		float factor = 0.0254; 	// <= 1 inch = 0.0254 meters
-		float dpi = jni_resolution(zoom);
-		float px = dpi / factor;
-		big32(phys+0, px);		// PixelsPerUnitX
-		big32(phys+4, px);		// PixelsPerUnitY
-		phys[8] = 1;			// PixelUnits 1 = Meters
-		if (env)
-			offset += putchunk_buffer("pHYs", phys, 9, ptrbuf, offset);
-		else
-			putchunk("pHYs", phys, 9, fp);
+		jni_png_phys(phys, zoom);
+		png->err = jni_png_put_chunk(png, "pHYs", phys, 9);
+	}
+
+	return png;
+}
+
+/**
+ * Append the rows of a band to a PNG image
+ */
+int jni_png_write_band(jni_png_stream *png, fz_pixmap *band)
+{
+	unsigned char *sp = band->samples;
+	const unsigned char *cur;
+	int y;
+	int sn = png->sn;
+	int dn = png->dn;
+	int len = png->w * dn;
+
+	if (png->err != 0 || band->w != png->w || band->n != sn || png->count + band->h > png->h)
+	{
+		return -1;
 	}
 
-	if (env)
+	for (y = 0; y < band->h && png->err == 0; y++)
 	{
-		offset += putchunk_buffer("IDAT", cdata, csize, ptrbuf, offset);
-		offset += putchunk_buffer("IEND", head, 0, ptrbuf, offset);
-		jni_end_array_critical(buf, ptrbuf);
+		// The row above may be in the previous band, rows without alpha are kept
+		cur = jni_png_pack_row(png->rows + png->half * len, sp, png->w, sn, dn);
+		if (sn == dn && y == band->h - 1)
+		{
+			memcpy(png->rows + png->half * len, cur, len);
+			cur = png->rows + png->half * len;
+		}
+		jni_png_filter_row(png->udata, cur, png->prev, len, dn, png->adaptive);
+		png->prev = cur;
+		png->half ^= 1;
+		sp += png->w * sn;
+		png->z.next_in = png->udata;
+		png->z.avail_in = len + 1;
+		png->err = jni_png_deflate(png, Z_NO_FLUSH);
 	}
-	else
+
+	png->count += band->h;
+
+	return png->err;
+}
+
+/**
+ * Finish a PNG image and free the stream.
+ * Fails if fewer rows than announced were written.
+ */
+int jni_png_end(jni_png_stream *png)
+{
+	int rc = png->err;
+
+	if (rc == 0 && png->count != png->h)
 	{
-		putchunk("IDAT", cdata, csize, fp);
-		putchunk("IEND", head, 0, fp);
-		fclose(fp);
+		rc = -1;
 	}
 
-	fz_free(ctx, udata);
-	fz_free(ctx, cdata);
+	if (rc == 0)
+	{
+		png->z.next_in = NULL;
+		png->z.avail_in = 0;
+		rc = jni_png_deflate(png, Z_FINISH);
+	}
 
-	if (env)
+	if (rc == 0)
 	{
-		return buf;
+		rc = jni_png_put_chunk(png, "IEND", png->cdata, 0);
 	}
-	return NULL;
+
+	deflateEnd(&png->z);
+	jni_pool_free(png->udata);
+	jni_pool_free(png->cdata);
+	jni_pool_free(png->rows);
+	jni_pool_free(png);
+
+	return rc;
 }
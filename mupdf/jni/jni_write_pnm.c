@@ -0,0 +1,159 @@
+#include "includes/jmupdf.h"
+
+/**
+ * Write a text header through an output function
+ */
+static int jni_put_header(jni_write_fn *write, void *user, const char *fmt, ...)
+{
+	char head[256];
+	va_list args;
+	int len;
+
+	va_start(args, fmt);
+	len = vsnprintf(head, sizeof(head), fmt, args);
+	va_end(args);
+
+	if (len < 0 || len >= sizeof(head))
+	{
+		return -2;
+	}
+
+	return write(user, (unsigned char*)head, len);
+}
+
+/**
+ * Write pixmap rows of dn components through an output function,
+ * dropping the components after dn. A row is converted at a time.
+ */
+static int jni_put_rows(fz_pixmap *pix, jni_write_fn *write, void *user, int dn)
+{
+	unsigned char *sp = pix->samples;
+	unsigned char *row;
+	int sn = pix->n;
+	int x, y, k;
+	int rc = 0;
+
+	if (sn == dn)
+	{
+		return write(user, sp, pix->w * pix->h * sn);
+	}
+
+	row = jni_pool_alloc(pix->w * dn);
+
+	if (!row)
+	{
+		return -2;
+	}
+
+	for (y = 0; y < pix->h && rc == 0; y++)
+	{
+		unsigned char *dp = row;
+		for (x = 0; x < pix->w; x++)
+		{
+			for (k = 0; k < dn; k++)
+			{
+				*dp++ = sp[k];
+			}
+			sp += sn;
+		}
+		rc = write(user, row, pix->w * dn);
+	}
+
+	jni_pool_free(row);
+
+	return rc;
+}
+
+/**
+ * Create a PNM image and write it through an output function.
+ * The image is the same as the one fz_write_pnm() creates.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_pnm(fz_context *ctx, fz_pixmap *pix, jni_write_fn *write, void *user)
+{
+	if (pix->n != 1 && pix->n != 2 && pix->n != 4)
+	{
+		return -2;
+	}
+
+	int rc = jni_put_header(write, user, "%s\n%d %d\n255\n", pix->n == 4 ? "P6" : "P5", pix->w, pix->h);
+
+	if (rc == 0)
+	{
+		rc = jni_put_rows(pix, write, user, pix->n == 4 ? 3 : 1);
+	}
+
+	return rc;
+}
+
+/**
+ * Create a PAM image and write it through an output function.
+ * The image is the same as the one fz_write_pam() creates.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_pam(fz_context *ctx, fz_pixmap *pix, jni_write_fn *write, void *user, int savealpha)
+{
+	char *tupltype = NULL;
+	int sn = pix->n;
+	int dn = pix->n;
+	int rc;
+
+	if (!savealpha && dn > 1)
+	{
+		dn--;
+	}
+
+	switch (dn)
+	{
+	case 1: tupltype = "GRAYSCALE"; break;
+	case 2: if (sn == 2) tupltype = "GRAYSCALE_ALPHA"; break;
+	case 3: if (sn == 4) tupltype = "RGB"; break;
+	case 4: if (sn == 4) tupltype = "RGB_ALPHA"; break;
+	}
+
+	rc = jni_put_header(write, user, "P7\nWIDTH %d\nHEIGHT %d\nDEPTH %d\nMAXVAL 255\n", pix->w, pix->h, dn);
+
+	if (rc == 0 && pix->colorspace)
+	{
+		rc = jni_put_header(write, user, "# COLORSPACE %s\n", pix->colorspace->name);
+	}
+
+	if (rc == 0 && tupltype)
+	{
+		rc = jni_put_header(write, user, "TUPLTYPE %s\n", tupltype);
+	}
+
+	if (rc == 0)
+	{
+		rc = jni_put_header(write, user, "ENDHDR\n");
+	}
+
+	if (rc == 0)
+	{
+		rc = jni_put_rows(pix, write, user, dn);
+	}
+
+	return rc;
+}
+
+/**
+ * Create a PBM image and write it through an output function.
+ * The image is the same as the one fz_write_pbm() creates.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_pbm(fz_context *ctx, fz_bitmap *bit, jni_write_fn *write, void *user)
+{
+	unsigned char *p = bit->samples;
+	int bytestride = (bit->w + 7) >> 3;
+	int h;
+
+	int rc = jni_put_header(write, user, "P4\n%d %d\n", bit->w, bit->h);
+
+	for (h = 0; h < bit->h && rc == 0; h++)
+	{
+		rc = write(user, p, bytestride);
+		p += bit->stride;
+	}
+
+	return rc;
+}
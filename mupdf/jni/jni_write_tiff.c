@@ -35,13 +35,146 @@
  */
 
 /**
- * Create a new single page or multi-page TIF image
+ * Growable memory file for TIF images written to a stream.
+ *
+ * libtiff seeks back to link the image directory once the image
+ * data is written, so the file is built in memory first.
+ */
+typedef struct jni_tif_mem_s
+{
+	unsigned char *data;
+	toff_t len;
+	toff_t cap;
+	toff_t pos;
+} jni_tif_mem;
+
+static tsize_t jni_tif_mem_read(thandle_t h, tdata_t buf, tsize_t size)
+{
+	jni_tif_mem *mem = (jni_tif_mem*)h;
+	if (mem->pos >= mem->len)
+	{
+		return 0;
+	}
+	if (size > mem->len - mem->pos)
+	{
+		size = mem->len - mem->pos;
+	}
+	memcpy(buf, mem->data + mem->pos, size);
+	mem->pos += size;
+	return size;
+}
+
+static tsize_t jni_tif_mem_write(thandle_t h, tdata_t buf, tsize_t size)
+{
+	jni_tif_mem *mem = (jni_tif_mem*)h;
+	if (mem->pos + size > mem->cap)
+	{
+		toff_t cap = fz_maxi(64 * 1024, mem->cap * 2);
+		while (cap < mem->pos + size)
+		{
+			cap *= 2;
+		}
+		unsigned char *data = realloc(mem->data, cap);
+		if (!data)
+		{
+			return -1;
+		}
+		mem->data = data;
+		mem->cap = cap;
+	}
+	// Seeks past the end leave a gap of zeros
+	if (mem->pos > mem->len)
+	{
+		memset(mem->data + mem->len, 0, mem->pos - mem->len);
+	}
+	memcpy(mem->data + mem->pos, buf, size);
+	mem->pos += size;
+	if (mem->pos > mem->len)
+	{
+		mem->len = mem->pos;
+	}
+	return size;
+}
+
+static toff_t jni_tif_mem_seek(thandle_t h, toff_t off, int whence)
+{
+	jni_tif_mem *mem = (jni_tif_mem*)h;
+	switch (whence)
+	{
+	case SEEK_SET: mem->pos = off; break;
+	case SEEK_CUR: mem->pos += off; break;
+	case SEEK_END: mem->pos = mem->len + off; break;
+	}
+	return mem->pos;
+}
+
+static int jni_tif_mem_close(thandle_t h)
+{
+	return 0;
+}
+
+static toff_t jni_tif_mem_size(thandle_t h)
+{
+	return ((jni_tif_mem*)h)->len;
+}
+
+static int jni_tif_mem_map(thandle_t h, tdata_t *base, toff_t *size)
+{
+	return 0;
+}
+
+static void jni_tif_mem_unmap(thandle_t h, tdata_t base, toff_t size)
+{
+}
+
+/**
+ * Set tags of the current TIF image
  *
  */
-static int write_tif(unsigned char *pixels, const char *file, int mode,
+static void set_tif_tags(TIFF *image, int quality, int compression, int photometric,
+			 float resolution, int bitspersample, int samplesperpixel,
+			 int w, int h, int rowsperstrip)
+{
+	TIFFSetField(image, TIFFTAG_ORIENTATION, ORIENTATION_TOPLEFT);
+	TIFFSetField(image, TIFFTAG_PHOTOMETRIC, photometric);
+	TIFFSetField(image, TIFFTAG_PLANARCONFIG, PLANARCONFIG_CONTIG);
+	TIFFSetField(image, TIFFTAG_BITSPERSAMPLE, bitspersample);
+	TIFFSetField(image, TIFFTAG_IMAGEWIDTH, w);
+	TIFFSetField(image, TIFFTAG_IMAGELENGTH, h);
+	TIFFSetField(image, TIFFTAG_SAMPLESPERPIXEL, samplesperpixel);
+	TIFFSetField(image, TIFFTAG_ROWSPERSTRIP, rowsperstrip);
+	TIFFSetField(image, TIFFTAG_COMPRESSION, compression);
+	TIFFSetField(image, TIFFTAG_XRESOLUTION, resolution);
+	TIFFSetField(image, TIFFTAG_YRESOLUTION, resolution);
+	TIFFSetField(image, TIFFTAG_FILLORDER, FILLORDER_MSB2LSB);
+	TIFFSetField(image, TIFFTAG_RESOLUTIONUNIT, RESUNIT_INCH);
+
+	// Note: quality level is on the IJG 0-100 scale.
+	// Default value is 75
+	if (compression == COMPRESSION_JPEG)
+	{
+		TIFFSetField(image, TIFFTAG_JPEGQUALITY, quality);
+	}
+
+	// Note: quality level is on the ZLIB 1-9 scale.
+	// Default value is 6
+	if (compression == COMPRESSION_ADOBE_DEFLATE)
+	{
+		TIFFSetField(image, TIFFTAG_ZIPQUALITY, quality);
+	}
+
+	TIFFSetField(image, TIFFTAG_ARTIST, "Created by JMuPdf");
+}
+
+/**
+ * Open a TIF image and set its tags.
+ * The image is created in memory when mem is not NULL.
+ *
+ */
+static TIFF * open_tif(const char *file, jni_tif_mem *mem, int mode,
 		     int quality, int compression, int photometric,
 		     float resolution, int bitspersample, int samplesperpixel,
-		     size_t size, int w, int h)
+		     int w, int h, int rowsperstrip)
 {
 
 	TIFF *image = NULL;
@@ -72,7 +205,13 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 	 *     TODO: Should probably make this a flag user can control
 	 */
 	int r = 0;
-	while (r < 500)
+	if (mem)
+	{
+		image = TIFFClientOpen("jmupdf", "w", (thandle_t)mem,
+							   jni_tif_mem_read, jni_tif_mem_write, jni_tif_mem_seek, jni_tif_mem_close,
+							   jni_tif_mem_size, jni_tif_mem_map, jni_tif_mem_unmap);
+	}
+	while (!mem && r < 500)
 	{
 		image = TIFF_OPEN(file, cmode);
 		if (image) 	break;
@@ -82,39 +221,33 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 
 	if (!image)
 	{
-		return -1;
+		return NULL;
 	}
 
-	TIFFSetField(image, TIFFTAG_ORIENTATION, ORIENTATION_TOPLEFT);
-	TIFFSetField(image, TIFFTAG_PHOTOMETRIC, photometric);
-	TIFFSetField(image, TIFFTAG_PLANARCONFIG, PLANARCONFIG_CONTIG);
-	TIFFSetField(image, TIFFTAG_BITSPERSAMPLE, bitspersample);
-	TIFFSetField(image, TIFFTAG_IMAGEWIDTH, w);
-	TIFFSetField(image, TIFFTAG_IMAGELENGTH, h);
-	TIFFSetField(image, TIFFTAG_SAMPLESPERPIXEL, samplesperpixel);
-	TIFFSetField(image, TIFFTAG_ROWSPERSTRIP, h);
-	TIFFSetField(image, TIFFTAG_COMPRESSION, compression);
-	TIFFSetField(image, TIFFTAG_XRESOLUTION, resolution);
-	TIFFSetField(image, TIFFTAG_YRESOLUTION, resolution);
-	TIFFSetField(image, TIFFTAG_FILLORDER, FILLORDER_MSB2LSB);
-	TIFFSetField(image, TIFFTAG_RESOLUTIONUNIT, RESUNIT_INCH);
+	set_tif_tags(image, quality, compression, photometric, resolution,
+				 bitspersample, samplesperpixel, w, h, rowsperstrip);
 
-	// Note: quality level is on the IJG 0-100 scale.
-	// Default value is 75
-	if (compression == COMPRESSION_JPEG)
-	{
-		TIFFSetField(image, TIFFTAG_JPEGQUALITY, quality);
-	}
+	return image;
+}
 
-	// Note: quality level is on the ZLIB 1-9 scale.
-	// Default value is 6
-	if (compression == COMPRESSION_ADOBE_DEFLATE)
+/**
+ * Create a new single page or multi-page TIF image
+ *
+ */
+static int write_tif(unsigned char *pixels, const char *file, jni_tif_mem *mem, int mode,
+		     int quality, int compression, int photometric,
+		     float resolution, int bitspersample, int samplesperpixel,
+		     size_t size, int w, int h)
+{
+
+	TIFF *image = open_tif(file, mem, mode, quality, compression, photometric,
+						   resolution, bitspersample, samplesperpixel, w, h, h);
+
+	if (!image)
 	{
-		TIFFSetField(image, TIFFTAG_ZIPQUALITY, quality);
+		return -1;
 	}
 
-	TIFFSetField(image, TIFFTAG_ARTIST, "Created by JMuPdf");
-
 	// Write the information to the file
 	tsize_t rc = TIFFWriteEncodedStrip(image, 0, pixels, size);
 
@@ -133,78 +266,71 @@ static int write_tif(unsigned char *pixels, const char *file, int mode,
 
 
 /**
- * Create a new single page or multi-page TIF image
- *
+ * Layout of the samples of a TIF image
  */
-int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int compression, int color, int mode, int quality)
+typedef struct jni_tif_layout_s
 {
-	int ccitt = 0;
-	int samplesperpixel = 1;
-	int bitspersample = 1;
-	int photometric = 0;
-	int length = pix->w * pix->h;
-	int savealpha = (color == COLOR_ARGB);
-	float resolution = jni_resolution(zoom);
+	int ccitt;
+	int samplesperpixel;
+	int bitspersample;
+	int photometric;
 	size_t size;
+} jni_tif_layout;
+
+/**
+ * Get layout of a w x h TIF image made from pixels of n components
+ */
+static void jni_tif_get_layout(int w, int h, int n, int compression, int color, jni_tif_layout *l)
+{
+	l->ccitt = 0;
 
  	if (compression == COMPRESSION_CCITTRLE || compression == COMPRESSION_CCITTRLEW ||
 	    compression == COMPRESSION_CCITT_T4 || compression == COMPRESSION_CCITT_T6)
 	{
-		ccitt = 1;
-		samplesperpixel = 1;
-		photometric = PHOTOMETRIC_MINISWHITE;
-		size = ((pix->w + 7) / 8) * pix->h;
-		bitspersample = 1;
+		l->ccitt = 1;
+		l->samplesperpixel = 1;
+		l->photometric = PHOTOMETRIC_MINISWHITE;
+		l->size = (size_t)((w + 7) / 8) * h;
+		l->bitspersample = 1;
 	}
 	else
 	{
 		if (color == COLOR_RGB || color == COLOR_ARGB)
 		{
-			samplesperpixel = pix->n;
-			photometric = PHOTOMETRIC_RGB;
-			if (!savealpha)
+			l->samplesperpixel = n;
+			l->photometric = PHOTOMETRIC_RGB;
+			if (color != COLOR_ARGB)
 			{
-				--samplesperpixel;
+				--l->samplesperpixel;
 			}
 		}
 		else
 		{
-			samplesperpixel = 1;
-			photometric = PHOTOMETRIC_MINISBLACK;
+			l->samplesperpixel = 1;
+			l->photometric = PHOTOMETRIC_MINISBLACK;
 		}
-		size = length * samplesperpixel;
-		bitspersample = 8;
+		l->size = (size_t)w * h * l->samplesperpixel;
+		l->bitspersample = 8;
 	}
+}
 
-	//
-	// --------------
-	//
-
+/**
+ * Convert pixels to the samples of a TIF image
+ */
+static int jni_tif_pack(fz_context *ctx, fz_pixmap *pix, int color, int ccitt, unsigned char *trgbuf)
+{
 	unsigned char *pixels = pix->samples;
-
-	if (color == COLOR_ARGB)
-	{
-		return write_tif(pixels, file, mode, quality,
-				        compression, photometric, resolution, bitspersample,
-				        samplesperpixel, size, pix->w, pix->h);
-	}
-
-	//
-	// --------------
-	//
-
+	unsigned char *ptrbuf = trgbuf;
+	int length = pix->w * pix->h;
 	int i = 0;
 	int rc = 0;
-	unsigned char *trgbuf = (unsigned char*)fz_malloc_no_throw(ctx, size);
 
-	if (!trgbuf)
+	if (color == COLOR_ARGB)
 	{
-		return -3;
+		memcpy(trgbuf, pixels, (size_t)length * pix->n);
 	}
 
-	unsigned char *ptrbuf = trgbuf;
-
-	if (color == COLOR_RGB)
+	else if (color == COLOR_RGB)
 	{
 		for (i=0; i<length; i++)
 		{
@@ -224,28 +350,388 @@ int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom,
 		}
 	}
 
-	else if (color == COLOR_BLACK_WHITE ||
-			 color == COLOR_BLACK_WHITE_DITHER)
+	else if (jni_is_bilevel(color))
 	{
-		int dither = (color == COLOR_BLACK_WHITE_DITHER);
 		if (ccitt == 1)
 		{
-			rc = jni_pix_to_binary(ctx, pix, dither, ptrbuf);
+			rc = jni_pix_to_binary(ctx, pix, color, ptrbuf);
 		}
 		else
 		{
-			rc = jni_pix_to_black_white(ctx, pix, dither, ptrbuf);
+			rc = jni_pix_to_black_white(ctx, pix, color, ptrbuf, pix->w);
 		}
 	}
 
+	return rc;
+}
+
+/**
+ * Create a new single page or multi-page TIF image in a file or in memory
+ *
+ */
+static int jni_tif_encode(fz_context *ctx, fz_pixmap *pix, const char *file, jni_tif_mem *mem, float zoom, int compression, int color, int mode, int quality)
+{
+	jni_tif_layout l;
+	float resolution = jni_resolution(zoom);
+
+	jni_tif_get_layout(pix->w, pix->h, pix->n, compression, color, &l);
+
+	if (color == COLOR_ARGB)
+	{
+		return write_tif(pix->samples, file, mem, mode, quality,
+				        compression, l.photometric, resolution, l.bitspersample,
+				        l.samplesperpixel, l.size, pix->w, pix->h);
+	}
+
+	int rc = 0;
+	unsigned char *trgbuf = (unsigned char*)jni_pool_alloc(l.size);
+
+	if (!trgbuf)
+	{
+		return -3;
+	}
+
+	rc = jni_tif_pack(ctx, pix, color, l.ccitt, trgbuf);
+
 	if (rc == 0)
 	{
-		rc = write_tif(trgbuf, file, mode, quality,
-					  compression, photometric, resolution, bitspersample,
-					  samplesperpixel, size, pix->w, pix->h);
+		rc = write_tif(trgbuf, file, mem, mode, quality,
+					  compression, l.photometric, resolution, l.bitspersample,
+					  l.samplesperpixel, l.size, pix->w, pix->h);
+	}
+
+	jni_pool_free(trgbuf);
+
+	return rc;
+}
+
+/**
+ * Create a new single page or multi-page TIF image
+ *
+ */
+int jni_write_tif(fz_context *ctx, fz_pixmap *pix, const char *file, float zoom, int compression, int color, int mode, int quality)
+{
+	return jni_tif_encode(ctx, pix, file, NULL, zoom, compression, color, mode, quality);
+}
+
+/**
+ * Create a single page TIF image and write it through an output function.
+ * Returns 0 upon success, -1 when the output function fails.
+ */
+int jni_output_tif(fz_context *ctx, fz_pixmap *pix, jni_write_fn *write, void *user, float zoom, int compression, int color, int quality)
+{
+	jni_tif_mem mem;
+
+	memset(&mem, 0, sizeof(jni_tif_mem));
+
+	int rc = jni_tif_encode(ctx, pix, NULL, &mem, zoom, compression, color, 0, quality);
+
+	if (rc == 0)
+	{
+		rc = write(user, mem.data, mem.len);
+	}
+
+	free(mem.data);
+
+	return rc;
+}
+
+/**
+ * Streaming TIF writer
+ *
+ * Every band is converted and written as one strip so only the
+ * current band is held in memory.
+ */
+struct jni_tif_stream_s
+{
+	fz_context *ctx;
+	TIFF *image;
+	unsigned char *trgbuf;
+	int w;
+	int h;
+	int n;
+	int rowsperstrip;
+	int color;
+	int ccitt;
+	jni_bilevel *bilevel;
+	int strip;
+	int rows;
+	int err;
+};
+
+/**
+ * Start a TIF image of w x h pixels with n components per pixel.
+ * Bands passed to jni_tif_write_band() must be rowsperstrip high,
+ * except for the last one. Returns NULL upon failure.
+ */
+jni_tif_stream * jni_tif_begin(fz_context *ctx, const char *file, int w, int h, int n, int rowsperstrip, float zoom, int compression, int color, int mode, int quality)
+{
+	jni_tif_stream *tif;
+	int samplesperpixel = 1;
+	int bitspersample = 8;
+	int photometric = PHOTOMETRIC_MINISBLACK;
+	size_t size;
+
+	tif = jni_pool_alloc(sizeof(jni_tif_stream));
+
+	if (!tif)
+	{
+		return NULL;
+	}
+
+	memset(tif, 0, sizeof(jni_tif_stream));
+	tif->ctx = ctx;
+	tif->w = w;
+	tif->h = h;
+	tif->n = n;
+	tif->rowsperstrip = rowsperstrip;
+	tif->color = color;
+
+	if (compression == COMPRESSION_CCITTRLE || compression == COMPRESSION_CCITTRLEW ||
+	    compression == COMPRESSION_CCITT_T4 || compression == COMPRESSION_CCITT_T6)
+	{
+		tif->ccitt = 1;
+		photometric = PHOTOMETRIC_MINISWHITE;
+		bitspersample = 1;
+		size = ((w + 7) / 8) * rowsperstrip;
+	}
+	else
+	{
+		if (color == COLOR_RGB || color == COLOR_ARGB)
+		{
+			samplesperpixel = n;
+			photometric = PHOTOMETRIC_RGB;
+			if (color != COLOR_ARGB)
+			{
+				--samplesperpixel;
+			}
+		}
+		size = w * rowsperstrip * samplesperpixel;
+	}
+
+	tif->trgbuf = jni_pool_alloc(size);
+
+	if (!tif->trgbuf)
+	{
+		jni_pool_free(tif);
+		return NULL;
+	}
+
+	// Converts black and white bands, dithering goes on from one band to the next
+	tif->bilevel = jni_new_bilevel(color, w);
+
+	if (!tif->bilevel)
+	{
+		jni_pool_free(tif->trgbuf);
+		jni_pool_free(tif);
+		return NULL;
+	}
+
+	tif->image = open_tif(file, NULL, mode, quality, compression, photometric, jni_resolution(zoom),
+						  bitspersample, samplesperpixel, w, h, rowsperstrip);
+
+	if (!tif->image)
+	{
+		jni_free_bilevel(tif->bilevel);
+		jni_pool_free(tif->trgbuf);
+		jni_pool_free(tif);
+		return NULL;
+	}
+
+	return tif;
+}
+
+/**
+ * Append a band to a TIF image as its next strip
+ */
+int jni_tif_write_band(jni_tif_stream *tif, fz_pixmap *band)
+{
+	unsigned char *pixels = band->samples;
+	unsigned char *ptrbuf = tif->trgbuf;
+	int length = band->w * band->h;
+	size_t size;
+	int i;
+
+	if (tif->err != 0 || band->w != tif->w || band->n != tif->n ||
+		band->h > tif->rowsperstrip || tif->rows + band->h > tif->h)
+	{
+		return -1;
+	}
+
+	if (tif->ccitt == 1)
+	{
+		size = ((band->w + 7) / 8) * band->h;
+		tif->err = jni_bilevel_convert(tif->bilevel, band, 1, ptrbuf, (band->w + 7) / 8);
+	}
+	else if (tif->color == COLOR_ARGB)
+	{
+		size = length * band->n;
+		ptrbuf = pixels;
+	}
+	else if (tif->color == COLOR_RGB)
+	{
+		size = length * 3;
+		for (i=0; i<length; i++)
+		{
+			*ptrbuf++ = pixels[0];
+			*ptrbuf++ = pixels[1];
+			*ptrbuf++ = pixels[2];
+			pixels += band->n;
+		}
+		ptrbuf = tif->trgbuf;
+	}
+	else if (tif->color == COLOR_GRAY_SCALE)
+	{
+		size = length;
+		for (i=0; i<length; i++)
+		{
+			*ptrbuf++ = pixels[0];
+			pixels += band->n;
+		}
+		ptrbuf = tif->trgbuf;
+	}
+	else
+	{
+		size = length;
+		tif->err = jni_bilevel_convert(tif->bilevel, band, 0, ptrbuf, band->w);
+	}
+
+	if (tif->err == 0 && TIFFWriteEncodedStrip(tif->image, tif->strip, ptrbuf, size) < 0)
+	{
+		tif->err = -2;
+	}
+
+	tif->strip++;
+	tif->rows += band->h;
+
+	return tif->err;
+}
+
+/**
+ * Finish a TIF image and free the stream.
+ * Fails if fewer rows than announced were written.
+ */
+int jni_tif_end(jni_tif_stream *tif)
+{
+	int rc = tif->err;
+
+	if (rc == 0 && tif->rows != tif->h)
+	{
+		rc = -2;
+	}
+
+	TIFFClose(tif->image);
+	jni_free_bilevel(tif->bilevel);
+	jni_pool_free(tif->trgbuf);
+	jni_pool_free(tif);
+
+	return rc;
+}
+
+/**
+ * Multi-page TIF file
+ *
+ * The file is opened once and every page is added as a new image
+ * directory, so adding a page does not depend on the number of pages
+ * already written. Pages are converted to TIF samples apart from
+ * being added, so they can be converted on many threads at once and
+ * then added in order.
+ */
+struct jni_tif_file_s
+{
+	TIFF *image;
+	int pages;
+	int err;
+};
+
+/**
+ * Get size of the samples of a page converted by jni_tif_pack_page()
+ */
+size_t jni_tif_page_size(int w, int h, int n, int compression, int color)
+{
+	jni_tif_layout l;
+	jni_tif_get_layout(w, h, n, compression, color, &l);
+	return l.size;
+}
+
+/**
+ * Convert a page to TIF samples.
+ * The target must hold jni_tif_page_size() bytes.
+ */
+int jni_tif_pack_page(fz_context *ctx, fz_pixmap *pix, int compression, int color, unsigned char *trgbuf)
+{
+	jni_tif_layout l;
+	jni_tif_get_layout(pix->w, pix->h, pix->n, compression, color, &l);
+	return jni_tif_pack(ctx, pix, color, l.ccitt, trgbuf);
+}
+
+/**
+ * Open a multi-page TIF file.
+ * Pages are added after the existing ones when append is set.
+ * Returns NULL upon failure.
+ */
+jni_tif_file * jni_tif_open_file(const char *file, int append)
+{
+	jni_tif_file *tif = jni_pool_alloc(sizeof(jni_tif_file));
+
+	if (!tif)
+	{
+		return NULL;
+	}
+
+	memset(tif, 0, sizeof(jni_tif_file));
+
+	TIFFSetWarningHandler(NULL);
+	TIFFSetErrorHandler(NULL);
+
+	tif->image = TIFF_OPEN(file, append ? "a" : "w");
+
+	if (!tif->image)
+	{
+		jni_pool_free(tif);
+		return NULL;
 	}
 
-	fz_free(ctx, trgbuf);
+	return tif;
+}
+
+/**
+ * Add a page converted by jni_tif_pack_page() as the next image of a TIF file
+ */
+int jni_tif_add_page(jni_tif_file *tif, unsigned char *samples, int w, int h, int n, float zoom, int compression, int color, int quality)
+{
+	jni_tif_layout l;
+
+	if (tif->err != 0)
+	{
+		return tif->err;
+	}
+
+	jni_tif_get_layout(w, h, n, compression, color, &l);
+
+	set_tif_tags(tif->image, quality, compression, l.photometric, jni_resolution(zoom),
+				 l.bitspersample, l.samplesperpixel, w, h, h);
+
+	if (TIFFWriteEncodedStrip(tif->image, 0, samples, l.size) < 0 || !TIFFWriteDirectory(tif->image))
+	{
+		tif->err = -2;
+		return tif->err;
+	}
+
+	tif->pages++;
+
+	return 0;
+}
+
+/**
+ * Close a TIF file and free its resources
+ */
+int jni_tif_close_file(jni_tif_file *tif)
+{
+	int rc = tif->err;
+
+	TIFFClose(tif->image);
+	jni_pool_free(tif);
 
 	return rc;
 }
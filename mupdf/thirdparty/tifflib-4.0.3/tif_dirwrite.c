@@ -222,6 +222,9 @@ TIFFRewriteDirectory( TIFF *tif )
 	if( tif->tif_diroff == 0 )
 		return TIFFWriteDirectory( tif );
 
+	/* The directory may be the last one, find it again when linking. */
+	tif->tif_lastdiroff = 0;
+
 	/*
 	 * Find and zero the pointer to this directory, so that TIFFLinkDirectory
 	 * will cause it to be added after this directories current pre-link.
@@ -2441,12 +2444,16 @@ TIFFLinkDirectory(TIFF* tif)
 					     "Error writing TIFF header");
 				return (0);
 			}
+			tif->tif_lastdiroff = tif->tif_diroff;
 			return (1);
 		}
 		/*
 		 * Not the first directory, search to the last and append.
+		 * Start from the last directory written, if known, so adding
+		 * many directories does not walk the whole chain every time.
 		 */
-		nextdir = tif->tif_header.classic.tiff_diroff;
+		nextdir = tif->tif_lastdiroff ? (uint32) tif->tif_lastdiroff :
+		    tif->tif_header.classic.tiff_diroff;
 		while(1) {
 			uint16 dircount;
 			uint32 nextnextdir;
@@ -2477,6 +2484,7 @@ TIFFLinkDirectory(TIFF* tif)
 					     "Error writing directory link");
 					return (0);
 				}
+				tif->tif_lastdiroff = tif->tif_diroff;
 				break;
 			}
 			nextdir=nextnextdir;
@@ -2500,12 +2508,15 @@ TIFFLinkDirectory(TIFF* tif)
 					     "Error writing TIFF header");
 				return (0);
 			}
+			tif->tif_lastdiroff = tif->tif_diroff;
 			return (1);
 		}
 		/*
 		 * Not the first directory, search to the last and append.
+		 * Start from the last directory written, if known.
 		 */
-		nextdir = tif->tif_header.big.tiff_diroff;
+		nextdir = tif->tif_lastdiroff ? tif->tif_lastdiroff :
+		    tif->tif_header.big.tiff_diroff;
 		while(1) {
 			uint64 dircount64;
 			uint16 dircount;
@@ -2544,6 +2555,7 @@ TIFFLinkDirectory(TIFF* tif)
 					     "Error writing directory link");
 					return (0);
 				}
+				tif->tif_lastdiroff = tif->tif_diroff;
 				break;
 			}
 			nextdir=nextnextdir;
@@ -124,6 +124,7 @@ struct tiff {
         #define TIFF_BUFFERMMAP 0x800000 /* read buffer (tif_rawdata) points into mmap() memory */
 	uint64               tif_diroff;       /* file offset of current directory */
 	uint64               tif_nextdiroff;   /* file offset of following directory */
+	uint64               tif_lastdiroff;   /* file offset of last directory written, 0 if unknown */
 	uint64*              tif_dirlist;      /* list of offsets to already seen directories to prevent IFD looping */
 	uint16               tif_dirlistsize;  /* number of entires in offset list */
 	uint16               tif_dirnumber;    /* number of already seen directories */